@@ -0,0 +1,39 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.suning.snfddal.api;
+
+import java.util.concurrent.Future;
+
+/**
+ * The future result of an asynchronous statement, that calls back when the
+ * statement is done, so that no thread has to wait for it.
+ *
+ * @param <T> the type of the result
+ */
+public interface ListenableFuture<T> extends Future<T> {
+
+    /**
+     * Add a listener that is run once the statement is done, succeeded,
+     * failed or cancelled. It is run on the executor of the statement; if the
+     * statement is already done, it is submitted to the executor at once.
+     * The listeners are not run in a given order. If the executor rejects a
+     * listener, it is run by the thread that completes the statement.
+     *
+     * @param listener the listener
+     */
+    void addListener(Runnable listener);
+
+}
@@ -7,6 +7,7 @@ package com.suning.snfddal.command;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.List;
 
 import com.suning.snfddal.api.ErrorCode;
 import com.suning.snfddal.command.expression.ParameterInterface;
@@ -16,6 +17,7 @@ import com.suning.snfddal.engine.Session;
 import com.suning.snfddal.message.DbException;
 import com.suning.snfddal.message.Trace;
 import com.suning.snfddal.result.ResultInterface;
+import com.suning.snfddal.value.Value;
 
 /**
  * Represents a SQL statement. This object is only used on the server side.
@@ -252,6 +254,48 @@ public abstract class Command implements CommandInterface {
         }
     }
 
+    @Override
+    public boolean isBatchable() {
+        return false;
+    }
+
+    /**
+     * Execute the statement once for each parameter set of a batch, if this
+     * is possible.
+     *
+     * @param batchParameters the parameter sets
+     * @param errors the list to add the errors of the failed rows to
+     * @return the update counts
+     * @throws DbException if the command can not execute a batch
+     */
+    public int[] updateBatch(List<Value[]> batchParameters, List<DbException> errors) {
+        throw DbException.get(ErrorCode.METHOD_NOT_ALLOWED_FOR_QUERY);
+    }
+
+    @Override
+    public int[] executeBatchUpdate(List<Value[]> batchParameters, List<DbException> errors) {
+        Database database = session.getDatabase();
+        boolean callStop = true;
+        synchronized (session) {
+            session.setCurrentCommand(this);
+            try {
+                return updateBatch(batchParameters, errors);
+            } catch (DbException e) {
+                throw e.addSQL(sql);
+            } catch (OutOfMemoryError e) {
+                callStop = false;
+                database.shutdownImmediately();
+                throw DbException.convert(e);
+            } catch (Throwable e) {
+                throw DbException.convert(e).addSQL(sql);
+            } finally {
+                if (callStop) {
+                    stop();
+                }
+            }
+        }
+    }
+
     @Override
     public void close() {
         canReuse = true;
@@ -260,6 +304,7 @@ public abstract class Command implements CommandInterface {
     @Override
     public void cancel() {
         this.cancel = true;
+        session.cancelShardStatements();
     }
 
     @Override
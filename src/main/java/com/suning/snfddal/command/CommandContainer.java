@@ -6,9 +6,11 @@
 package com.suning.snfddal.command;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import com.suning.snfddal.command.expression.Parameter;
 import com.suning.snfddal.command.expression.ParameterInterface;
+import com.suning.snfddal.message.DbException;
 import com.suning.snfddal.result.ResultInterface;
 import com.suning.snfddal.value.Value;
 import com.suning.snfddal.value.ValueNull;
@@ -75,6 +77,21 @@ class CommandContainer extends Command {
         return updateCount;
     }
 
+    @Override
+    public boolean isBatchable() {
+        return prepared.isBatchable();
+    }
+
+    @Override
+    public int[] updateBatch(List<Value[]> batchParameters, List<DbException> errors) {
+        recompileIfRequired();
+        start();
+        session.setLastScopeIdentity(ValueNull.INSTANCE);
+        int[] updateCounts = prepared.updateBatch(batchParameters, errors);
+        prepared.trace(startTime, updateCounts.length);
+        return updateCounts;
+    }
+
     @Override
     public ResultInterface query(int maxrows) {
         recompileIfRequired();
@@ -6,9 +6,12 @@
 package com.suning.snfddal.command;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import com.suning.snfddal.command.expression.ParameterInterface;
+import com.suning.snfddal.message.DbException;
 import com.suning.snfddal.result.ResultInterface;
+import com.suning.snfddal.value.Value;
 
 /**
  * Represents a SQL statement.
@@ -489,6 +492,24 @@ public interface CommandInterface {
      */
     int executeUpdate();
 
+    /**
+     * Check if the statement can execute a batch at once.
+     *
+     * @return true if it can
+     */
+    boolean isBatchable();
+
+    /**
+     * Execute the statement once for each parameter set of a batch. The
+     * failed rows do not stop the batch, their update count is
+     * Statement.EXECUTE_FAILED and their error is added to the list.
+     *
+     * @param batchParameters the parameter sets
+     * @param errors the list to add the errors of the failed rows to
+     * @return the update counts
+     */
+    int[] executeBatchUpdate(List<Value[]> batchParameters, List<DbException> errors);
+
     /**
      * Close the statement.
      */
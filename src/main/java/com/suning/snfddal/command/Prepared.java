@@ -6,6 +6,7 @@
 package com.suning.snfddal.command;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import com.suning.snfddal.api.ErrorCode;
 import com.suning.snfddal.command.expression.Expression;
@@ -171,6 +172,29 @@ public abstract class Prepared {
         throw DbException.get(ErrorCode.METHOD_NOT_ALLOWED_FOR_QUERY);
     }
 
+    /**
+     * Check if the statement can execute a batch at once, see
+     * {@link #updateBatch(List, List)}.
+     *
+     * @return true if it can
+     */
+    public boolean isBatchable() {
+        return false;
+    }
+
+    /**
+     * Execute the statement once for each parameter set of a batch, sending
+     * the rows to the shards together instead of one statement at a time.
+     *
+     * @param batchParameters the parameter sets
+     * @param errors the list to add the errors of the failed rows to
+     * @return the update counts, Statement.EXECUTE_FAILED for a failed row
+     * @throws DbException if the statement can not execute a batch
+     */
+    public int[] updateBatch(List<Value[]> batchParameters, List<DbException> errors) {
+        throw DbException.throwInternalError();
+    }
+
     /**
      * Execute the query.
      *
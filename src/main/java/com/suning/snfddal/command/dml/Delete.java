@@ -9,7 +9,10 @@ import com.suning.snfddal.api.Trigger;
 import com.suning.snfddal.command.CommandInterface;
 import com.suning.snfddal.command.Prepared;
 import com.suning.snfddal.command.expression.Expression;
+import com.suning.snfddal.command.expression.ExpressionVisitor;
 import com.suning.snfddal.dbobject.Right;
+import com.suning.snfddal.dbobject.index.MappedIndex;
+import com.suning.snfddal.dbobject.table.MappedTable;
 import com.suning.snfddal.dbobject.table.PlanItem;
 import com.suning.snfddal.dbobject.table.Table;
 import com.suning.snfddal.dbobject.table.TableFilter;
@@ -36,6 +39,11 @@ public class Delete extends Prepared {
      */
     private Expression limitExpr;
 
+    /**
+     * Whether the statement is run by the tables of the shards.
+     */
+    private boolean isPushedDown;
+
     public Delete(Session session) {
         super(session);
     }
@@ -50,7 +58,22 @@ public class Delete extends Prepared {
     
     @Override
     public int update() {
-        throw DbException.getUnsupportedException("TODO");
+        return isPushedDown ? deleteShardRows() : deleteRows();
+    }
+
+    /**
+     * Delete the rows with one DELETE statement per table of the shards.
+     *
+     * @return the update count
+     */
+    private int deleteShardRows() {
+        Table table = tableFilter.getTable();
+        session.getUser().checkRight(table, Right.DELETE);
+        table.fire(session, Trigger.DELETE, true);
+        table.lock(session, true, false);
+        int count = ((MappedIndex) tableFilter.getIndex()).delete(tableFilter);
+        table.fire(session, Trigger.DELETE, false);
+        return count;
     }
 
     public int deleteRows() {
@@ -136,6 +159,15 @@ public class Delete extends Prepared {
         PlanItem item = tableFilter.getBestPlanItem(session, 1);
         tableFilter.setPlanItem(item);
         tableFilter.prepare();
+        isPushedDown = tableFilter.getTable() instanceof MappedTable &&
+                tableFilter.getIndex() instanceof MappedIndex &&
+                limitExpr == null && !tableFilter.getTable().fireRow() &&
+                (condition == null || condition.isEverything(
+                        ExpressionVisitor.DETERMINISTIC_VISITOR));
+        if (isPushedDown && condition != null) {
+            // the condition is the WHERE clause of the shards
+            tableFilter.addFilterCondition(condition, false);
+        }
     }
 
     @Override
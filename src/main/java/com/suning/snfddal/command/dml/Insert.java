@@ -5,8 +5,10 @@
  */
 package com.suning.snfddal.command.dml;
 
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 import com.suning.snfddal.api.ErrorCode;
 import com.suning.snfddal.command.Command;
@@ -20,6 +22,7 @@ import com.suning.snfddal.command.expression.Parameter;
 import com.suning.snfddal.dbobject.Right;
 import com.suning.snfddal.dbobject.index.Index;
 import com.suning.snfddal.dbobject.table.Column;
+import com.suning.snfddal.dbobject.table.MappedTable;
 import com.suning.snfddal.dbobject.table.Table;
 import com.suning.snfddal.engine.Session;
 import com.suning.snfddal.message.DbException;
@@ -50,6 +53,12 @@ public class Insert extends Prepared implements ResultTarget {
      */
     private HashMap<Column, Expression> duplicateKeyAssignmentMap;
 
+    /**
+     * The rows not sent to the mapped table yet, or null if the rows are
+     * added one at a time.
+     */
+    private ArrayList<Row> pendingRows;
+
     public Insert(Session session) {
         super(session);
     }
@@ -112,29 +121,32 @@ public class Insert extends Prepared implements ResultTarget {
         //table.fire(session, Trigger.INSERT, true);
         rowNumber = 0;
         int listSize = list.size();
+        if (table instanceof MappedTable && duplicateKeyAssignmentMap == null &&
+                (listSize > 1 || query != null)) {
+            // the rows are sent to the tables of the shards together
+            pendingRows = New.arrayList();
+        }
+        try {
+            insertAll(listSize);
+            flushRows();
+        } finally {
+            pendingRows = null;
+        }
+        //table.fire(session, Trigger.INSERT, false);
+        return rowNumber;
+    }
+
+    private void insertAll(int listSize) {
         if (listSize > 0) {
-            int columnLen = columns.length;
             for (int x = 0; x < listSize; x++) {
                 //session.startStatementWithinTransaction();
-                Row newRow = table.getTemplateRow();
-                Expression[] expr = list.get(x);
                 setCurrentRowNumber(x + 1);
-                for (int i = 0; i < columnLen; i++) {
-                    Column c = columns[i];
-                    int index = c.getColumnId();
-                    Expression e = expr[i];
-                    if (e != null) {
-                        // e can be null (DEFAULT)
-                        e = e.optimize(session);
-                        try {
-                            Value v = c.convert(e.getValue(session));
-                            newRow.setValue(index, v);
-                        } catch (DbException ex) {
-                            throw setRow(ex, x, getSQL(expr));
-                        }
-                    }
-                }
+                Row newRow = createRow(x, x);
                 rowNumber++;
+                if (pendingRows != null) {
+                    pendingRows.add(newRow);
+                    continue;
+                }
                 //table.validateConvertUpdateSequence(session, newRow);
                 //boolean done = table.fireBeforeRow(session, null, newRow);
                 //if (!done) {}
@@ -160,8 +172,83 @@ public class Insert extends Prepared implements ResultTarget {
                 rows.close();
             }
         }
-        //table.fire(session, Trigger.INSERT, false);
-        return rowNumber;
+    }
+
+    private void flushRows() {
+        if (pendingRows != null && !pendingRows.isEmpty()) {
+            ((MappedTable) table).addRows(session, pendingRows);
+            pendingRows.clear();
+        }
+    }
+
+    /**
+     * Create the row of an expression list of the VALUES clause.
+     *
+     * @param x the index of the expression list
+     * @param rowId the row number reported in an error
+     * @return the row
+     */
+    private Row createRow(int x, int rowId) {
+        Row newRow = table.getTemplateRow();
+        Expression[] expr = list.get(x);
+        for (int i = 0, columnLen = columns.length; i < columnLen; i++) {
+            Column c = columns[i];
+            int index = c.getColumnId();
+            Expression e = expr[i];
+            if (e != null) {
+                // e can be null (DEFAULT)
+                e = e.optimize(session);
+                try {
+                    Value v = c.convert(e.getValue(session));
+                    newRow.setValue(index, v);
+                } catch (DbException ex) {
+                    throw setRow(ex, rowId, getSQL(expr));
+                }
+            }
+        }
+        return newRow;
+    }
+
+    @Override
+    public boolean isBatchable() {
+        // the rows of a broadcast table are written to all copies at once
+        return table instanceof MappedTable && query == null && list.size() == 1 &&
+                duplicateKeyAssignmentMap == null && !((MappedTable) table).isBroadcast();
+    }
+
+    @Override
+    public int[] updateBatch(List<Value[]> batchParameters, List<DbException> errors) {
+        session.getUser().checkRight(table, Right.INSERT);
+        setCurrentRowNumber(0);
+        rowNumber = 0;
+        int size = batchParameters.size();
+        int[] result = new int[size];
+        ArrayList<Row> rows = New.arrayList(size);
+        int[] positions = new int[size];
+        for (int x = 0; x < size; x++) {
+            Value[] set = batchParameters.get(x);
+            for (int i = 0; i < set.length; i++) {
+                parameters.get(i).setValue(set[i]);
+            }
+            setCurrentRowNumber(x + 1);
+            try {
+                checkParameters();
+                Row newRow = createRow(0, x);
+                positions[rows.size()] = x;
+                rows.add(newRow);
+            } catch (DbException e) {
+                result[x] = Statement.EXECUTE_FAILED;
+                errors.add(e);
+            }
+        }
+        int[] updateCounts = ((MappedTable) table).addRows(session, rows, errors);
+        for (int i = 0; i < updateCounts.length; i++) {
+            result[positions[i]] = updateCounts[i];
+            if (updateCounts[i] != Statement.EXECUTE_FAILED) {
+                rowNumber++;
+            }
+        }
+        return result;
     }
 
     @Override
@@ -180,6 +267,13 @@ public class Insert extends Prepared implements ResultTarget {
         }
         //table.validateConvertUpdateSequence(session, newRow);
         //boolean done = table.fireBeforeRow(session, null, newRow);
+        if (pendingRows != null) {
+            pendingRows.add(newRow);
+            if (pendingRows.size() >= session.getDatabase().getSettings().shardInsertBufferRows) {
+                flushRows();
+            }
+            return;
+        }
         table.addRow(session, newRow);
         //if (!done) {
             //table.fireAfterRow(session, null, newRow, false);
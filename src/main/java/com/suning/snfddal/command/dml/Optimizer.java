@@ -238,6 +238,30 @@ class Optimizer {
             PlanItem item = bestPlan.getItem(f);
             f.setPlanItem(item);
         }
+        chooseHashJoins(f2);
+    }
+
+    /**
+     * Use a hash join for each table that is estimated to have fewer rows
+     * than the tables before it, so that its rows are read once, instead of
+     * for each batch of the rows before it. The estimates need the configured
+     * number of rows of the tables, without them the join is batched.
+     *
+     * @param f2 the tables in the order of the plan
+     */
+    private void chooseHashJoins(TableFilter[] f2) {
+        if (!session.getDatabase().getSettings().shardHashJoin) {
+            return;
+        }
+        double outerRows = f2[0].getRowCountEstimate();
+        for (int i = 1; i < f2.length; i++) {
+            double rows = f2[i].getRowCountEstimate();
+            boolean known = rows >= 0 && outerRows >= 0;
+            f2[i].setHashJoin(known && rows < outerRows);
+            // an equality join is estimated to have as many rows as the
+            // larger of the tables
+            outerRows = known ? Math.max(outerRows, rows) : -1;
+        }
     }
 
     public TableFilter getTopFilter() {
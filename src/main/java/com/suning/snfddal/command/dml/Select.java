@@ -13,6 +13,7 @@ import java.util.HashSet;
 import com.suning.snfddal.api.ErrorCode;
 import com.suning.snfddal.api.Trigger;
 import com.suning.snfddal.command.CommandInterface;
+import com.suning.snfddal.command.expression.Aggregate;
 import com.suning.snfddal.command.expression.Comparison;
 import com.suning.snfddal.command.expression.ConditionAndOr;
 import com.suning.snfddal.command.expression.Expression;
@@ -23,9 +24,11 @@ import com.suning.snfddal.command.expression.Wildcard;
 import com.suning.snfddal.dbobject.index.Cursor;
 import com.suning.snfddal.dbobject.index.Index;
 import com.suning.snfddal.dbobject.index.IndexType;
+import com.suning.snfddal.dbobject.index.MappedIndex;
 import com.suning.snfddal.dbobject.table.Column;
 import com.suning.snfddal.dbobject.table.ColumnResolver;
 import com.suning.snfddal.dbobject.table.IndexColumn;
+import com.suning.snfddal.dbobject.table.MappedTable;
 import com.suning.snfddal.dbobject.table.Table;
 import com.suning.snfddal.dbobject.table.TableFilter;
 import com.suning.snfddal.engine.Constants;
@@ -39,6 +42,8 @@ import com.suning.snfddal.result.ResultTarget;
 import com.suning.snfddal.result.Row;
 import com.suning.snfddal.result.SearchRow;
 import com.suning.snfddal.result.SortOrder;
+import com.suning.snfddal.route.rule.RuleColumn;
+import com.suning.snfddal.route.rule.TableRouter;
 import com.suning.snfddal.util.New;
 import com.suning.snfddal.util.StatementBuilder;
 import com.suning.snfddal.util.StringUtils;
@@ -82,7 +87,13 @@ public class Select extends Query {
     private boolean isPrepared, checkInit;
     private boolean sortUsingIndex;
     private SortOrder sort;
+    private SortOrder shardSortOrder;
+    private boolean isLimitPushedDown;
+    private long shardRowLimit = -1;
     private int currentGroupRowId;
+    private HashSet<Column> referencedColumns;
+    private boolean isPartialAggregateQuery, isPartialGroupDisjoint;
+    private ArrayList<Aggregate> partialAggregates;
 
     public Select(Session session) {
         super(session);
@@ -360,31 +371,117 @@ public class Select extends Query {
                 }
             }
         }
+        addGroupRows(groups, columnCount, result);
+    }
+
+    /**
+     * Compute the aggregates on the shards of the mapped table, one row of
+     * group keys and partial aggregates per group and table, and merge the
+     * partial aggregates of each group here. If the groups of the tables are
+     * disjoint, every row is a complete group and is not merged.
+     */
+    private void queryGroupMerged(int columnCount, LocalResult result) {
+        ValueHashMap<HashMap<Expression, Object>> groups =
+                ValueHashMap.newInstance();
+        ValueArray defaultGroup = ValueArray.get(new Value[0]);
+        ArrayList<Value> params = New.arrayList();
+        StatementBuilder buff = new StatementBuilder();
+        int keyCount = groupIndex == null ? 0 : groupIndex.length;
+        int[] offsets = new int[partialAggregates.size()];
+        ArrayList<Integer> types = New.arrayList();
+        String groupBy = null;
+        ArrayList<Value> groupParams = null;
+        if (keyCount > 0) {
+            StatementBuilder groupBuff = new StatementBuilder();
+            groupParams = New.arrayList();
+            for (int idx : groupIndex) {
+                Expression expr = expressions.get(idx).getNonAliasExpression();
+                buff.appendExceptFirst(", ");
+                buff.append(expr.exportParameters(topTableFilter, params));
+                groupBuff.appendExceptFirst(", ");
+                groupBuff.append(expr.exportParameters(topTableFilter, groupParams));
+                types.add(expr.getType());
+            }
+            groupBy = groupBuff.toString();
+        }
+        for (int i = 0; i < offsets.length; i++) {
+            Aggregate aggregate = partialAggregates.get(i);
+            buff.appendExceptFirst(", ");
+            buff.append(aggregate.exportPartials(topTableFilter, params));
+            offsets[i] = types.size();
+            for (int type : aggregate.getPartialTypes()) {
+                types.add(type);
+            }
+        }
+        int[] partialTypes = new int[types.size()];
+        for (int i = 0; i < partialTypes.length; i++) {
+            partialTypes[i] = types.get(i);
+        }
+        MappedIndex index = (MappedIndex) topTableFilter.getIndex();
+        Cursor cursor = index.find(topTableFilter, buff.toString(), params,
+                groupBy, groupParams, partialTypes);
+        currentGroup = null;
+        while (cursor.next()) {
+            SearchRow partials = cursor.getSearchRow();
+            Value[] keyValues = new Value[keyCount];
+            for (int i = 0; i < keyCount; i++) {
+                keyValues[i] = partials.getValue(i);
+            }
+            HashMap<Expression, Object> values;
+            if (isPartialGroupDisjoint && keyCount > 0) {
+                values = new HashMap<Expression, Object>();
+            } else {
+                Value key = keyCount == 0 ? defaultGroup : ValueArray.get(keyValues);
+                values = groups.get(key);
+                if (values == null) {
+                    values = new HashMap<Expression, Object>();
+                    groups.put(key, values);
+                }
+            }
+            currentGroup = values;
+            for (int i = 0; i < offsets.length; i++) {
+                partialAggregates.get(i).mergePartials(session, partials, offsets[i]);
+            }
+            if (isPartialGroupDisjoint && keyCount > 0) {
+                // no other table has rows of this group
+                addGroupRow(keyValues, columnCount, result);
+            }
+        }
+        addGroupRows(groups, columnCount, result);
+    }
+
+    private void addGroupRows(ValueHashMap<HashMap<Expression, Object>> groups,
+            int columnCount, LocalResult result) {
         if (groupIndex == null && groups.size() == 0) {
+            ValueArray defaultGroup = ValueArray.get(new Value[0]);
             groups.put(defaultGroup, new HashMap<Expression, Object>());
         }
         ArrayList<Value> keys = groups.keys();
         for (Value v : keys) {
             ValueArray key = (ValueArray) v;
             currentGroup = groups.get(key);
-            Value[] keyValues = key.getList();
-            Value[] row = new Value[columnCount];
-            for (int j = 0; groupIndex != null && j < groupIndex.length; j++) {
-                row[groupIndex[j]] = keyValues[j];
-            }
-            for (int j = 0; j < columnCount; j++) {
-                if (groupByExpression != null && groupByExpression[j]) {
-                    continue;
-                }
-                Expression expr = expressions.get(j);
-                row[j] = expr.getValue(session);
-            }
-            if (isHavingNullOrFalse(row)) {
+            addGroupRow(key.getList(), columnCount, result);
+        }
+    }
+
+    private void addGroupRow(Value[] keyValues, int columnCount,
+            LocalResult result) {
+        Value[] row = new Value[columnCount];
+        for (int j = 0; groupIndex != null && j < groupIndex.length; j++) {
+            row[groupIndex[j]] = keyValues[j];
+        }
+        for (int j = 0; j < columnCount; j++) {
+            if (groupByExpression != null && groupByExpression[j]) {
                 continue;
             }
-            row = keepOnlyDistinct(row, columnCount);
-            result.addRow(row);
+            Expression expr = expressions.get(j);
+            row[j] = expr.getValue(session);
         }
+        if (isHavingNullOrFalse(row)) {
+            return;
+        }
+        row = keepOnlyDistinct(row, columnCount);
+        result.addRow(row);
     }
 
     /**
@@ -552,6 +649,8 @@ public class Select extends Query {
                 }
             }
         }
+        // the shards of a mapped table may still have rows to send
+        topTableFilter.closeCursor();
         if (isForUpdateMvcc) {
             topTableFilter.lockRows(forUpdateRows);
         }
@@ -609,6 +708,17 @@ public class Select extends Query {
         if (limitRows >= 0 || offsetExpr != null) {
             result = createLocalResult(result);
         }
+        long topRows = -1;
+        if (limitRows > 0) {
+            topRows = limitRows;
+            if (offsetExpr != null) {
+                topRows += Math.max(0, offsetExpr.getValue(session).getInt());
+            }
+            if (topRows <= Integer.MAX_VALUE) {
+                result.setTopRowCount((int) topRows);
+            }
+        }
+        shardRowLimit = isLimitPushedDown ? topRows : -1;
         topTableFilter.startQuery(session);
         topTableFilter.reset();
         boolean exclusive = isForUpdate && !isForUpdateMvcc;
@@ -633,7 +743,9 @@ public class Select extends Query {
             if (isQuickAggregateQuery) {
                 queryQuick(columnCount, to);
             } else if (isGroupQuery) {
-                if (isGroupSortedQuery) {
+                if (isPartialAggregateQuery) {
+                    queryGroupMerged(columnCount, result);
+                } else if (isGroupSortedQuery) {
                     queryGroupSorted(columnCount, to);
                 } else {
                     queryGroup(columnCount, result);
@@ -858,6 +970,13 @@ public class Select extends Query {
             }
         }
         cost = preparePlan();
+        if (isGroupQuery && !isForUpdate) {
+            isPartialAggregateQuery = preparePartialAggregates();
+            if (isPartialAggregateQuery) {
+                // the row count of a mapped table is not known here
+                isQuickAggregateQuery = false;
+            }
+        }
         if (distinct && session.getDatabase().getSettings().optimizeDistinct &&
                 !isGroupQuery && filters.size() == 1 &&
                 expressions.size() == 1 && condition == null) {
@@ -924,8 +1043,27 @@ public class Select extends Query {
                 }
             }
         }
-        if (!isQuickAggregateQuery && isGroupQuery &&
-                getGroupByExpressionCount() > 0) {
+        if (sort != null && !sortUsingIndex && !isQuickAggregateQuery &&
+                !isGroupQuery && filters.size() == 1 &&
+                topTableFilter.getIndex() instanceof MappedIndex) {
+            shardSortOrder = prepareShardSortOrder();
+            if (shardSortOrder != null) {
+                // the shards sort the rows, the cursor merges them in order
+                sortUsingIndex = true;
+            }
+        }
+        if (!isQuickAggregateQuery && !isGroupQuery && !distinct &&
+                filters.size() == 1 &&
+                topTableFilter.getIndex() instanceof MappedIndex &&
+                (sort == null || shardSortOrder != null) &&
+                (condition == null || condition.isEverything(
+                        ExpressionVisitor.DETERMINISTIC_VISITOR)) &&
+                isConditionOnShards()) {
+            // the first rows of the shards hold the first rows of the query
+            isLimitPushedDown = true;
+        }
+        if (!isQuickAggregateQuery && !isPartialAggregateQuery &&
+                isGroupQuery && getGroupByExpressionCount() > 0) {
             Index index = getGroupSortedIndex();
             Index current = topTableFilter.getIndex();
             if (index != null && (current.getIndexType().isScan() ||
@@ -934,11 +1072,143 @@ public class Select extends Query {
                 isGroupSortedQuery = true;
             }
         }
+        if (filters.size() > 1) {
+            ArrayList<TableFilter> joined = prepareShardJoin();
+            if (joined != null) {
+                // the shards run the join, the top filter reads the rows
+                topTableFilter.setShardJoin(joined);
+            }
+        }
         expressionArray = new Expression[expressions.size()];
         expressions.toArray(expressionArray);
         isPrepared = true;
     }
 
+    /**
+     * Get the joined filters if the shards can run the join: the tables are
+     * mapped tables with the same table router, inner joined on all of the
+     * rule columns, so that the rows that match are in the tables of the
+     * same position of a shard, and broadcast tables, that have a copy in
+     * every shard. A join of broadcast tables only is run by one shard.
+     *
+     * @return the filters joined to the top filter, or null
+     */
+    private ArrayList<TableFilter> prepareShardJoin() {
+        if (topTableFilter.getNestedJoin() != null) {
+            return null;
+        }
+        ArrayList<Expression> conjuncts = New.arrayList();
+        addConjuncts(condition, conjuncts);
+        ArrayList<TableFilter> all = New.arrayList();
+        TableRouter router = null;
+        for (TableFilter f = topTableFilter; f != null; f = f.getJoin()) {
+            if (f != topTableFilter && (f.isJoinOuter() || f.getNestedJoin() != null) ||
+                    !(f.getIndex() instanceof MappedIndex)) {
+                return null;
+            }
+            MappedTable t = (MappedTable) f.getTable();
+            TableRouter r = t.getTableRouter();
+            if (!t.isBroadcast()) {
+                if (r == null || router != null && !router.getId().equals(r.getId())) {
+                    return null;
+                }
+                router = r;
+            }
+            addConjuncts(f.getJoinCondition(), conjuncts);
+            addConjuncts(f.getFilterCondition(), conjuncts);
+            all.add(f);
+        }
+        if (all.size() != filters.size()) {
+            return null;
+        }
+        ArrayList<TableFilter> sharded = New.arrayList();
+        for (TableFilter f : all) {
+            if (((MappedTable) f.getTable()).isBroadcast()) {
+                continue;
+            }
+            for (RuleColumn ruleColumn : router.getRuleColumns()) {
+                if (!sharded.isEmpty() && !isEquiJoined(conjuncts, f, sharded, ruleColumn.getName())) {
+                    return null;
+                }
+            }
+            sharded.add(f);
+        }
+        all.remove(0);
+        return all;
+    }
+
+    /**
+     * Check if a condition joins a column of a filter with the column of
+     * the same name of one of the previous filters.
+     */
+    private static boolean isEquiJoined(ArrayList<Expression> conjuncts, TableFilter filter,
+            ArrayList<TableFilter> previous, String columnName) {
+        for (Expression e : conjuncts) {
+            if (!(e instanceof Comparison) ||
+                    ((Comparison) e).getCompareType() != Comparison.EQUAL) {
+                continue;
+            }
+            Expression l = ((Comparison) e).getExpression(true);
+            Expression r = ((Comparison) e).getExpression(false);
+            if (!(l instanceof ExpressionColumn) || !(r instanceof ExpressionColumn)) {
+                continue;
+            }
+            ExpressionColumn a = (ExpressionColumn) l;
+            ExpressionColumn b = (ExpressionColumn) r;
+            if (!a.getColumnName().equalsIgnoreCase(columnName) ||
+                    !b.getColumnName().equalsIgnoreCase(columnName)) {
+                continue;
+            }
+            if (a.getTableFilter() == filter && previous.contains(b.getTableFilter()) ||
+                    b.getTableFilter() == filter && previous.contains(a.getTableFilter())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if the shards get the whole condition of the query, as the filter
+     * condition of the top table filter. Without the early filter, or for a
+     * part that the filter can't evaluate, the condition is only checked
+     * here.
+     *
+     * @return true if the shards only return rows that match the condition
+     */
+    private boolean isConditionOnShards() {
+        if (condition == null) {
+            return true;
+        }
+        ArrayList<Expression> conjuncts = New.arrayList();
+        addConjuncts(condition, conjuncts);
+        ArrayList<Expression> onShards = New.arrayList();
+        addConjuncts(topTableFilter.getFilterCondition(), onShards);
+        for (Expression e : conjuncts) {
+            boolean found = false;
+            for (Expression s : onShards) {
+                if (s == e) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void addConjuncts(Expression condition, ArrayList<Expression> conjuncts) {
+        if (condition instanceof ConditionAndOr &&
+                ((ConditionAndOr) condition).getAndOrType() == ConditionAndOr.AND) {
+            ConditionAndOr and = (ConditionAndOr) condition;
+            addConjuncts(and.getExpression(true), conjuncts);
+            addConjuncts(and.getExpression(false), conjuncts);
+        } else if (condition != null) {
+            conjuncts.add(condition);
+        }
+    }
+
     @Override
     public double getCost() {
         return cost;
@@ -979,6 +1249,147 @@ public class Select extends Query {
         return planCost;
     }
 
+    /**
+     * Get the sort order that the shards of a mapped table can sort the rows
+     * by in place of this query, if the order by expressions are all columns
+     * of the table. The null ordering of the shards depends on the mode of
+     * the database, and it must match the one of the query if NULLS FIRST or
+     * NULLS LAST is used. Only numeric and date and time columns are sorted
+     * by the shards, the collation of a shard may order strings unlike the
+     * compare mode of this database, and the merge would then lose rows.
+     *
+     * @return the sort order over the column ids of the table, or null
+     */
+    private SortOrder prepareShardSortOrder() {
+        boolean nullsHigh = session.getDatabase().getMode().sortNullsHigh;
+        int[] queryColumnIndexes = sort.getQueryColumnIndexes();
+        int[] sortTypes = sort.getSortTypes();
+        int[] columnIds = new int[queryColumnIndexes.length];
+        int[] shardSortTypes = new int[queryColumnIndexes.length];
+        for (int i = 0; i < queryColumnIndexes.length; i++) {
+            Expression expr = expressions.get(queryColumnIndexes[i]).
+                    getNonAliasExpression();
+            if (!(expr instanceof ExpressionColumn)) {
+                return null;
+            }
+            ExpressionColumn exprCol = (ExpressionColumn) expr;
+            if (exprCol.getTableFilter() != topTableFilter ||
+                    exprCol.getColumn().getColumnId() < 0 ||
+                    !isShardSortable(exprCol.getColumn().getType())) {
+                return null;
+            }
+            int type = sortTypes[i];
+            boolean descending = (type & SortOrder.DESCENDING) != 0;
+            boolean nullsFirst = nullsHigh == descending;
+            if ((type & SortOrder.NULLS_FIRST) != 0 && !nullsFirst ||
+                    (type & SortOrder.NULLS_LAST) != 0 && nullsFirst) {
+                return null;
+            }
+            columnIds[i] = exprCol.getColumn().getColumnId();
+            shardSortTypes[i] = (descending ? SortOrder.DESCENDING : SortOrder.ASCENDING) |
+                    (nullsFirst ? SortOrder.NULLS_FIRST : SortOrder.NULLS_LAST);
+        }
+        return new SortOrder(session.getDatabase(), columnIds, shardSortTypes, null);
+    }
+
+    /**
+     * Check if the shards order the values of the given type as this
+     * database does.
+     *
+     * @param type the value type
+     * @return true if they do
+     */
+    private static boolean isShardSortable(int type) {
+        switch (type) {
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+        case Value.DECIMAL:
+        case Value.DOUBLE:
+        case Value.FLOAT:
+        case Value.DATE:
+        case Value.TIME:
+        case Value.TIMESTAMP:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Get the sort order that the shards sort the rows of the mapped table
+     * by, if the ORDER BY of this query is pushed down.
+     *
+     * @return the sort order over the column ids of the table, or null
+     */
+    public SortOrder getShardSortOrder() {
+        return shardSortOrder;
+    }
+
+    /**
+     * Get the number of rows that the shards of a mapped table need to return
+     * at most for this query, that is the offset plus the limit, if the limit
+     * is pushed down.
+     *
+     * @return the number of rows, or -1 for all the rows
+     */
+    public long getShardRowLimit() {
+        return shardRowLimit;
+    }
+
+    /**
+     * Check if all the aggregates of this query can be computed as partial
+     * aggregates by the shards of a mapped table and be merged here, and
+     * collect them. The conditions of a single table are all pushed down, the
+     * group keys must be deterministic expressions over the columns of the
+     * table.
+     *
+     * @return true if they can
+     */
+    private boolean preparePartialAggregates() {
+        if (filters.size() != 1 ||
+                !(topTableFilter.getIndex() instanceof MappedIndex)) {
+            return false;
+        }
+        ArrayList<Aggregate> aggregates = New.arrayList();
+        ExpressionVisitor visitor = ExpressionVisitor.
+                getPartialAggregateVisitor(aggregates);
+        for (int i = 0, size = expressions.size(); i < size; i++) {
+            if (groupByExpression != null && groupByExpression[i]) {
+                continue;
+            }
+            if (!expressions.get(i).isEverything(visitor)) {
+                return false;
+            }
+        }
+        if (aggregates.isEmpty()) {
+            return false;
+        }
+        Table table = topTableFilter.getTable();
+        HashSet<Column> keyColumns = New.hashSet();
+        for (int i = 0; groupIndex != null && i < groupIndex.length; i++) {
+            Expression key = expressions.get(groupIndex[i]);
+            if (!key.isEverything(ExpressionVisitor.DETERMINISTIC_VISITOR)) {
+                return false;
+            }
+            HashSet<Column> columns = New.hashSet();
+            key.isEverything(ExpressionVisitor.getColumnsVisitor(columns));
+            for (Column column : columns) {
+                if (column.getTable() != table) {
+                    return false;
+                }
+            }
+            if (key.getNonAliasExpression() instanceof ExpressionColumn) {
+                keyColumns.add(((ExpressionColumn) key.getNonAliasExpression()).getColumn());
+            }
+        }
+        // the rows of a group are in one table if grouped by the rule columns
+        isPartialGroupDisjoint = ((MappedTable) table).isPartitionedBy(keyColumns);
+        partialAggregates = aggregates;
+        return true;
+    }
+
     private void setEvaluatableRecursive(TableFilter f) {
         for (; f != null; f = f.getJoin()) {
             f.setEvaluatable(f, true);
@@ -1135,7 +1546,9 @@ public class Select extends Query {
         if (isDistinctQuery) {
             buff.append("\n/* distinct */");
         }
-        if (sortUsingIndex) {
+        if (shardSortOrder != null) {
+            buff.append("\n/* shard sorted */");
+        } else if (sortUsingIndex) {
             buff.append("\n/* index sorted */");
         }
         if (isGroupQuery) {
@@ -1164,6 +1577,42 @@ public class Select extends Query {
         return topTableFilter;
     }
 
+    /**
+     * Check if this is an aggregate query, with or without GROUP BY.
+     *
+     * @return true if it is
+     */
+    public boolean isGroupQuery() {
+        return isGroupQuery;
+    }
+
+    /**
+     * Get the columns read by this query: the columns of the select list, the
+     * order and group keys included, of the conditions and of the join
+     * conditions. The query must be prepared.
+     *
+     * @return the columns, of all the tables of the query
+     */
+    public HashSet<Column> getReferencedColumns() {
+        if (referencedColumns == null) {
+            HashSet<Column> columns = New.hashSet();
+            ExpressionVisitor visitor = ExpressionVisitor.getColumnsVisitor(columns);
+            isEverything(visitor);
+            for (TableFilter f : filters) {
+                Expression on = f.getJoinCondition();
+                if (on != null) {
+                    on.isEverything(visitor);
+                }
+                Expression filterCondition = f.getFilterCondition();
+                if (filterCondition != null) {
+                    filterCondition.isEverything(visitor);
+                }
+            }
+            referencedColumns = columns;
+        }
+        return referencedColumns;
+    }
+
     @Override
     public ArrayList<Expression> getExpressions() {
         return expressions;
@@ -1295,6 +1744,9 @@ public class Select extends Query {
             }
             break;
         }
+        case ExpressionVisitor.PARTIAL_AGGREGATE:
+            // the value of a subquery may depend on the rows of each group
+            return false;
         case ExpressionVisitor.GET_DEPENDENCIES: {
             for (int i = 0, size = filters.size(); i < size; i++) {
                 TableFilter f = filters.get(i);
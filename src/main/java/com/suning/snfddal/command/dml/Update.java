@@ -13,10 +13,13 @@ import com.suning.snfddal.api.Trigger;
 import com.suning.snfddal.command.CommandInterface;
 import com.suning.snfddal.command.Prepared;
 import com.suning.snfddal.command.expression.Expression;
+import com.suning.snfddal.command.expression.ExpressionVisitor;
 import com.suning.snfddal.command.expression.Parameter;
 import com.suning.snfddal.command.expression.ValueExpression;
 import com.suning.snfddal.dbobject.Right;
+import com.suning.snfddal.dbobject.index.MappedIndex;
 import com.suning.snfddal.dbobject.table.Column;
+import com.suning.snfddal.dbobject.table.MappedTable;
 import com.suning.snfddal.dbobject.table.PlanItem;
 import com.suning.snfddal.dbobject.table.Table;
 import com.suning.snfddal.dbobject.table.TableFilter;
@@ -46,6 +49,11 @@ public class Update extends Prepared {
     private final ArrayList<Column> columns = New.arrayList();
     private final HashMap<Column, Expression> expressionMap  = New.hashMap();
 
+    /**
+     * Whether the statement is run by the tables of the shards.
+     */
+    private boolean isPushedDown;
+
     public Update(Session session) {
         super(session);
     }
@@ -78,7 +86,30 @@ public class Update extends Prepared {
     }
     @Override
     public int update() {
-        return updateRows();
+        return isPushedDown ? updateShardRows() : updateRows();
+    }
+
+    /**
+     * Update the rows with one UPDATE statement per table of the shards.
+     *
+     * @return the update count
+     */
+    private int updateShardRows() {
+        Table table = tableFilter.getTable();
+        session.getUser().checkRight(table, Right.UPDATE);
+        table.fire(session, Trigger.UPDATE, true);
+        table.lock(session, true, false);
+        ArrayList<Value> params = New.arrayList();
+        StatementBuilder buff = new StatementBuilder();
+        for (int i = 0, size = columns.size(); i < size; i++) {
+            Column c = columns.get(i);
+            Expression e = expressionMap.get(c);
+            buff.appendExceptFirst(", ");
+            buff.append(c.getSQL()).append(" = ").append(e.exportParameters(tableFilter, params));
+        }
+        int count = ((MappedIndex) tableFilter.getIndex()).update(tableFilter, buff.toString(), params);
+        table.fire(session, Trigger.UPDATE, false);
+        return count;
     }
 
     protected int updateRows() {
@@ -192,6 +223,37 @@ public class Update extends Prepared {
         PlanItem item = tableFilter.getBestPlanItem(session, 1);
         tableFilter.setPlanItem(item);
         tableFilter.prepare();
+        isPushedDown = isPushable();
+        if (isPushedDown && condition != null) {
+            // the condition is the WHERE clause of the shards
+            tableFilter.addFilterCondition(condition, false);
+        }
+    }
+
+    /**
+     * Check if the tables of the shards can run the statement. This is not
+     * possible if a rule column is updated, as the row may have to move to
+     * another table, and for the features only the coordinator has: LIMIT,
+     * row triggers, DEFAULT and non-deterministic expressions.
+     */
+    private boolean isPushable() {
+        Table table = tableFilter.getTable();
+        if (!(table instanceof MappedTable) || !(tableFilter.getIndex() instanceof MappedIndex) ||
+                limitExpr != null || table.fireRow()) {
+            return false;
+        }
+        if (condition != null && !condition.isEverything(ExpressionVisitor.DETERMINISTIC_VISITOR)) {
+            return false;
+        }
+        for (int i = 0, size = columns.size(); i < size; i++) {
+            Column c = columns.get(i);
+            Expression e = expressionMap.get(c);
+            if (((MappedTable) table).isRuleColumn(c) || e == ValueExpression.getDefault() ||
+                    !e.isEverything(ExpressionVisitor.DETERMINISTIC_VISITOR)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
@@ -566,6 +566,23 @@ public class Aggregate extends Expression {
 
     @Override
     public boolean isEverything(ExpressionVisitor visitor) {
+        if (visitor.getType() == ExpressionVisitor.PARTIAL_AGGREGATE) {
+            switch (type) {
+            case COUNT_ALL:
+            case COUNT:
+            case SUM:
+            case MIN:
+            case MAX:
+            case AVG:
+                if (distinct) {
+                    return false;
+                }
+                visitor.addAggregate(this);
+                return true;
+            default:
+                return false;
+            }
+        }
         if (visitor.getType() == ExpressionVisitor.OPTIMIZABLE_MIN_MAX_COUNT_ALL) {
             switch (type) {
             case COUNT:
@@ -606,6 +623,61 @@ public class Aggregate extends Expression {
         return (on == null) ? 1 : on.getCost() + 1;
     }
 
+    /**
+     * Get the value types of the partial aggregates computed on subsets of
+     * the rows: the type of the aggregate itself, or the types of the SUM and
+     * the COUNT for AVG.
+     *
+     * @return the value types
+     */
+    public int[] getPartialTypes() {
+        switch (type) {
+        case COUNT_ALL:
+        case COUNT:
+            return new int[] { Value.LONG };
+        case AVG:
+            return new int[] { DataType.getAddProofType(dataType), Value.LONG };
+        default:
+            return new int[] { dataType };
+        }
+    }
+
+    /**
+     * Export the partial aggregates computed on subsets of the rows, AVG as
+     * SUM and COUNT. See getPartialTypes.
+     *
+     * @param filter the table filter
+     * @param container the list of the parameters
+     * @return the partial aggregates, separated by commas
+     */
+    public String exportPartials(TableFilter filter, List<Value> container) {
+        if (type == AVG) {
+            String sum = "SUM" + StringUtils.enclose(on.exportParameters(filter, container));
+            String count = "COUNT" + StringUtils.enclose(on.exportParameters(filter, container));
+            return sum + ", " + count;
+        }
+        return exportParameters(filter, container);
+    }
+
+    /**
+     * Merge the partial aggregates of a subset of the rows into the current
+     * group.
+     *
+     * @param session the session
+     * @param partials the row that holds the partial aggregates
+     * @param offset the index of the first partial aggregate in the row
+     */
+    public void mergePartials(Session session, SearchRow partials, int offset) {
+        HashMap<Expression, Object> group = select.getCurrentGroup();
+        AggregateDataPartial data = (AggregateDataPartial) group.get(this);
+        if (data == null) {
+            data = new AggregateDataPartial(type);
+            group.put(this, data);
+        }
+        Value rowCount = type == AVG ? partials.getValue(offset + 1) : null;
+        data.merge(session.getDatabase(), dataType, partials.getValue(offset), rowCount);
+    }
+
     /* (non-Javadoc)
      * @see com.suning.snfddal.command.expression.Expression#exportParameters(java.util.List)
      */
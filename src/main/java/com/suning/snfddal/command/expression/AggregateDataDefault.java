@@ -167,7 +167,14 @@ class AggregateDataDefault extends AggregateData {
         return v == null ? ValueNull.INSTANCE : v.convertTo(dataType);
     }
 
-    private static Value divide(Value a, long by) {
+    /**
+     * Divide a sum by a count.
+     *
+     * @param a the sum
+     * @param by the count
+     * @return the quotient, or NULL if the count is 0
+     */
+    static Value divide(Value a, long by) {
         if (by == 0) {
             return ValueNull.INSTANCE;
         }
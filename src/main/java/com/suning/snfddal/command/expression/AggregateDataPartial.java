@@ -0,0 +1,100 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package com.suning.snfddal.command.expression;
+
+import com.suning.snfddal.engine.Database;
+import com.suning.snfddal.message.DbException;
+import com.suning.snfddal.value.DataType;
+import com.suning.snfddal.value.Value;
+import com.suning.snfddal.value.ValueLong;
+import com.suning.snfddal.value.ValueNull;
+
+/**
+ * Data stored while merging the partial aggregates that the shards computed
+ * on their part of the rows: the sum of the counts, the sum of the sums, the
+ * minimum of the minimums, the maximum of the maximums, and for AVG the sum
+ * of the sums divided by the sum of the counts.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+class AggregateDataPartial extends AggregateData {
+
+    private final int aggregateType;
+    private long count;
+    private Value value;
+
+    /**
+     * @param aggregateType the type of the aggregate operation
+     */
+    AggregateDataPartial(int aggregateType) {
+        this.aggregateType = aggregateType;
+    }
+
+    @Override
+    void add(Database database, int dataType, boolean distinct, Value v) {
+        merge(database, dataType, v, null);
+    }
+
+    /**
+     * Merge a partial aggregate.
+     *
+     * @param database the database
+     * @param dataType the datatype of the computed result
+     * @param v the partial aggregate, the partial sum for AVG
+     * @param rowCount the partial count for AVG, null for the others
+     */
+    void merge(Database database, int dataType, Value v, Value rowCount) {
+        if (v == ValueNull.INSTANCE) {
+            // no row, or only NULL values
+            return;
+        }
+        switch (aggregateType) {
+        case Aggregate.COUNT_ALL:
+        case Aggregate.COUNT:
+            count += v.getLong();
+            break;
+        case Aggregate.AVG:
+            count += rowCount.getLong();
+            v = v.convertTo(DataType.getAddProofType(dataType));
+            value = value == null ? v : value.add(v.convertTo(value.getType()));
+            break;
+        case Aggregate.SUM:
+            v = v.convertTo(dataType);
+            value = value == null ? v : value.add(v.convertTo(value.getType()));
+            break;
+        case Aggregate.MIN:
+            if (value == null || database.compare(v, value) < 0) {
+                value = v;
+            }
+            break;
+        case Aggregate.MAX:
+            if (value == null || database.compare(v, value) > 0) {
+                value = v;
+            }
+            break;
+        default:
+            DbException.throwInternalError("type=" + aggregateType);
+        }
+    }
+
+    @Override
+    Value getValue(Database database, int dataType, boolean distinct) {
+        Value v;
+        switch (aggregateType) {
+        case Aggregate.COUNT_ALL:
+        case Aggregate.COUNT:
+            v = ValueLong.get(count);
+            break;
+        case Aggregate.AVG:
+            v = value == null ? null : AggregateDataDefault.divide(value, count);
+            break;
+        default:
+            v = value;
+        }
+        return v == null ? ValueNull.INSTANCE : v.convertTo(dataType);
+    }
+
+}
@@ -297,6 +297,14 @@ public class ConditionAndOr extends Condition {
         return getLeft ? this.left : right;
     }
 
+    /**
+     * Get the type of this condition.
+     *
+     * @return AND or OR
+     */
+    public int getAndOrType() {
+        return andOrType;
+    }
 
     @Override
     public String exportParameters(TableFilter filter,List<Value> container) {
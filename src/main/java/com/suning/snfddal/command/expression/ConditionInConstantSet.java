@@ -128,6 +128,7 @@ public class ConditionInConstantSet extends Condition {
         }
         switch (visitor.getType()) {
         case ExpressionVisitor.OPTIMIZABLE_MIN_MAX_COUNT_ALL:
+        case ExpressionVisitor.PARTIAL_AGGREGATE:
         case ExpressionVisitor.DETERMINISTIC:
         case ExpressionVisitor.READONLY:
         case ExpressionVisitor.INDEPENDENT:
@@ -169,6 +170,15 @@ public class ConditionInConstantSet extends Condition {
         return null;
     }
 
+    /**
+     * Get the expression before IN.
+     *
+     * @return the left expression
+     */
+    public Expression getLeft() {
+        return left;
+    }
+
     @Override
     public String exportParameters(TableFilter filter, List<Value> container) {
         StatementBuilder buff = new StatementBuilder("(");
@@ -267,6 +267,7 @@ public class ExpressionColumn extends Expression {
     public boolean isEverything(ExpressionVisitor visitor) {
         switch (visitor.getType()) {
         case ExpressionVisitor.OPTIMIZABLE_MIN_MAX_COUNT_ALL:
+        case ExpressionVisitor.PARTIAL_AGGREGATE:
             return false;
         case ExpressionVisitor.READONLY:
         case ExpressionVisitor.DETERMINISTIC:
@@ -327,7 +328,7 @@ public class ExpressionColumn extends Expression {
     
     @Override
     public String exportParameters(TableFilter filter,List<Value> container) {
-        if (getTableFilter() == filter) {
+        if (filter.isShardJoinedWith(getTableFilter())) {
             return getSQL();
         }
         Value value = this.getValue(filter.getSession());
@@ -5,6 +5,7 @@
  */
 package com.suning.snfddal.command.expression;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 
 import com.suning.snfddal.dbobject.DbObject;
@@ -106,6 +107,14 @@ public class ExpressionVisitor {
      */
     public static final int EXPORT_PARAMETER = 9;
 
+    /**
+     * Can the expression be computed from partial aggregates of disjoint
+     * subsets of the rows, that means are all aggregates COUNT, SUM, MIN, MAX
+     * or AVG without DISTINCT and all columns within an aggregate? The
+     * aggregates are collected (addAggregate).
+     */
+    public static final int PARTIAL_AGGREGATE = 10;
+
     /**
      * The visitor singleton for the type QUERY_COMPARABLE.
      */
@@ -118,18 +127,29 @@ public class ExpressionVisitor {
     private final HashSet<Column> columns;
     private final Table table;
     private final ColumnResolver resolver;
+    private final ArrayList<Aggregate> aggregates;
 
     private ExpressionVisitor(int type,
             int queryLevel,
             HashSet<DbObject> dependencies,
             HashSet<Column> columns,
             Table table, ColumnResolver resolver) {
+        this(type, queryLevel, dependencies, columns, table, resolver, null);
+    }
+
+    private ExpressionVisitor(int type,
+            int queryLevel,
+            HashSet<DbObject> dependencies,
+            HashSet<Column> columns,
+            Table table, ColumnResolver resolver,
+            ArrayList<Aggregate> aggregates) {
         this.type = type;
         this.queryLevel = queryLevel;
         this.dependencies = dependencies;
         this.columns = columns;
         this.table = table;
         this.resolver = resolver;
+        this.aggregates = aggregates;
     }
 
     private ExpressionVisitor(int type) {
@@ -139,6 +159,7 @@ public class ExpressionVisitor {
         this.columns = null;
         this.table = null;
         this.resolver = null;
+        this.aggregates = null;
     }
 
     /**
@@ -171,7 +192,7 @@ public class ExpressionVisitor {
      * @param resolver the resolver
      * @return the new visitor
      */
-    static ExpressionVisitor getNotFromResolverVisitor(ColumnResolver resolver) {
+    public static ExpressionVisitor getNotFromResolverVisitor(ColumnResolver resolver) {
         return new ExpressionVisitor(NOT_FROM_RESOLVER, 0, null, null, null,
                 resolver);
     }
@@ -186,6 +207,19 @@ public class ExpressionVisitor {
         return new ExpressionVisitor(GET_COLUMNS, 0, null, columns, null, null);
     }
 
+    /**
+     * Create a new visitor to check if an expression can be computed from
+     * partial aggregates, and to collect the aggregates.
+     *
+     * @param aggregates the list of aggregates
+     * @return the new visitor
+     */
+    public static ExpressionVisitor getPartialAggregateVisitor(
+            ArrayList<Aggregate> aggregates) {
+        return new ExpressionVisitor(PARTIAL_AGGREGATE, 0, null, null, null,
+                null, aggregates);
+    }
+
     public static ExpressionVisitor getMaxModificationIdVisitor() {
         return new ExpressionVisitor(SET_MAX_DATA_MODIFICATION_ID, 0, null,
                 null, null, null);
@@ -216,6 +250,18 @@ public class ExpressionVisitor {
         columns.add(column);
     }
 
+    /**
+     * Add an aggregate to the list of aggregates, unless it is already there.
+     * This is used for PARTIAL_AGGREGATE visitors.
+     *
+     * @param aggregate the aggregate
+     */
+    void addAggregate(Aggregate aggregate) {
+        if (!aggregates.contains(aggregate)) {
+            aggregates.add(aggregate);
+        }
+    }
+
     /**
      * Get the dependency set.
      * This is used for GET_DEPENDENCIES visitors.
@@ -234,7 +280,7 @@ public class ExpressionVisitor {
      */
     public ExpressionVisitor incrementQueryLevel(int offset) {
         return new ExpressionVisitor(type, queryLevel + offset, dependencies,
-                columns, table, resolver);
+                columns, table, resolver, aggregates);
     }
 
     /**
@@ -562,6 +562,9 @@ public class Function extends Expression implements FunctionCall {
 
     @Override
     public Value getValue(Session session) {
+        if (!info.deterministic) {
+            session.checkShardRound();
+        }
         return getValueWithArgs(session, args);
     }
 
@@ -2494,6 +2497,7 @@ public class Function extends Expression implements FunctionCall {
         case ExpressionVisitor.INDEPENDENT:
         case ExpressionVisitor.NOT_FROM_RESOLVER:
         case ExpressionVisitor.OPTIMIZABLE_MIN_MAX_COUNT_ALL:
+        case ExpressionVisitor.PARTIAL_AGGREGATE:
         case ExpressionVisitor.SET_MAX_DATA_MODIFICATION_ID:
         case ExpressionVisitor.GET_COLUMNS:
             return true;
@@ -37,6 +37,9 @@ public class JavaFunction extends Expression implements FunctionCall {
 
     @Override
     public Value getValue(Session session) {
+        if (!isDeterministic()) {
+            session.checkShardRound();
+        }
         return javaMethod.getValue(session, args, false);
     }
 
@@ -79,6 +79,7 @@ public class Rownum extends Expression {
         switch(visitor.getType()) {
         case ExpressionVisitor.QUERY_COMPARABLE:
         case ExpressionVisitor.OPTIMIZABLE_MIN_MAX_COUNT_ALL:
+        case ExpressionVisitor.PARTIAL_AGGREGATE:
         case ExpressionVisitor.DETERMINISTIC:
         case ExpressionVisitor.INDEPENDENT:
             return false;
@@ -27,6 +27,7 @@ public class SequenceValue extends Expression {
 
     @Override
     public Value getValue(Session session) {
+        session.checkShardRound();
         long value = sequence.getNext(session);
         session.setLastIdentity(ValueLong.get(value));
         return ValueLong.get(value);
@@ -82,6 +83,7 @@ public class SequenceValue extends Expression {
         switch(visitor.getType()) {
         case ExpressionVisitor.EVALUATABLE:
         case ExpressionVisitor.OPTIMIZABLE_MIN_MAX_COUNT_ALL:
+        case ExpressionVisitor.PARTIAL_AGGREGATE:
         case ExpressionVisitor.NOT_FROM_RESOLVER:
         case ExpressionVisitor.GET_COLUMNS:
             return true;
@@ -25,6 +25,7 @@ import java.util.Set;
 
 import javax.sql.DataSource;
 
+import com.suning.snfddal.route.ShardExecutor;
 import com.suning.snfddal.route.rule.TableRouter;
 import com.suning.snfddal.util.New;
 
@@ -53,7 +54,7 @@ public class Configuration {
 
     private final Map<String, Object> ruleAlgorithms = New.hashMap();
     
-    private Configuration() {
+    Configuration() {
     }
 
     public Set<String> getShardNames() {
@@ -233,6 +234,8 @@ public class Configuration {
     public static class ShardConfig {
         private String name;
         private String description;
+        private int maxThreads = ShardExecutor.DEFAULT_MAX_THREADS;
+        private int queueSize = ShardExecutor.DEFAULT_QUEUE_SIZE;
         private Properties properties;
 
         /**
@@ -262,6 +265,35 @@ public class Configuration {
         public void setDescription(String description) {
             this.description = description;
         }
+
+        /**
+         * @return the maximum number of threads of the shard
+         */
+        public int getMaxThreads() {
+            return maxThreads;
+        }
+
+        /**
+         * @param maxThreads the maxThreads to set
+         */
+        public void setMaxThreads(int maxThreads) {
+            this.maxThreads = maxThreads;
+        }
+
+        /**
+         * @return the maximum number of statements of the shard that wait for
+         *         a thread
+         */
+        public int getQueueSize() {
+            return queueSize;
+        }
+
+        /**
+         * @param queueSize the queueSize to set
+         */
+        public void setQueueSize(int queueSize) {
+            this.queueSize = queueSize;
+        }
         /**
          * @return the properties
          */
@@ -308,6 +340,8 @@ public class Configuration {
         private String name;
         private String metadata;
         private TableRouter tableRouter;
+        private boolean broadcast;
+        private long rows = -1;
 
         /**
          * @return the name
@@ -351,6 +385,35 @@ public class Configuration {
             this.tableRouter = tableRouter;
         }
 
+        /**
+         * @return true if the table has a copy in every shard
+         */
+        public boolean isBroadcast() {
+            return broadcast;
+        }
+
+        /**
+         * @param broadcast the broadcast to set
+         */
+        public void setBroadcast(boolean broadcast) {
+            this.broadcast = broadcast;
+        }
+
+        /**
+         * @return the number of rows of the table over all shards, or -1 if
+         *         it is not known
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * @param rows the rows to set
+         */
+        public void setRows(long rows) {
+            this.rows = rows;
+        }
+
         /**
          * @return the schemaConfig
          */
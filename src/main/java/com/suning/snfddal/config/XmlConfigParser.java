@@ -37,7 +37,7 @@ public class XmlConfigParser {
     }
 
     public XmlConfigParser(XPathParser parser) {
-        this.configuration = Configuration.getInstance();
+        this.configuration = new Configuration();
         this.parser = parser;
     }
 
@@ -89,11 +89,33 @@ public class XmlConfigParser {
             }
             shardConfig.setName(name);
             shardConfig.setDescription(description);
+            String maxThreads = properties.getProperty("maxThreads");
+            if (maxThreads != null) {
+                shardConfig.setMaxThreads(parsePositiveInt(name, "maxThreads", maxThreads));
+            }
+            String queueSize = properties.getProperty("queueSize");
+            if (queueSize != null) {
+                shardConfig.setQueueSize(parsePositiveInt(name, "queueSize", queueSize));
+            }
             shardConfig.setProperties(properties);
             configuration.addShard(name, shardConfig);
         }
     }
 
+    private static int parsePositiveInt(String shardName, String property, String value) {
+        int result;
+        try {
+            result = Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            result = 0;
+        }
+        if (result <= 0) {
+            throw new ParsingException("Error parsing ddal-config XML . Cause: shard " + shardName + "'s " +
+                    property + " must be a positive integer: " + value);
+        }
+        return result;
+    }
+
     private void parseDataSource(List<XNode> xNodes) {
         for (XNode dataSourceNode : xNodes) {
             DataSourceConfig dsConfig = new DataSourceConfig();
@@ -192,9 +214,16 @@ public class XmlConfigParser {
             String tableName = tableNode.getStringAttribute("name");
             String tableMetadata = tableNode.getStringAttribute("metadata");
             String router = tableNode.getStringAttribute("router");
+            boolean broadcast = tableNode.getBooleanAttribute("broadcast", false);
+            long rows = tableNode.getLongAttribute("rows", -1L);
             if (StringUtils.isNullOrEmpty(tableName)) {
                 throw new ParsingException("table attribute 'name' is required.");
             }
+            if (broadcast && !StringUtils.isNullOrEmpty(router)) {
+                throw new ParsingException("The broadcast table '" + tableName + "' can't have a router.");
+            }
+            config.setBroadcast(broadcast);
+            config.setRows(rows);
             config.setName(tableName);
             if (StringUtils.isNullOrEmpty(tableMetadata)) {
                 config.setMetadata(dsConfig.getMetadata());
@@ -211,7 +240,18 @@ public class XmlConfigParser {
                copy.setPartition(tableRouter.getPartition());
                copy.setShardRuleExpression(tableRouter.getShardRuleExpression());
                copy.setTableRuleExpression(tableRouter.getTableRuleExpression());
-               copy.initTopology(config.getName());
+               copy.setHashRuleExpression(tableRouter.getHashRuleExpression());
+               copy.setVirtualNodes(tableRouter.getVirtualNodes());
+               copy.setRangeRuleExpression(tableRouter.getRangeRuleExpression());
+               copy.setRangeType(tableRouter.getRangeType());
+               copy.setRangeBounds(tableRouter.getRangeBounds());
+               copy.setRuleEvaluator(tableRouter.getRuleEvaluator());
+               try {
+                   copy.initTopology(config.getName());
+               } catch (IllegalArgumentException e) {
+                   throw new ParsingException("The table router '" + router + "' is invalid. Cause: "
+                           + e.getMessage(), e);
+               }
                config.setTableRouter(copy);
             }
             config.setSchemaConfig(dsConfig);
@@ -33,11 +33,16 @@ import com.suning.snfddal.config.parser.RuleEntityResolver;
 import com.suning.snfddal.config.parser.TokenHandler;
 import com.suning.snfddal.config.parser.XNode;
 import com.suning.snfddal.config.parser.XPathParser;
+import com.suning.snfddal.route.rule.CompiledRuleEvaluator;
+import com.suning.snfddal.route.rule.KetamaRing;
+import com.suning.snfddal.route.rule.OgnlRuleEvaluator;
 import com.suning.snfddal.route.rule.RuleColumn;
+import com.suning.snfddal.route.rule.RuleEvaluator;
 import com.suning.snfddal.route.rule.RuleExpression;
 import com.suning.snfddal.route.rule.TableRouter;
 import com.suning.snfddal.util.New;
 import com.suning.snfddal.util.StringUtils;
+import com.suning.snfddal.value.DataType;
 
 public class XmlRuleConfigParser {
 
@@ -75,11 +80,29 @@ public class XmlRuleConfigParser {
             }
             TableRouter tableRule = new TableRouter();
             tableRule.setId(id);
+            tableRule.setRuleEvaluator(newRuleEvaluator(id, xNode.getStringAttribute("evaluator")));
             parseTableRuleChildrenXNode(tableRule, xNode.getChildren());
             configuration.addTableRouter(id, tableRule);
         }
     }
 
+    // 解析<tableRouter>标签的evaluator属性，可选ognl、compiled或RuleEvaluator实现类名
+    private RuleEvaluator newRuleEvaluator(String id, String evaluator) {
+        if (StringUtils.isNullOrEmpty(evaluator)) {
+            return null;
+        } else if ("ognl".equalsIgnoreCase(evaluator)) {
+            return new OgnlRuleEvaluator();
+        } else if ("compiled".equalsIgnoreCase(evaluator)) {
+            return new CompiledRuleEvaluator();
+        }
+        try {
+            return (RuleEvaluator) Class.forName(evaluator).newInstance();
+        } catch (Exception e) {
+            throw new ParsingException("Error parsing ddal-rule XML . Cause: the evaluator '" + evaluator
+                    + "' of tableRouter '" + id + "' is not a RuleEvaluator.", e);
+        }
+    }
+
     // 解析<tableRule>标签下的所有子标签
     private void parseTableRuleChildrenXNode(TableRouter tableRouter, List<XNode> list) {
 
@@ -99,11 +122,54 @@ public class XmlRuleConfigParser {
             } else if ("tableRule".equals(xNode.getName())) {
                 RuleExpression ruleExpr = parseRuleExpression(xNode, tableRouter);
                 tableRouter.setTableRuleExpression(ruleExpr);
+            } else if ("hashRule".equals(xNode.getName())) {
+                RuleExpression ruleExpr = parseRuleExpression(xNode, tableRouter);
+                tableRouter.setHashRuleExpression(ruleExpr);
+                Integer virtualNodes = xNode.getIntAttribute("virtualNodes", KetamaRing.DEFAULT_VIRTUAL_NODES);
+                if (virtualNodes <= 0) {
+                    throw new ParsingException("RuleTable '" + tableRouter.getId()
+                            + "' virtualNodes of hashRule must be positive.");
+                }
+                tableRouter.setVirtualNodes(virtualNodes);
+            } else if ("rangeRule".equals(xNode.getName())) {
+                parseRangeRule(tableRouter, xNode);
             }
         }
 
     }
     
+    // 解析<rangeRule>标签，内容为按partition顺序排列的各表的上界(不含)，以逗号分隔
+    private void parseRangeRule(TableRouter tableRouter, XNode xNode) {
+        String column = xNode.getStringAttribute("column");
+        if (StringUtils.isNullOrEmpty(column)) {
+            throw new ParsingException("RuleTable '" + tableRouter.getId()
+                    + "' the column attribute of 'rangeRule' element is required.");
+        }
+        String type = xNode.getStringAttribute("type", "TIMESTAMP");
+        DataType dataType = DataType.getTypeByName(type.toUpperCase());
+        if (dataType == null) {
+            throw new ParsingException("RuleTable '" + tableRouter.getId() + "' unknown type '" + type
+                    + "' of rangeRule.");
+        }
+        String body = getStringBody(xNode).trim();
+        if (StringUtils.isNullOrEmpty(body)) {
+            throw new ParsingException("RuleTable '" + tableRouter.getId() + "' rangeRule is emptry.");
+        }
+        String[] bounds = body.split(",");
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = bounds[i].trim();
+        }
+        RuleColumn ruleColumn = newRuleColumn(column.trim(), null, null);
+        List<RuleColumn> ruleColumns = new ArrayList<RuleColumn>(1);
+        ruleColumns.add(ruleColumn);
+        RuleExpression rule = new RuleExpression();
+        rule.setExpression(ruleColumn.getName());
+        rule.setRuleColumns(ruleColumns);
+        tableRouter.setRangeRuleExpression(rule);
+        tableRouter.setRangeType(dataType.type);
+        tableRouter.setRangeBounds(bounds);
+    }
+
     private String getStringBody(XNode xNode) {
         StringBuilder sb = new StringBuilder();
         NodeList children = xNode.getNode().getChildNodes();
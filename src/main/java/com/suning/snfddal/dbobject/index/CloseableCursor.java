@@ -0,0 +1,22 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package com.suning.snfddal.dbobject.index;
+
+/**
+ * A cursor over the rows of the shards, that can be closed before all the rows
+ * are read.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public interface CloseableCursor extends Cursor {
+
+    /**
+     * Close the result sets that are not read to the end, and cancel their
+     * statements, so that the shards stop sending rows.
+     */
+    void close();
+
+}
@@ -17,6 +17,7 @@ import com.suning.snfddal.command.expression.Expression;
 import com.suning.snfddal.command.expression.ExpressionColumn;
 import com.suning.snfddal.command.expression.ExpressionVisitor;
 import com.suning.snfddal.dbobject.table.Column;
+import com.suning.snfddal.dbobject.table.ColumnResolver;
 import com.suning.snfddal.dbobject.table.Table;
 import com.suning.snfddal.engine.Session;
 import com.suning.snfddal.message.DbException;
@@ -341,4 +342,27 @@ public class IndexCondition {
         return expressionQuery.isEverything(ExpressionVisitor.EVALUATABLE_VISITOR);
     }
 
+    /**
+     * Check if the expression uses none of the columns of the given table
+     * filter.
+     *
+     * @param resolver the column resolver of the table filter
+     * @return true if it uses none
+     */
+    public boolean isNotFromResolver(ColumnResolver resolver) {
+        ExpressionVisitor visitor = ExpressionVisitor.getNotFromResolverVisitor(resolver);
+        if (expression != null) {
+            return expression.isEverything(visitor);
+        }
+        if (expressionList != null) {
+            for (Expression e : expressionList) {
+                if (!e.isEverything(visitor)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return expressionQuery.isEverything(visitor);
+    }
+
 }
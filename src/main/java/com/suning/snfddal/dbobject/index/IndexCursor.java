@@ -143,9 +143,11 @@ public class IndexCursor implements Cursor {
                 }
             }
         }
-        if (inColumn != null) {
+        if (inColumn != null && !(index instanceof MappedIndex)) {
             return;
         }
+        // the mapped index pushes all the conditions, IN(..) included, down
+        // to the shards in one search
         if (!alwaysFalse && !isAlwaysFalse(start, end)) {
             cursor = index.find(tableFilter, start, end);
         }
@@ -251,6 +253,16 @@ public class IndexCursor implements Cursor {
         }
     }
 
+    /**
+     * Close the cursor of the index before all the rows are read, if it reads
+     * the rows from the shards.
+     */
+    public void close() {
+        if (cursor instanceof CloseableCursor) {
+            ((CloseableCursor) cursor).close();
+        }
+    }
+
     private void nextCursor() {
         if(index instanceof MappedIndex) {
             return;
@@ -5,31 +5,50 @@
  */
 package com.suning.snfddal.dbobject.index;
 
+import java.sql.BatchUpdateException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.suning.snfddal.command.dml.Select;
+import com.suning.snfddal.command.expression.Comparison;
+import com.suning.snfddal.command.expression.ConditionAndOr;
+import com.suning.snfddal.command.expression.ConditionIn;
+import com.suning.snfddal.command.expression.ConditionInConstantSet;
 import com.suning.snfddal.command.expression.Expression;
+import com.suning.snfddal.command.expression.ExpressionColumn;
+import com.suning.snfddal.command.expression.ExpressionVisitor;
 import com.suning.snfddal.command.expression.Parameter;
 import com.suning.snfddal.dbobject.table.Column;
 import com.suning.snfddal.dbobject.table.IndexColumn;
 import com.suning.snfddal.dbobject.table.MappedTable;
 import com.suning.snfddal.dbobject.table.TableFilter;
 import com.suning.snfddal.engine.Constants;
+import com.suning.snfddal.engine.DbSettings;
+import com.suning.snfddal.engine.Mode;
 import com.suning.snfddal.engine.Session;
 import com.suning.snfddal.message.DbException;
 import com.suning.snfddal.result.Row;
 import com.suning.snfddal.result.SearchRow;
 import com.suning.snfddal.result.SortOrder;
 import com.suning.snfddal.route.MultiNodeExecutor;
+import com.suning.snfddal.route.NodeExecution;
+import com.suning.snfddal.route.NodeExecutor;
 import com.suning.snfddal.route.RoutingHandler;
-import com.suning.snfddal.route.TableRoutingException;
 import com.suning.snfddal.route.rule.RoutingResult;
+import com.suning.snfddal.route.rule.TableRouter;
 import com.suning.snfddal.util.New;
 import com.suning.snfddal.util.StatementBuilder;
 import com.suning.snfddal.util.StringUtils;
@@ -44,6 +63,12 @@ public class MappedIndex extends BaseIndex {
     
     private static final Pattern ARG_PATTERN = Pattern.compile("\\?[0-9]+");
 
+    /**
+     * The maximum number of rows of an INSERT with many VALUES lists, SQL
+     * Server does not take more.
+     */
+    private static final int MAX_INSERT_ROWS = 1000;
+
     private final MappedTable mappedTable;
     private final String targetTableName;
     private long rowCount;
@@ -74,18 +99,354 @@ public class MappedIndex extends BaseIndex {
 
     @Override
     public void add(Session session, Row row) {
-        RoutingResult result = routingHandler.doRoute(mappedTable, row);
-        List<RoutingResult.MatchedShard> shards = result.getMatchedShards();
-        if (shards.size() != 1 && shards.get(0).getTables().length != 1) {
-            throw new TableRoutingException(table.getName() + " routing error.");
+        if (mappedTable.isBroadcast()) {
+            add(session, Collections.singletonList(row));
+            return;
         }
-        String shardName = shards.get(0).getShardName();
-        String tableName = shards.get(0).getTables()[0];
+        RoutingResult.MatchedShard shard = routeRow(row);
+        String shardName = shard.getShardName();
         ArrayList<Value> params = New.arrayList();
+        String sql = buildInsertSql(shard.getTables()[0], row, params);
+        try {
+            mappedTable.execute(session, shardName, sql, params, true);
+            rowCount++;
+        } catch (Exception e) {
+            throw MappedTable.wrapException(sql, e);
+        }
+    }
+
+    /**
+     * Add the rows of a batch. The rows are routed first and grouped by the
+     * shard and the statement, that is by the table and the columns set to
+     * DEFAULT or NULL, and each group is sent as one JDBC batch. The shards
+     * run their groups in parallel. A failed row does not stop the batch.
+     *
+     * @param session the session
+     * @param rows the rows
+     * @param errors the list to add the errors of the failed rows to
+     * @return the update counts of the rows, Statement.EXECUTE_FAILED for a
+     *         failed row
+     */
+    public int[] add(final Session session, List<Row> rows, List<DbException> errors) {
+        int[] result = new int[rows.size()];
+        Map<String, Map<String, BatchGroup>> shardGroups = New.hashMap();
+        List<String> shardNames = New.arrayList();
+        for (int i = 0, size = rows.size(); i < size; i++) {
+            Row row = rows.get(i);
+            RoutingResult.MatchedShard shard;
+            try {
+                shard = routeRow(row);
+            } catch (RuntimeException e) {
+                result[i] = Statement.EXECUTE_FAILED;
+                errors.add(DbException.convert(e));
+                continue;
+            }
+            String shardName = shard.getShardName();
+            ArrayList<Value> params = New.arrayList();
+            String sql = buildInsertSql(shard.getTables()[0], row, params);
+            Map<String, BatchGroup> groups = shardGroups.get(shardName);
+            if (groups == null) {
+                groups = new LinkedHashMap<String, BatchGroup>();
+                shardGroups.put(shardName, groups);
+                shardNames.add(shardName);
+            }
+            BatchGroup group = groups.get(sql);
+            if (group == null) {
+                group = new BatchGroup(new NodeExecution(shardName, sql, new ArrayList<List<Value>>()));
+                groups.put(sql, group);
+            }
+            group.execution.getBatchParam().add(params);
+            group.rows.add(i);
+        }
+        List<Callable<Void>> callables = New.arrayList(shardNames.size());
+        for (String shardName : shardNames) {
+            final Collection<BatchGroup> groups = shardGroups.get(shardName).values();
+            callables.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    NodeExecutor executor = new NodeExecutor(session);
+                    for (BatchGroup group : groups) {
+                        group.execute(executor);
+                    }
+                    return null;
+                }
+            });
+        }
+        executeOnShards(session, shardNames, callables);
+        for (String shardName : shardNames) {
+            for (BatchGroup group : shardGroups.get(shardName).values()) {
+                for (int j = 0, size = group.rows.size(); j < size; j++) {
+                    int count = group.updateCounts != null && j < group.updateCounts.length ?
+                            group.updateCounts[j] : Statement.EXECUTE_FAILED;
+                    result[group.rows.get(j)] = count;
+                    if (count != Statement.EXECUTE_FAILED) {
+                        rowCount++;
+                    }
+                }
+                if (group.error != null) {
+                    errors.add(group.error);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Add the rows of an INSERT statement. The rows are routed first and
+     * grouped by the table, and each table gets one INSERT with many VALUES
+     * lists, split into several statements if it would be larger than the
+     * setting SHARD_INSERT_MAX_PACKET_SIZE, have more parameters than the
+     * setting SHARD_INSERT_MAX_PARAMETERS or more than 1000 rows. Oracle has
+     * no INSERT with many VALUES lists, so in this mode each table gets a JDBC
+     * batch of single-row statements instead. The shards run their statements
+     * in parallel. All rows of a broadcast table go to each of its copies.
+     *
+     * @param session the session
+     * @param rows the rows
+     * @return the update count
+     */
+    public int add(final Session session, List<Row> rows) {
+        Map<String, Map<String, List<Row>>> shardTables = New.hashMap();
+        List<String> shardNames = New.arrayList();
+        if (mappedTable.isBroadcast()) {
+            // every copy gets all rows
+            for (RoutingResult.MatchedShard shard : routingHandler.doBroadcastRoute(mappedTable)
+                    .getMatchedShards()) {
+                Map<String, List<Row>> tables = new LinkedHashMap<String, List<Row>>();
+                tables.put(shard.getTables()[0], rows);
+                shardTables.put(shard.getShardName(), tables);
+                shardNames.add(shard.getShardName());
+            }
+        } else {
+            for (Row row : rows) {
+                RoutingResult.MatchedShard shard = routeRow(row);
+                String shardName = shard.getShardName();
+                String tableName = shard.getTables()[0];
+                Map<String, List<Row>> tables = shardTables.get(shardName);
+                if (tables == null) {
+                    tables = new LinkedHashMap<String, List<Row>>();
+                    shardTables.put(shardName, tables);
+                    shardNames.add(shardName);
+                }
+                List<Row> tableRows = tables.get(tableName);
+                if (tableRows == null) {
+                    tableRows = New.arrayList();
+                    tables.put(tableName, tableRows);
+                }
+                tableRows.add(row);
+            }
+        }
+        DbSettings settings = mappedTable.getDatabase().getSettings();
+        boolean multiRow = !Mode.ORACLE.equals(mappedTable.getDatabase().getMode().getName());
+        List<Callable<Integer>> callables = New.arrayList(shardNames.size());
+        for (String shardName : shardNames) {
+            final List<NodeExecution> executions = New.arrayList();
+            for (Map.Entry<String, List<Row>> e : shardTables.get(shardName).entrySet()) {
+                if (multiRow) {
+                    buildInsertExecutions(shardName, e.getKey(), e.getValue(),
+                            settings.shardInsertMaxPacketSize, settings.shardInsertMaxParameters, executions);
+                } else {
+                    buildInsertBatches(shardName, e.getKey(), e.getValue(), executions);
+                }
+            }
+            callables.add(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    NodeExecutor executor = new NodeExecutor(session);
+                    int count = 0;
+                    for (NodeExecution execution : executions) {
+                        try {
+                            if (execution.isBatch()) {
+                                for (int c : executor.executeBatch(execution)) {
+                                    // the row count may be unknown
+                                    count += c == Statement.SUCCESS_NO_INFO ? 1 : c;
+                                }
+                            } else {
+                                count += executor.executeUpdate(execution);
+                            }
+                        } catch (Exception e) {
+                            throw MappedTable.wrapException(execution.getSql(), e);
+                        }
+                    }
+                    return count;
+                }
+            });
+        }
+        int updateCount = getUpdateCount(executeOnShards(session, shardNames, callables));
+        rowCount += rows.size();
+        return updateCount;
+    }
+
+    /**
+     * Get the update count of a statement from the update counts of the
+     * shards. The copies of a broadcast table all have the same rows, so
+     * each of them has the update count of the statement.
+     */
+    private int getUpdateCount(List<Integer> counts) {
+        if (mappedTable.isBroadcast()) {
+            return counts.isEmpty() ? 0 : counts.get(0);
+        }
+        int updateCount = 0;
+        for (Integer count : counts) {
+            updateCount += count;
+        }
+        return updateCount;
+    }
+
+    /**
+     * Run a task for each shard, at the same time if there are many. The
+     * connections are opened before, as the session is not thread safe. The
+     * first tasks of an asynchronous statement are started before it runs,
+     * see {@link ShardRound}.
+     *
+     * @param session the session
+     * @param shardNames the shards
+     * @param callables the task of each shard
+     * @return the results of the tasks
+     */
+    private <T> List<T> executeOnShards(Session session, List<String> shardNames,
+            List<Callable<T>> callables) {
+        ShardRound round = session.getShardRound();
+        if (round != null && !callables.isEmpty()) {
+            List<T> results = round.execute(shardNames, callables);
+            if (results != null) {
+                return results;
+            }
+        }
+        openConnections(session, shardNames);
+        if (callables.size() > 1) {
+            return getMultiNodeExecutor().execute(shardNames, callables);
+        }
+        List<T> results = New.arrayList(callables.size());
+        for (Callable<T> call : callables) {
+            try {
+                results.add(call.call());
+            } catch (Exception e) {
+                throw DbException.convert(e);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Open the connections of the shards in this thread, so that the tasks
+     * that run in the threads of the shards only get them from the session.
+     */
+    private static void openConnections(Session session, List<String> shardNames) {
+        for (String shardName : shardNames) {
+            try {
+                session.getDataNodeConnection(shardName);
+            } catch (SQLException e) {
+                throw DbException.convert(e);
+            }
+        }
+    }
+
+    /**
+     * Build the multi-row INSERT statements of the rows of a table. A
+     * statement takes rows until its estimated size exceeds the max packet
+     * size, its parameters exceed the max parameters or it has
+     * MAX_INSERT_ROWS rows, but has at least one row.
+     */
+    private void buildInsertExecutions(String shardName, String tableName, List<Row> rows,
+            int maxPacketSize, int maxParameters, List<NodeExecution> executions) {
+        StatementBuilder buff = null;
+        ArrayList<Value> params = null;
+        long size = 0;
+        int rowCount = 0;
+        for (Row row : rows) {
+            long rowSize = getInsertSize(row);
+            int rowParams = getInsertParameterCount(row);
+            if (buff != null && (size + rowSize > maxPacketSize ||
+                    params.size() + rowParams > maxParameters || rowCount >= MAX_INSERT_ROWS)) {
+                executions.add(new NodeExecution(shardName, buff.toString(), params));
+                buff = null;
+            }
+            if (buff == null) {
+                buff = new StatementBuilder("INSERT INTO ");
+                buff.append(tableName);
+                buff.append(" (").append(buildColumnList()).append(")");
+                buff.append(" VALUES");
+                params = New.arrayList();
+                size = buff.length();
+                rowCount = 0;
+            } else {
+                buff.append(", ");
+            }
+            appendInsertValues(buff, row, params);
+            size += rowSize;
+            rowCount++;
+        }
+        if (buff != null) {
+            executions.add(new NodeExecution(shardName, buff.toString(), params));
+        }
+    }
+
+    /**
+     * Build the JDBC batches of the rows of a table, one per statement, that
+     * is per columns set to DEFAULT or NULL.
+     */
+    private void buildInsertBatches(String shardName, String tableName, List<Row> rows,
+            List<NodeExecution> executions) {
+        Map<String, NodeExecution> batches = new LinkedHashMap<String, NodeExecution>();
+        for (Row row : rows) {
+            ArrayList<Value> params = New.arrayList();
+            String sql = buildInsertSql(tableName, row, params);
+            NodeExecution batch = batches.get(sql);
+            if (batch == null) {
+                batch = new NodeExecution(shardName, sql, new ArrayList<List<Value>>());
+                batches.put(sql, batch);
+            }
+            batch.getBatchParam().add(params);
+        }
+        executions.addAll(batches.values());
+    }
+
+    private static int getInsertParameterCount(Row row) {
+        int count = 0;
+        for (int i = 0; i < row.getColumnCount(); i++) {
+            Value v = row.getValue(i);
+            if (v != null && !isNull(v)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static long getInsertSize(Row row) {
+        long size = 0;
+        for (int i = 0; i < row.getColumnCount(); i++) {
+            Value v = row.getValue(i);
+            // the placeholder and the separator
+            size += 3;
+            if (v != null) {
+                size += v.getMemory();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Get the table of a row of a table that is not a broadcast table. The
+     * routing handler already fails if the row is not routed to exactly one
+     * table.
+     */
+    private RoutingResult.MatchedShard routeRow(Row row) {
+        return routingHandler.doRoute(mappedTable, row).getMatchedShards().get(0);
+    }
+
+    private String buildInsertSql(String tableName, Row row, List<Value> params) {
         StatementBuilder buff = new StatementBuilder("INSERT INTO ");
         buff.append(tableName);
         buff.append(" (").append(buildColumnList()).append(")");
-        buff.append(" VALUES(");
+        buff.append(" VALUES");
+        appendInsertValues(buff, row, params);
+        return buff.toString();
+    }
+
+    private void appendInsertValues(StatementBuilder buff, Row row, List<Value> params) {
+        buff.append('(');
+        buff.resetCount();
         for (int i = 0; i < row.getColumnCount(); i++) {
             Value v = row.getValue(i);
             buff.appendExceptFirst(", ");
@@ -99,13 +460,6 @@ public class MappedIndex extends BaseIndex {
             }
         }
         buff.append(')');
-        String sql = buff.toString();
-        try {
-            mappedTable.execute(session, shardName, sql, params, true);
-            rowCount++;
-        } catch (Exception e) {
-            throw MappedTable.wrapException(sql, e);
-        }
     }
     
     @Override
@@ -115,56 +469,266 @@ public class MappedIndex extends BaseIndex {
     
     @Override
     public Cursor find(TableFilter filter, SearchRow first, SearchRow last) {
-        ArrayList<Value> queryParams = New.arrayList();
-        String queryCondition = buildQueryConditon(filter, queryParams);
+        Column[] selectedColumns = getSelectedColumns(filter);
+        return find(filter, buildColumnList(selectedColumns), new ArrayList<Value>(0), null, null,
+                selectedColumns, null);
+    }
+
+    /**
+     * Compute a select list on the tables that the conditions of the filter
+     * route to, as the partial aggregates of an aggregate query. The rows of
+     * the cursor hold the values of the select list of each table, or of each
+     * group of each table.
+     *
+     * @param filter the table filter
+     * @param selectList the select list, with the parameters exported
+     * @param selectParams the parameters of the select list
+     * @param groupBy the GROUP BY list, with the parameters exported, or null
+     * @param groupParams the parameters of the GROUP BY list
+     * @param types the value types of the select list
+     * @return the cursor
+     */
+    public Cursor find(TableFilter filter, String selectList, List<Value> selectParams, String groupBy,
+            List<Value> groupParams, int[] types) {
+        return find(filter, selectList, selectParams, groupBy, groupParams, null, types);
+    }
+
+    private Cursor find(TableFilter filter, String columnList, List<Value> selectParams, String groupBy,
+            List<Value> groupParams, final Column[] selectedColumns, final int[] types) {
         Session session = filter.getSession();
         List<IndexCondition> conditions = filter.getIndexConditions();
         RoutingResult rr = routingHandler.doRoute(mappedTable, session, conditions);
         List<RoutingResult.MatchedShard> shards = rr.getMatchedShards();
+        // an IN list on the rule column is split by table, each table is
+        // only queried for the values it holds
+        Map<String, Map<String, List<Value>>> assignment = null;
+        Expression inList = null;
+        IndexCondition inCondition = getRuleInList(conditions);
+        if (inCondition != null) {
+            inList = getInListConjunct(filter, inCondition.getColumn());
+            if (inList != null) {
+                assignment = routingHandler.doRoute(mappedTable, inCondition.getColumn(),
+                        inCondition.getCurrentValueList(session));
+            }
+        }
+        ArrayList<Value> queryParams = New.arrayList();
+        String queryCondition = buildQueryConditon(filter, assignment == null ? null : inList, queryParams);
+        SortOrder sortOrder = selectedColumns == null ? null : getShardSortOrder(filter);
+        long limit = selectedColumns == null ? -1 : getShardRowLimit(filter);
         List<Callable<ResultCursor>> callables = New.arrayList(shards.size());
-        
-        String shardName = null;
-        String sql = null;
-        ArrayList<Value> params = null;
+        List<String> shardNames = New.arrayList(shards.size());
         for (RoutingResult.MatchedShard shard : shards) {
-            StatementBuilder shardSql = new StatementBuilder();
-            shardName = shard.getShardName();
-            params = New.arrayList();
+            String shardName = shard.getShardName();
+            ArrayList<Value> params = New.arrayList();
             String[] tables = shard.getTables();
             if(tables.length == 0) {
-                sql = buildQuerySqlFromTable(filter, targetTableName, queryCondition);
-                params.addAll(queryParams);
-            } else if(tables.length == 1){
-                sql = buildQuerySqlFromTable(filter, tables[0], queryCondition);
+                tables = new String[] { targetTableName };
+            }
+            Map<String, List<Value>> shardValues = assignment == null ? null : assignment.get(shardName);
+            List<String> tableSqls = New.arrayList(tables.length);
+            for (String table : tables) {
+                if (assignment == null) {
+                    tableSqls.add(buildQuerySqlFromTable(filter, table, columnList, queryCondition, groupBy));
+                    params.addAll(selectParams);
+                    params.addAll(queryParams);
+                    if (groupParams != null) {
+                        params.addAll(groupParams);
+                    }
+                    continue;
+                }
+                List<Value> tableValues = shardValues == null ? null : shardValues.get(table);
+                if (tableValues == null) {
+                    // the table holds none of the values
+                    continue;
+                }
+                String tableCondition = buildInListCondition(queryCondition, getInListLeft(inList).getSQL(),
+                        tableValues.size());
+                tableSqls.add(buildQuerySqlFromTable(filter, table, columnList, tableCondition, groupBy));
+                params.addAll(selectParams);
                 params.addAll(queryParams);
-            }else {
+                params.addAll(tableValues);
+                if (groupParams != null) {
+                    params.addAll(groupParams);
+                }
+            }
+            String sql;
+            if (tableSqls.isEmpty()) {
+                continue;
+            } else if (tableSqls.size() == 1) {
+                sql = buildShardSql(tableSqls.get(0), sortOrder, limit);
+            } else {
+                StatementBuilder shardSql = new StatementBuilder();
                 shardSql.append("SELECT * FROM ( ");
-                for (String table : tables) {
+                for (String tableSql : tableSqls) {
                     shardSql.appendExceptFirst(" UNION ALL ");
-                    shardSql.append(buildQuerySqlFromTable(filter, table, queryCondition));
-                    params.addAll(queryParams);
+                    if (limit >= 0) {
+                        // every table sends its first rows only
+                        shardSql.append("SELECT * FROM ( ");
+                        shardSql.append(buildShardSql(tableSql, sortOrder, limit));
+                        shardSql.append(" ) ").append(mappedTable.getName());
+                    } else {
+                        shardSql.append(tableSql);
+                    }
                 }
                 shardSql.append(" ) ").append(mappedTable.getName());
-                sql =shardSql.toString();
+                sql = buildShardSql(shardSql.toString(), sortOrder, limit);
             }
-            callables.add(newQueryCallable(session, shardName, sql, params));
+            shardNames.add(shardName);
+            callables.add(newQueryCallable(session, shardName, sql, params, selectedColumns, types));
         }
-        if(callables.size() > 1) {
-           List<ResultCursor> results = MultiNodeExecutor.execute(callables);
+        int prefetchRows = mappedTable.getDatabase().getSettings().shardPrefetchRows;
+        if (callables.size() > 1 && sortOrder == null && prefetchRows > 0 &&
+                session.getShardRound() == null) {
+            openConnections(session, shardNames);
+            return new PrefetchMergedCursor(getMultiNodeExecutor(), shardNames, callables, prefetchRows);
+        } else if(callables.size() > 1) {
+           List<ResultCursor> results = executeOnShards(session, shardNames, callables);
+           if (sortOrder != null) {
+               return new SortedMergedCursor(results, sortOrder);
+           }
            return new MergedCursor(results);
         } else if(callables.size() == 1) {
-            return find(session, shardName, sql, params);
+            return executeOnShards(session, shardNames, callables).get(0);
         } else {
-            throw DbException.throwInternalError();
+            // no table may hold the rows, e.g. a range beyond the partitions
+            return new MergedCursor(new ArrayList<ResultCursor>(0));
         }
     
     }
 
-    public ResultCursor find(Session session, String shardName, String sql, List<Value> params) {
+    /**
+     * Find the rows of a batch of join keys, with one query per table that
+     * may hold some of them. If the key column is the rule column, each table
+     * only gets the keys it holds. Only the conditions of the filter that do
+     * not use the other tables of the query are sent to the shards, the
+     * others are checked by the filter. Without keys, all rows of the
+     * conditions are read, as for the build side of a hash join.
+     *
+     * @param filter the table filter
+     * @param column the join key column
+     * @param keys the distinct join keys, or null for all keys
+     * @return the cursor
+     */
+    public Cursor find(TableFilter filter, Column column, Value[] keys) {
+        Session session = filter.getSession();
+        List<TableFilter> others = getOtherFilters(filter);
+        ArrayList<Value> queryParams = New.arrayList();
+        StatementBuilder queryCondition = new StatementBuilder();
+        if (filter.getFilterCondition() != null) {
+            List<Expression> conjuncts = New.arrayList();
+            addConjuncts(filter.getFilterCondition(), conjuncts);
+            for (Expression e : conjuncts) {
+                if (isIndependent(e, others)) {
+                    queryCondition.appendExceptFirst(" AND ");
+                    queryCondition.append(e.exportParameters(filter, queryParams));
+                }
+            }
+        }
+        Map<String, Map<String, List<Value>>> assignment = null;
+        if (keys != null) {
+            assignment = routingHandler.doRoute(mappedTable, column, keys);
+        }
+        if (assignment == null) {
+            List<IndexCondition> conditions = New.arrayList();
+            for (IndexCondition condition : filter.getIndexConditions()) {
+                if (isIndependent(condition, others)) {
+                    conditions.add(condition);
+                }
+            }
+            List<Value> allKeys = keys == null ? Collections.<Value> emptyList() : Arrays.asList(keys);
+            assignment = New.linkedHashMap();
+            for (RoutingResult.MatchedShard shard : routingHandler.doRoute(mappedTable, session, conditions)
+                    .getMatchedShards()) {
+                String[] tables = shard.getTables();
+                if (tables.length == 0) {
+                    tables = new String[] { targetTableName };
+                }
+                Map<String, List<Value>> tableKeys = New.linkedHashMap();
+                for (String table : tables) {
+                    tableKeys.put(table, allKeys);
+                }
+                assignment.put(shard.getShardName(), tableKeys);
+            }
+        }
+        Column[] selectedColumns = getSelectedColumns(filter);
+        String columnList = buildColumnList(selectedColumns);
+        String condition = queryCondition.length() == 0 ? null : queryCondition.toString();
+        List<String> shardNames = New.arrayList(assignment.size());
+        List<Callable<ResultCursor>> callables = New.arrayList(assignment.size());
+        for (Map.Entry<String, Map<String, List<Value>>> shard : assignment.entrySet()) {
+            StatementBuilder sql = new StatementBuilder();
+            ArrayList<Value> params = New.arrayList();
+            for (Map.Entry<String, List<Value>> table : shard.getValue().entrySet()) {
+                sql.appendExceptFirst(" UNION ALL ");
+                String tableCondition = keys == null ? condition :
+                        buildInListCondition(condition, column.getSQL(), table.getValue().size());
+                sql.append(buildQuerySqlFromTable(filter, table.getKey(), columnList, tableCondition, null));
+                params.addAll(queryParams);
+                params.addAll(table.getValue());
+            }
+            String shardSql = sql.toString();
+            if (shard.getValue().size() > 1) {
+                shardSql = "SELECT * FROM ( " + shardSql + " ) " + mappedTable.getName();
+            }
+            shardNames.add(shard.getKey());
+            callables.add(newQueryCallable(session, shard.getKey(), shardSql, params,
+                    selectedColumns, null));
+        }
+        return new MergedCursor(executeOnShards(session, shardNames, callables));
+    }
+
+    /**
+     * Get the table filters of the query of a filter, other than the filter.
+     */
+    private static List<TableFilter> getOtherFilters(TableFilter filter) {
+        List<TableFilter> others = New.arrayList();
+        Select select = filter.getSelect();
+        if (select != null) {
+            for (TableFilter top : select.getTopFilters()) {
+                addFilters(top, filter, others);
+            }
+        }
+        return others;
+    }
+
+    private static void addFilters(TableFilter f, TableFilter excluded, List<TableFilter> filters) {
+        for (; f != null; f = f.getJoin()) {
+            if (f != excluded) {
+                filters.add(f);
+            }
+            if (f.getNestedJoin() != null) {
+                addFilters(f.getNestedJoin(), excluded, filters);
+            }
+        }
+    }
+
+    private static boolean isIndependent(Expression e, List<TableFilter> others) {
+        for (TableFilter f : others) {
+            if (!e.isEverything(ExpressionVisitor.getNotFromResolverVisitor(f))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isIndependent(IndexCondition condition, List<TableFilter> others) {
+        for (TableFilter f : others) {
+            if (!condition.isNotFromResolver(f)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public ResultCursor find(Session session, String shardName, String sql, List<Value> params,
+            Column[] selectedColumns, int[] types) {
         try {
             PreparedStatement prep = mappedTable.execute(session, shardName, sql, params, false);
             ResultSet rs = prep.getResultSet();
-            return new ResultCursor(mappedTable, rs, session);
+            if (selectedColumns == null) {
+                return new ResultCursor(rs, session, types);
+            }
+            return new ResultCursor(mappedTable, rs, session, selectedColumns);
         } catch (Exception e) {
             throw MappedTable.wrapException(sql, e);
         }
@@ -189,6 +753,18 @@ public class MappedIndex extends BaseIndex {
                 Constants.COST_ROW_OFFSET, filter, sortOrder);
     }
 
+    /**
+     * Estimate the number of rows that match the given search masks, if the
+     * table has the given number of rows.
+     *
+     * @param masks the search masks
+     * @param rows the number of rows of the table
+     * @return the estimated number of rows
+     */
+    public double getRowCountEstimate(int[] masks, long rows) {
+        return getCostRangeIndex(masks, rows, null, null);
+    }
+
     @Override
     public void remove(Session session) {
         // nothing to do
@@ -223,16 +799,36 @@ public class MappedIndex extends BaseIndex {
 
     @Override
     public void remove(Session session, Row row) {
+        // exactly one table, as checked by the routing handler, or all copies
+        // of a broadcast table
         RoutingResult result = routingHandler.doRoute(mappedTable, row);
         List<RoutingResult.MatchedShard> shards = result.getMatchedShards();
-        if (shards.size() != 1 && shards.get(0).getTables().length != 1) {
-            throw new TableRoutingException(table.getName() + " routing error.");
-        }
         String shardName = shards.get(0).getShardName();
         String tableName = shards.get(0).getTables()[0];
         ArrayList<Value> params = New.arrayList();
         StatementBuilder buff = new StatementBuilder("DELETE FROM ");
         buff.append(tableName).append(" WHERE ");
+        appendRowCondition(buff, row, params);
+        String sql = buff.toString();
+        if (mappedTable.isBroadcast()) {
+            rowCount -= executeOnCopies(session, shards, sql, params);
+            return;
+        }
+        try {
+            PreparedStatement prep = mappedTable.execute(session, shardName, sql, params, false);
+            int count = prep.executeUpdate();
+            mappedTable.reusePreparedStatement(prep, sql);
+            rowCount -= count;
+        } catch (Exception e) {
+            throw MappedTable.wrapException(sql, e);
+        }
+    }
+
+    /**
+     * Append the condition that matches the columns of a row.
+     */
+    private void appendRowCondition(StatementBuilder buff, Row row, List<Value> params) {
+        buff.resetCount();
         for (int i = 0; i < row.getColumnCount(); i++) {
             buff.appendExceptFirst("AND ");
             Column col = table.getColumn(i);
@@ -247,26 +843,214 @@ public class MappedIndex extends BaseIndex {
                 buff.append(' ');
             }
         }
+    }
+
+    /**
+     * Delete or update a row of a broadcast table in all copies at the same
+     * time.
+     */
+    private int executeOnCopies(final Session session, List<RoutingResult.MatchedShard> shards,
+            final String sql, final List<Value> params) {
+        List<String> shardNames = New.arrayList(shards.size());
+        List<Callable<Integer>> callables = New.arrayList(shards.size());
+        for (RoutingResult.MatchedShard shard : shards) {
+            final String shardName = shard.getShardName();
+            shardNames.add(shardName);
+            callables.add(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    try {
+                        return new NodeExecutor(session).executeUpdate(
+                                new NodeExecution(shardName, sql, params));
+                    } catch (Exception e) {
+                        throw MappedTable.wrapException(sql, e);
+                    }
+                }
+            });
+        }
+        return getUpdateCount(executeOnShards(session, shardNames, callables));
+    }
+
+    /**
+     * Update a row using a UPDATE statement. This method is to be called if the
+     * emit updates option is enabled. A row that is routed to another table
+     * by the new values is deleted and inserted instead.
+     *
+     * @param session the session
+     * @param oldRow the old data
+     * @param newRow the new data
+     */
+    public void update(Session session, Row oldRow, Row newRow) {
+        List<RoutingResult.MatchedShard> shards = routingHandler.doRoute(mappedTable, oldRow).getMatchedShards();
+        String shardName = shards.get(0).getShardName();
+        String tableName = shards.get(0).getTables()[0];
+        if (!mappedTable.isBroadcast()) {
+            RoutingResult.MatchedShard newShard = routeRow(newRow);
+            if (!newShard.getShardName().equals(shardName) || !newShard.getTables()[0].equals(tableName)) {
+                remove(session, oldRow);
+                add(session, newRow);
+                return;
+            }
+        }
+        ArrayList<Value> params = New.arrayList();
+        StatementBuilder buff = new StatementBuilder("UPDATE ");
+        buff.append(tableName).append(" SET ");
+        for (int i = 0; i < newRow.getColumnCount(); i++) {
+            buff.appendExceptFirst(", ");
+            Column col = table.getColumn(i);
+            buff.append(col.getSQL()).append('=');
+            addParameter(buff, col);
+            params.add(newRow.getValue(i));
+        }
+        buff.append(" WHERE ");
+        appendRowCondition(buff, oldRow, params);
         String sql = buff.toString();
+        if (mappedTable.isBroadcast()) {
+            executeOnCopies(session, shards, sql, params);
+            return;
+        }
         try {
             PreparedStatement prep = mappedTable.execute(session, shardName, sql, params, false);
-            int count = prep.executeUpdate();
+            prep.executeUpdate();
             mappedTable.reusePreparedStatement(prep, sql);
-            rowCount -= count;
         } catch (Exception e) {
             throw MappedTable.wrapException(sql, e);
         }
     }
 
     /**
-     * Update a row using a UPDATE statement. This method is to be called if the
-     * emit updates option is enabled.
+     * Update the rows of the tables that the conditions of the filter route
+     * to, with one UPDATE statement per table. The filter condition is the
+     * WHERE clause of the statements.
      *
-     * @param oldRow the old data
-     * @param newRow the new data
+     * @param filter the table filter
+     * @param setList the SET list, with the parameters exported
+     * @param setParams the parameters of the SET list
+     * @return the update count
      */
-    public void update(Session session, Row oldRow, Row newRow) {
-        throw DbException.getUnsupportedException("TODO");
+    public int update(TableFilter filter, String setList, List<Value> setParams) {
+        return executeUpdate(filter, setList, setParams);
+    }
+
+    /**
+     * Delete the rows of the tables that the conditions of the filter route
+     * to, with one DELETE statement per table. The filter condition is the
+     * WHERE clause of the statements.
+     *
+     * @param filter the table filter
+     * @return the update count
+     */
+    public int delete(TableFilter filter) {
+        int count = executeUpdate(filter, null, null);
+        rowCount -= count;
+        return count;
+    }
+
+    private int executeUpdate(TableFilter filter, String setList, List<Value> setParams) {
+        final Session session = filter.getSession();
+        List<IndexCondition> conditions = filter.getIndexConditions();
+        RoutingResult rr;
+        if (mappedTable.isBroadcast()) {
+            rr = routingHandler.doBroadcastRoute(mappedTable);
+        } else {
+            rr = routingHandler.doRoute(mappedTable, session, conditions);
+        }
+        Map<String, Map<String, List<Value>>> assignment = null;
+        Expression inList = null;
+        IndexCondition inCondition = getRuleInList(conditions);
+        if (inCondition != null) {
+            inList = getInListConjunct(filter, inCondition.getColumn());
+            if (inList != null) {
+                assignment = routingHandler.doRoute(mappedTable, inCondition.getColumn(),
+                        inCondition.getCurrentValueList(session));
+            }
+        }
+        ArrayList<Value> queryParams = New.arrayList();
+        String queryCondition = buildQueryConditon(filter, assignment == null ? null : inList, queryParams);
+        List<String> shardNames = New.arrayList();
+        List<Callable<Integer>> callables = New.arrayList();
+        for (RoutingResult.MatchedShard shard : rr.getMatchedShards()) {
+            String shardName = shard.getShardName();
+            String[] tables = shard.getTables();
+            if (tables.length == 0) {
+                tables = new String[] { targetTableName };
+            }
+            Map<String, List<Value>> shardValues = assignment == null ? null : assignment.get(shardName);
+            final List<NodeExecution> executions = New.arrayList(tables.length);
+            for (String table : tables) {
+                ArrayList<Value> params = New.arrayList();
+                if (setParams != null) {
+                    params.addAll(setParams);
+                }
+                params.addAll(queryParams);
+                String condition = queryCondition;
+                if (assignment != null) {
+                    List<Value> tableValues = shardValues == null ? null : shardValues.get(table);
+                    if (tableValues == null) {
+                        // the table holds none of the values
+                        continue;
+                    }
+                    condition = buildInListCondition(queryCondition, getInListLeft(inList).getSQL(),
+                            tableValues.size());
+                    params.addAll(tableValues);
+                }
+                String sql = buildUpdateSqlFromTable(filter, table, setList, condition);
+                executions.add(new NodeExecution(shardName, sql, params));
+            }
+            if (executions.isEmpty()) {
+                continue;
+            }
+            shardNames.add(shardName);
+            callables.add(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    NodeExecutor executor = new NodeExecutor(session);
+                    int count = 0;
+                    for (NodeExecution execution : executions) {
+                        try {
+                            count += executor.executeUpdate(execution);
+                        } catch (Exception e) {
+                            throw MappedTable.wrapException(execution.getSql(), e);
+                        }
+                    }
+                    return count;
+                }
+            });
+        }
+        return getUpdateCount(executeOnShards(session, shardNames, callables));
+    }
+
+    /**
+     * Build the UPDATE statement of a table, or the DELETE statement if the
+     * SET list is null. The table gets the alias of the filter, as the
+     * columns of the condition may use it. MySQL only accepts an alias in
+     * the multiple table syntax of DELETE.
+     */
+    private String buildUpdateSqlFromTable(TableFilter tf, String tableName, String setList,
+            String condition) {
+        String alias = tf.getTableAlias();
+        StatementBuilder sql = new StatementBuilder();
+        if (setList != null) {
+            sql.append("UPDATE ").append(tableName);
+            if (!StringUtils.isNullOrEmpty(alias)) {
+                sql.append(" ").append(alias);
+            }
+            sql.append(" SET ").append(setList);
+        } else {
+            sql.append("DELETE ");
+            if (!StringUtils.isNullOrEmpty(alias) &&
+                    Mode.MY_SQL.equals(mappedTable.getDatabase().getMode().getName())) {
+                sql.append(alias).append(' ');
+            }
+            sql.append("FROM ").append(tableName);
+            if (!StringUtils.isNullOrEmpty(alias)) {
+                sql.append(" ").append(alias);
+            }
+        }
+        if (!StringUtils.isNullOrEmpty(condition)) {
+            sql.append(" WHERE ").append(condition);
+        }
+        return sql.toString();
     }
 
     @Override
@@ -288,14 +1072,16 @@ public class MappedIndex extends BaseIndex {
      * @param columnList
      * @param connditionSql
      */
-    private String buildQuerySqlFromTable(TableFilter tf, String tableName, String queryConndition) {
+    private String buildQuerySqlFromTable(TableFilter tf, String tableName, String columnList,
+            String queryConndition, String groupBy) {
         Select select = tf.getSelect();
         StatementBuilder sql = new StatementBuilder();
         sql.append("SELECT ");
-        if(select.isDistinct()) {
+        // the rows of an aggregate query can not be made distinct on the shards
+        if(select != null && select.isDistinct() && !select.isGroupQuery()) {
             sql.append("DISTINCT ");
         }
-        sql.append(buildColumnList());
+        sql.append(columnList);
         sql.append(" FROM ").append(tableName);
         if(!StringUtils.isNullOrEmpty(tf.getTableAlias())) {
             sql.append(" ").append(tf.getTableAlias());
@@ -303,36 +1089,341 @@ public class MappedIndex extends BaseIndex {
         if(!StringUtils.isNullOrEmpty(queryConndition)) {
             sql.append(" WHERE ").append(queryConndition);
         }
-        /*
-        Expression limitExpr = select.getLimit();
-        Expression offsetExpr = select.getOffset();
-        if (limitExpr != null) {
-            sql.append(" LIMIT ").append(StringUtils.unEnclose(limitExpr.getSQL()));
-            if (offsetExpr != null) {
-                sql.append(" OFFSET ").append(StringUtils.unEnclose(offsetExpr.getSQL()));
-            }
-        }*/
+        if (groupBy != null) {
+            sql.append(" GROUP BY ").append(groupBy);
+        }
         return sql.toString();
     }
+
+    /**
+     * Find the rows of a join of tables with the same table router on their
+     * rule columns, and of broadcast tables. The rows that match are in the
+     * tables of the same position of a shard, or in the copies of the
+     * broadcast tables of the shard, so each shard runs the join of its
+     * tables, with the tables the conditions of the filter route to. The rows
+     * hold the columns of the joined tables one after the other.
+     *
+     * @param filter the filter of this table, that reads the rows of the
+     *            joined filters
+     * @return the cursor
+     */
+    public Cursor findJoin(TableFilter filter) {
+        final Session session = filter.getSession();
+        List<TableFilter> filters = New.arrayList();
+        filters.add(filter);
+        filters.addAll(filter.getShardJoinFilters());
+        StatementBuilder columnList = new StatementBuilder();
+        List<Integer> typeList = New.arrayList();
+        for (TableFilter f : filters) {
+            for (Column c : f.getTable().getColumns()) {
+                columnList.appendExceptFirst(", ");
+                columnList.append(f.getTableAlias()).append('.').append(c.getSQL());
+                typeList.add(c.getType());
+            }
+        }
+        int[] types = new int[typeList.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = typeList.get(i);
+        }
+        // the columns of all joined filters are written as SQL
+        ArrayList<Value> joinParams = New.arrayList();
+        List<String> joinConditions = New.arrayList();
+        for (int i = 1; i < filters.size(); i++) {
+            Expression on = filters.get(i).getJoinCondition();
+            joinConditions.add(on == null ? null : StringUtils.unEnclose(on.exportParameters(filter, joinParams)));
+        }
+        ArrayList<Value> queryParams = New.arrayList();
+        StatementBuilder queryCondition = new StatementBuilder();
+        for (TableFilter f : filters) {
+            Expression condition = f.getFilterCondition();
+            if (condition != null) {
+                queryCondition.appendExceptFirst(" AND ");
+                queryCondition.append(condition.exportParameters(filter, queryParams));
+            }
+        }
+        // the first table with a router decides the shards, with the index
+        // conditions that do not depend on the other filters
+        TableFilter driver = filter;
+        for (TableFilter f : filters) {
+            if (((MappedTable) f.getTable()).getTableRouter() != null) {
+                driver = f;
+                break;
+            }
+        }
+        List<TableFilter> others = New.arrayList(filters);
+        others.remove(driver);
+        List<IndexCondition> driverConditions = New.arrayList();
+        for (IndexCondition condition : driver.getIndexConditions()) {
+            if (isIndependent(condition, others)) {
+                driverConditions.add(condition);
+            }
+        }
+        MappedTable driverTable = (MappedTable) driver.getTable();
+        RoutingResult rr = routingHandler.doRoute(driverTable, session, driverConditions);
+        List<String> shardNames = New.arrayList();
+        List<Callable<ResultCursor>> callables = New.arrayList();
+        for (RoutingResult.MatchedShard shard : rr.getMatchedShards()) {
+            String shardName = shard.getShardName();
+            String[] tables = shard.getTables();
+            List<String[]> tableGroups = New.arrayList(Math.max(1, tables.length));
+            if (tables.length == 0) {
+                String[] group = new String[filters.size()];
+                for (int i = 0; i < group.length; i++) {
+                    group[i] = ((MappedTable) filters.get(i).getTable()).getQualifiedTable();
+                }
+                tableGroups.add(group);
+            }
+            for (String table : tables) {
+                int index = driverTable.isBroadcast() ? -1 : indexOfTable(driverTable, shardName, table);
+                String[] group = new String[filters.size()];
+                for (int i = 0; i < group.length; i++) {
+                    MappedTable t = (MappedTable) filters.get(i).getTable();
+                    if (t.isBroadcast()) {
+                        // each shard has a copy of the same name
+                        group[i] = t.getQualifiedTable();
+                    } else {
+                        group[i] = t.getTableRouter().getTopology().indexTableInShard(shardName, index);
+                    }
+                }
+                tableGroups.add(group);
+            }
+            StatementBuilder sql = new StatementBuilder();
+            ArrayList<Value> params = New.arrayList();
+            for (String[] group : tableGroups) {
+                sql.appendExceptFirst(" UNION ALL ");
+                sql.append("SELECT ").append(columnList.toString());
+                sql.append(" FROM ").append(group[0]).append(' ').append(filter.getTableAlias());
+                for (int i = 1; i < group.length; i++) {
+                    sql.append(" INNER JOIN ").append(group[i]).append(' ');
+                    sql.append(filters.get(i).getTableAlias());
+                    String on = joinConditions.get(i - 1);
+                    sql.append(" ON ").append(on == null ? "1=1" : on);
+                }
+                if (queryCondition.length() > 0) {
+                    sql.append(" WHERE ").append(queryCondition.toString());
+                }
+                params.addAll(joinParams);
+                params.addAll(queryParams);
+            }
+            shardNames.add(shardName);
+            callables.add(newQueryCallable(session, shardName, sql.toString(), params, null, types));
+        }
+        int prefetchRows = mappedTable.getDatabase().getSettings().shardPrefetchRows;
+        if (callables.size() > 1 && prefetchRows > 0 && session.getShardRound() == null) {
+            openConnections(session, shardNames);
+            return new PrefetchMergedCursor(getMultiNodeExecutor(), shardNames, callables, prefetchRows);
+        }
+        return new MergedCursor(executeOnShards(session, shardNames, callables));
+    }
+
+    private MultiNodeExecutor getMultiNodeExecutor() {
+        return mappedTable.getDatabase().getMultiNodeExecutor();
+    }
+
+    private static int indexOfTable(MappedTable table, String shardName, String tableName) {
+        int index = 0;
+        for (String t : table.getTableRouter().getTopology().getTableInShard(shardName)) {
+            if (t.equals(tableName)) {
+                return index;
+            }
+            index++;
+        }
+        throw DbException.throwInternalError(tableName);
+    }
+
+    /**
+     * Add the ORDER BY and the limit of the rows to a query of a shard. The
+     * limit is the offset plus the limit of the query, as the offset can only
+     * be applied to the merged rows. It is written in the dialect of the mode
+     * of the database.
+     */
+    private String buildShardSql(String sql, SortOrder sortOrder, long limit) {
+        if (sortOrder != null) {
+            sql = sql + " ORDER BY " + buildOrderBy(sortOrder);
+        }
+        if (limit < 0) {
+            return sql;
+        }
+        String mode = mappedTable.getDatabase().getMode().getName();
+        if (Mode.ORACLE.equals(mode)) {
+            return "SELECT * FROM ( " + sql + " ) WHERE ROWNUM <= " + limit;
+        } else if (Mode.MSSQL_SERVER.equals(mode)) {
+            int pos = sql.startsWith("SELECT DISTINCT ") ? 16 : 7;
+            return sql.substring(0, pos) + "TOP " + limit + " " + sql.substring(pos);
+        } else if (Mode.DB2.equals(mode) || Mode.DERBY.equals(mode)) {
+            return sql + " FETCH FIRST " + limit + " ROWS ONLY";
+        }
+        return sql + " LIMIT " + limit;
+    }
     
     private String buildColumnList() {
+        return buildColumnList(columns);
+    }
+
+    private static String buildColumnList(Column[] cols) {
         StatementBuilder string = new StatementBuilder();
-        for (Column col : columns) {
+        for (Column col : cols) {
             string.appendExceptFirst(",");
             string.append(col.getName());            
         }
         return string.toString();
     }
+
+    /**
+     * Get the number of rows that each shard needs to return at most for the
+     * query of the filter, -1 for all the rows.
+     */
+    private static long getShardRowLimit(TableFilter tf) {
+        Select select = tf.getSelect();
+        return select == null ? -1 : select.getShardRowLimit();
+    }
+
+    /**
+     * Get the sort order that the shards sort the rows by, if the query of
+     * the filter pushes its ORDER BY down.
+     */
+    private static SortOrder getShardSortOrder(TableFilter tf) {
+        Select select = tf.getSelect();
+        return select == null ? null : select.getShardSortOrder();
+    }
+
+    private String buildOrderBy(SortOrder sortOrder) {
+        StatementBuilder buff = new StatementBuilder();
+        int[] columnIds = sortOrder.getQueryColumnIndexes();
+        int[] sortTypes = sortOrder.getSortTypes();
+        for (int i = 0; i < columnIds.length; i++) {
+            buff.appendExceptFirst(", ");
+            buff.append(mappedTable.getColumn(columnIds[i]).getName());
+            if ((sortTypes[i] & SortOrder.DESCENDING) != 0) {
+                buff.append(" DESC");
+            }
+        }
+        return buff.toString();
+    }
+
+    /**
+     * Get the columns of the table that the query of the filter reads, all
+     * the columns if the filter does not belong to a query.
+     */
+    private Column[] getSelectedColumns(TableFilter tf) {
+        Select select = tf.getSelect();
+        if (select == null) {
+            return columns;
+        }
+        HashSet<Column> referenced = select.getReferencedColumns();
+        ArrayList<Column> selected = New.arrayList();
+        for (Column col : columns) {
+            if (referenced.contains(col)) {
+                selected.add(col);
+            }
+        }
+        if (selected.isEmpty()) {
+            // COUNT(*) and the like still need one row per row of the table
+            selected.add(columns[0]);
+        }
+        return selected.toArray(new Column[selected.size()]);
+    }
     
-    private String buildQueryConditon(TableFilter tf, List<Value> params) {
+    private String buildQueryConditon(TableFilter tf, Expression excluded, List<Value> params) {
         Expression conditionExpr = tf.getFilterCondition();
         String condition = null;
-        if(conditionExpr != null) {
+        if(conditionExpr != null && excluded == null) {
             condition = conditionExpr.exportParameters(tf, params);
             condition = StringUtils.unEnclose(condition);
+        } else if (conditionExpr != null) {
+            List<Expression> conjuncts = New.arrayList();
+            addConjuncts(conditionExpr, conjuncts);
+            StatementBuilder buff = new StatementBuilder();
+            for (Expression e : conjuncts) {
+                if (e != excluded) {
+                    buff.appendExceptFirst(" AND ");
+                    buff.append(e.exportParameters(tf, params));
+                }
+            }
+            condition = buff.length() == 0 ? null : buff.toString();
         }
         return condition;
     }
+
+    private static void addConjuncts(Expression condition, List<Expression> conjuncts) {
+        if (condition instanceof ConditionAndOr && ((ConditionAndOr) condition).getAndOrType() == ConditionAndOr.AND) {
+            ConditionAndOr and = (ConditionAndOr) condition;
+            addConjuncts(and.getExpression(true), conjuncts);
+            addConjuncts(and.getExpression(false), conjuncts);
+        } else {
+            conjuncts.add(condition);
+        }
+    }
+
+    /**
+     * Get the IN list condition on the rule column if the table is routed by
+     * that column alone and the column has just one IN list.
+     */
+    private IndexCondition getRuleInList(List<IndexCondition> conditions) {
+        TableRouter tr = mappedTable.getTableRouter();
+        if (tr == null || tr.getRuleColumns().size() != 1) {
+            return null;
+        }
+        String ruleColumn = tr.getRuleColumns().get(0).getName();
+        IndexCondition found = null;
+        for (IndexCondition condition : conditions) {
+            if (condition.getCompareType() == Comparison.IN_LIST
+                    && condition.getColumn().getName().equalsIgnoreCase(ruleColumn)) {
+                if (found != null) {
+                    return null;
+                }
+                found = condition;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Get the IN condition on the column among the conjuncts of the filter
+     * condition, if there is exactly one.
+     */
+    private static Expression getInListConjunct(TableFilter tf, Column column) {
+        Expression conditionExpr = tf.getFilterCondition();
+        if (conditionExpr == null) {
+            return null;
+        }
+        List<Expression> conjuncts = New.arrayList();
+        addConjuncts(conditionExpr, conjuncts);
+        Expression found = null;
+        for (Expression e : conjuncts) {
+            Expression left = getInListLeft(e);
+            if (left instanceof ExpressionColumn && ((ExpressionColumn) left).getTableFilter() == tf
+                    && ((ExpressionColumn) left).getColumn() == column) {
+                if (found != null) {
+                    return null;
+                }
+                found = e;
+            }
+        }
+        return found;
+    }
+
+    private static Expression getInListLeft(Expression e) {
+        if (e instanceof ConditionIn) {
+            return ((ConditionIn) e).getLeft();
+        } else if (e instanceof ConditionInConstantSet) {
+            return ((ConditionInConstantSet) e).getLeft();
+        }
+        return null;
+    }
+
+    private static String buildInListCondition(String condition, String column, int size) {
+        StatementBuilder buff = new StatementBuilder();
+        if (condition != null) {
+            buff.append(condition).append(" AND ");
+        }
+        buff.append(column).append(" IN(");
+        for (int i = 0; i < size; i++) {
+            buff.appendExceptFirst(", ");
+            buff.append('?');
+        }
+        return buff.append(')').toString();
+    }
     
     protected String exportSQLParameter(String sql,List<Parameter> parms, List<Value> container) {
         Matcher matcher = ARG_PATTERN.matcher(sql);
@@ -351,15 +1442,45 @@ public class MappedIndex extends BaseIndex {
        return sql;
     }
     
+    /**
+     * The rows of a batch that are sent to a shard with the same statement.
+     */
+    private static class BatchGroup {
+
+        final NodeExecution execution;
+        final List<Integer> rows = New.arrayList();
+        int[] updateCounts;
+        DbException error;
+
+        BatchGroup(NodeExecution execution) {
+            this.execution = execution;
+        }
+
+        void execute(NodeExecutor executor) {
+            try {
+                updateCounts = executor.executeBatch(execution);
+            } catch (BatchUpdateException e) {
+                // the rows after the update counts were not executed
+                updateCounts = e.getUpdateCounts();
+                error = MappedTable.wrapException(execution.getSql(), e);
+            } catch (Exception e) {
+                error = MappedTable.wrapException(execution.getSql(), e);
+            }
+        }
+
+    }
+
     private Callable<ResultCursor> newQueryCallable(
             final Session session, 
             final String shardName, 
             final String sql,
-            final List<Value> params) {
+            final List<Value> params,
+            final Column[] selectedColumns,
+            final int[] types) {
         Callable<ResultCursor> call = new Callable<ResultCursor>() {
             @Override
             public ResultCursor call() throws Exception {
-                return find(session, shardName, sql, params);
+                return find(session, shardName, sql, params, selectedColumns, types);
             }
         };
         return call;
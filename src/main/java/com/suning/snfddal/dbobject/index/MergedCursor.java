@@ -14,7 +14,7 @@ import com.suning.snfddal.result.SearchRow;
 /**
  * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
  */
-public class MergedCursor implements Cursor {
+public class MergedCursor implements CloseableCursor {
     
     private List<ResultCursor> cursors;
     private ResultCursor currentCursor;
@@ -54,6 +54,15 @@ public class MergedCursor implements Cursor {
         return false;
     }
 
+    @Override
+    public void close() {
+        for (int i = index; i < cursors.size(); i++) {
+            cursors.get(i).close();
+        }
+        currentCursor = null;
+        index = cursors.size();
+    }
+
     @Override
     public boolean previous() {
         throw DbException.throwInternalError();
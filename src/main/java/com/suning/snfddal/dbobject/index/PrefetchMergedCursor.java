@@ -0,0 +1,254 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package com.suning.snfddal.dbobject.index;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import com.suning.snfddal.message.DbException;
+import com.suning.snfddal.result.Row;
+import com.suning.snfddal.result.SearchRow;
+import com.suning.snfddal.route.MultiNodeExecutor;
+import com.suning.snfddal.value.Value;
+
+/**
+ * A cursor that merges the rows of the shards in the order they arrive. Each
+ * shard query is run by a worker that reads its rows ahead into a bounded
+ * queue. When the queue is full, the worker gives its thread back to the
+ * executor of the shard and keeps the open result, the reader submits it
+ * again once it has taken half of the rows, so that a slow reader holds back
+ * the shards without holding their threads. The rows are taken from whichever
+ * queue has one, so the rows of the fastest shards come first and the
+ * transfer of the rows overlaps with their processing.
+ * <p>
+ * The connections of the shards must be open before the cursor is created, as
+ * the session is not thread safe.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class PrefetchMergedCursor implements CloseableCursor {
+
+    /**
+     * The marker of the end of the rows of a shard.
+     */
+    private static final Row END = new Row(new Value[0], 0);
+
+    private final MultiNodeExecutor executor;
+    private final Worker[] workers;
+    private final Semaphore available = new Semaphore(0);
+    private final int depth;
+    private int running;
+    private int nextWorker;
+    private Row currentRow;
+    private volatile boolean closed;
+
+    /**
+     * Start the queries of the shards.
+     *
+     * @param executor the executor of the workers
+     * @param shardNames the shard of each query
+     * @param queries the queries of the shards
+     * @param depth the number of rows read ahead for each shard
+     */
+    public PrefetchMergedCursor(MultiNodeExecutor executor, List<String> shardNames,
+            List<Callable<ResultCursor>> queries, int depth) {
+        this.executor = executor;
+        this.depth = depth;
+        workers = new Worker[queries.size()];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(shardNames.get(i), queries.get(i), depth);
+        }
+        try {
+            for (Worker worker : workers) {
+                executor.submit(worker.shardName, this, worker);
+                running++;
+            }
+        } catch (RejectedExecutionException e) {
+            close();
+            throw DbException.convert(e);
+        }
+    }
+
+    @Override
+    public Row get() {
+        return currentRow;
+    }
+
+    @Override
+    public SearchRow getSearchRow() {
+        return currentRow;
+    }
+
+    @Override
+    public boolean next() {
+        while (running > 0) {
+            try {
+                available.acquire();
+            } catch (InterruptedException e) {
+                close();
+                throw DbException.convert(e);
+            }
+            Row row = poll();
+            if (row != END) {
+                currentRow = row;
+                return true;
+            }
+            running--;
+        }
+        currentRow = null;
+        return false;
+    }
+
+    /**
+     * Take a row of the queues, starting after the queue of the last row so
+     * that no shard is starved. A row is available when this is called.
+     */
+    private Row poll() {
+        for (int i = 0; i < workers.length; i++) {
+            Worker worker = workers[nextWorker];
+            nextWorker = (nextWorker + 1) % workers.length;
+            Row row = worker.rows.poll();
+            if (row != null) {
+                if (row == END && worker.error != null) {
+                    // fail fast, the other shards are not read
+                    close();
+                    throw DbException.convert(worker.error);
+                }
+                if (row != END && worker.rows.size() <= depth / 2) {
+                    resume(worker);
+                }
+                return row;
+            }
+        }
+        throw DbException.throwInternalError();
+    }
+
+    /**
+     * Submit a worker again if it gave its thread back.
+     */
+    private void resume(Worker worker) {
+        synchronized (worker) {
+            if (!worker.paused || closed) {
+                return;
+            }
+            worker.paused = false;
+        }
+        try {
+            executor.submit(worker.shardName, this, worker);
+        } catch (RejectedExecutionException e) {
+            close();
+            worker.closeCursor();
+            throw DbException.convert(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Worker worker : workers) {
+            boolean paused;
+            synchronized (worker) {
+                paused = worker.paused;
+                worker.paused = false;
+            }
+            if (paused) {
+                // no thread holds the result of the worker
+                worker.closeCursor();
+            }
+            worker.rows.clear();
+        }
+        running = 0;
+    }
+
+    @Override
+    public boolean previous() {
+        throw DbException.throwInternalError();
+    }
+
+    /**
+     * Runs the query of a shard and reads its rows into the queue, until the
+     * queue is full. It is then paused, and the reader submits it again to
+     * read the next rows. Only one thread at a time runs a worker.
+     */
+    private class Worker implements Runnable {
+
+        final String shardName;
+        final Callable<ResultCursor> query;
+
+        /**
+         * The rows, with room for the end marker.
+         */
+        final ArrayBlockingQueue<Row> rows;
+        volatile Throwable error;
+
+        /**
+         * Whether the worker gave its thread back with an open result.
+         */
+        boolean paused;
+        private ResultCursor cursor;
+
+        Worker(String shardName, Callable<ResultCursor> query, int depth) {
+            this.shardName = shardName;
+            this.query = query;
+            this.rows = new ArrayBlockingQueue<Row>(depth + 1);
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (cursor == null && !closed) {
+                    cursor = query.call();
+                }
+                while (!closed) {
+                    if (rows.size() >= depth) {
+                        synchronized (this) {
+                            // the reader may have taken rows meanwhile
+                            if (rows.size() >= depth && !closed) {
+                                paused = true;
+                                return;
+                            }
+                        }
+                        continue;
+                    }
+                    if (!cursor.next()) {
+                        break;
+                    }
+                    // only the worker adds rows, so there is room
+                    rows.add(cursor.get());
+                    available.release();
+                }
+            } catch (Throwable e) {
+                error = e;
+            }
+            closeCursor();
+            if (!closed) {
+                rows.add(END);
+                available.release();
+            }
+        }
+
+        void closeCursor() {
+            if (cursor != null) {
+                try {
+                    cursor.close();
+                } catch (DbException e) {
+                    if (error == null) {
+                        error = e;
+                    }
+                }
+                cursor = null;
+            }
+        }
+
+    }
+
+}
@@ -7,6 +7,7 @@ package com.suning.snfddal.dbobject.index;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 
 import com.suning.snfddal.dbobject.table.Column;
 import com.suning.snfddal.dbobject.table.MappedTable;
@@ -20,17 +21,42 @@ import com.suning.snfddal.value.Value;
 /**
  * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
  */
-public class ResultCursor implements Cursor {
+public class ResultCursor implements CloseableCursor {
 
     private final MappedTable table;
     private final Session session;
     private final ResultSet rs;
+    private final Column[] columns;
+    private final int[] types;
     private Row current;
+    private boolean closed;
 
-    ResultCursor(MappedTable table, ResultSet rs, Session session) {
+    /**
+     * A cursor over rows of the table.
+     *
+     * @param columns the columns of the result set in order, the other
+     *            columns of the rows are left null
+     */
+    ResultCursor(MappedTable table, ResultSet rs, Session session, Column[] columns) {
         this.session = session;
         this.table = table;
         this.rs = rs;
+        this.columns = columns;
+        this.types = null;
+    }
+
+    /**
+     * A cursor over rows that hold the values of the result set, as the
+     * partial aggregates computed by a shard.
+     *
+     * @param types the value types of the result set
+     */
+    ResultCursor(ResultSet rs, Session session, int[] types) {
+        this.session = session;
+        this.table = null;
+        this.rs = rs;
+        this.columns = null;
+        this.types = types;
     }
 
     @Override
@@ -45,9 +71,14 @@ public class ResultCursor implements Cursor {
 
     @Override
     public boolean next() {
+        if (closed) {
+            return false;
+        }
         try {
             boolean result = rs.next();
             if (!result) {
+                closed = true;
+                session.removeShardStatement(rs.getStatement());
                 rs.close();
                 //table.reusePreparedStatement(prep, sql);
                 current = null;
@@ -56,15 +87,46 @@ public class ResultCursor implements Cursor {
         } catch (SQLException e) {
             throw DbException.convert(e);
         }
+        if (columns == null) {
+            Value[] values = new Value[types.length];
+            for (int i = 0; i < types.length; i++) {
+                values[i] = DataType.readValue(session, rs, i + 1, types[i]);
+            }
+            current = new Row(values, Row.MEMORY_CALCULATE);
+            return true;
+        }
         current = table.getTemplateRow();
-        for (int i = 0; i < current.getColumnCount(); i++) {
-            Column col = table.getColumn(i);
+        for (int i = 0; i < columns.length; i++) {
+            Column col = columns[i];
             Value v = DataType.readValue(session, rs, i + 1, col.getType());
-            current.setValue(i, v);
+            current.setValue(col.getColumnId(), v);
         }
         return true;
     }
 
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        current = null;
+        try {
+            Statement stat = rs.getStatement();
+            if (stat != null) {
+                session.removeShardStatement(stat);
+                try {
+                    stat.cancel();
+                } catch (SQLException e) {
+                    // the driver may not support it, the rows are not read anyway
+                }
+            }
+            rs.close();
+        } catch (SQLException e) {
+            throw DbException.convert(e);
+        }
+    }
+
     @Override
     public boolean previous() {
         throw DbException.throwInternalError();
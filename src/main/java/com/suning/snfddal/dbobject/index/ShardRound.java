@@ -0,0 +1,176 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.suning.snfddal.dbobject.index;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.suning.snfddal.api.ErrorCode;
+import com.suning.snfddal.engine.Session;
+import com.suning.snfddal.message.DbException;
+import com.suning.snfddal.route.MultiNodeExecutor;
+import com.suning.snfddal.util.New;
+
+/**
+ * The first tasks of the shards of a query that is executed asynchronously.
+ * The query is first run until it gets to the tasks of the shards, which are
+ * recorded instead of run, and the run stops there. The tasks are then
+ * submitted to the executors of the shards, and once the last one is done,
+ * the query is run again and takes their results, so that no thread waits
+ * for the shards in between. Later tasks of the query, as those of a join,
+ * are run as usual. Statements that change data are not run this way, as
+ * the results of the first run could differ from those of the second.
+ * <p>
+ * The first run also stops before anything that would happen twice, as the
+ * use of a shard connection other than by the tasks, a sequence, a trigger
+ * or a function that is not deterministic. The statement is then run as
+ * usual.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class ShardRound {
+
+    private boolean recording = true;
+    private List<String> shardNames;
+    private List<Callable<Object>> calls;
+    private List<Future<Object>> futures;
+    private boolean taken;
+
+    /**
+     * Check if the first run of the statement is going on.
+     *
+     * @return true if it is
+     */
+    public boolean isRecording() {
+        return recording;
+    }
+
+    /**
+     * Stop the first run of the statement before it has an effect.
+     *
+     * @return the exception that stops the run
+     */
+    public DbException stop() {
+        recording = false;
+        return DbException.get(ErrorCode.STATEMENT_WAS_CANCELED);
+    }
+
+    /**
+     * Check if the first run stopped at the tasks of the shards.
+     *
+     * @return true if the tasks were recorded
+     */
+    public boolean hasTasks() {
+        return shardNames != null;
+    }
+
+    /**
+     * Record the tasks of the shards in the first run, or take their results
+     * in the second run.
+     *
+     * @param shardNames the shard of each task
+     * @param calls the tasks
+     * @return the results, or null if the tasks are to be run as usual
+     * @throws DbException to stop the first run
+     */
+    @SuppressWarnings("unchecked")
+    <T> List<T> execute(List<String> shardNames, List<Callable<T>> calls) {
+        if (recording) {
+            recording = false;
+            this.shardNames = New.arrayList(shardNames);
+            this.calls = (List<Callable<Object>>) (List<?>) calls;
+            throw DbException.get(ErrorCode.STATEMENT_WAS_CANCELED);
+        }
+        if (futures == null || taken) {
+            return null;
+        }
+        if (!this.shardNames.equals(shardNames)) {
+            // the tasks of the second run differ, which should not happen,
+            // they are run again
+            discard();
+            return null;
+        }
+        taken = true;
+        List<T> results = New.arrayList(futures.size());
+        for (Future<Object> future : futures) {
+            try {
+                results.add((T) future.get());
+            } catch (InterruptedException e) {
+                throw DbException.convert(e);
+            } catch (ExecutionException e) {
+                throw DbException.convert(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Submit the recorded tasks. The connections of the shards are opened
+     * first by the calling thread, as the session is not thread safe.
+     *
+     * @param session the session
+     * @param executor the executor of the shards
+     * @param whenDone the callback once all tasks are done
+     */
+    public void start(Session session, MultiNodeExecutor executor, Runnable whenDone) {
+        for (String shardName : shardNames) {
+            try {
+                session.getDataNodeConnection(shardName);
+            } catch (SQLException e) {
+                throw DbException.convert(e);
+            }
+        }
+        session.resumeShardStatements();
+        futures = executor.submit(shardNames, calls, whenDone);
+    }
+
+    /**
+     * Cancel the tasks that did not start yet.
+     */
+    public void cancel() {
+        if (futures != null) {
+            for (Future<Object> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Close the results of the tasks if the second run did not take them.
+     * The tasks must be done.
+     */
+    public void discard() {
+        if (futures == null || taken) {
+            return;
+        }
+        taken = true;
+        for (Future<Object> future : futures) {
+            Object result;
+            try {
+                result = future.get();
+            } catch (Exception e) {
+                continue;
+            }
+            if (result instanceof CloseableCursor) {
+                ((CloseableCursor) result).close();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package com.suning.snfddal.dbobject.index;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.suning.snfddal.message.DbException;
+import com.suning.snfddal.result.Row;
+import com.suning.snfddal.result.SearchRow;
+import com.suning.snfddal.result.SortOrder;
+
+/**
+ * A cursor that merges the cursors of the shards, each already sorted by the
+ * same sort order, into one sorted cursor. The cursors are kept in a heap by
+ * their current row, so that only one row per shard is held at a time.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class SortedMergedCursor implements CloseableCursor {
+
+    private final List<ResultCursor> cursors;
+    private final PriorityQueue<ResultCursor> queue;
+    private ResultCursor currentCursor;
+    private Row currentRow;
+    private boolean initialized;
+
+    /**
+     * Merge the sorted cursors.
+     *
+     * @param cursors the cursors of the shards
+     * @param sortOrder the order of the rows of each cursor, the column
+     *            indexes are the column ids of the table
+     */
+    public SortedMergedCursor(List<ResultCursor> cursors, final SortOrder sortOrder) {
+        this.cursors = cursors;
+        this.queue = new PriorityQueue<ResultCursor>(Math.max(1, cursors.size()),
+                new Comparator<ResultCursor>() {
+                    @Override
+                    public int compare(ResultCursor a, ResultCursor b) {
+                        return sortOrder.compare(a.get().getValueList(), b.get().getValueList());
+                    }
+                });
+    }
+
+    @Override
+    public Row get() {
+        return currentRow;
+    }
+
+    @Override
+    public SearchRow getSearchRow() {
+        return currentRow;
+    }
+
+    @Override
+    public boolean next() {
+        if (!initialized) {
+            for (ResultCursor cursor : cursors) {
+                if (cursor.next()) {
+                    queue.add(cursor);
+                }
+            }
+            initialized = true;
+        } else if (currentCursor != null && currentCursor.next()) {
+            queue.add(currentCursor);
+        }
+        currentCursor = queue.poll();
+        if (currentCursor == null) {
+            currentRow = null;
+            return false;
+        }
+        currentRow = currentCursor.get();
+        return true;
+    }
+
+    @Override
+    public void close() {
+        for (ResultCursor cursor : cursors) {
+            cursor.close();
+        }
+        queue.clear();
+        currentCursor = null;
+        initialized = true;
+    }
+
+    @Override
+    public boolean previous() {
+        throw DbException.throwInternalError();
+    }
+
+}
@@ -93,6 +93,7 @@ public class TriggerObject extends SchemaObjectBase {
         if (rowBased || before != beforeAction || (typeMask & type) == 0) {
             return;
         }
+        session.checkShardRound();
         load();
         Connection c2 = session.createConnection(false);
         boolean old = false;
@@ -169,6 +170,7 @@ public class TriggerObject extends SchemaObjectBase {
         if (!fire) {
             return false;
         }
+        session.checkShardRound();
         oldList = convertToObjectList(oldRow);
         newList = convertToObjectList(newRow);
         Object[] newListBackup;
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package com.suning.snfddal.dbobject.table;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.suning.snfddal.engine.Session;
+import com.suning.snfddal.result.Row;
+import com.suning.snfddal.result.RowList;
+import com.suning.snfddal.util.New;
+import com.suning.snfddal.value.Value;
+import com.suning.snfddal.value.ValueNull;
+
+/**
+ * The rows of the build side of a hash join, by the value of the join key
+ * column. The rows are kept in memory until there are more than the maximum
+ * number of rows of a hash join kept in memory, then they are split into
+ * partitions by the hash code of the key, which are buffered to disk when
+ * they grow too large. The rows of the probe side are then split the same
+ * way, and the partitions are joined one after the other.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+class JoinHashTable {
+
+    /**
+     * The number of partitions of the rows once they do not fit in memory.
+     */
+    static final int PARTITIONS = 16;
+
+    private final Session session;
+    private final int keyColumnId;
+    private final int maxMemoryRows;
+    private HashMap<Value, ArrayList<Row>> rows = New.hashMap();
+    private int rowCount;
+    private RowList[] partitions;
+
+    JoinHashTable(Session session, Column keyColumn) {
+        this.session = session;
+        this.keyColumnId = keyColumn.getColumnId();
+        this.maxMemoryRows = session.getDatabase().getSettings().shardHashJoinMemoryRows;
+    }
+
+    /**
+     * Add a row. Rows with a NULL key are ignored, as they never match.
+     *
+     * @param row the row
+     */
+    void add(Row row) {
+        Value key = row.getValue(keyColumnId);
+        if (key == null || key == ValueNull.INSTANCE) {
+            return;
+        }
+        if (partitions != null) {
+            partitions[getPartition(key)].add(row);
+            return;
+        }
+        addToMap(rows, key, row);
+        if (++rowCount > maxMemoryRows) {
+            partitions = new RowList[PARTITIONS];
+            for (int i = 0; i < partitions.length; i++) {
+                partitions[i] = new RowList(session);
+            }
+            for (Map.Entry<Value, ArrayList<Row>> e : rows.entrySet()) {
+                RowList partition = partitions[getPartition(e.getKey())];
+                for (Row r : e.getValue()) {
+                    partition.add(r);
+                }
+            }
+            rows = null;
+        }
+    }
+
+    private static void addToMap(HashMap<Value, ArrayList<Row>> map, Value key, Row row) {
+        ArrayList<Row> list = map.get(key);
+        if (list == null) {
+            list = New.arrayList();
+            map.put(key, list);
+        }
+        list.add(row);
+    }
+
+    /**
+     * Check if the rows were split into partitions.
+     *
+     * @return true if they were
+     */
+    boolean isPartitioned() {
+        return partitions != null;
+    }
+
+    /**
+     * Get the partition of the rows with the given key.
+     *
+     * @param key the converted value of the key column
+     * @return the partition index
+     */
+    int getPartition(Value key) {
+        return (key.hashCode() & Integer.MAX_VALUE) % PARTITIONS;
+    }
+
+    /**
+     * Get the rows by key. If the rows were split, the rows of the given
+     * partition are read into memory.
+     *
+     * @param partition the partition index, ignored if the rows were not
+     *            split
+     * @return the rows by key
+     */
+    HashMap<Value, ArrayList<Row>> getRows(int partition) {
+        if (partitions == null) {
+            return rows;
+        }
+        HashMap<Value, ArrayList<Row>> map = New.hashMap();
+        RowList list = partitions[partition];
+        for (list.reset(); list.hasNext();) {
+            Row row = list.next();
+            addToMap(map, row.getValue(keyColumnId), row);
+        }
+        return map;
+    }
+
+    /**
+     * Close the partitions and delete their temporary files.
+     */
+    void close() {
+        if (partitions != null) {
+            for (RowList list : partitions) {
+                list.close();
+            }
+        }
+        rows = null;
+    }
+
+}
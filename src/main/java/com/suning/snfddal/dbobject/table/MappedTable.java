@@ -11,10 +11,12 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
 import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 
 import com.suning.snfddal.api.ErrorCode;
@@ -64,6 +66,8 @@ public class MappedTable extends Table {
     private boolean globalTemporary;
     private boolean readOnly;
     private TableRouter tableRouter;
+    private boolean broadcast;
+    private long rowCountHint = -1;
 
     public MappedTable(Schema schema, int id, String name, String metadataNode, String originalSchema,
             String originalTable, boolean emitUpdates, boolean force) {
@@ -331,6 +335,52 @@ public class MappedTable extends Table {
         indexes.add(index);
     }*/
     
+    /**
+     * Check if the rows that have the same values in the given columns are
+     * all in the same physical table, that is, if the columns include all the
+     * rule columns of the table router.
+     *
+     * @param columns the columns
+     * @return true if they are
+     */
+    public boolean isPartitionedBy(HashSet<Column> columns) {
+        if (tableRouter == null) {
+            return true;
+        }
+        for (RuleColumn ruleCol : tableRouter.getRuleColumns()) {
+            boolean found = false;
+            for (Column column : columns) {
+                if (column.getTable() == this && column.getName().equalsIgnoreCase(ruleCol.getName())) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check if a column is a rule column of the table router, that is if
+     * its value decides the table of the row.
+     *
+     * @param column the column
+     * @return true if it is
+     */
+    public boolean isRuleColumn(Column column) {
+        if (tableRouter == null || column.getTable() != this) {
+            return false;
+        }
+        for (RuleColumn ruleCol : tableRouter.getRuleColumns()) {
+            if (column.getName().equalsIgnoreCase(ruleCol.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void checkRuleColumn() {
         TableRouter tableRouter = getTableRouter();
         if(tableRouter != null) {
@@ -440,6 +490,32 @@ public class MappedTable extends Table {
         getScanIndex(session).add(session, row);
     }
 
+    /**
+     * Add the rows of an INSERT statement, see
+     * {@link MappedIndex#add(Session, List)}.
+     *
+     * @param session the session
+     * @param rows the rows
+     * @return the update count
+     */
+    public int addRows(Session session, List<Row> rows) {
+        checkReadOnly();
+        return linkedIndex.add(session, rows);
+    }
+
+    /**
+     * Add the rows of a batch, see {@link MappedIndex#add(Session, List, List)}.
+     *
+     * @param session the session
+     * @param rows the rows
+     * @param errors the list to add the errors of the failed rows to
+     * @return the update counts of the rows
+     */
+    public int[] addRows(Session session, List<Row> rows, List<DbException> errors) {
+        checkReadOnly();
+        return linkedIndex.add(session, rows, errors);
+    }
+
     @Override
     public void close(Session session) {
         // do nothing
@@ -469,6 +545,9 @@ public class MappedTable extends Table {
      * @return the wrapped exception
      */
     public static DbException wrapException(String sql, Exception ex) {
+        if (ex instanceof DbException && ((DbException) ex).getErrorCode() == ErrorCode.STATEMENT_WAS_CANCELED) {
+            return (DbException) ex;
+        }
         SQLException e = DbException.toSQLException(ex);
         return DbException.get(ErrorCode.ERROR_ACCESSING_DATABASE_TABLE_2, e, sql, e.toString());
     }
@@ -521,7 +600,16 @@ public class MappedTable extends Table {
                         v.set(prep, i + 1);
                     }
                 }
-                prep.execute();
+                session.addShardStatement(prep);
+                boolean query = false;
+                try {
+                    query = prep.execute();
+                } finally {
+                    // a query stays registered until its rows are read
+                    if (!query || reusePrepared) {
+                        session.removeShardStatement(prep);
+                    }
+                }
                 if (reusePrepared) {
                     reusePreparedStatement(prep, sql);
                     return null;
@@ -529,7 +617,10 @@ public class MappedTable extends Table {
                 return prep;
 
             } catch (SQLException e) {
-                if (retry >= MAX_RETRY) {
+                if (session.isShardStatementCanceled()) {
+                    throw DbException.get(ErrorCode.STATEMENT_WAS_CANCELED);
+                }
+                if (retry >= MAX_RETRY || e instanceof SQLTimeoutException) {
                     throw DbException.convert(e);
                 }
                 connect();
@@ -704,4 +795,39 @@ public class MappedTable extends Table {
         this.tableRouter = tableRouter;
     }
 
+    /**
+     * Check if the table is a broadcast table, that has a copy of the same
+     * name in every shard. The writes go to all copies, the reads to one.
+     *
+     * @return true if it is
+     */
+    public boolean isBroadcast() {
+        return broadcast;
+    }
+
+    /**
+     * @param broadcast the broadcast to set
+     */
+    public void setBroadcast(boolean broadcast) {
+        this.broadcast = broadcast;
+    }
+
+    /**
+     * Get the number of rows of the table over all shards, as configured.
+     * The table only counts the rows it has written itself, so this is the
+     * only estimate of the rows of the shards.
+     *
+     * @return the number of rows, or -1 if it is not known
+     */
+    public long getRowCountHint() {
+        return rowCountHint;
+    }
+
+    /**
+     * @param rowCountHint the number of rows, or -1 if it is not known
+     */
+    public void setRowCountHint(long rowCountHint) {
+        this.rowCountHint = rowCountHint;
+    }
+
 }
@@ -6,6 +6,9 @@
 package com.suning.snfddal.dbobject.table;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 import com.suning.snfddal.command.Parser;
 import com.suning.snfddal.command.dml.Select;
@@ -14,13 +17,17 @@ import com.suning.snfddal.command.expression.ConditionAndOr;
 import com.suning.snfddal.command.expression.Expression;
 import com.suning.snfddal.command.expression.ExpressionColumn;
 import com.suning.snfddal.dbobject.Right;
+import com.suning.snfddal.dbobject.index.CloseableCursor;
+import com.suning.snfddal.dbobject.index.Cursor;
 import com.suning.snfddal.dbobject.index.Index;
 import com.suning.snfddal.dbobject.index.IndexCondition;
 import com.suning.snfddal.dbobject.index.IndexCursor;
+import com.suning.snfddal.dbobject.index.MappedIndex;
 import com.suning.snfddal.engine.Session;
 import com.suning.snfddal.engine.SysProperties;
 import com.suning.snfddal.message.DbException;
 import com.suning.snfddal.result.Row;
+import com.suning.snfddal.result.RowList;
 import com.suning.snfddal.result.SearchRow;
 import com.suning.snfddal.result.SortOrder;
 import com.suning.snfddal.util.New;
@@ -99,6 +106,63 @@ public class TableFilter implements ColumnResolver {
      */
     private TableFilter nestedJoin;
 
+    /**
+     * The joined tables whose rows are read by the shards together with the
+     * rows of this table, or null.
+     */
+    private ArrayList<TableFilter> shardJoinFilters;
+
+    /**
+     * The cursor over the rows of the join run by the shards.
+     */
+    private Cursor shardJoinCursor;
+
+    /**
+     * The equality condition on the column of a mapped table that joins it to
+     * the rows of the outer table, if the rows are read for a batch of outer
+     * rows at once, or null.
+     */
+    private IndexCondition batchKey;
+
+    /**
+     * The rows read for the batch of outer rows by the value of the batch key
+     * column.
+     */
+    private HashMap<Value, ArrayList<Row>> batchLookup;
+
+    /**
+     * The rows of the current outer row, and the index of the next one.
+     */
+    private ArrayList<Row> batchMatches;
+    private int batchMatchIndex;
+
+    /**
+     * The buffered rows of this table when the joined table is read in
+     * batches, and the index of the next one.
+     */
+    private ArrayList<Row> batchRows;
+    private int batchRowIndex;
+
+    /**
+     * Whether the rows of this mapped table are read once into a hash table
+     * by the value of the batch key, instead of for each batch of outer rows.
+     * This is chosen by the optimizer.
+     */
+    private boolean hashJoin;
+
+    /**
+     * The rows of this table if it is the build side of a hash join.
+     */
+    private JoinHashTable hashTable;
+
+    /**
+     * The rows of this table by the partition of their join key, when the
+     * hash table of the joined table is split into partitions, and the index
+     * of the current partition.
+     */
+    private RowList[] probeRows;
+    private int probePartition;
+
     private ArrayList<Column> naturalJoinColumns;
     private boolean foundOne;
     private Expression fullCondition;
@@ -278,6 +342,9 @@ public class TableFilter implements ColumnResolver {
                 DbException.throwInternalError("self join");
             }
             join.prepare();
+            if (nestedJoin == null && !joinOuter) {
+                join.prepareBatchKey(this);
+            }
         }
         if (filterCondition != null) {
             filterCondition = filterCondition.optimize(session);
@@ -287,6 +354,31 @@ public class TableFilter implements ColumnResolver {
         }
     }
 
+    /**
+     * Find the equality condition that joins this mapped table to the rows
+     * of the outer table, so that the rows of a batch of outer rows can be
+     * read at once.
+     *
+     * @param outer the outer table filter
+     */
+    private void prepareBatchKey(TableFilter outer) {
+        batchKey = null;
+        if (nestedJoin != null || !(index instanceof MappedIndex)) {
+            return;
+        }
+        if (!hashJoin && session.getDatabase().getSettings().shardJoinBatchRows <= 0) {
+            return;
+        }
+        for (IndexCondition condition : indexConditions) {
+            if (condition.getCompareType() == Comparison.EQUAL &&
+                    condition.getColumn().getColumnId() >= 0 &&
+                    !condition.isNotFromResolver(outer)) {
+                batchKey = condition;
+                return;
+            }
+        }
+    }
+
     /**
      * Start the query. This will reset the scan counts.
      *
@@ -295,6 +387,9 @@ public class TableFilter implements ColumnResolver {
     public void startQuery(Session s) {
         this.session = s;
         scanCount = 0;
+        batchRows = null;
+        batchLookup = null;
+        closeHashJoin();
         if (nestedJoin != null) {
             nestedJoin.startQuery(s);
         }
@@ -317,15 +412,65 @@ public class TableFilter implements ColumnResolver {
         foundOne = false;
     }
 
+    /**
+     * Close the cursor of this table filter when no more rows are read, as
+     * when the limit of the query is reached, so that the shards of a mapped
+     * table stop sending rows.
+     */
+    public void closeCursor() {
+        cursor.close();
+        if (shardJoinCursor instanceof CloseableCursor) {
+            ((CloseableCursor) shardJoinCursor).close();
+        }
+        for (TableFilter f = this; f != null; f = f.join) {
+            f.closeHashJoin();
+        }
+    }
+
+    /**
+     * Delete the partitions of a hash join buffered to disk.
+     */
+    private void closeHashJoin() {
+        closeProbeRows();
+        if (hashTable != null) {
+            hashTable.close();
+            hashTable = null;
+        }
+    }
+
+    private void closeProbeRows() {
+        if (probeRows != null) {
+            for (RowList list : probeRows) {
+                list.close();
+            }
+            probeRows = null;
+        }
+    }
+
     /**
      * Check if there are more rows to read.
      *
      * @return true if there are
      */
     public boolean next() {
+        if (shardJoinFilters != null) {
+            return nextShardJoin();
+        }
         if (state == AFTER_LAST) {
             return false;
+        } else if (state == BEFORE_FIRST && batchLookup != null) {
+            Value key = batchKey.getCurrentValue(session);
+            batchMatches = batchLookup.get(batchKey.getColumn().convert(key));
+            batchMatchIndex = 0;
+            if (nestedJoin != null) {
+                nestedJoin.reset();
+            }
+            if (join != null) {
+                join.reset();
+            }
         } else if (state == BEFORE_FIRST) {
+            batchRows = null;
+            closeProbeRows();
             cursor.find(session, indexConditions);
             if (!cursor.isAlwaysFalse()) {
                 if (nestedJoin != null) {
@@ -347,7 +492,14 @@ public class TableFilter implements ColumnResolver {
             if (state == NULL_ROW) {
                 break;
             }
-            if (cursor.isAlwaysFalse()) {
+            if (batchLookup != null) {
+                if (batchMatches != null && batchMatchIndex < batchMatches.size()) {
+                    set(batchMatches.get(batchMatchIndex++));
+                    state = FOUND;
+                } else {
+                    state = AFTER_LAST;
+                }
+            } else if (cursor.isAlwaysFalse()) {
                 state = AFTER_LAST;
             } else if (nestedJoin != null) {
                 if (state == BEFORE_FIRST) {
@@ -357,7 +509,10 @@ public class TableFilter implements ColumnResolver {
                 if ((++scanCount & 4095) == 0) {
                     checkTimeout();
                 }
-                if (cursor.next()) {
+                if (join != null && join.batchKey != null) {
+                    boolean found = join.hashJoin ? nextHashRow() : nextBatchRow();
+                    state = found ? FOUND : AFTER_LAST;
+                } else if (cursor.next()) {
                     currentSearchRow = cursor.getSearchRow();
                     current = null;
                     state = FOUND;
@@ -409,6 +564,193 @@ public class TableFilter implements ColumnResolver {
         return false;
     }
 
+    /**
+     * Read the next buffered row of this table. When the buffer is empty, a
+     * batch of rows is read, and then the rows of the joined table for all
+     * of their join keys.
+     */
+    private boolean nextBatchRow() {
+        if (batchRows != null && batchRowIndex < batchRows.size()) {
+            set(batchRows.get(batchRowIndex++));
+            return true;
+        }
+        int batchSize = session.getDatabase().getSettings().shardJoinBatchRows;
+        if (batchRows == null) {
+            batchRows = New.arrayList();
+        }
+        batchRows.clear();
+        batchRowIndex = 0;
+        LinkedHashSet<Value> keys = new LinkedHashSet<Value>();
+        Column keyColumn = join.batchKey.getColumn();
+        while (batchRows.size() < batchSize && cursor.next()) {
+            Row row = cursor.get();
+            set(row);
+            if (!isOk(filterCondition)) {
+                continue;
+            }
+            batchRows.add(row);
+            Value key = join.batchKey.getCurrentValue(session);
+            if (key != ValueNull.INSTANCE) {
+                keys.add(keyColumn.convert(key));
+            }
+        }
+        join.findBatch(keys);
+        if (batchRows.isEmpty()) {
+            return false;
+        }
+        set(batchRows.get(batchRowIndex++));
+        return true;
+    }
+
+    /**
+     * Read the next row of this table when the joined table is the build side
+     * of a hash join. The rows are read as they come, unless the hash table
+     * is split into partitions: then the rows are split the same way first,
+     * and the partitions are joined one after the other.
+     */
+    private boolean nextHashRow() {
+        JoinHashTable table = join.buildHashTable();
+        if (!table.isPartitioned()) {
+            if (!cursor.next()) {
+                return false;
+            }
+            currentSearchRow = cursor.getSearchRow();
+            current = null;
+            return true;
+        }
+        if (probeRows == null) {
+            probeRows = new RowList[JoinHashTable.PARTITIONS];
+            for (int i = 0; i < probeRows.length; i++) {
+                probeRows[i] = new RowList(session);
+            }
+            Column keyColumn = join.batchKey.getColumn();
+            while (cursor.next()) {
+                Row row = cursor.get();
+                set(row);
+                if (!isOk(filterCondition)) {
+                    continue;
+                }
+                // a NULL key does not match, but the row is kept for an
+                // outer join
+                Value key = join.batchKey.getCurrentValue(session);
+                int partition = key == ValueNull.INSTANCE ? 0 :
+                        table.getPartition(keyColumn.convert(key));
+                probeRows[partition].add(row);
+            }
+            probePartition = -1;
+        }
+        while (probePartition < 0 || !probeRows[probePartition].hasNext()) {
+            if (++probePartition == probeRows.length) {
+                closeProbeRows();
+                return false;
+            }
+            probeRows[probePartition].reset();
+            join.batchLookup = table.getRows(probePartition);
+        }
+        set(probeRows[probePartition].next());
+        return true;
+    }
+
+    /**
+     * Read all rows of this mapped table that may be joined, in parallel
+     * across the shards, into the hash table of a hash join, unless this was
+     * already done for the query.
+     */
+    private JoinHashTable buildHashTable() {
+        if (hashTable == null) {
+            Column keyColumn = batchKey.getColumn();
+            hashTable = new JoinHashTable(session, keyColumn);
+            Cursor c = ((MappedIndex) index).find(this, keyColumn, null);
+            try {
+                while (c.next()) {
+                    hashTable.add(c.get());
+                }
+            } finally {
+                if (c instanceof CloseableCursor) {
+                    ((CloseableCursor) c).close();
+                }
+            }
+            batchLookup = hashTable.isPartitioned() ? null : hashTable.getRows(0);
+        }
+        return hashTable;
+    }
+
+    /**
+     * Read the rows of this mapped table for the join keys of a batch of
+     * outer rows, with one query per table.
+     *
+     * @param keys the distinct values of the join key
+     */
+    private void findBatch(Set<Value> keys) {
+        batchLookup = New.hashMap();
+        if (keys.isEmpty()) {
+            return;
+        }
+        Column keyColumn = batchKey.getColumn();
+        Value[] values = keys.toArray(new Value[keys.size()]);
+        Cursor c = ((MappedIndex) index).find(this, keyColumn, values);
+        try {
+            while (c.next()) {
+                Row row = c.get();
+                Value key = row.getValue(keyColumn.getColumnId());
+                ArrayList<Row> rows = batchLookup.get(key);
+                if (rows == null) {
+                    rows = New.arrayList();
+                    batchLookup.put(key, rows);
+                }
+                rows.add(row);
+            }
+        } finally {
+            if (c instanceof CloseableCursor) {
+                ((CloseableCursor) c).close();
+            }
+        }
+    }
+
+    /**
+     * Read the next row of the join run by the shards. The row holds the
+     * columns of this table and of the joined tables one after the other,
+     * it is split into the current rows of the filters.
+     */
+    private boolean nextShardJoin() {
+        if (state == AFTER_LAST) {
+            return false;
+        } else if (state == BEFORE_FIRST) {
+            closeCursor();
+            shardJoinCursor = ((MappedIndex) getIndex()).findJoin(this);
+        }
+        while (true) {
+            if ((++scanCount & 4095) == 0) {
+                checkTimeout();
+            }
+            if (!shardJoinCursor.next()) {
+                state = AFTER_LAST;
+                return false;
+            }
+            state = FOUND;
+            Value[] values = shardJoinCursor.get().getValueList();
+            int offset = setShardJoinRow(values, 0);
+            boolean ok = isOk(filterCondition);
+            for (TableFilter f : shardJoinFilters) {
+                offset = f.setShardJoinRow(values, offset);
+                ok = ok && f.isOk(f.filterCondition) && f.isOk(f.joinCondition);
+            }
+            if (ok) {
+                return true;
+            }
+        }
+    }
+
+    private int setShardJoinRow(Value[] values, int offset) {
+        Row row = table.getTemplateRow();
+        int columnCount = table.getColumns().length;
+        for (int i = 0; i < columnCount; i++) {
+            row.setValue(i, values[offset + i]);
+        }
+        set(row);
+        return offset + columnCount;
+    }
+
     /**
      * Set the state of this and all nested tables to the NULL row.
      */
@@ -439,6 +781,38 @@ public class TableFilter implements ColumnResolver {
         return Boolean.TRUE.equals(condition.getBooleanValue(session));
     }
 
+    /**
+     * Let the shards run the join of this table with the given tables. The
+     * rows of the joined tables are then read by this filter.
+     *
+     * @param filters the joined filters
+     */
+    public void setShardJoin(ArrayList<TableFilter> filters) {
+        this.shardJoinFilters = filters;
+    }
+
+    /**
+     * Check if the rows of a table filter are read by the shards together
+     * with the rows of this filter, as it is this filter or one of the filters
+     * joined by the shards.
+     *
+     * @param filter the table filter
+     * @return true if they are
+     */
+    public boolean isShardJoinedWith(TableFilter filter) {
+        return filter == this || shardJoinFilters != null && shardJoinFilters.contains(filter);
+    }
+
+    /**
+     * Get the joined filters whose rows are read by the shards together with
+     * the rows of this filter.
+     *
+     * @return the filters, or null if the join is not run by the shards
+     */
+    public ArrayList<TableFilter> getShardJoinFilters() {
+        return shardJoinFilters;
+    }
+
     /**
      * Get the current row.
      *
@@ -741,6 +1115,48 @@ public class TableFilter implements ColumnResolver {
         this.used = used;
     }
 
+    /**
+     * Read the rows of this mapped table once into a hash table, instead of
+     * for each batch of the rows of the outer table.
+     *
+     * @param hashJoin true to use a hash join
+     */
+    public void setHashJoin(boolean hashJoin) {
+        this.hashJoin = hashJoin;
+    }
+
+    public boolean isHashJoin() {
+        return hashJoin;
+    }
+
+    /**
+     * Estimate the number of rows of this table that match the index
+     * conditions that do not use the other tables of the query, from the
+     * configured number of rows of the mapped table.
+     *
+     * @return the estimated row count, or -1 if the number of rows of the
+     *         table is not known
+     */
+    public double getRowCountEstimate() {
+        long rows = table instanceof MappedTable ? ((MappedTable) table).getRowCountHint() : -1;
+        if (rows < 0 || !(index instanceof MappedIndex)) {
+            return -1;
+        }
+        int[] masks = new int[table.getColumns().length];
+        for (IndexCondition condition : indexConditions) {
+            if (condition.isEvaluatable()) {
+                if (condition.isAlwaysFalse()) {
+                    return 0;
+                }
+                int id = condition.getColumn().getColumnId();
+                if (id >= 0) {
+                    masks[id] |= condition.getMask(indexConditions);
+                }
+            }
+        }
+        return ((MappedIndex) index).getRowCountEstimate(masks, rows);
+    }
+
     public boolean isUsed() {
         return used;
     }
@@ -6,6 +6,7 @@
 package com.suning.snfddal.engine;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -30,8 +31,11 @@ import com.suning.snfddal.dbobject.table.Table;
 import com.suning.snfddal.message.DbException;
 import com.suning.snfddal.message.Trace;
 import com.suning.snfddal.message.TraceSystem;
+import com.suning.snfddal.route.MultiNodeExecutor;
 import com.suning.snfddal.route.RoutingHandler;
 import com.suning.snfddal.route.RoutingHandlerImpl;
+import com.suning.snfddal.route.ShardExecutor;
+import com.suning.snfddal.route.rule.CachedRoutingCalculator;
 import com.suning.snfddal.util.BitField;
 import com.suning.snfddal.util.New;
 import com.suning.snfddal.util.SourceCompiler;
@@ -56,6 +60,7 @@ public class Database {
     private final HashMap<String, UserAggregate> aggregates = New.hashMap();
     private final HashMap<String, Comment> comments = New.hashMap();
     private final HashMap<String, DataSource> dataNodeMapping = New.hashMap();
+    private String[] dataNodeNames;
 
     private final Set<Session> userSessions = Collections.synchronizedSet(new HashSet<Session>());
 
@@ -76,11 +81,21 @@ public class Database {
 
     private SourceCompiler compiler;
     private RoutingHandler routingHandler;
+    private final MultiNodeExecutor multiNodeExecutor;
 
     public Database() {
+        this(DbSettings.getInstance(null));
+    }
+
+    /**
+     * Create a database with the given settings.
+     *
+     * @param dbSettings the settings
+     */
+    public Database(DbSettings dbSettings) {
 
         this.compareMode = CompareMode.getInstance(null, 0);
-        this.dbSettings = DbSettings.getInstance(null);
+        this.dbSettings = dbSettings;
 
         int traceLevelFile = TraceSystem.DEBUG;
         int traceLevelSystemOut = TraceSystem.DEBUG;
@@ -90,6 +105,13 @@ public class Database {
         traceSystem.setLevelSystemOut(traceLevelSystemOut);
         trace = traceSystem.getTrace(Trace.DATABASE);
 
+        boolean virtual = dbSettings.shardVirtualThreads;
+        if (virtual && !ShardExecutor.isVirtualThreadSupported()) {
+            trace.info("virtual threads are not supported, the shards use thread pools");
+            virtual = false;
+        }
+        multiNodeExecutor = new MultiNodeExecutor(virtual, dbSettings.shardVirtualMaxThreads);
+
     }
 
     /**
@@ -351,6 +373,7 @@ public class Database {
                 }
             }
         }
+        multiNodeExecutor.shutdown();
         trace.info("Database closed");
         traceSystem.close();
     }
@@ -609,11 +632,27 @@ public class Database {
         obj.getSchema().remove(obj);
     }
 
-    public synchronized void addDataNode(String name, DataSource dataSource) {
+    public void addDataNode(String name, DataSource dataSource) {
+        addDataNode(name, dataSource, ShardExecutor.DEFAULT_MAX_THREADS, ShardExecutor.DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * Add a data node, with its own threads to run the statements of the
+     * shard.
+     *
+     * @param name the shard name
+     * @param dataSource the data source of the shard
+     * @param maxThreads the maximum number of threads of the shard
+     * @param queueSize the maximum number of statements of the shard that
+     *            wait for a thread
+     */
+    public synchronized void addDataNode(String name, DataSource dataSource, int maxThreads, int queueSize) {
         if (dataNodeMapping.containsKey(name)) {
             DbException.throwInternalError("data node already exists: " + name);
         }
+        multiNodeExecutor.addShard(name, maxThreads, queueSize);
         dataNodeMapping.put(name, dataSource);
+        dataNodeNames = null;
     }
 
     public DataSource getDataNode(String name) {
@@ -624,11 +663,26 @@ public class Database {
         return dataSource;
     }
 
+    /**
+     * Get the names of the data nodes, in alphabetical order.
+     *
+     * @return the names, not to be modified
+     */
+    public synchronized String[] getDataNodeNames() {
+        if (dataNodeNames == null) {
+            dataNodeNames = dataNodeMapping.keySet().toArray(new String[dataNodeMapping.size()]);
+            Arrays.sort(dataNodeNames);
+        }
+        return dataNodeNames;
+    }
+
     public synchronized DataSource removeDataNode(String name) {
         DataSource dataSource = dataNodeMapping.get(name);
         if (dataSource == null) {
             DbException.throwInternalError("data node not found: " + name);
         }
+        dataNodeNames = null;
+        multiNodeExecutor.removeShard(name);
         return dataNodeMapping.remove(name);
     }
 
@@ -744,6 +798,30 @@ public class Database {
         }
         return routingHandler;
     }
+
+    /**
+     * Get the executor of the statements of the shards, with the threads of
+     * each shard and their metrics.
+     *
+     * @return the executor
+     */
+    public MultiNodeExecutor getMultiNodeExecutor() {
+        return multiNodeExecutor;
+    }
+
+    /**
+     * Get the cache of the routing results, with its size and hit and miss
+     * counts.
+     *
+     * @return the cache, or null if the routing results are not cached
+     */
+    public CachedRoutingCalculator getRoutingCache() {
+        RoutingHandler handler = getRoutingHandler();
+        if (handler instanceof RoutingHandlerImpl) {
+            return ((RoutingHandlerImpl) handler).getRoutingCache();
+        }
+        return null;
+    }
     
     
 
@@ -282,6 +282,14 @@ public class DbSettings extends SettingsBase {
      */
     public final int reconnectCheckDelay = get("RECONNECT_CHECK_DELAY", 200);
 
+    /**
+     * Database setting <code>ROUTING_CACHE_SIZE</code> (default: 16384).<br />
+     * The number of routing results cached for point lookups and single row
+     * inserts, keyed by the table router and the rule column values. Set to 0
+     * to calculate the routing for each statement.
+     */
+    public final int routingCacheSize = get("ROUTING_CACHE_SIZE", 16384);
+
     /**
      * Database setting <code>ROWID</code> (default: true).<br />
      * If set, each table has a pseudo-column _ROWID_.
@@ -296,6 +304,91 @@ public class DbSettings extends SettingsBase {
      */
     public final boolean selectForUpdateMvcc = get("SELECT_FOR_UPDATE_MVCC", true);
 
+    /**
+     * Database setting <code>SHARD_PREFETCH_ROWS</code> (default: 0).<br />
+     * The number of rows read ahead for each shard when a query reads the
+     * rows of many shards without ORDER BY. The shards are read by worker
+     * threads at the same time, and the rows are returned in the order they
+     * arrive. Set to 0 to read the shards one after the other.
+     */
+    public final int shardPrefetchRows = get("SHARD_PREFETCH_ROWS", 0);
+
+    /**
+     * Database setting <code>SHARD_INSERT_BUFFER_ROWS</code> (default:
+     * 1000).<br />
+     * The number of rows of an INSERT ... SELECT that are buffered before
+     * they are sent to the shards.
+     */
+    public final int shardInsertBufferRows = get("SHARD_INSERT_BUFFER_ROWS", 1000);
+
+    /**
+     * Database setting <code>SHARD_INSERT_MAX_PACKET_SIZE</code> (default:
+     * 1048576).<br />
+     * The estimated maximum size in bytes of an INSERT statement with many
+     * rows sent to a shard. The rows of a table that do not fit are sent with
+     * more statements. Set to 0 to send one statement per row.
+     */
+    public final int shardInsertMaxPacketSize = get("SHARD_INSERT_MAX_PACKET_SIZE", 1048576);
+
+    /**
+     * Database setting <code>SHARD_INSERT_MAX_PARAMETERS</code> (default:
+     * 2000).<br />
+     * The maximum number of parameters of an INSERT statement with many rows
+     * sent to a shard, below the limit of 2100 of SQL Server. The rows of a
+     * table that do not fit are sent with more statements.
+     */
+    public final int shardInsertMaxParameters = get("SHARD_INSERT_MAX_PARAMETERS", 2000);
+
+    /**
+     * Database setting <code>SHARD_JOIN_BATCH_ROWS</code> (default:
+     * 1000).<br />
+     * The number of rows of the outer table of a join that are read before
+     * the rows of the mapped table joined to them are read, with one query
+     * per table for all of their join keys. Set to 0 to query the joined
+     * table once per outer row.
+     */
+    public final int shardJoinBatchRows = get("SHARD_JOIN_BATCH_ROWS", 1000);
+
+    /**
+     * Database setting <code>SHARD_HASH_JOIN</code> (default: false).<br />
+     * Whether a mapped table joined on an equality condition is read once
+     * into a hash table, when it is estimated to have fewer rows than the
+     * tables before it in the plan. The estimate is based on the rows
+     * attribute of the tables in the configuration, the number of rows of a
+     * table over all shards. The tables without it are not hash joined.
+     */
+    public final boolean shardHashJoin = get("SHARD_HASH_JOIN", false);
+
+    /**
+     * Database setting <code>SHARD_HASH_JOIN_MEMORY_ROWS</code> (default:
+     * 100000).<br />
+     * The maximum number of rows of a hash join kept in memory. If there are
+     * more, the rows of both tables are split into partitions that are
+     * buffered to disk, and joined one partition after the other.
+     */
+    public final int shardHashJoinMemoryRows = get("SHARD_HASH_JOIN_MEMORY_ROWS", 100000);
+
+    /**
+     * Database setting <code>SHARD_VIRTUAL_THREADS</code> (default:
+     * false).<br />
+     * Whether the statements of a shard run on virtual threads, at most
+     * SHARD_VIRTUAL_MAX_THREADS at the same time, instead of in a thread pool
+     * of the maximum number of threads of the shard. It needs Java 21 or
+     * later, else the thread pools are used.
+     */
+    public final boolean shardVirtualThreads = get("SHARD_VIRTUAL_THREADS", false);
+
+    /**
+     * Database setting <code>SHARD_VIRTUAL_MAX_THREADS</code> (default:
+     * 1000).<br />
+     * The maximum number of statements of a shard that run on virtual threads
+     * at the same time. It does not depend on the maximum number of threads of
+     * the shard, as a virtual thread that waits for the database costs
+     * little; the connections of the data source of the shard still limit
+     * the statements.
+     */
+    public final int shardVirtualMaxThreads = get("SHARD_VIRTUAL_MAX_THREADS", 1000);
+
     /**
      * Database setting <code>SHARE_LINKED_CONNECTIONS</code>
      * (default: true).<br />
@@ -174,6 +174,14 @@ public class Mode {
      */
     public boolean onDuplicateKeyUpdate;
 
+    /**
+     * NULL values are sorted after the other values in ascending order and
+     * before them in descending order, unless NULLS FIRST or NULLS LAST is
+     * used. Usually, NULL is sorted before the other values in ascending
+     * order.
+     */
+    public boolean sortNullsHigh;
+
     private final String name;
 
     static {
@@ -186,6 +194,7 @@ public class Mode {
         mode.supportOffsetFetch = true;
         mode.sysDummy1 = true;
         mode.isolationLevelInSelectOrInsertStatement = true;
+        mode.sortNullsHigh = true;
         add(mode);
 
         mode = new Mode(DERBY);
@@ -224,6 +233,7 @@ public class Mode {
         mode.convertOnlyToSmallerScale = true;
         mode.uniqueIndexSingleNullExceptAllColumnsAreNull = true;
         mode.treatEmptyStringsAsNull = true;
+        mode.sortNullsHigh = true;
         add(mode);
 
         mode = new Mode(POSTGRE_SQL);
@@ -233,6 +243,7 @@ public class Mode {
         mode.systemColumns = true;
         mode.logIsLogBase10 = true;
         mode.serialColumnIsNotPK = true;
+        mode.sortNullsHigh = true;
         add(mode);
     }
 
@@ -7,6 +7,7 @@ package com.suning.snfddal.engine;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -26,6 +27,7 @@ import com.suning.snfddal.dbobject.Setting;
 import com.suning.snfddal.dbobject.User;
 import com.suning.snfddal.dbobject.constraint.Constraint;
 import com.suning.snfddal.dbobject.index.Index;
+import com.suning.snfddal.dbobject.index.ShardRound;
 import com.suning.snfddal.dbobject.schema.Schema;
 import com.suning.snfddal.dbobject.table.Table;
 import com.suning.snfddal.jdbc.JdbcConnection;
@@ -110,6 +112,13 @@ public class Session extends SessionWithState {
     
     private final Map<String, Connection> connectionHolder = New.hashMap();
 
+    /**
+     * The statements of the shards that run for the current statement.
+     */
+    private final HashSet<Statement> shardStatements = New.hashSet();
+    private boolean shardStatementsCanceled;
+    private ShardRound shardRound;
+
     public Session(Database database, User user, int id) {
         this.database = database;
         this.queryTimeout = database.getSettings().maxQueryTimeout;
@@ -604,6 +613,120 @@ public class Session extends SessionWithState {
     @Override
     public void cancel() {
         cancelAt = System.currentTimeMillis();
+        cancelShardStatements();
+    }
+
+    /**
+     * Register a statement of a shard before it is executed, so that it is
+     * cancelled with the current statement. Its query timeout is set to the
+     * time that is left until the current statement times out. This method
+     * may be called by other threads than the one of the session.
+     *
+     * @param stat the statement of the shard
+     * @throws DbException if the current statement is canceled or timed out
+     */
+    public void addShardStatement(Statement stat) throws SQLException {
+        long at = cancelAt;
+        int timeout = 0;
+        if (at != 0) {
+            long left = at - System.currentTimeMillis();
+            if (left <= 0) {
+                throw DbException.get(ErrorCode.STATEMENT_WAS_CANCELED);
+            }
+            // rounded up, as 0 would mean no timeout
+            timeout = (int) Math.min(Integer.MAX_VALUE, (left + 999) / 1000);
+        }
+        stat.setQueryTimeout(timeout);
+        synchronized (shardStatements) {
+            if (shardStatementsCanceled) {
+                throw DbException.get(ErrorCode.STATEMENT_WAS_CANCELED);
+            }
+            shardStatements.add(stat);
+        }
+    }
+
+    /**
+     * Remove a statement of a shard once it is done and its rows are read.
+     *
+     * @param stat the statement of the shard
+     */
+    public void removeShardStatement(Statement stat) {
+        synchronized (shardStatements) {
+            shardStatements.remove(stat);
+        }
+    }
+
+    /**
+     * Check if the statements of the shards were cancelled with the current
+     * statement.
+     *
+     * @return true if they were
+     */
+    public boolean isShardStatementCanceled() {
+        synchronized (shardStatements) {
+            return shardStatementsCanceled;
+        }
+    }
+
+    /**
+     * Let the statements of the shards run again after the last statement
+     * ended, for the first tasks of an asynchronous statement, which run
+     * between its first and second run.
+     */
+    public void resumeShardStatements() {
+        synchronized (shardStatements) {
+            shardStatementsCanceled = false;
+        }
+    }
+
+    /**
+     * Set the first tasks of the shards of the asynchronous statement that
+     * runs.
+     *
+     * @param shardRound the tasks, or null
+     */
+    public void setShardRound(ShardRound shardRound) {
+        this.shardRound = shardRound;
+    }
+
+    public ShardRound getShardRound() {
+        return shardRound;
+    }
+
+    /**
+     * Stop the first run of an asynchronous statement before something that
+     * would happen again in the second run.
+     *
+     * @throws DbException if the first run goes on
+     */
+    public void checkShardRound() {
+        ShardRound round = shardRound;
+        if (round != null && round.isRecording()) {
+            throw round.stop();
+        }
+    }
+
+    /**
+     * Cancel the statements of the shards that run for the current
+     * statement. This method may be called by other threads than the one of
+     * the session.
+     */
+    public void cancelShardStatements() {
+        Statement[] list;
+        synchronized (shardStatements) {
+            shardStatementsCanceled = true;
+            if (shardStatements.isEmpty()) {
+                return;
+            }
+            list = shardStatements.toArray(new Statement[shardStatements.size()]);
+        }
+        for (Statement stat : list) {
+            try {
+                stat.cancel();
+            } catch (SQLException e) {
+                // the driver may not support it, or the statement is done
+            }
+        }
     }
 
     @Override
@@ -849,6 +972,11 @@ public class Session extends SessionWithState {
      */
     public void setCurrentCommand(Command command) {
         this.currentCommand = command;
+        if (command != null) {
+            synchronized (shardStatements) {
+                shardStatementsCanceled = false;
+            }
+        }
         if (queryTimeout > 0 && command != null) {
             long now = System.currentTimeMillis();
             currentCommandStart = now;
@@ -1159,10 +1287,18 @@ public class Session extends SessionWithState {
 
     /**
      * Mark the statement as completed. This also close all temporary result
-     * set, and deletes all temporary files held by the result sets.
+     * set, and deletes all temporary files held by the result sets, and
+     * cancels the statements of the shards that still run.
      */
     public void endStatement() {
         closeTemporaryResults();
+        // the rows of these were not all read, as with a LIMIT, or the
+        // statement failed before they were done; they stay canceled until
+        // the next statement starts
+        cancelShardStatements();
+        synchronized (shardStatements) {
+            shardStatements.clear();
+        }
     }
 
     @Override
@@ -1206,6 +1342,7 @@ public class Session extends SessionWithState {
     
     public Connection getDataNodeConnection(String dataNode) throws SQLException {
         Connection result = connectionHolder.get(dataNode);
+        checkShardRound();
         if (result == null) {
             DataSource ds = database.getDataNode(dataNode);
             result = ds.getConnection();
@@ -19,7 +19,9 @@ import java.io.InputStream;
 import java.io.PrintWriter;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Properties;
 
 import javax.sql.DataSource;
 
@@ -34,6 +36,7 @@ import com.suning.snfddal.dbobject.User;
 import com.suning.snfddal.dbobject.schema.Schema;
 import com.suning.snfddal.dbobject.table.MappedTable;
 import com.suning.snfddal.engine.Database;
+import com.suning.snfddal.engine.DbSettings;
 import com.suning.snfddal.engine.SessionInterface;
 import com.suning.snfddal.message.DbException;
 import com.suning.snfddal.util.StringUtils;
@@ -55,6 +58,7 @@ public class DispatcherDataSource implements DataSource {
     private Database database;
     private String configLocation;
     private DataSourceLookup dataSourceLookup;
+    private Properties settings = new Properties();
     private boolean inited = false;
 
     /**
@@ -283,6 +287,23 @@ public class DispatcherDataSource implements DataSource {
         this.dataSourceLookup = dataSourceLookup;
     }
 
+    /**
+     * @return the settings that override those of the configuration
+     */
+    public Properties getSettings() {
+        return settings;
+    }
+
+    /**
+     * Set the database settings, as EARLY_FILTER or SHARD_PREFETCH_ROWS.
+     * They override the settings of the configuration.
+     *
+     * @param settings the settings to set
+     */
+    public void setSettings(Properties settings) {
+        this.settings = settings;
+    }
+
     public synchronized void init() {
         if (inited) {
             return;
@@ -297,7 +318,13 @@ public class DispatcherDataSource implements DataSource {
         XmlConfigParser parser = new XmlConfigParser(source);
         Configuration configuration = parser.parse();
         SchemaConfig dsConfig = configuration.getSchemaConfig();
-        this.database = new Database();
+        HashMap<String, String> dbSettings = new HashMap<String, String>();
+        for (Properties p : new Properties[] { configuration.getSettings(), settings }) {
+            for (String name : p.stringPropertyNames()) {
+                dbSettings.put(StringUtils.toUpperEnglish(name), p.getProperty(name));
+            }
+        }
+        this.database = new Database(DbSettings.getInstance(dbSettings));
         Map<String, ShardConfig> shardMapping = configuration.getCluster();
         for (ShardConfig value : shardMapping.values()) {
             String description = value.getDescription();
@@ -306,7 +333,7 @@ public class DispatcherDataSource implements DataSource {
             if(dataSource == null) {
                 throw new ConfigurationException("Can' find data source: " + description);
             }
-            database.addDataNode(value.getName(), dataSource);
+            database.addDataNode(value.getName(), dataSource, value.getMaxThreads(), value.getQueueSize());
         }
         
         Schema schema = database.findSchema(dsConfig.getName());
@@ -336,6 +363,8 @@ public class DispatcherDataSource implements DataSource {
             MappedTable tableObject = schema.createMappedTable(database.allocateObjectId(), tbConfig.getName(),
                     metaNode, null, originalTable, false, false);
             tableObject.setTableRouter(tbConfig.getTableRouter());
+            tableObject.setBroadcast(tbConfig.isBroadcast());
+            tableObject.setRowCountHint(tbConfig.getRows());
             database.addSchemaObject(tableObject);
         }
         inited = true;
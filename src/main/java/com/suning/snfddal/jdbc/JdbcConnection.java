@@ -23,28 +23,33 @@ import java.sql.SQLXML;
 import java.sql.Savepoint;
 import java.sql.Statement;
 import java.sql.Struct;
+import java.util.ArrayList;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import com.suning.snfddal.api.ErrorCode;
+import com.suning.snfddal.api.ListenableFuture;
 import com.suning.snfddal.command.CommandInterface;
+import com.suning.snfddal.dbobject.index.ShardRound;
 import com.suning.snfddal.engine.Constants;
+import com.suning.snfddal.engine.Session;
 import com.suning.snfddal.engine.SessionInterface;
 import com.suning.snfddal.engine.SysProperties;
 import com.suning.snfddal.message.DbException;
 import com.suning.snfddal.message.TraceObject;
 import com.suning.snfddal.result.ResultInterface;
 import com.suning.snfddal.util.JdbcUtils;
+import com.suning.snfddal.util.New;
 import com.suning.snfddal.value.CompareMode;
 import com.suning.snfddal.value.Value;
 import com.suning.snfddal.value.ValueInt;
 import com.suning.snfddal.value.ValueNull;
 import com.suning.snfddal.value.ValueString;
 
-/*## Java 1.7 ##
-import java.util.concurrent.Executor;
-//*/
-
 /**
  * <p>
  * Represents a connection (session) to a database.
@@ -241,6 +246,113 @@ public class JdbcConnection extends TraceObject implements Connection {
         }
     }
 
+    /**
+     * Execute a query without waiting for the shards. The statement is
+     * parsed, its parameters are set and it is run by the calling thread
+     * until it gets to the statements of the shards, which are submitted to
+     * the executors of the shards; the calling thread then returns. Once the
+     * last of them is done, the statement is completed on a thread of the
+     * given executor, which takes their results, so no thread waits for the
+     * shards in between. A statement that would use a shard otherwise, or a
+     * sequence, a trigger or a function that is not deterministic, before
+     * that point is run on a thread of the given executor as a whole.
+     * Cancelling the future cancels the statement, and with it the
+     * statements of the shards; the thread is not interrupted. The listeners
+     * of the future are run on the given executor. The statement is closed
+     * when the result set is closed. The connection should not be used by
+     * other statements until the future is done.
+     *
+     * @param sql the SQL statement
+     * @param params the values of the parameters, in order
+     * @param executor the executor that runs the statement
+     * @return the future result set
+     * @throws SQLException if the connection is closed, the statement is
+     *             invalid or fails before it gets to the shards, or the
+     *             executor rejects it
+     */
+    public ListenableFuture<ResultSet> executeQueryAsync(String sql, Object[] params, Executor executor)
+            throws SQLException {
+        final JdbcPreparedStatement prep = (JdbcPreparedStatement) prepareAutoCloseStatement(sql);
+        return executeAsync(prep, params, executor, true, new Callable<ResultSet>() {
+            @Override
+            public ResultSet call() throws SQLException {
+                return prep.executeQuery();
+            }
+        });
+    }
+
+    /**
+     * Execute an INSERT, UPDATE, DELETE or other statement that returns an
+     * update count on a thread of the given executor. Unlike a query, the
+     * statement is run as a whole on that thread, which waits for the
+     * shards: a statement that is run until it gets to the shards could
+     * change data before, which would happen again when it is completed.
+     * Cancelling the future cancels the statement as
+     * {@link #executeQueryAsync(String, Object[], Executor)} does, and the
+     * listeners of the future are run on the given executor. The statement
+     * is closed when it is done.
+     *
+     * @param sql the SQL statement
+     * @param params the values of the parameters, in order
+     * @param executor the executor that runs the statement
+     * @return the future update count
+     * @throws SQLException if the connection is closed, the statement is
+     *             invalid, or the executor rejects it
+     */
+    public ListenableFuture<Integer> executeUpdateAsync(String sql, Object[] params, Executor executor)
+            throws SQLException {
+        final JdbcPreparedStatement prep = (JdbcPreparedStatement) prepareStatement(sql);
+        return executeAsync(prep, params, executor, false, new Callable<Integer>() {
+            @Override
+            public Integer call() throws SQLException {
+                try {
+                    return prep.executeUpdate();
+                } finally {
+                    prep.close();
+                }
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> ListenableFuture<T> executeAsync(JdbcPreparedStatement prep, Object[] params,
+            final Executor executor, boolean query, Callable<T> call) throws SQLException {
+        try {
+            for (int i = 0; params != null && i < params.length; i++) {
+                prep.setObject(i + 1, params[i]);
+            }
+            Session s = (Session) session;
+            if (!query) {
+                AsyncStatement<T> future = new AsyncStatement<T>(prep, s, null, executor, call);
+                executor.execute(future);
+                return future;
+            }
+            ShardRound round = new ShardRound();
+            final AsyncStatement<T> future = new AsyncStatement<T>(prep, s, round, executor, call);
+            if (prep.executeQueryUntilShards(round)) {
+                // the statement did not need the shards
+                future.complete((T) prep.getResultSet());
+            } else if (round.hasTasks()) {
+                round.start(s, s.getDatabase().getMultiNodeExecutor(), new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            executor.execute(future);
+                        } catch (RuntimeException e) {
+                            future.fail(e);
+                        }
+                    }
+                });
+            } else {
+                executor.execute(future);
+            }
+            return future;
+        } catch (Exception e) {
+            JdbcUtils.closeSilently(prep);
+            throw logAndConvert(e);
+        }
+    }
+
     /**
      * Gets the database meta data for this database.
      *
@@ -1824,4 +1936,121 @@ public class JdbcConnection extends TraceObject implements Connection {
         trace.setLevel(level);
     }
 
+    /**
+     * A statement that is completed on another thread, with the results of
+     * the statements of the shards that were started before, if any. It is
+     * cancelled with the statement and the statements of the shards, and
+     * closed if it is cancelled before or while it runs. Once it is done,
+     * the listeners are run on the executor.
+     */
+    private static class AsyncStatement<T> extends FutureTask<T> implements ListenableFuture<T> {
+
+        private final Statement stat;
+        private final Session session;
+        private final ShardRound round;
+        private final Executor executor;
+
+        /**
+         * The listeners, or null once the statement is done.
+         */
+        private ArrayList<Runnable> listeners = New.arrayList();
+
+        AsyncStatement(Statement stat, Session session, ShardRound round, Executor executor,
+                Callable<T> call) {
+            super(call);
+            this.stat = stat;
+            this.session = session;
+            this.round = round;
+            this.executor = executor;
+        }
+
+        @Override
+        public void addListener(Runnable listener) {
+            synchronized (this) {
+                if (listeners != null) {
+                    listeners.add(listener);
+                    return;
+                }
+            }
+            callBack(listener);
+        }
+
+        @Override
+        protected void done() {
+            ArrayList<Runnable> list;
+            synchronized (this) {
+                list = listeners;
+                listeners = null;
+            }
+            for (Runnable listener : list) {
+                callBack(listener);
+            }
+        }
+
+        private void callBack(Runnable listener) {
+            try {
+                executor.execute(listener);
+            } catch (RejectedExecutionException e) {
+                listener.run();
+            }
+        }
+
+        /**
+         * Complete the future without running the statement again.
+         *
+         * @param result the result of the statement
+         */
+        void complete(T result) {
+            set(result);
+        }
+
+        /**
+         * Fail the future without running the statement, and close it.
+         *
+         * @param e the cause
+         */
+        void fail(Throwable e) {
+            setException(e);
+            if (round != null) {
+                round.discard();
+            }
+            JdbcUtils.closeSilently(stat);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (!super.cancel(false)) {
+                return false;
+            }
+            session.cancelShardStatements();
+            try {
+                stat.cancel();
+            } catch (SQLException e) {
+                // the statement is closed or done
+            }
+            // the last task that is cancelled may close the statement
+            if (round != null) {
+                round.cancel();
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            session.setShardRound(round);
+            try {
+                super.run();
+            } finally {
+                session.setShardRound(null);
+                if (round != null) {
+                    round.discard();
+                }
+            }
+            if (isCancelled()) {
+                JdbcUtils.closeSilently(stat);
+            }
+        }
+
+    }
+
 }
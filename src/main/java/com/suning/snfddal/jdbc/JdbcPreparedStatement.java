@@ -29,6 +29,8 @@ import java.util.HashMap;
 import com.suning.snfddal.api.ErrorCode;
 import com.suning.snfddal.command.CommandInterface;
 import com.suning.snfddal.command.expression.ParameterInterface;
+import com.suning.snfddal.dbobject.index.ShardRound;
+import com.suning.snfddal.engine.Session;
 import com.suning.snfddal.message.DbException;
 import com.suning.snfddal.message.TraceObject;
 import com.suning.snfddal.result.ResultInterface;
@@ -162,6 +164,47 @@ public class JdbcPreparedStatement extends JdbcStatement implements
         return updateCount;
     }
 
+    /**
+     * Run the query until it gets to the first tasks of the shards, which are
+     * recorded and not run, see {@link ShardRound}. If the query does not get
+     * to them, it is done, and its result set is set.
+     *
+     * @param round the round that records the tasks
+     * @return true if the query is done
+     * @throws SQLException if the query fails
+     */
+    boolean executeQueryUntilShards(ShardRound round) throws SQLException {
+        try {
+            checkClosed();
+            Session s = (Session) session;
+            try {
+                synchronized (session) {
+                    closeOldResultSet();
+                    s.setShardRound(round);
+                    try {
+                        setExecutingStatement(command);
+                        int id = getNextId(TraceObject.RESULT_SET);
+                        ResultInterface result = command.executeQuery(maxRows, false);
+                        resultSet = new JdbcResultSet(conn, this, result, id,
+                                closedByResultSet, false, false, cachedColumnLabelMap);
+                        return true;
+                    } finally {
+                        setExecutingStatement(null);
+                        s.setShardRound(null);
+                    }
+                }
+            } catch (DbException e) {
+                if (!round.isRecording()) {
+                    // stopped at the shards or before an effect
+                    return false;
+                }
+                throw e;
+            }
+        } catch (Exception e) {
+            throw logAndConvert(e);
+        }
+    }
+
     /**
      * Executes an arbitrary statement. If another result set exists for this
      * statement, this will be closed (even if this statement fails). If auto
@@ -1170,18 +1213,19 @@ public class JdbcPreparedStatement extends JdbcStatement implements
             SQLException next = null;
             checkClosedForWrite();
             try {
-                for (int i = 0; i < size; i++) {
-                    Value[] set = batchParameters.get(i);
-                    ArrayList<? extends ParameterInterface> parameters =
-                            command.getParameters();
-                    for (int j = 0; j < set.length; j++) {
-                        Value value = set[j];
-                        ParameterInterface param = parameters.get(j);
-                        param.setValue(value, false);
+                if (size > 0 && command.isBatchable()) {
+                    // the rows are sent to the shards in batches
+                    ArrayList<DbException> errors = New.arrayList();
+                    closeOldResultSet();
+                    synchronized (session) {
+                        try {
+                            setExecutingStatement(command);
+                            result = command.executeBatchUpdate(batchParameters, errors);
+                        } finally {
+                            setExecutingStatement(null);
+                        }
                     }
-                    try {
-                        result[i] = executeUpdateInternal();
-                    } catch (Exception re) {
+                    for (DbException re : errors) {
                         SQLException e = logAndConvert(re);
                         if (next == null) {
                             next = e;
@@ -1189,9 +1233,32 @@ public class JdbcPreparedStatement extends JdbcStatement implements
                             e.setNextException(next);
                             next = e;
                         }
-                        result[i] = Statement.EXECUTE_FAILED;
                         error = true;
                     }
+                } else {
+                    for (int i = 0; i < size; i++) {
+                        Value[] set = batchParameters.get(i);
+                        ArrayList<? extends ParameterInterface> parameters =
+                                command.getParameters();
+                        for (int j = 0; j < set.length; j++) {
+                            Value value = set[j];
+                            ParameterInterface param = parameters.get(j);
+                            param.setValue(value, false);
+                        }
+                        try {
+                            result[i] = executeUpdateInternal();
+                        } catch (Exception re) {
+                            SQLException e = logAndConvert(re);
+                            if (next == null) {
+                                next = e;
+                            } else {
+                                e.setNextException(next);
+                                next = e;
+                            }
+                            result[i] = Statement.EXECUTE_FAILED;
+                            error = true;
+                        }
+                    }
                 }
                 batchParameters = null;
                 if (error) {
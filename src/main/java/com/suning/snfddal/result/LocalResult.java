@@ -8,6 +8,8 @@ package com.suning.snfddal.result;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.PriorityQueue;
 
 import com.suning.snfddal.command.expression.Expression;
 import com.suning.snfddal.engine.Session;
@@ -33,6 +35,8 @@ public class LocalResult implements ResultInterface, ResultTarget {
     private int rowId, rowCount;
     private ArrayList<Value[]> rows;
     private SortOrder sort;
+    private PriorityQueue<Value[]> topRows;
+    private int topRowCount;
     private ValueHashMap<Value[]> distinctRows;
     private Value[] currentRow;
     private int offset;
@@ -257,6 +261,17 @@ public class LocalResult implements ResultInterface, ResultTarget {
      */
     @Override
     public void addRow(Value[] values) {
+        if (topRows != null) {
+            if (topRows.size() < topRowCount) {
+                topRows.add(values);
+                rowCount++;
+            } else if (sort.compare(values, topRows.peek()) < 0) {
+                // replace the last of the first rows
+                topRows.poll();
+                topRows.add(values);
+            }
+            return;
+        }
         if (distinct) {
             if (distinctRows != null) {
                 ValueArray array = ValueArray.get(values);
@@ -327,6 +342,10 @@ public class LocalResult implements ResultInterface, ResultTarget {
                 }
             }
         }
+        if (topRows != null) {
+            rows = New.arrayList(topRows);
+            topRows = null;
+        }
         if (external != null) {
             addRowsToDisk();
             external.done();
@@ -349,6 +368,24 @@ public class LocalResult implements ResultInterface, ResultTarget {
         return rowCount;
     }
 
+    /**
+     * Keep only the first rows of the sort order while the rows are added, in
+     * a heap of the given size, instead of sorting all the rows when done.
+     * This is only possible for a sorted result without distinct that has no
+     * rows yet.
+     *
+     * @param count the number of rows to keep, that is the offset plus the
+     *            limit
+     */
+    public void setTopRowCount(int count) {
+        if (sort == null || distinct || count <= 0 || rowCount > 0) {
+            return;
+        }
+        topRowCount = count;
+        topRows = new PriorityQueue<Value[]>(count,
+                Collections.reverseOrder(sort));
+    }
+
     /**
      * Set the number of rows that this result will return at the maximum.
      *
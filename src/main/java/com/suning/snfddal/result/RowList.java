@@ -5,12 +5,44 @@
  */
 package com.suning.snfddal.result;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
 import java.util.ArrayList;
 
 import com.suning.snfddal.engine.Constants;
 import com.suning.snfddal.engine.Session;
+import com.suning.snfddal.engine.SysProperties;
 import com.suning.snfddal.message.DbException;
+import com.suning.snfddal.util.IOUtils;
+import com.suning.snfddal.util.JdbcUtils;
 import com.suning.snfddal.util.New;
+import com.suning.snfddal.value.DataType;
+import com.suning.snfddal.value.Value;
+import com.suning.snfddal.value.ValueBoolean;
+import com.suning.snfddal.value.ValueByte;
+import com.suning.snfddal.value.ValueBytes;
+import com.suning.snfddal.value.ValueDate;
+import com.suning.snfddal.value.ValueDecimal;
+import com.suning.snfddal.value.ValueDouble;
+import com.suning.snfddal.value.ValueFloat;
+import com.suning.snfddal.value.ValueInt;
+import com.suning.snfddal.value.ValueJavaObject;
+import com.suning.snfddal.value.ValueLong;
+import com.suning.snfddal.value.ValueNull;
+import com.suning.snfddal.value.ValueShort;
+import com.suning.snfddal.value.ValueString;
+import com.suning.snfddal.value.ValueStringFixed;
+import com.suning.snfddal.value.ValueStringIgnoreCase;
+import com.suning.snfddal.value.ValueTime;
+import com.suning.snfddal.value.ValueTimestamp;
+import com.suning.snfddal.value.ValueUuid;
 
 /**
  * A list of rows. If the list grows too large, it is buffered to disk
@@ -18,12 +50,20 @@ import com.suning.snfddal.util.New;
  */
 public class RowList {
 
+    /**
+     * The marker of a missing value of a row, as a column that is not read.
+     */
+    private static final int NO_VALUE = -1;
+
     private final Session session;
     private final ArrayList<Row> list = New.arrayList();
     private int size;
     private int index;
     private final int maxMemory;
     private int memory;
+    private File file;
+    private DataOutputStream out;
+    private DataInputStream in;
 
     /**
      * Construct a new row list for this session.
@@ -35,10 +75,179 @@ public class RowList {
         maxMemory = session.getDatabase().getMaxOperationMemory();
     }
 
-
     private void writeAllRows() {
-        session.getId();
-        throw DbException.getUnsupportedException("TODO");
+        try {
+            if (file == null) {
+                file = File.createTempFile(SysProperties.PREFIX_TEMP_FILE, Constants.SUFFIX_TEMP_FILE);
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            }
+            for (Row r : list) {
+                writeRow(r);
+            }
+        } catch (IOException e) {
+            throw DbException.convertIOException(e, String.valueOf(file));
+        }
+        list.clear();
+        memory = 0;
+    }
+
+    private void writeRow(Row r) throws IOException {
+        out.writeLong(r.getKey());
+        int columnCount = r.getColumnCount();
+        out.writeInt(columnCount);
+        for (int i = 0; i < columnCount; i++) {
+            writeValue(r.getValue(i));
+        }
+    }
+
+    private Row readRow() throws IOException {
+        long key = in.readLong();
+        Value[] values = new Value[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readValue();
+        }
+        Row r = new Row(values, Row.MEMORY_CALCULATE);
+        r.setKey(key);
+        return r;
+    }
+
+    private void writeValue(Value v) throws IOException {
+        if (v == null) {
+            out.writeInt(NO_VALUE);
+            return;
+        }
+        int type = v.getType();
+        out.writeInt(type);
+        switch (type) {
+        case Value.NULL:
+            break;
+        case Value.BOOLEAN:
+            out.writeBoolean(v.getBoolean().booleanValue());
+            break;
+        case Value.BYTE:
+            out.writeByte(v.getByte());
+            break;
+        case Value.SHORT:
+            out.writeShort(v.getShort());
+            break;
+        case Value.INT:
+            out.writeInt(v.getInt());
+            break;
+        case Value.LONG:
+            out.writeLong(v.getLong());
+            break;
+        case Value.DECIMAL:
+            writeString(v.getBigDecimal().toString());
+            break;
+        case Value.DOUBLE:
+            out.writeDouble(v.getDouble());
+            break;
+        case Value.FLOAT:
+            out.writeFloat(v.getFloat());
+            break;
+        case Value.TIME:
+            out.writeLong(((ValueTime) v).getNanos());
+            break;
+        case Value.DATE:
+            out.writeLong(((ValueDate) v).getDateValue());
+            break;
+        case Value.TIMESTAMP:
+            out.writeLong(((ValueTimestamp) v).getDateValue());
+            out.writeLong(((ValueTimestamp) v).getTimeNanos());
+            break;
+        case Value.STRING:
+        case Value.STRING_IGNORECASE:
+        case Value.STRING_FIXED:
+            writeString(v.getString());
+            break;
+        case Value.UUID:
+            out.writeLong(((ValueUuid) v).getHigh());
+            out.writeLong(((ValueUuid) v).getLow());
+            break;
+        case Value.BYTES:
+        case Value.JAVA_OBJECT:
+            writeBytes(v.getBytesNoCopy());
+            break;
+        default:
+            writeBytes(JdbcUtils.serialize(v.getObject()));
+        }
+    }
+
+    private Value readValue() throws IOException {
+        int type = in.readInt();
+        switch (type) {
+        case NO_VALUE:
+            return null;
+        case Value.NULL:
+            return ValueNull.INSTANCE;
+        case Value.BOOLEAN:
+            return ValueBoolean.get(in.readBoolean());
+        case Value.BYTE:
+            return ValueByte.get(in.readByte());
+        case Value.SHORT:
+            return ValueShort.get(in.readShort());
+        case Value.INT:
+            return ValueInt.get(in.readInt());
+        case Value.LONG:
+            return ValueLong.get(in.readLong());
+        case Value.DECIMAL:
+            return ValueDecimal.get(new BigDecimal(readString()));
+        case Value.DOUBLE:
+            return ValueDouble.get(in.readDouble());
+        case Value.FLOAT:
+            return ValueFloat.get(in.readFloat());
+        case Value.TIME:
+            return ValueTime.fromNanos(in.readLong());
+        case Value.DATE:
+            return ValueDate.fromDateValue(in.readLong());
+        case Value.TIMESTAMP: {
+            long dateValue = in.readLong();
+            return ValueTimestamp.fromDateValueAndNanos(dateValue, in.readLong());
+        }
+        case Value.STRING:
+            return ValueString.get(readString());
+        case Value.STRING_IGNORECASE:
+            return ValueStringIgnoreCase.get(readString());
+        case Value.STRING_FIXED:
+            return ValueStringFixed.get(readString());
+        case Value.UUID: {
+            long high = in.readLong();
+            return ValueUuid.get(high, in.readLong());
+        }
+        case Value.BYTES:
+            return ValueBytes.getNoCopy(readBytes());
+        case Value.JAVA_OBJECT:
+            return ValueJavaObject.getNoCopy(null, readBytes());
+        default:
+            return DataType.convertToValue(session, JdbcUtils.deserialize(readBytes()), type);
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        int len = s.length();
+        out.writeInt(len);
+        for (int i = 0; i < len; i++) {
+            out.writeChar(s.charAt(i));
+        }
+    }
+
+    private String readString() throws IOException {
+        char[] chars = new char[in.readInt()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = in.readChar();
+        }
+        return new String(chars);
+    }
+
+    private void writeBytes(byte[] b) throws IOException {
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private byte[] readBytes() throws IOException {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        return b;
     }
 
     /**
@@ -60,6 +269,19 @@ public class RowList {
      */
     public void reset() {
         index = 0;
+        if (file != null) {
+            try {
+                if (out != null) {
+                    writeAllRows();
+                    out.close();
+                    out = null;
+                }
+                IOUtils.closeSilently(in);
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            } catch (IOException e) {
+                throw DbException.convertIOException(e, String.valueOf(file));
+            }
+        }
     }
 
     /**
@@ -77,8 +299,16 @@ public class RowList {
      * @return the next row
      */
     public Row next() {
-        Row r = list.get(index++);
-        return r;
+        if (file == null) {
+            return list.get(index++);
+        }
+        try {
+            Row r = readRow();
+            index++;
+            return r;
+        } catch (IOException e) {
+            throw DbException.convertIOException(e, String.valueOf(file));
+        }
     }
 
     /**
@@ -94,7 +324,17 @@ public class RowList {
      * Close the result list and delete the temporary file.
      */
     public void close() {
-
+        if (file != null) {
+            IOUtils.closeSilently(out);
+            IOUtils.closeSilently(in);
+            out = null;
+            in = null;
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+            file = null;
+        }
+        list.clear();
     }
 
 }
@@ -19,38 +19,138 @@
 package com.suning.snfddal.route;
 
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.suning.snfddal.message.DbException;
 import com.suning.snfddal.util.New;
 
 /**
+ * Runs the tasks of the shards of a query at the same time, each with the
+ * executor of its shard. The tasks of a call are those of one query, which
+ * takes turns with the other queries on each shard.
+ *
  * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
  *
  */
 public class MultiNodeExecutor {
-    
-    
-    private final static ThreadPoolExecutor executorService = newThreadPoolExecutor();
 
+    private final Map<String, ShardExecutor> executors = new ConcurrentHashMap<String, ShardExecutor>();
+    private final boolean virtual;
+    private final int maxVirtualThreads;
+
+    /**
+     * Create an executor whose shards have a thread pool each.
+     */
+    public MultiNodeExecutor() {
+        this(false);
+    }
+
+    /**
+     * Create an executor.
+     *
+     * @param virtual whether the shards run each task on a virtual thread,
+     *            if the runtime supports them
+     */
+    public MultiNodeExecutor(boolean virtual) {
+        this(virtual, ShardExecutor.DEFAULT_MAX_VIRTUAL_THREADS);
+    }
+
+    /**
+     * Create an executor.
+     *
+     * @param virtual whether the shards run each task on a virtual thread,
+     *            if the runtime supports them
+     * @param maxVirtualThreads the maximum number of tasks of a shard that
+     *            run at the same time on virtual threads
+     */
+    public MultiNodeExecutor(boolean virtual, int maxVirtualThreads) {
+        this.virtual = virtual;
+        this.maxVirtualThreads = maxVirtualThreads;
+    }
+
+    /**
+     * Create the executor of a shard.
+     *
+     * @param shardName the shard name
+     * @param maxThreads the maximum number of threads of the thread pool
+     * @param queueSize the maximum number of waiting tasks
+     */
+    public synchronized void addShard(String shardName, int maxThreads, int queueSize) {
+        if (executors.containsKey(shardName)) {
+            DbException.throwInternalError("shard executor already exists: " + shardName);
+        }
+        executors.put(shardName, new ShardExecutor(shardName, maxThreads, queueSize, virtual, maxVirtualThreads));
+    }
+
+    /**
+     * Remove the executor of a shard, its threads stop once the submitted
+     * tasks are done.
+     *
+     * @param shardName the shard name
+     */
+    public synchronized void removeShard(String shardName) {
+        ShardExecutor executor = executors.remove(shardName);
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Get the executor of a shard, as for its metrics.
+     *
+     * @param shardName the shard name
+     * @return the executor
+     */
+    public ShardExecutor getShardExecutor(String shardName) {
+        ShardExecutor executor = executors.get(shardName);
+        if (executor == null) {
+            DbException.throwInternalError("shard executor not exists: " + shardName);
+        }
+        return executor;
+    }
+
+    /**
+     * Get the executors of all shards.
+     *
+     * @return the executors
+     */
+    public List<ShardExecutor> getShardExecutors() {
+        return New.arrayList(executors.values());
+    }
 
-    public static ThreadPoolExecutor getThreadPoolExecutor() {
-        return executorService;
+    /**
+     * Submit a task to the executor of a shard.
+     *
+     * @param shardName the shard name
+     * @param query the query of the task
+     * @param task the task
+     * @return the future of the task
+     */
+    public Future<?> submit(String shardName, Object query, Runnable task) {
+        return getShardExecutor(shardName).submit(query, task);
     }
 
-    public static <T> List<T> execute(List<Callable<T>> calls) {
+    /**
+     * Run the task of each shard with the executor of the shard, and wait for
+     * all of them.
+     *
+     * @param shardNames the shard of each task
+     * @param calls the tasks
+     * @return the results of the tasks
+     */
+    public <T> List<T> execute(List<String> shardNames, List<Callable<T>> calls) {
         List<T> results = New.arrayList(calls.size());
         int size = calls.size();
         List<Future<T>> futures = New.arrayList(size);
+        Object query = new Object();
         for (int i = 0; i < size; i++) {
-            futures.add(executorService.submit(calls.get(i)));
+            futures.add(getShardExecutor(shardNames.get(i)).submit(query, calls.get(i)));
         }
         for (Future<T> future : futures) {
             try {
@@ -63,50 +163,62 @@ public class MultiNodeExecutor {
                 throw DbException.convert(ex);
             } catch (Exception e) {
                 throw DbException.convert(e);
-            }   
+            }
         }
         return results;
     }
-    
 
     /**
-     * Create a cached ThreadPoolExecutor.
+     * Run the task of each shard with the executor of the shard, without
+     * waiting for them. Once all of them are done, failed or cancelled, the
+     * given callback runs in the thread that finished the last one, so it
+     * should not block.
      *
-     * @param name
-     * @param size
-     * @param maxSize
-     * @param isDaemon
-     * @return
+     * @param shardNames the shard of each task
+     * @param calls the tasks
+     * @param whenDone the callback
+     * @return the futures of the tasks
      */
-    public static ThreadPoolExecutor newThreadPoolExecutor() {
-        NamedThreadFactory factory = new NamedThreadFactory("MultiNodeExecutor", false);
-        return new ThreadPoolExecutor(0, 100, 30, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
-                factory, new ThreadPoolExecutor.AbortPolicy());
-    }
-    
-    
-
-    private static class NamedThreadFactory implements ThreadFactory {
-        private final ThreadGroup group;
-        private final String namePrefix;
-        private final AtomicInteger threadId;
-        private final boolean isDaemon;
-
-        public NamedThreadFactory(String name, boolean isDaemon) {
-            SecurityManager s = System.getSecurityManager();
-            this.group = (s != null) ? s.getThreadGroup() : Thread.currentThread().getThreadGroup();
-            this.namePrefix = name;
-            this.threadId = new AtomicInteger(0);
-            this.isDaemon = isDaemon;
+    public <T> List<Future<T>> submit(List<String> shardNames, List<Callable<T>> calls,
+            final Runnable whenDone) {
+        int size = calls.size();
+        if (size == 0) {
+            whenDone.run();
+            return New.arrayList(0);
         }
-
-        public Thread newThread(Runnable r) {
-            Thread t = new Thread(group, r, namePrefix + threadId.getAndIncrement());
-            t.setDaemon(isDaemon);
-            if (t.getPriority() != Thread.NORM_PRIORITY) {
-                t.setPriority(Thread.NORM_PRIORITY);
+        final AtomicInteger remaining = new AtomicInteger(size);
+        List<Future<T>> futures = New.arrayList(size);
+        Object query = new Object();
+        try {
+            for (int i = 0; i < size; i++) {
+                FutureTask<T> task = new FutureTask<T>(calls.get(i)) {
+                    @Override
+                    protected void done() {
+                        if (remaining.decrementAndGet() == 0) {
+                            whenDone.run();
+                        }
+                    }
+                };
+                getShardExecutor(shardNames.get(i)).submit(query, task);
+                futures.add(task);
             }
-            return t;
+        } catch (RuntimeException e) {
+            for (Future<T> future : futures) {
+                future.cancel(false);
+            }
+            throw e;
         }
+        return futures;
     }
+
+    /**
+     * Stop the executors of all shards.
+     */
+    public synchronized void shutdown() {
+        for (ShardExecutor executor : executors.values()) {
+            executor.shutdown();
+        }
+        executors.clear();
+    }
+
 }
@@ -18,13 +18,13 @@
 
 package com.suning.snfddal.route;
 
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
 
-import java.sql.Statement;
 import com.suning.snfddal.engine.Session;
 import com.suning.snfddal.message.DbException;
 import com.suning.snfddal.message.Trace;
@@ -45,25 +45,88 @@ public class NodeExecutor {
     }
     
     
+    /**
+     * Execute a statement that returns an update count on the connection of
+     * the shard. The statement is closed once the count is read.
+     *
+     * @param execution the statement
+     * @return the update count
+     */
     public int executeUpdate(NodeExecution execution) {
-        Statement stat = preparedAndExecute(execution);
+        PreparedStatement prep = prepare(execution);
         try {
-            return stat.getUpdateCount();
-        } catch(SQLException e) {
+            session.addShardStatement(prep);
+            return prep.executeUpdate();
+        } catch (SQLException e) {
             throw DbException.convert(e);
+        } finally {
+            session.removeShardStatement(prep);
+            JdbcUtils.closeSilently(prep);
         }
     }
 
+    /**
+     * Execute a query on the connection of the shard. The statement stays
+     * open for the rows to be read, and is to be closed with the statement of
+     * the result set.
+     *
+     * @param execution the query
+     * @return the result set
+     */
     public ResultSet executeQuery(NodeExecution execution) {
-        Statement stmt = preparedAndExecute(execution);
+        PreparedStatement prep = prepare(execution);
         try {
-            return stmt.getResultSet();
-        } catch(SQLException e) {
+            session.addShardStatement(prep);
+            return prep.executeQuery();
+        } catch (SQLException e) {
+            session.removeShardStatement(prep);
+            JdbcUtils.closeSilently(prep);
             throw DbException.convert(e);
         }
     }
     
-    private PreparedStatement preparedAndExecute(NodeExecution execution) {
+    /**
+     * Execute a batch on the connection of the shard, with one addBatch for
+     * each parameter list.
+     *
+     * @param execution the batch
+     * @return the update counts
+     * @throws BatchUpdateException if a row failed, with the update counts of
+     *             the rows the shard executed
+     * @throws SQLException if the batch could not be executed
+     */
+    public int[] executeBatch(NodeExecution execution) throws SQLException {
+        if(!execution.isBatch()) {
+            DbException.throwInternalError("Illegal argement.");
+        }
+        String shardName = execution.getShardName();
+        String sql = execution.getSql();
+        List<List<Value>> batchParam = execution.getBatchParam();
+        PreparedStatement prep = null;
+        try {
+            Connection conn = session.getDataNodeConnection(shardName);
+            prep = conn.prepareStatement(sql);
+            if (trace.isDebugEnabled()) {
+                trace.debug("executing batch " + sql + " rows:" + batchParam.size() + ';');
+            }
+            for (List<Value> params : batchParam) {
+                for (int i = 0, size = params.size(); i < size; i++) {
+                    Value v = params.get(i);
+                    v.set(prep, i + 1);
+                }
+                prep.addBatch();
+            }
+            session.addShardStatement(prep);
+            return prep.executeBatch();
+        } finally {
+            if (prep != null) {
+                session.removeShardStatement(prep);
+            }
+            JdbcUtils.closeSilently(prep);
+        }
+    }
+
+    private PreparedStatement prepare(NodeExecution execution) {
         if(execution.isBatch()) {
             DbException.throwInternalError("Illegal argement.");
         }
@@ -98,13 +161,10 @@ public class NodeExecutor {
                     v.set(prep, i + 1);
                 }
             }
-            prep.execute();
             return prep;
         } catch (SQLException e) {
-            throw DbException.convert(e);
-        } finally {
             JdbcUtils.closeSilently(prep);
-            // JdbcUtils.closeSilently(conn)
+            throw DbException.convert(e);
         }
     }
 }
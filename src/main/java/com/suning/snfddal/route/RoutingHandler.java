@@ -19,12 +19,15 @@
 package com.suning.snfddal.route;
 
 import java.util.List;
+import java.util.Map;
 
 import com.suning.snfddal.dbobject.index.IndexCondition;
+import com.suning.snfddal.dbobject.table.Column;
 import com.suning.snfddal.dbobject.table.MappedTable;
 import com.suning.snfddal.engine.Session;
 import com.suning.snfddal.result.SearchRow;
 import com.suning.snfddal.route.rule.RoutingResult;
+import com.suning.snfddal.value.Value;
 
 /**
  * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
@@ -36,5 +39,26 @@ public interface RoutingHandler {
     RoutingResult doRoute(MappedTable table, SearchRow stard, SearchRow end);
     
     RoutingResult doRoute(MappedTable table, Session session, List<IndexCondition> indexConditions);
+
+    /**
+     * Route each value of a column, which must be the only rule column of the
+     * table, to the table that holds it.
+     *
+     * @param table the table
+     * @param column the column
+     * @param values the values
+     * @return the values of each table by shard name and table name, or null
+     *         if the table is not routed by this column alone
+     */
+    Map<String, Map<String, List<Value>>> doRoute(MappedTable table, Column column, Value[] values);
+
+    /**
+     * Route the writes of a broadcast table to all of its copies. The other
+     * methods route the reads of a broadcast table to one copy.
+     *
+     * @param table the broadcast table
+     * @return the copy of the table of each shard
+     */
+    RoutingResult doBroadcastRoute(MappedTable table);
     
 }
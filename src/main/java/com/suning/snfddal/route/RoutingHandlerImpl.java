@@ -20,6 +20,8 @@ package com.suning.snfddal.route;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.suning.snfddal.command.expression.Comparison;
 import com.suning.snfddal.dbobject.index.IndexCondition;
@@ -30,14 +32,15 @@ import com.suning.snfddal.engine.Session;
 import com.suning.snfddal.message.DbException;
 import com.suning.snfddal.result.ResultInterface;
 import com.suning.snfddal.result.SearchRow;
+import com.suning.snfddal.route.rule.CachedRoutingCalculator;
 import com.suning.snfddal.route.rule.RoutingCalculator;
+import com.suning.snfddal.route.rule.RoutingArgument;
 import com.suning.snfddal.route.rule.RoutingCalculatorImpl;
 import com.suning.snfddal.route.rule.RoutingResult;
 import com.suning.snfddal.route.rule.RuleColumn;
 import com.suning.snfddal.route.rule.TableRouter;
 import com.suning.snfddal.util.New;
 import com.suning.snfddal.value.Value;
-import com.suning.snfddal.value.ValueLong;
 import com.suning.snfddal.value.ValueNull;
 
 /**
@@ -47,10 +50,27 @@ public class RoutingHandlerImpl implements RoutingHandler {
 
     private Database database;
     private RoutingCalculator trc;
+    private CachedRoutingCalculator cache;
+    private final AtomicInteger nextCopy = new AtomicInteger();
 
     public RoutingHandlerImpl(Database database) {
         this.database = database;
-        this.trc = new RoutingCalculatorImpl();
+        int cacheSize = database.getSettings().routingCacheSize;
+        if (cacheSize > 0) {
+            this.cache = new CachedRoutingCalculator(new RoutingCalculatorImpl(), cacheSize);
+            this.trc = cache;
+        } else {
+            this.trc = new RoutingCalculatorImpl();
+        }
+    }
+
+    /**
+     * Get the cache of the routing results.
+     *
+     * @return the cache, or null if the results are not cached
+     */
+    public CachedRoutingCalculator getRoutingCache() {
+        return cache;
     }
 
     @Override
@@ -58,13 +78,15 @@ public class RoutingHandlerImpl implements RoutingHandler {
         TableRouter tr = table.getTableRouter();
         String shardName, tableName;
         if (tr != null) {
-            Map<String, List<Value>> args = getRuleColumnArgs(table, row);
+            Map<String, RoutingArgument> args = getRuleColumnArgs(table, row);
             RoutingResult rr = trc.calculate(tr, args);
             List<RoutingResult.MatchedShard> shards = rr.getMatchedShards();
-            if (shards.size() != 1 && shards.get(0).getTables().length != 1) {
+            if (shards.size() != 1 || shards.get(0).getTables().length != 1) {
                 throw new TableRoutingException(table.getName() + " routing error.");
             }
             return rr;
+        } else if (table.isBroadcast()) {
+            return doBroadcastRoute(table);
         } else {
             shardName = table.getMetadataNode();
             tableName = table.getQualifiedTable();
@@ -77,12 +99,12 @@ public class RoutingHandlerImpl implements RoutingHandler {
     public RoutingResult doRoute(MappedTable table, SearchRow first, SearchRow last) {
         TableRouter tr = table.getTableRouter();
         if (tr == null) {
-            String shardName = table.getMetadataNode();
+            String shardName = getReadNode(table);
             String tableName = table.getQualifiedTable();
             return singlenessResult(shardName, tableName);
         } else {
-            Map<String, List<Value>> routingArgs = New.hashMap();
-            exportRangeArg(table, first, last, routingArgs);
+            Map<String, RoutingArgument> routingArgs = New.hashMap();
+            exportRangeArg(table, first, last, null, routingArgs);
             RoutingResult rr = trc.calculate(tr, routingArgs);
             return rr;
         }
@@ -96,11 +118,11 @@ public class RoutingHandlerImpl implements RoutingHandler {
     public RoutingResult doRoute(MappedTable table, Session session, List<IndexCondition> indexConditions) {
         TableRouter tr = table.getTableRouter();
         if (tr == null) {
-            String shardName = table.getMetadataNode();
+            String shardName = getReadNode(table);
             String tableName = table.getQualifiedTable();
             return singlenessResult(shardName, tableName);
         } else {
-            Map<String, List<Value>> routingArgs = New.hashMap();
+            Map<String, List<Value>> pointArgs = New.hashMap();
             List<RuleColumn> ruleCols = tr.getRuleColumns();
             SearchRow start = null, end = null;
             for (IndexCondition condition : indexConditions) {
@@ -115,17 +137,21 @@ public class RoutingHandlerImpl implements RoutingHandler {
                 if (matched == null) {
                     continue;
                 }
-                List<Value> values = routingArgs.get(matched.getName());
-                if (values == null) {
-                    values = New.arrayList();
-                    routingArgs.put(matched.getName(), values);
+                int compareType = condition.getCompareType();
+                List<Value> values = null;
+                if (compareType == Comparison.IN_LIST || compareType == Comparison.IN_QUERY) {
+                    values = pointArgs.get(matched.getName());
+                    if (values == null) {
+                        values = New.arrayList();
+                        pointArgs.put(matched.getName(), values);
+                    }
                 }
-                if (condition.getCompareType() == Comparison.IN_LIST) {
+                if (compareType == Comparison.IN_LIST) {
                     Value[] inList = condition.getCurrentValueList(session);
                     for (Value value : inList) {
                         values.add(value);
                     }
-                } else if (condition.getCompareType() == Comparison.IN_QUERY) {
+                } else if (compareType == Comparison.IN_QUERY) {
                     ResultInterface result = condition.getCurrentResult();
                     while (result.next()) {
                         Value v = result.currentRow()[0];
@@ -147,15 +173,78 @@ public class RoutingHandlerImpl implements RoutingHandler {
                     }
                 }
             }
-            exportRangeArg(table, start, end, routingArgs);
+            // the upper bound of a column with a smaller than condition is
+            // not in the range
+            Set<Integer> exclusiveEnds = New.hashSet();
+            for (IndexCondition condition : indexConditions) {
+                if (end != null && condition.getCompareType() == Comparison.SMALLER) {
+                    int columnId = condition.getColumn().getColumnId();
+                    Value last = columnId < 0 ? null : end.getValue(columnId);
+                    if (last != null && database.compare(condition.getCurrentValue(session), last) == 0) {
+                        exclusiveEnds.add(columnId);
+                    }
+                }
+            }
+            Map<String, RoutingArgument> routingArgs = New.hashMap();
+            exportRangeArg(table, start, end, exclusiveEnds, routingArgs);
+            // IN列表与范围条件同时存在时，IN列表的值已包含所有可能的取值
+            for (Map.Entry<String, List<Value>> entry : pointArgs.entrySet()) {
+                routingArgs.put(entry.getKey(), new RoutingArgument(entry.getValue()));
+            }
             RoutingResult rr = trc.calculate(tr, routingArgs);
             return rr;
         }
         
     }
 
-    private Map<String, List<Value>> getRuleColumnArgs(MappedTable table, SearchRow row) {
-        Map<String, List<Value>> args = New.hashMap();
+    @Override
+    public Map<String, Map<String, List<Value>>> doRoute(MappedTable table, Column column, Value[] values) {
+        TableRouter tr = table.getTableRouter();
+        if (tr == null) {
+            return null;
+        }
+        List<RuleColumn> ruleCols = tr.getRuleColumns();
+        if (ruleCols.size() != 1 || !column.getName().equalsIgnoreCase(ruleCols.get(0).getName())) {
+            return null;
+        }
+        String ruleColName = ruleCols.get(0).getName();
+        Map<String, Map<String, List<Value>>> assignment = New.linkedHashMap();
+        Map<String, RoutingArgument> args = New.hashMap(1);
+        for (Value value : values) {
+            if (value == null || value == ValueNull.INSTANCE) {
+                // a NULL in the IN list matches no row
+                continue;
+            }
+            List<Value> point = New.arrayList(1);
+            point.add(value);
+            args.put(ruleColName, new RoutingArgument(point));
+            List<RoutingResult.MatchedShard> shards = trc.calculate(tr, args).getMatchedShards();
+            if (shards.isEmpty()) {
+                // no table holds the value
+                continue;
+            } else if (shards.size() != 1 || shards.get(0).getTables().length > 1) {
+                return null;
+            }
+            String shardName = shards.get(0).getShardName();
+            String[] tables = shards.get(0).getTables();
+            String tableName = tables.length == 0 ? table.getQualifiedTable() : tables[0];
+            Map<String, List<Value>> shardValues = assignment.get(shardName);
+            if (shardValues == null) {
+                shardValues = New.linkedHashMap();
+                assignment.put(shardName, shardValues);
+            }
+            List<Value> tableValues = shardValues.get(tableName);
+            if (tableValues == null) {
+                tableValues = New.arrayList();
+                shardValues.put(tableName, tableValues);
+            }
+            tableValues.add(value);
+        }
+        return assignment;
+    }
+
+    private Map<String, RoutingArgument> getRuleColumnArgs(MappedTable table, SearchRow row) {
+        Map<String, RoutingArgument> args = New.hashMap();
         TableRouter tableRouter = table.getTableRouter();
         for (RuleColumn ruleCol : tableRouter.getRuleColumns()) {
             Column[] columns = table.getColumns();
@@ -174,7 +263,7 @@ public class RoutingHandlerImpl implements RoutingHandler {
             if (value != null && value != ValueNull.INSTANCE) {
                 List<Value> values = New.arrayList(1);
                 values.add(value);
-                args.put(ruleCol.getName(), values);
+                args.put(ruleCol.getName(), new RoutingArgument(values));
             }
         }
         return args;
@@ -183,6 +272,35 @@ public class RoutingHandlerImpl implements RoutingHandler {
     /**
      * @param table
      */
+    @Override
+    public RoutingResult doBroadcastRoute(MappedTable table) {
+        String tableName = table.getQualifiedTable();
+        String[] shardNames = database.getDataNodeNames();
+        List<RoutingResult.MatchedShard> list = New.arrayList(shardNames.length);
+        for (String shardName : shardNames) {
+            RoutingResult.MatchedShard matched = new RoutingResult.MatchedShard();
+            matched.setShardName(shardName);
+            matched.setTables(new String[] { tableName });
+            list.add(matched);
+        }
+        RoutingResult result = new RoutingResult();
+        result.setMatchedShards(list);
+        return result;
+    }
+
+    /**
+     * Get the shard to read a table without router from. The reads of a
+     * broadcast table go to its copies in turn, as all copies are the same.
+     */
+    private String getReadNode(MappedTable table) {
+        if (!table.isBroadcast()) {
+            return table.getMetadataNode();
+        }
+        String[] shardNames = database.getDataNodeNames();
+        int copy = (nextCopy.getAndIncrement() & Integer.MAX_VALUE) % shardNames.length;
+        return shardNames[copy];
+    }
+
     private RoutingResult singlenessResult(String shardName, String tableName) {
         RoutingResult result = new RoutingResult();
         List<RoutingResult.MatchedShard> list = New.arrayList(1);
@@ -195,86 +313,61 @@ public class RoutingHandlerImpl implements RoutingHandler {
     }
     
     /**
-     * 
+     * 将规则列上的范围条件转换为路由参数，只有一端的范围为无界范围
+     *
      * @param table
      * @param first
      * @param last
+     * @param exclusiveEnds the columns whose upper bound is excluded, or null
      * @param routingArgs
      */
-    private void exportRangeArg(MappedTable table, SearchRow first, SearchRow last, Map<String, List<Value>> routingArgs) {
+    private void exportRangeArg(MappedTable table, SearchRow first, SearchRow last, Set<Integer> exclusiveEnds,
+            Map<String, RoutingArgument> routingArgs) {
         TableRouter tr = table.getTableRouter();
         List<RuleColumn> ruleCols = tr.getRuleColumns();
-        if (first != null && last != null) {
-            for (int i = 0; first != null && i < first.getColumnCount(); i++) {
-                Value firstV = first.getValue(i);
-                Value listV = last.getValue(i);
-                if (firstV == null || listV == null 
-                        || firstV == ValueNull.INSTANCE 
-                        || listV == ValueNull.INSTANCE) {
-                    continue;
-                }
-                Column col = table.getColumn(i);
-                String colName = col.getName();
-                RuleColumn matched = null;
-                for (RuleColumn ruleColumn : ruleCols) {
-                    if (colName.equalsIgnoreCase(ruleColumn.getName())) {
-                        matched = ruleColumn;
-                    }
-                }
-                if (matched == null) {
-                    continue;
-                }
-                List<Value> values = routingArgs.get(matched.getName());
-                if (values == null) {
-                    values = New.arrayList();
-                    routingArgs.put(matched.getName(), values);
-                }
-                int compare = database.compare(firstV, listV);
-                if (compare == 0) {
-                    values.add(firstV);
-                } else if (compare < 0) {
-                    List<Value> enumValue = enumRange(firstV, listV);
-                    if(enumValue != null) {
-                        values.addAll(enumValue);
-                    }
-                } else {
-                    throw new TableRoutingException(table.getName() + " routing error. The conidition "
-                            + matched.getName() + " is alwarys false.");
+        SearchRow row = first != null ? first : last;
+        for (int i = 0; row != null && i < row.getColumnCount(); i++) {
+            Value firstV = first == null ? null : first.getValue(i);
+            Value lastV = last == null ? null : last.getValue(i);
+            if (firstV == ValueNull.INSTANCE) {
+                firstV = null;
+            }
+            if (lastV == ValueNull.INSTANCE) {
+                lastV = null;
+            }
+            if (firstV == null && lastV == null) {
+                continue;
+            }
+            Column col = table.getColumn(i);
+            String colName = col.getName();
+            RuleColumn matched = null;
+            for (RuleColumn ruleColumn : ruleCols) {
+                if (colName.equalsIgnoreCase(ruleColumn.getName())) {
+                    matched = ruleColumn;
                 }
-                
             }
-        }
-    }
-
-    private List<Value> enumRange(Value firstV, Value listV) {
-        if (firstV.getType() != listV.getType()) {
-            return null;
-        }
-        int type = firstV.getType();
-        switch (type) {
-        case Value.BYTE:
-        case Value.INT:
-        case Value.LONG:
-        case Value.SHORT:
-            if (listV.subtract(firstV).getLong() > 200) {
-                return null;
+            if (matched == null) {
+                continue;
             }
-            List<Value> enumValues = New.arrayList(10);
-            Value enumValue = firstV;
-            while (database.compare(enumValue, listV) <= 0) {
-                enumValues.add(enumValue);
-                Value increase = ValueLong.get(1).convertTo(enumValue.getType());
-                enumValue = enumValue.add(increase);
+            boolean endInclusive = exclusiveEnds == null || !exclusiveEnds.contains(i);
+            if (firstV == null || lastV == null) {
+                routingArgs.put(matched.getName(), new RoutingArgument(firstV, lastV, endInclusive));
+                continue;
+            }
+            int compare = database.compare(firstV, lastV);
+            if (compare == 0) {
+                List<Value> values = New.arrayList(1);
+                values.add(firstV);
+                routingArgs.put(matched.getName(), new RoutingArgument(values));
+            } else if (compare < 0) {
+                routingArgs.put(matched.getName(), new RoutingArgument(firstV, lastV, endInclusive));
+            } else {
+                throw new TableRoutingException(table.getName() + " routing error. The conidition "
+                        + matched.getName() + " is alwarys false.");
             }
-            return enumValues;
-
-        default:
-            return null;
         }
-
     }
-    
-    
+
     private SearchRow getSearchRow(MappedTable table, Session s,SearchRow row, int columnId, Value v,
             boolean max) {
         if (row == null) {
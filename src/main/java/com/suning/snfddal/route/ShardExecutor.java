@@ -0,0 +1,469 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.suning.snfddal.route;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads that run the tasks of one shard. A shard has at most the given
+ * number of threads, the other tasks wait in a queue of their query, and the
+ * queries take turns: a thread that is free takes the oldest task of the
+ * next query. A query that sends many tasks to the shard does not hold up
+ * the others, and a slow shard only holds up the tasks of that shard.
+ * <p>
+ * When the given number of tasks wait, the thread that submits a task waits
+ * for room instead of failing, unless no task of its query waits yet. So a
+ * query always gets a place in line, and the queue holds at most the given
+ * number of tasks plus one task per query: the other tasks of such a query
+ * wait for room. As the tasks of a query are submitted by its session, the
+ * number of queries, and so the queue, is bounded by the number of sessions
+ * that use the shard at the same time. A thread of a shard does not wait, as
+ * it could wait for itself, it runs the task instead.
+ * <p>
+ * With virtual threads, each of these threads is a virtual thread, and their
+ * number is limited by the given maximum number of virtual threads instead
+ * of the maximum number of threads, which sizes the thread pool. The runtime
+ * must support virtual threads, else a thread pool is used.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class ShardExecutor {
+
+    /**
+     * The default maximum number of threads of a shard.
+     */
+    public static final int DEFAULT_MAX_THREADS = 20;
+
+    /**
+     * The default maximum number of tasks of a shard that wait for a thread.
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    /**
+     * The default maximum number of tasks of a shard that run on virtual
+     * threads at the same time.
+     */
+    public static final int DEFAULT_MAX_VIRTUAL_THREADS = 1000;
+
+    /**
+     * Whether the current thread runs the tasks of a shard.
+     */
+    private static final ThreadLocal<Boolean> IN_SHARD_THREAD = new ThreadLocal<Boolean>();
+
+    private final String shardName;
+    private final int maxThreads;
+    private final int queueSize;
+    private final boolean virtual;
+
+    /**
+     * The thread pool, or the executor that starts a virtual thread per
+     * worker.
+     */
+    private final ExecutorService threads;
+
+    /**
+     * The waiting tasks of each query.
+     */
+    private final Map<Object, ArrayDeque<Runnable>> queues = new HashMap<Object, ArrayDeque<Runnable>>();
+
+    /**
+     * The queries that have waiting tasks, in the order of their turn.
+     */
+    private final ArrayDeque<Object> turns = new ArrayDeque<Object>();
+
+    private int workers;
+    private int activeTasks;
+    private int waitingTasks;
+    private long completedTasks;
+    private boolean shutdown;
+
+    /**
+     * Create the executor of a shard, with a thread pool.
+     *
+     * @param shardName the shard name
+     * @param maxThreads the maximum number of threads
+     * @param queueSize the maximum number of waiting tasks
+     */
+    public ShardExecutor(String shardName, int maxThreads, int queueSize) {
+        this(shardName, maxThreads, queueSize, false);
+    }
+
+    /**
+     * Create the executor of a shard.
+     *
+     * @param shardName the shard name
+     * @param maxThreads the maximum number of threads of the thread pool
+     * @param queueSize the maximum number of waiting tasks
+     * @param virtual whether to run the tasks on virtual threads, if the
+     *            runtime supports them
+     */
+    public ShardExecutor(String shardName, int maxThreads, int queueSize, boolean virtual) {
+        this(shardName, maxThreads, queueSize, virtual, DEFAULT_MAX_VIRTUAL_THREADS);
+    }
+
+    /**
+     * Create the executor of a shard.
+     *
+     * @param shardName the shard name
+     * @param maxThreads the maximum number of threads of the thread pool
+     * @param queueSize the maximum number of waiting tasks
+     * @param virtual whether to run the tasks on virtual threads, if the
+     *            runtime supports them
+     * @param maxVirtualThreads the maximum number of tasks that run at the
+     *            same time on virtual threads
+     */
+    public ShardExecutor(String shardName, int maxThreads, int queueSize, boolean virtual,
+            int maxVirtualThreads) {
+        this.shardName = shardName;
+        this.queueSize = queueSize;
+        String threadName = "MultiNodeExecutor-" + shardName + "-";
+        ExecutorService virtualThreads = virtual ? newVirtualThreadExecutor(threadName) : null;
+        this.virtual = virtualThreads != null;
+        this.maxThreads = this.virtual ? maxVirtualThreads : maxThreads;
+        if (virtualThreads == null) {
+            // there are never more workers than threads, the queue stays empty
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads, maxThreads, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(threadName, false));
+            pool.allowCoreThreadTimeOut(true);
+            threads = pool;
+        } else {
+            threads = virtualThreads;
+        }
+    }
+
+    /**
+     * Check if the runtime supports virtual threads.
+     *
+     * @return true if it does
+     */
+    public static boolean isVirtualThreadSupported() {
+        ExecutorService e = newVirtualThreadExecutor("");
+        if (e == null) {
+            return false;
+        }
+        e.shutdown();
+        return true;
+    }
+
+    /**
+     * Create an executor that starts a named virtual thread per task. The
+     * methods are called by reflection, as they are only there since Java 21.
+     *
+     * @param name the prefix of the thread names
+     * @return the executor, or null if virtual threads are not supported
+     */
+    private static ExecutorService newVirtualThreadExecutor(String name) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name, 0L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Submit a task of a query, and wait for room in the queue if it is full.
+     *
+     * @param query the query, the tasks of a query wait in the same queue
+     * @param task the task
+     * @return the future of the task
+     */
+    public <T> Future<T> submit(Object query, Callable<T> task) {
+        FutureTask<T> future = new FutureTask<T>(task);
+        execute(query, future);
+        return future;
+    }
+
+    /**
+     * Submit a task of a query, and wait for room in the queue if it is full.
+     *
+     * @param query the query, the tasks of a query wait in the same queue
+     * @param task the task
+     * @return the future of the task
+     */
+    public Future<?> submit(Object query, Runnable task) {
+        FutureTask<Object> future = new FutureTask<Object>(task, null);
+        execute(query, future);
+        return future;
+    }
+
+    private void execute(Object query, FutureTask<?> task) {
+        boolean startWorker;
+        boolean runHere = false;
+        synchronized (this) {
+            while (true) {
+                if (shutdown) {
+                    throw new RejectedExecutionException("The executor is shut down");
+                }
+                if (waitingTasks < queueSize || workers < maxThreads || !queues.containsKey(query)) {
+                    // a query always gets a place in line, at most one
+                    // task per query is over the queue size
+                    break;
+                }
+                if (IN_SHARD_THREAD.get() != null) {
+                    // waiting could block the shard that would make room
+                    runHere = true;
+                    break;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException(e);
+                }
+            }
+            if (runHere) {
+                startWorker = false;
+            } else {
+                startWorker = enqueue(query, task);
+            }
+        }
+        if (runHere) {
+            task.run();
+        } else if (startWorker) {
+            try {
+                threads.execute(new Worker());
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    workers--;
+                    if (!dequeue(query, task)) {
+                        // another worker took the task
+                        return;
+                    }
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Add a task to the queue of its query.
+     *
+     * @return whether a worker is to be started
+     */
+    private boolean enqueue(Object query, Runnable task) {
+        ArrayDeque<Runnable> queue = queues.get(query);
+        if (queue == null) {
+            queue = new ArrayDeque<Runnable>();
+            queues.put(query, queue);
+            turns.add(query);
+        }
+        queue.add(task);
+        waitingTasks++;
+        if (workers < maxThreads) {
+            workers++;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean dequeue(Object query, Runnable task) {
+        ArrayDeque<Runnable> queue = queues.get(query);
+        if (queue == null || !queue.remove(task)) {
+            return false;
+        }
+        waitingTasks--;
+        if (queue.isEmpty()) {
+            queues.remove(query);
+            turns.remove(query);
+        }
+        return true;
+    }
+
+    /**
+     * Take the oldest task of the query whose turn it is. The query gets its
+     * next turn after the other queries that wait.
+     *
+     * @return the task, or null if no task waits, then the worker stops
+     */
+    private synchronized Runnable next() {
+        Object query = turns.poll();
+        if (query == null) {
+            workers--;
+            return null;
+        }
+        ArrayDeque<Runnable> queue = queues.get(query);
+        Runnable task = queue.poll();
+        if (queue.isEmpty()) {
+            queues.remove(query);
+        } else {
+            turns.add(query);
+        }
+        waitingTasks--;
+        activeTasks++;
+        notifyAll();
+        return task;
+    }
+
+    private synchronized void afterTask() {
+        activeTasks--;
+        completedTasks++;
+    }
+
+    /**
+     * Stop the threads once the submitted tasks are done.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            notifyAll();
+        }
+        threads.shutdown();
+    }
+
+    public String getShardName() {
+        return shardName;
+    }
+
+    /**
+     * Check if the tasks run on virtual threads.
+     *
+     * @return true if they do, false if they run in a thread pool
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Get the maximum number of tasks that run at the same time: the size of
+     * the thread pool, or the maximum number of virtual threads.
+     *
+     * @return the maximum number of threads
+     */
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Get the number of threads that are running a task.
+     *
+     * @return the number of active threads
+     */
+    public synchronized int getActiveCount() {
+        return activeTasks;
+    }
+
+    /**
+     * Get the number of threads that run tasks or look for the next one.
+     *
+     * @return the number of threads
+     */
+    public synchronized int getPoolSize() {
+        return workers;
+    }
+
+    /**
+     * Get the number of tasks that wait for a thread.
+     *
+     * @return the queue depth
+     */
+    public synchronized int getQueueDepth() {
+        return waitingTasks;
+    }
+
+    /**
+     * Get the number of queries that have tasks waiting for a thread.
+     *
+     * @return the number of queries
+     */
+    public synchronized int getWaitingQueries() {
+        return queues.size();
+    }
+
+    /**
+     * Get the number of tasks that are done.
+     *
+     * @return the number of completed tasks
+     */
+    public synchronized long getCompletedTaskCount() {
+        return completedTasks;
+    }
+
+    @Override
+    public String toString() {
+        return shardName + (isVirtual() ? " virtual" : "") + " [active=" + getActiveCount() + ", threads=" + getPoolSize() + "/" +
+                getMaxThreads() + ", queued=" + getQueueDepth() + "/" + queueSize + ", queries=" + getWaitingQueries() + "]";
+    }
+
+    /**
+     * Runs the waiting tasks, a query after the other, until none is left.
+     */
+    private class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            IN_SHARD_THREAD.set(Boolean.TRUE);
+            try {
+                Runnable task;
+                while ((task = next()) != null) {
+                    try {
+                        task.run();
+                    } finally {
+                        afterTask();
+                    }
+                }
+            } finally {
+                IN_SHARD_THREAD.remove();
+            }
+        }
+
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final ThreadGroup group;
+        private final String namePrefix;
+        private final AtomicInteger threadId;
+        private final boolean isDaemon;
+
+        public NamedThreadFactory(String name, boolean isDaemon) {
+            SecurityManager s = System.getSecurityManager();
+            this.group = (s != null) ? s.getThreadGroup() : Thread.currentThread().getThreadGroup();
+            this.namePrefix = name;
+            this.threadId = new AtomicInteger(0);
+            this.isDaemon = isDaemon;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(group, r, namePrefix + threadId.getAndIncrement());
+            t.setDaemon(isDaemon);
+            if (t.getPriority() != Thread.NORM_PRIORITY) {
+                t.setPriority(Thread.NORM_PRIORITY);
+            }
+            return t;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2014 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2026年10月17日
+// $Id$
+
+package com.suning.snfddal.route.rule;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.suning.snfddal.util.SmallLRUCache;
+import com.suning.snfddal.value.Value;
+
+/**
+ * A routing calculator that caches the results of another calculator. The
+ * key is the table router id, its topology and the rule column values, so a
+ * new topology never sees a result of the old one. Only the arguments with
+ * exactly one fixed value or no value per rule column are cached, that is
+ * point lookups and single row inserts.
+ * <p>
+ * The cache is split into segments, each one is a synchronized LRU map. The
+ * cached results are shared, callers must not modify them.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class CachedRoutingCalculator implements RoutingCalculator {
+
+    private static final int SEGMENT_COUNT = 16;
+
+    private final RoutingCalculator calculator;
+    private final SmallLRUCache<RoutingKey, RoutingResult>[] segments;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Create a new cache.
+     *
+     * @param calculator the calculator to use on a cache miss
+     * @param maxSize the maximum number of cached results
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public CachedRoutingCalculator(RoutingCalculator calculator, int maxSize) {
+        this.calculator = calculator;
+        this.segments = new SmallLRUCache[SEGMENT_COUNT];
+        int segmentSize = Math.max(1, maxSize / SEGMENT_COUNT);
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = SmallLRUCache.newInstance(segmentSize);
+        }
+    }
+
+    @Override
+    public RoutingResult calculate(TableRouter tableRouter, Map<String, RoutingArgument> arguments) {
+        RoutingKey key = getKey(tableRouter, arguments);
+        if (key == null) {
+            return calculator.calculate(tableRouter, arguments);
+        }
+        SmallLRUCache<RoutingKey, RoutingResult> segment = getSegment(key);
+        RoutingResult result;
+        synchronized (segment) {
+            result = segment.get(key);
+        }
+        if (result != null) {
+            hits.incrementAndGet();
+            return result;
+        }
+        misses.incrementAndGet();
+        result = calculator.calculate(tableRouter, arguments);
+        result.setMatchedShards(Collections.unmodifiableList(result.getMatchedShards()));
+        synchronized (segment) {
+            segment.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of cached results
+     */
+    public int getSize() {
+        int size = 0;
+        for (SmallLRUCache<RoutingKey, RoutingResult> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of calculations answered from the cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of calculations that were not cached
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "routing cache [size=" + getSize() + ", hits=" + getHitCount() + ", misses=" + getMissCount() + "]";
+    }
+
+    private SmallLRUCache<RoutingKey, RoutingResult> getSegment(RoutingKey key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return segments[h & (SEGMENT_COUNT - 1)];
+    }
+
+    private static RoutingKey getKey(TableRouter tableRouter, Map<String, RoutingArgument> arguments) {
+        TableTopology topology = tableRouter.getTopology();
+        if (tableRouter.getId() == null || topology == null) {
+            return null;
+        }
+        List<RuleColumn> ruleColumns = tableRouter.getRuleColumns();
+        Value[] values = new Value[ruleColumns.size()];
+        for (int i = 0; i < values.length; i++) {
+            RoutingArgument arg = arguments.get(ruleColumns.get(i).getName());
+            if (arg == null) {
+                continue;
+            } else if (arg.getType() != RoutingArgument.FIXED_POINT || arg.getValues().size() != 1) {
+                // an empty list routes to no table, unlike a missing argument
+                return null;
+            }
+            values[i] = arg.getValues().get(0);
+        }
+        return new RoutingKey(tableRouter.getId(), topology, values);
+    }
+
+    /**
+     * The cache key.
+     */
+    private static final class RoutingKey {
+
+        final String routerId;
+        final TableTopology topology;
+        final Value[] values;
+        private final int hash;
+
+        RoutingKey(String routerId, TableTopology topology, Value[] values) {
+            this.routerId = routerId;
+            this.topology = topology;
+            this.values = values;
+            this.hash = 31 * (31 * routerId.hashCode() + System.identityHashCode(topology))
+                    + Arrays.hashCode(values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof RoutingKey)) {
+                return false;
+            }
+            RoutingKey other = (RoutingKey) obj;
+            return topology == other.topology && routerId.equals(other.routerId)
+                    && Arrays.equals(values, other.values);
+        }
+
+    }
+
+}
@@ -0,0 +1,788 @@
+/*
+ * Copyright 2014 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2026年10月17日
+// $Id$
+
+package com.suning.snfddal.route.rule;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import com.suning.snfddal.util.DateTimeUtils;
+import com.suning.snfddal.value.Value;
+import com.suning.snfddal.value.ValueDate;
+import com.suning.snfddal.value.ValueTimestamp;
+
+/**
+ * A rule expression compiled into a tree of long arithmetic operations. The
+ * arguments are bound to slots by position, so evaluating the rule needs
+ * neither an OGNL context nor a parameter map.
+ * <p>
+ * Integer arguments are bound as their value and their type. DATE and
+ * TIMESTAMP arguments, which the rule may only use through getYear(),
+ * getMonth() and getDate(), are bound as their date value (see
+ * {@link DateTimeUtils}).
+ * <p>
+ * The results are those of OGNL: an operation has the wider type of its
+ * operands, byte, short, int or long, and wraps around at the width of that
+ * type. A literal is an int, or a long with the suffix L, and a date field is
+ * an int.
+ * <p>
+ * Besides single values, the rule can be evaluated over sets of intervals.
+ * The result contains every value the rule can return for the arguments in
+ * the intervals, and possibly more. It is stored as a sorted array of
+ * disjoint inclusive bounds: low0, high0, low1, high1...
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class CompiledRule {
+
+    /**
+     * The argument is not used by the expression.
+     */
+    static final int UNUSED = 0;
+
+    /**
+     * The argument is an integer.
+     */
+    static final int NUMBER = 1;
+
+    /**
+     * The argument is a date or timestamp.
+     */
+    static final int DATE = 2;
+
+    /**
+     * Larger interval sets are merged into a single interval.
+     */
+    private static final int MAX_INTERVALS = 1024;
+
+    private final String expression;
+    private final String[] argumentNames;
+    private final int[] argumentTypes;
+    private final Node root;
+
+    CompiledRule(String expression, String[] argumentNames, int[] argumentTypes, Node root) {
+        this.expression = expression;
+        this.argumentNames = argumentNames;
+        this.argumentTypes = argumentTypes;
+        this.root = root;
+    }
+
+    /**
+     * @return the source expression
+     */
+    public String getExpression() {
+        return expression;
+    }
+
+    /**
+     * @return the rule column names, the index is the argument slot
+     */
+    public String[] getArgumentNames() {
+        return argumentNames;
+    }
+
+    /**
+     * Check whether the value can be bound to the argument slot.
+     *
+     * @param slot the argument slot
+     * @param v the value
+     * @return true if it can
+     */
+    public boolean isCompatible(int slot, Value v) {
+        if (v == null) {
+            return false;
+        }
+        switch (argumentTypes[slot]) {
+        case UNUSED:
+            return true;
+        case NUMBER:
+            switch (v.getType()) {
+            case Value.BYTE:
+            case Value.SHORT:
+            case Value.INT:
+            case Value.LONG:
+                return true;
+            default:
+                return false;
+            }
+        case DATE:
+            return v.getType() == Value.DATE || v.getType() == Value.TIMESTAMP;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Get the type of the argument of the slot that a compatible value is
+     * converted to.
+     *
+     * @param slot the argument slot
+     * @param v the value
+     * @return the value type, one of Value.BYTE, SHORT, INT and LONG
+     */
+    public int toArgumentType(int slot, Value v) {
+        return argumentTypes[slot] == NUMBER ? v.getType() : Value.INT;
+    }
+
+    /**
+     * Convert a compatible value to the argument of the slot.
+     *
+     * @param slot the argument slot
+     * @param v the value
+     * @return the argument
+     */
+    public long toArgument(int slot, Value v) {
+        switch (argumentTypes[slot]) {
+        case NUMBER:
+            return v.getLong();
+        case DATE:
+            if (v.getType() == Value.DATE) {
+                return ((ValueDate) v).getDateValue();
+            }
+            return ((ValueTimestamp) v).getDateValue();
+        default:
+            return 0;
+        }
+    }
+
+    /**
+     * Evaluate the rule.
+     *
+     * @param args the argument values, in the order of the argument names
+     * @param types the argument types, in the order of the argument names
+     * @return the result
+     * @throws ArithmeticException on division by zero
+     */
+    public long evaluate(long[] args, int[] types) {
+        return root.evaluate(args, types);
+    }
+
+    /**
+     * Evaluate the rule over the routing arguments of the rule columns.
+     *
+     * @param arguments the routing arguments by rule column name
+     * @return the interval set of the possible results, or null if it can't
+     *         be determined (for example for an unbounded range)
+     */
+    public long[] evaluateRange(Map<String, RoutingArgument> arguments) {
+        long[][] args = new long[argumentNames.length][];
+        // the narrowest type of the values, the first to wrap around
+        int[] types = new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            types[i] = Value.LONG;
+            if (argumentTypes[i] == UNUSED) {
+                args[i] = new long[] { 0, 0 };
+                continue;
+            }
+            RoutingArgument arg = arguments.get(argumentNames[i]);
+            if (arg == null) {
+                return null;
+            }
+            if (arg.getType() == RoutingArgument.FIXED_POINT) {
+                List<Value> values = arg.getValues();
+                if (values.isEmpty()) {
+                    return null;
+                }
+                long[] points = new long[values.size() * 2];
+                for (int j = 0; j < values.size(); j++) {
+                    Value v = values.get(j);
+                    if (!isCompatible(i, v)) {
+                        return null;
+                    }
+                    points[j * 2] = points[j * 2 + 1] = toArgument(i, v);
+                    types[i] = Math.min(types[i], toArgumentType(i, v));
+                }
+                args[i] = normalize(points, points.length);
+            } else {
+                Value start = arg.getStart(), end = arg.getEnd();
+                if (!isCompatible(i, start) || !isCompatible(i, end)) {
+                    return null;
+                }
+                long low = toArgument(i, start), high = toArgument(i, end);
+                if (low > high) {
+                    return null;
+                }
+                args[i] = new long[] { low, high };
+                types[i] = Math.min(toArgumentType(i, start), toArgumentType(i, end));
+            }
+        }
+        try {
+            return root.evaluateRange(args, types);
+        } catch (ArithmeticException e) {
+            // overflow
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return root.toString();
+    }
+
+    /**
+     * Sort and merge the intervals.
+     *
+     * @param bounds the interval bounds, not sorted and possibly overlapping
+     * @param len the number of bounds used
+     * @return the interval set
+     */
+    static long[] normalize(long[] bounds, int len) {
+        int count = len / 2;
+        long[][] intervals = new long[count][];
+        for (int i = 0; i < count; i++) {
+            intervals[i] = new long[] { bounds[i * 2], bounds[i * 2 + 1] };
+        }
+        Arrays.sort(intervals, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return a[0] < b[0] ? -1 : a[0] == b[0] ? 0 : 1;
+            }
+        });
+        long[] result = new long[len];
+        int n = 0;
+        for (long[] interval : intervals) {
+            if (n > 0 && (result[n - 1] == Long.MAX_VALUE || interval[0] <= result[n - 1] + 1)) {
+                result[n - 1] = Math.max(result[n - 1], interval[1]);
+            } else {
+                result[n++] = interval[0];
+                result[n++] = interval[1];
+            }
+        }
+        if (n > MAX_INTERVALS * 2) {
+            return new long[] { result[0], result[n - 1] };
+        }
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Wrap a value around at the width of the type, as the cast to the type
+     * does.
+     *
+     * @param value the value
+     * @param type the value type
+     * @return the wrapped value
+     */
+    static long wrap(long value, int type) {
+        switch (type) {
+        case Value.BYTE:
+            return (byte) value;
+        case Value.SHORT:
+            return (short) value;
+        case Value.INT:
+            return (int) value;
+        default:
+            return value;
+        }
+    }
+
+    /**
+     * Check if the values of an interval set do not wrap around at the width
+     * of the type.
+     *
+     * @param range the interval set
+     * @param type the value type
+     * @return true if all values fit
+     */
+    static boolean fits(long[] range, int type) {
+        return range.length == 0 ||
+                (wrap(range[0], type) == range[0] && wrap(range[range.length - 1], type) == range[range.length - 1]);
+    }
+
+    static long add(long a, long b) {
+        long r = a + b;
+        if (((a ^ r) & (b ^ r)) < 0) {
+            throw new ArithmeticException("overflow");
+        }
+        return r;
+    }
+
+    static long subtract(long a, long b) {
+        long r = a - b;
+        if (((a ^ b) & (a ^ r)) < 0) {
+            throw new ArithmeticException("overflow");
+        }
+        return r;
+    }
+
+    static long multiply(long a, long b) {
+        long r = a * b;
+        if ((a != 0 && (r / a != b || (a == -1 && b == Long.MIN_VALUE)))) {
+            throw new ArithmeticException("overflow");
+        }
+        return r;
+    }
+
+    /**
+     * A node of the compiled expression tree.
+     */
+    abstract static class Node {
+
+        /**
+         * Evaluate this node.
+         *
+         * @param args the argument slots
+         * @param types the type of each argument slot
+         * @return the value
+         */
+        abstract long evaluate(long[] args, int[] types);
+
+        /**
+         * Evaluate this node over interval sets.
+         *
+         * @param args the interval set of each argument slot
+         * @param types the type of each argument slot
+         * @return the interval set of the results, or null if unknown
+         * @throws ArithmeticException on overflow
+         */
+        abstract long[] evaluateRange(long[][] args, int[] types);
+
+        /**
+         * Get the type of the value of this node.
+         *
+         * @param types the type of each argument slot
+         * @return the value type
+         */
+        abstract int getType(int[] types);
+
+        /**
+         * @return true if the node does not depend on any argument
+         */
+        boolean isConstant() {
+            return false;
+        }
+
+        /**
+         * @return true if the node can be replaced with its constant value
+         */
+        boolean isFoldable() {
+            return false;
+        }
+    }
+
+    /**
+     * A literal.
+     */
+    static final class Constant extends Node {
+
+        private final long value;
+        private final int type;
+
+        Constant(long value, int type) {
+            this.value = value;
+            this.type = type;
+        }
+
+        @Override
+        long evaluate(long[] args, int[] types) {
+            return value;
+        }
+
+        @Override
+        long[] evaluateRange(long[][] args, int[] types) {
+            return new long[] { value, value };
+        }
+
+        @Override
+        int getType(int[] types) {
+            return type;
+        }
+
+        @Override
+        boolean isConstant() {
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(value);
+        }
+    }
+
+    /**
+     * A reference to a rule column.
+     */
+    static final class Argument extends Node {
+
+        private final int slot;
+        private final String name;
+
+        Argument(int slot, String name) {
+            this.slot = slot;
+            this.name = name;
+        }
+
+        @Override
+        long evaluate(long[] args, int[] types) {
+            return args[slot];
+        }
+
+        @Override
+        long[] evaluateRange(long[][] args, int[] types) {
+            return args[slot];
+        }
+
+        @Override
+        int getType(int[] types) {
+            return types[slot];
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * A field of a date rule column, as returned by the deprecated
+     * java.util.Date getters that OGNL would call.
+     */
+    static final class DatePart extends Node {
+
+        static final int YEAR = 0, MONTH = 1, DAY = 2;
+
+        private final int slot;
+        private final String name;
+        private final int field;
+
+        DatePart(int slot, String name, int field) {
+            this.slot = slot;
+            this.name = name;
+            this.field = field;
+        }
+
+        @Override
+        long evaluate(long[] args, int[] types) {
+            return get(args[slot]);
+        }
+
+        @Override
+        int getType(int[] types) {
+            // the java.util.Date getters return int
+            return Value.INT;
+        }
+
+        private long get(long dateValue) {
+            switch (field) {
+            case YEAR:
+                return DateTimeUtils.yearFromDateValue(dateValue) - 1900;
+            case MONTH:
+                return DateTimeUtils.monthFromDateValue(dateValue) - 1;
+            case DAY:
+                return DateTimeUtils.dayFromDateValue(dateValue);
+            default:
+                throw new IllegalStateException("field=" + field);
+            }
+        }
+
+        @Override
+        long[] evaluateRange(long[][] args, int[] types) {
+            long[] dates = args[slot];
+            long[] result = new long[dates.length * 2];
+            int len = 0;
+            for (int i = 0; i < dates.length; i += 2) {
+                long low = dates[i], high = dates[i + 1];
+                int lowYear = DateTimeUtils.yearFromDateValue(low);
+                int highYear = DateTimeUtils.yearFromDateValue(high);
+                long lowMonth = lowYear * 12L + DateTimeUtils.monthFromDateValue(low);
+                long highMonth = highYear * 12L + DateTimeUtils.monthFromDateValue(high);
+                long first = get(low), last = get(high);
+                boolean sameUnit, nextUnit;
+                long min, max;
+                switch (field) {
+                case YEAR:
+                    // monotonic
+                    sameUnit = true;
+                    nextUnit = false;
+                    min = max = 0;
+                    break;
+                case MONTH:
+                    sameUnit = lowYear == highYear;
+                    nextUnit = highYear == lowYear + 1;
+                    min = 0;
+                    max = 11;
+                    break;
+                default:
+                    sameUnit = lowMonth == highMonth;
+                    nextUnit = highMonth == lowMonth + 1;
+                    min = 1;
+                    max = 31;
+                    break;
+                }
+                if (sameUnit) {
+                    result[len++] = first;
+                    result[len++] = last;
+                } else if (nextUnit && first > last) {
+                    result[len++] = min;
+                    result[len++] = last;
+                    result[len++] = first;
+                    result[len++] = max;
+                } else {
+                    result[len++] = min;
+                    result[len++] = max;
+                }
+            }
+            return normalize(result, len);
+        }
+
+        @Override
+        public String toString() {
+            return name + "." + (field == YEAR ? "year" : field == MONTH ? "month" : "date");
+        }
+    }
+
+    /**
+     * The unary minus.
+     */
+    static final class Negate extends Node {
+
+        private final Node node;
+
+        Negate(Node node) {
+            this.node = node;
+        }
+
+        Node getNode() {
+            return node;
+        }
+
+        @Override
+        long evaluate(long[] args, int[] types) {
+            return wrap(-node.evaluate(args, types), getType(types));
+        }
+
+        @Override
+        long[] evaluateRange(long[][] args, int[] types) {
+            long[] r = node.evaluateRange(args, types);
+            if (r == null) {
+                return null;
+            }
+            long[] result = new long[r.length];
+            for (int i = 0; i < r.length; i++) {
+                result[r.length - 1 - i] = subtract(0, r[i]);
+            }
+            return fits(result, getType(types)) ? result : null;
+        }
+
+        @Override
+        int getType(int[] types) {
+            return node.getType(types);
+        }
+
+        @Override
+        boolean isFoldable() {
+            return node.isConstant();
+        }
+
+        @Override
+        public String toString() {
+            return "(-" + node + ")";
+        }
+    }
+
+    /**
+     * A binary arithmetic operation.
+     */
+    static final class Operation extends Node {
+
+        static final char PLUS = '+', MINUS = '-', MULTIPLY = '*', DIVIDE = '/', MODULUS = '%';
+
+        private final char opType;
+        private final Node left, right;
+
+        Operation(char opType, Node left, Node right) {
+            this.opType = opType;
+            this.left = left;
+            this.right = right;
+        }
+
+        char getOpType() {
+            return opType;
+        }
+
+        Node getLeft() {
+            return left;
+        }
+
+        Node getRight() {
+            return right;
+        }
+
+        @Override
+        long evaluate(long[] args, int[] types) {
+            long l = left.evaluate(args, types);
+            long r = right.evaluate(args, types);
+            long result;
+            switch (opType) {
+            case PLUS:
+                result = l + r;
+                break;
+            case MINUS:
+                result = l - r;
+                break;
+            case MULTIPLY:
+                result = l * r;
+                break;
+            case DIVIDE:
+                result = l / r;
+                break;
+            case MODULUS:
+                result = l % r;
+                break;
+            default:
+                throw new IllegalStateException("opType=" + opType);
+            }
+            return wrap(result, getType(types));
+        }
+
+        @Override
+        int getType(int[] types) {
+            return Math.max(left.getType(types), right.getType(types));
+        }
+
+        @Override
+        long[] evaluateRange(long[][] args, int[] types) {
+            long[] result = evaluateLongRange(args, types);
+            return result == null || !fits(result, getType(types)) ? null : result;
+        }
+
+        private long[] evaluateLongRange(long[][] args, int[] types) {
+            long[] l = left.evaluateRange(args, types);
+            long[] r = right.evaluateRange(args, types);
+            if (l == null || r == null) {
+                return null;
+            }
+            switch (opType) {
+            case DIVIDE:
+            case MODULUS:
+                // only a constant divisor keeps the result predictable
+                if (r.length != 2 || r[0] != r[1] || r[0] == 0 || r[0] == Long.MIN_VALUE) {
+                    return null;
+                }
+                return opType == DIVIDE ? divide(l, r[0]) : modulus(l, Math.abs(r[0]));
+            default:
+                if ((long) l.length * r.length > MAX_INTERVALS * 4) {
+                    l = new long[] { l[0], l[l.length - 1] };
+                    r = new long[] { r[0], r[r.length - 1] };
+                }
+                long[] result = new long[l.length * r.length / 2];
+                int len = 0;
+                for (int i = 0; i < l.length; i += 2) {
+                    for (int j = 0; j < r.length; j += 2) {
+                        long a = l[i], b = l[i + 1], c = r[j], d = r[j + 1];
+                        if (opType == PLUS) {
+                            result[len++] = add(a, c);
+                            result[len++] = add(b, d);
+                        } else if (opType == MINUS) {
+                            result[len++] = subtract(a, d);
+                            result[len++] = subtract(b, c);
+                        } else {
+                            long p1 = multiply(a, c), p2 = multiply(a, d);
+                            long p3 = multiply(b, c), p4 = multiply(b, d);
+                            result[len++] = Math.min(Math.min(p1, p2), Math.min(p3, p4));
+                            result[len++] = Math.max(Math.max(p1, p2), Math.max(p3, p4));
+                        }
+                    }
+                }
+                return normalize(result, len);
+            }
+        }
+
+        private static long[] divide(long[] l, long divisor) {
+            if (divisor == -1) {
+                // Long.MIN_VALUE / -1 overflows
+                for (long x : l) {
+                    if (x == Long.MIN_VALUE) {
+                        return null;
+                    }
+                }
+            }
+            long[] result = new long[l.length];
+            for (int i = 0; i < l.length; i += 2) {
+                // truncating division is monotonic
+                long a = l[i] / divisor, b = l[i + 1] / divisor;
+                result[i] = Math.min(a, b);
+                result[i + 1] = Math.max(a, b);
+            }
+            return normalize(result, result.length);
+        }
+
+        private static long[] modulus(long[] l, long m) {
+            // at most two intervals for each side of zero
+            long[] result = new long[l.length * 4];
+            int len = 0;
+            for (int i = 0; i < l.length; i += 2) {
+                long a = l[i], b = l[i + 1];
+                if (a < 0) {
+                    // the remainder takes the sign of the dividend
+                    long high = Math.min(b, -1);
+                    if (high - a >= m - 1) {
+                        result[len++] = -(m - 1);
+                        result[len++] = 0;
+                    } else {
+                        long ra = a % m, rb = high % m;
+                        if (ra <= rb) {
+                            result[len++] = ra;
+                            result[len++] = rb;
+                        } else {
+                            result[len++] = -(m - 1);
+                            result[len++] = rb;
+                            result[len++] = ra;
+                            result[len++] = 0;
+                        }
+                    }
+                }
+                if (b >= 0) {
+                    long low = Math.max(a, 0);
+                    if (b - low >= m - 1) {
+                        result[len++] = 0;
+                        result[len++] = m - 1;
+                    } else {
+                        long ra = low % m, rb = b % m;
+                        if (ra <= rb) {
+                            result[len++] = ra;
+                            result[len++] = rb;
+                        } else {
+                            result[len++] = 0;
+                            result[len++] = rb;
+                            result[len++] = ra;
+                            result[len++] = m - 1;
+                        }
+                    }
+                }
+            }
+            return normalize(result, len);
+        }
+
+        @Override
+        boolean isFoldable() {
+            if (!left.isConstant() || !right.isConstant()) {
+                return false;
+            }
+            // keep the division by zero for the evaluation
+            return (opType != DIVIDE && opType != MODULUS) || right.evaluate(null, null) != 0;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + left + " " + opType + " " + right + ")";
+        }
+    }
+
+}
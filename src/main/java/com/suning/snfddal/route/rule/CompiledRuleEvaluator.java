@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2026年10月17日
+// $Id$
+
+package com.suning.snfddal.route.rule;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.suning.snfddal.value.Value;
+
+/**
+ * A rule evaluator that compiles each rule expression once and evaluates it
+ * with long arithmetic. Expressions that can't be compiled, and arguments of
+ * other types than the compiled rule expects, are evaluated by OGNL.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class CompiledRuleEvaluator implements RuleEvaluator {
+
+    private static final CompiledRule NOT_COMPILABLE = new CompiledRule(null, new String[0], new int[0], null);
+
+    private final Map<RuleExpression, CompiledRule> compiledRules = new ConcurrentHashMap<RuleExpression, CompiledRule>();
+
+    private RuleEvaluator fallback = new OgnlRuleEvaluator();
+
+    public RuleEvaluator getFallback() {
+        return fallback;
+    }
+
+    public void setFallback(RuleEvaluator fallback) {
+        this.fallback = fallback;
+    }
+
+    @Override
+    public Object evaluate(RuleExpression expression, Map<String, Value> parameters) throws RuleEvaluateException {
+        CompiledRule rule = getCompiledRule(expression);
+        if (rule == null) {
+            return fallback.evaluate(expression, parameters);
+        }
+        String[] argumentNames = rule.getArgumentNames();
+        long[] args = new long[argumentNames.length];
+        int[] types = new int[argumentNames.length];
+        for (int i = 0; i < args.length; i++) {
+            Value v = parameters.get(argumentNames[i]);
+            if (!rule.isCompatible(i, v)) {
+                return fallback.evaluate(expression, parameters);
+            }
+            args[i] = rule.toArgument(i, v);
+            types[i] = rule.toArgumentType(i, v);
+        }
+        try {
+            return rule.evaluate(args, types);
+        } catch (ArithmeticException e) {
+            throw new RuleEvaluateException("Evaluate rule " + expression.getExpression() + " error, parameter is "
+                    + parameters, e);
+        }
+    }
+
+    /**
+     * Get the compiled form of the rule expression.
+     *
+     * @param expression the rule expression
+     * @return the compiled rule, or null if it can only be evaluated by OGNL
+     */
+    public CompiledRule getCompiledRule(RuleExpression expression) {
+        CompiledRule rule = compiledRules.get(expression);
+        if (rule == null) {
+            rule = RuleExpressionCompiler.compile(expression);
+            if (rule == null) {
+                rule = NOT_COMPILABLE;
+            }
+            compiledRules.put(expression, rule);
+        }
+        return rule == NOT_COMPILABLE ? null : rule;
+    }
+
+}
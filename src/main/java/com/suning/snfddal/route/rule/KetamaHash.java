@@ -37,21 +37,53 @@ public class KetamaHash {
     private static final int NUM24 = 24;
     private static final int NUM_0XFF = 0xFF;
 
+    private static final ThreadLocal<MessageDigest> MD5 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException("MD5 not supported", e);
+            }
+        }
+    };
+
 
     public long calculate(Object paramObj) {
         String paramValue = paramObj == null ? "null" : paramObj.toString();
-        long hashCode = HashAlgorithm.KETAMA_HASH.hash(computeMd5(paramValue), 0);
-        return hashCode;
+        return hash(paramValue);
+    }
+
+    /**
+     * Get the ketama hash of the key, the first 32 bits of its MD5 digest.
+     *
+     * @param key the key
+     * @return the hash, between 0 and 2^32 - 1
+     */
+    public static long hash(String key) {
+        return HashAlgorithm.KETAMA_HASH.hash(computeMd5(key), 0);
+    }
+
+    /**
+     * Get the four ketama hashes of the key, as used for the virtual nodes
+     * of a ring.
+     *
+     * @param key the key
+     * @param hashes the array to store the hashes, of length 4
+     */
+    public static void hashes(String key, long[] hashes) {
+        byte[] digest = computeMd5(key);
+        for (int i = 0; i < NUM4; i++) {
+            hashes[i] = HashAlgorithm.KETAMA_HASH.hash(digest, i);
+        }
     }
 
     private static byte[] computeMd5(String k) {
         try {
-            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            MessageDigest md5 = MD5.get();
             md5.reset();
             md5.update(k.getBytes("UTF-8"));
             return md5.digest();
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("MD5 not supported", e);
         } catch (UnsupportedEncodingException e) {
             throw new RuntimeException("Unknown string :" + k, e);
         }
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2026年10月17日
+// $Id$
+
+package com.suning.snfddal.route.rule;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A consistent hash ring of the ketama kind. Each node (a table of a shard)
+ * is placed on the ring at a number of virtual points, derived from the MD5
+ * digests of its name, and a key belongs to the node of the first point at or
+ * after the hash of the key. Adding a node only moves the keys between its
+ * new points and the points before them.
+ * <p>
+ * The points are kept in a sorted array and looked up by binary search.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class KetamaRing implements TableNodes, Serializable {
+
+    /**
+     * The default number of virtual points per node.
+     */
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private static final long serialVersionUID = 1L;
+
+    private final String[] shards;
+
+    private final String[] tables;
+
+    private final long[] points;
+
+    private final int[] owners;
+
+    /**
+     * Build the ring.
+     *
+     * @param names the names of the nodes, which decide their positions
+     * @param shards the shard of each node
+     * @param tables the table of each node, null if the shard is not split
+     *            into tables
+     * @param virtualNodes the number of points per node, rounded up to a
+     *            multiple of 4
+     */
+    public KetamaRing(String[] names, String[] shards, String[] tables, int virtualNodes) {
+        if (names.length == 0) {
+            throw new IllegalArgumentException("The ring has no node.");
+        }
+        this.shards = shards;
+        this.tables = tables;
+        int digests = Math.max(1, (virtualNodes + 3) / 4);
+        // the point in the high bits, the owner in the low 31 bits
+        long[] packed = new long[names.length * digests * 4];
+        long[] hashes = new long[4];
+        int n = 0;
+        for (int node = 0; node < names.length; node++) {
+            for (int i = 0; i < digests; i++) {
+                KetamaHash.hashes(names[node] + "-" + i, hashes);
+                for (long h : hashes) {
+                    packed[n++] = (h << 31) | node;
+                }
+            }
+        }
+        Arrays.sort(packed);
+        points = new long[n];
+        owners = new int[n];
+        for (int i = 0; i < n; i++) {
+            points[i] = packed[i] >>> 31;
+            owners[i] = (int) (packed[i] & Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * @return the number of nodes
+     */
+    public int getNodeCount() {
+        return shards.length;
+    }
+
+    /**
+     * @param node the node index
+     * @return the shard of the node
+     */
+    public String getShard(int node) {
+        return shards[node];
+    }
+
+    /**
+     * @param node the node index
+     * @return the table of the node, null if the shard is not split
+     */
+    public String getTable(int node) {
+        return tables[node];
+    }
+
+    /**
+     * Get the node of the key.
+     *
+     * @param key the key
+     * @return the node index
+     */
+    public int getNode(String key) {
+        return locate(KetamaHash.hash(key));
+    }
+
+    /**
+     * Get the node of the first point at or after the hash.
+     *
+     * @param hash the hash
+     * @return the node index
+     */
+    public int locate(long hash) {
+        int i = Arrays.binarySearch(points, hash);
+        if (i < 0) {
+            i = -i - 1;
+            if (i == points.length) {
+                i = 0;
+            }
+        } else {
+            // the first of the points with the same hash
+            while (i > 0 && points[i - 1] == hash) {
+                i--;
+            }
+        }
+        return owners[i];
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2026年10月17日
+// $Id$
+
+package com.suning.snfddal.route.rule;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+
+import com.suning.snfddal.message.DbException;
+import com.suning.snfddal.value.CompareMode;
+import com.suning.snfddal.value.Value;
+import com.suning.snfddal.value.ValueString;
+
+/**
+ * The interval index of a range partitioned router. Each node (a table of a
+ * shard) holds the values below its upper bound and at or above the upper
+ * bound of the node before it, like the VALUES LESS THAN partitions of MySQL.
+ * The upper bounds are kept in a sorted array and looked up by binary search.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class RangeIndex implements TableNodes, Serializable {
+
+    /**
+     * The bound of the last node that holds all the larger values.
+     */
+    public static final String MAXVALUE = "MAXVALUE";
+
+    private static final long serialVersionUID = 1L;
+
+    private static final CompareMode COMPARE_MODE = CompareMode.getInstance(null, 0);
+
+    private final String[] shards;
+
+    private final String[] tables;
+
+    private final String[] bounds;
+
+    private final int type;
+
+    private transient Value[] upperBounds;
+
+    /**
+     * Build the index.
+     *
+     * @param shards the shard of each node
+     * @param tables the table of each node, null if the shard is not split
+     *            into tables
+     * @param bounds the exclusive upper bound of each node in ascending order,
+     *            the last one may be MAXVALUE
+     * @param type the value type of the bounds
+     */
+    public RangeIndex(String[] shards, String[] tables, String[] bounds, int type) {
+        if (shards.length == 0) {
+            throw new IllegalArgumentException("The range partition has no node.");
+        }
+        if (bounds.length != shards.length) {
+            throw new IllegalArgumentException("The range partition has " + shards.length + " tables but "
+                    + bounds.length + " bounds.");
+        }
+        this.shards = shards;
+        this.tables = tables;
+        this.bounds = bounds;
+        this.type = type;
+        this.upperBounds = parseBounds();
+    }
+
+    private Value[] parseBounds() {
+        Value[] values = new Value[bounds.length];
+        for (int i = 0; i < bounds.length; i++) {
+            String bound = bounds[i].trim();
+            if (MAXVALUE.equalsIgnoreCase(bound)) {
+                if (i != bounds.length - 1) {
+                    throw new IllegalArgumentException("Only the last bound of the range partition can be "
+                            + MAXVALUE + ".");
+                }
+                continue;
+            }
+            try {
+                values[i] = ValueString.get(bound).convertTo(type);
+            } catch (DbException e) {
+                throw new IllegalArgumentException("Invalid bound " + bound + " of the range partition.", e);
+            }
+            if (i > 0 && values[i].compareTo(values[i - 1], COMPARE_MODE) <= 0) {
+                throw new IllegalArgumentException("The bounds of the range partition must be ascending, "
+                        + bound + " is not larger than " + bounds[i - 1].trim() + ".");
+            }
+        }
+        return values;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        upperBounds = parseBounds();
+    }
+
+    @Override
+    public int getNodeCount() {
+        return shards.length;
+    }
+
+    @Override
+    public String getShard(int node) {
+        return shards[node];
+    }
+
+    @Override
+    public String getTable(int node) {
+        return tables[node];
+    }
+
+    /**
+     * Get the node that holds the value.
+     *
+     * @param value the value
+     * @return the node index, or -1 if the value is beyond the last bound
+     */
+    public int getNode(Value value) {
+        return search(value, false);
+    }
+
+    /**
+     * Get the nodes that may hold the values of a range.
+     *
+     * @param start the lower bound, null if unbounded
+     * @param end the upper bound, null if unbounded
+     * @param endInclusive whether the upper bound is in the range
+     * @return the first and the last node index, or null if no node does
+     */
+    public int[] getNodes(Value start, Value end, boolean endInclusive) {
+        int first = start == null ? 0 : search(start, false);
+        if (first < 0) {
+            return null;
+        }
+        int last = end == null ? -1 : search(end, !endInclusive);
+        if (last < 0) {
+            last = upperBounds.length - 1;
+        }
+        return first <= last ? new int[] { first, last } : null;
+    }
+
+    /**
+     * Find the first node whose upper bound is larger than the value, or not
+     * smaller than the value if the value itself is excluded.
+     */
+    private int search(Value value, boolean exclusive) {
+        int low = 0, high = upperBounds.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            Value bound = upperBounds[mid];
+            int compare = bound == null ? 1 : bound.compareTo(value, COMPARE_MODE);
+            if (compare > 0 || (exclusive && compare == 0)) {
+                found = mid;
+                high = mid - 1;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return found;
+    }
+
+}
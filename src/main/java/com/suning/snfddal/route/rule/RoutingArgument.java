@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2026年10月17日
+// $Id$
+
+package com.suning.snfddal.route.rule;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.suning.snfddal.value.Value;
+
+/**
+ * The values a rule column may take in a statement: either a list of fixed
+ * points (from =, IN and inserted rows) or a range (from BETWEEN and
+ * comparisons). A null range bound means the range is open on that side.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class RoutingArgument {
+
+    /**
+     * The argument is a list of values.
+     */
+    public static final int FIXED_POINT = 0;
+
+    /**
+     * The argument is a range of values.
+     */
+    public static final int RANGE = 1;
+
+    private final int type;
+
+    private final List<Value> values;
+
+    private final Value start;
+
+    private final Value end;
+
+    private final boolean endInclusive;
+
+    public RoutingArgument(List<Value> values) {
+        this.type = FIXED_POINT;
+        this.values = values;
+        this.start = null;
+        this.end = null;
+        this.endInclusive = true;
+    }
+
+    public RoutingArgument(Value start, Value end) {
+        this(start, end, true);
+    }
+
+    public RoutingArgument(Value start, Value end, boolean endInclusive) {
+        this.type = RANGE;
+        this.values = Collections.emptyList();
+        this.start = start;
+        this.end = end;
+        this.endInclusive = endInclusive;
+    }
+
+    /**
+     * @return FIXED_POINT or RANGE
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * @return the values of a FIXED_POINT argument
+     */
+    public List<Value> getValues() {
+        return values;
+    }
+
+    /**
+     * @return the lower bound of a RANGE argument, null if unbounded
+     */
+    public Value getStart() {
+        return start;
+    }
+
+    /**
+     * @return the upper bound of a RANGE argument, null if unbounded
+     */
+    public Value getEnd() {
+        return end;
+    }
+
+    /**
+     * @return false if the upper bound of a RANGE argument is excluded, as in
+     *         a &lt; comparison
+     */
+    public boolean isEndInclusive() {
+        return endInclusive;
+    }
+
+    /**
+     * @return true if this is a range with both bounds
+     */
+    public boolean isBoundedRange() {
+        return type == RANGE && start != null && end != null;
+    }
+
+    @Override
+    public String toString() {
+        if (type == FIXED_POINT) {
+            return values.toString();
+        }
+        return "[" + (start == null ? "" : start.getTraceSQL()) + ".."
+                + (end == null ? "" : end.getTraceSQL()) + (endInclusive ? "]" : ")");
+    }
+
+}
@@ -18,16 +18,21 @@
 
 package com.suning.snfddal.route.rule;
 
-import java.util.List;
 import java.util.Map;
 
-import com.suning.snfddal.value.Value;
-
 /**
  * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
  */
 public interface RoutingCalculator {
 
-    RoutingResult calculate(TableRouter tableRouter, Map<String, List<Value>> columnValue);
+    /**
+     * Calculate the shards and tables the arguments may be routed to.
+     *
+     * @param tableRouter the table router
+     * @param arguments the routing arguments by rule column name, rule
+     *            columns without an argument may take any value
+     * @return the routing result
+     */
+    RoutingResult calculate(TableRouter tableRouter, Map<String, RoutingArgument> arguments);
 
 }
@@ -18,23 +18,34 @@
 
 package com.suning.snfddal.route.rule;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import com.suning.snfddal.util.New;
 import com.suning.snfddal.value.Value;
+import com.suning.snfddal.value.ValueLong;
 
 /**
  * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
  */
 public class RoutingCalculatorImpl implements RoutingCalculator {
     
+    /**
+     * The largest integer range that is enumerated if the rule can't be
+     * evaluated over the range.
+     */
+    private static final int MAX_ENUM_RANGE = 200;
+
     private RuleEvaluator evaluator = new OgnlRuleEvaluator();
 
+    /**
+     * Compiles the OGNL rules to evaluate them over ranges.
+     */
+    private final CompiledRuleEvaluator rangeEvaluator = new CompiledRuleEvaluator();
+
     public RuleEvaluator getEvaluator() {
         return evaluator;
     }
@@ -43,73 +54,239 @@ public class RoutingCalculatorImpl implements RoutingCalculator {
         this.evaluator = evaluator;
     }
 
+    /**
+     * Get the evaluator configured on the table router, or the default one.
+     *
+     * @param tableRouter the table router
+     * @return the rule evaluator
+     */
+    private RuleEvaluator getEvaluator(TableRouter tableRouter) {
+        RuleEvaluator ruleEvaluator = tableRouter.getRuleEvaluator();
+        return ruleEvaluator == null ? evaluator : ruleEvaluator;
+    }
+
+    /**
+     * Get the compiled rule that can be evaluated over ranges, if the compiled
+     * rule gives the same results as the evaluator.
+     *
+     * @param ruleEvaluator the evaluator of the rule
+     * @param rule the rule
+     * @return the compiled rule or null
+     */
+    private CompiledRule getRangeRule(RuleEvaluator ruleEvaluator, RuleExpression rule) {
+        if (ruleEvaluator instanceof CompiledRuleEvaluator) {
+            return ((CompiledRuleEvaluator) ruleEvaluator).getCompiledRule(rule);
+        } else if (ruleEvaluator instanceof OgnlRuleEvaluator) {
+            return rangeEvaluator.getCompiledRule(rule);
+        }
+        return null;
+    }
+
     @Override
-    public RoutingResult calculate(TableRouter tableRouter, Map<String, List<Value>> columnValue) {
+    public RoutingResult calculate(TableRouter tableRouter, Map<String, RoutingArgument> arguments) {
         if (tableRouter == null) {
             throw new IllegalArgumentException("tableRule is null.");
         }
-        if (columnValue == null) {
-            throw new IllegalArgumentException("columnValue is null.");
+        if (arguments == null) {
+            throw new IllegalArgumentException("arguments is null.");
         }
 
         RuleExpression dbRule = tableRouter.getShardRuleExpression();
         RuleExpression tbRule = tableRouter.getTableRuleExpression();
+        RuleEvaluator ruleEvaluator = getEvaluator(tableRouter);
+        TableTopology topology = tableRouter.getTopology();
+        RuleExpression hashRule = tableRouter.getHashRuleExpression();
+        if (hashRule != null && topology.getRing() != null) {
+            return calculateHash(ruleEvaluator, topology, hashRule, arguments);
+        }
+        RuleExpression rangeRule = tableRouter.getRangeRuleExpression();
+        if (rangeRule != null && topology.getRangeIndex() != null) {
+            return calculateRange(topology, rangeRule, arguments);
+        }
 
-        Set<String> shardSet = null;
-        if (canUseRule(dbRule, columnValue)) {
-            shardSet = evaluateGroupRule(tableRouter, dbRule, columnValue);
-        } else {
-            // 无库规则,库的范围是TableRule配置的所有库
-            shardSet = tableRouter.getTopology().getShard();
+        int shardCount = topology.getShardCount();
+        boolean[] shardHits = null;
+        if (dbRule != null) {
+            long[] range = evaluateRange(ruleEvaluator, dbRule, arguments);
+            if (range != null) {
+                boolean[] hits = new boolean[shardCount];
+                shardHits = markIndexes(range, hits) == 0 ? null : hits;
+            } else {
+                Map<String, List<Value>> columnValue = getColumnValue(dbRule, arguments);
+                if (columnValue != null) {
+                    shardHits = evaluateGroupRule(ruleEvaluator, topology, dbRule, columnValue);
+                }
+            }
+        }
+        // shardHits为null时，库的范围是TableRule配置的所有库
+        Set<Object> evalValues = null;
+        // 按范围计算出的表序号可能超出个别库的表数
+        boolean rangeIndexes = false;
+        if (tbRule != null) {
+            long[] range = evaluateRange(ruleEvaluator, tbRule, arguments);
+            if (range != null) {
+                Set<Object> tableIndexes = New.linkedHashSet();
+                tableIndexes.addAll(indexes(range, topology.getMaxTableCount()));
+                evalValues = tableIndexes.isEmpty() ? null : tableIndexes;
+                rangeIndexes = true;
+            } else {
+                Map<String, List<Value>> columnValue = getColumnValue(tbRule, arguments);
+                if (columnValue != null) {
+                    evalValues = evaluateTableRule(ruleEvaluator, topology, tbRule, columnValue);
+                }
+            }
         }
         RoutingResult result = new RoutingResult();
+        if (evalValues == null) {
+            // 无表规则,命中库的所有表
+            if (shardHits == null) {
+                result.setMatchedShards(topology.getAllShards());
+            } else {
+                List<RoutingResult.MatchedShard> matchedShards = New.arrayList();
+                for (int i = 0; i < shardCount; i++) {
+                    if (shardHits[i]) {
+                        matchedShards.add(topology.getMatchedShard(i));
+                    }
+                }
+                result.setMatchedShards(matchedShards);
+            }
+            return result;
+        }
+        // 有表规则,表的范围根据表规则计算得出
         List<RoutingResult.MatchedShard> matchedShards = New.arrayList();
-        result.setMatchedShards(matchedShards);
-        if (canUseRule(tbRule, columnValue)) {
-            // 有库规则,库的范围根据表规则计算得出
-            Set<Object> evalValues = evaluateTableRule(tbRule, columnValue);
-            for (String shardName : shardSet) {
-                RoutingResult.MatchedShard matchedShard = new RoutingResult.MatchedShard();
-                matchedShard.setShardName(shardName);
-                List<String> tables = New.arrayList();
-                for (Object evalValue : evalValues) {
-                    String tableName;
-                    if (evalValue instanceof String) {
-                        if (!tableRouter.getTopology().getTableInShard(shardName).contains(evalValue)) {
-                            throw new RuleEvaluateException("The table rule expression " + tbRule.getExpression()
-                                    + " evaluated " + evalValue + " is not in distribution list.");
-                        }
-                        tableName = evalValue.toString();
-                    } else if (evalValue.getClass() == int.class || evalValue.getClass() == Integer.class
-                            || evalValue.getClass() == long.class || evalValue.getClass() == Long.class
-                            || evalValue.getClass() == short.class || evalValue.getClass() == Short.class
-                            || evalValue.getClass() == byte.class || evalValue.getClass() == Byte.class) {
-                        tableName = tableIndexToName(tableRouter, evalValue, shardName);
-                    } else {
+        for (int i = 0; i < shardCount; i++) {
+            if (shardHits != null && !shardHits[i]) {
+                continue;
+            }
+            String shardName = topology.indexShard(i);
+            List<String> tables = New.arrayList(evalValues.size());
+            for (Object evalValue : evalValues) {
+                String tableName;
+                if (evalValue instanceof String) {
+                    if (!topology.getTableInShard(shardName).contains(evalValue)) {
                         throw new RuleEvaluateException("The table rule expression " + tbRule.getExpression()
-                                + " return a value " + tbRule.getClass() + " which type is unsupported.");
+                                + " evaluated " + evalValue + " is not in distribution list.");
+                    }
+                    tableName = evalValue.toString();
+                } else if (isIndex(evalValue)) {
+                    int index = toIndex(evalValue);
+                    if (rangeIndexes && index >= topology.getTableCount(i)) {
+                        continue;
                     }
-                    tables.add(tableName);
+                    tableName = tableIndexToName(topology, i, index);
+                } else {
+                    throw new RuleEvaluateException("The table rule expression " + tbRule.getExpression()
+                            + " return a value " + evalValue.getClass() + " which type is unsupported.");
+                }
+                tables.add(tableName);
+            }
+            RoutingResult.MatchedShard matchedShard = new RoutingResult.MatchedShard();
+            matchedShard.setShardName(shardName);
+            matchedShard.setTables(tables.toArray(new String[tables.size()]));
+            matchedShards.add(matchedShard);
+        }
+        result.setMatchedShards(matchedShards);
+        return result;
+    }
+
+    /**
+     * 按一致性哈希环计算路由，哈希规则的值所在的节点即为命中的表
+     *
+     * @param ruleEvaluator the evaluator of the rule
+     * @param topology the topology with the hash ring
+     * @param rule the hash rule
+     * @param arguments the routing arguments
+     * @return the routing result
+     */
+    private RoutingResult calculateHash(RuleEvaluator ruleEvaluator, TableTopology topology, RuleExpression rule,
+            Map<String, RoutingArgument> arguments) {
+        KetamaRing ring = topology.getRing();
+        boolean[] hits = new boolean[ring.getNodeCount()];
+        Map<String, List<Value>> columnValue = getColumnValue(rule, arguments);
+        if (columnValue == null) {
+            Arrays.fill(hits, true);
+        } else {
+            int hitCount = 0;
+            CrossedArguments crossed = new CrossedArguments(rule, columnValue);
+            while (crossed.next()) {
+                Object evlValue = ruleEvaluator.evaluate(rule, crossed.getArguments());
+                if (evlValue == null) {
+                    throw new RuleEvaluateException("The hash rule expression " + rule.getExpression()
+                            + " evaluate a null value.");
+                }
+                int node = ring.getNode(evlValue.toString());
+                if (!hits[node]) {
+                    hits[node] = true;
+                    if (++hitCount == hits.length) {
+                        // 已命中所有节点，余下的组合不会改变结果
+                        break;
+                    }
+                }
+            }
+        }
+        return toResult(ring, hits);
+    }
+
+    /**
+     * 按区间索引计算路由，范围规则列的值或范围所在的区间即为命中的表
+     *
+     * @param topology the topology with the interval index
+     * @param rule the range rule
+     * @param arguments the routing arguments
+     * @return the routing result, without shard if no table holds the values
+     */
+    private RoutingResult calculateRange(TableTopology topology, RuleExpression rule,
+            Map<String, RoutingArgument> arguments) {
+        RangeIndex index = topology.getRangeIndex();
+        boolean[] hits = new boolean[index.getNodeCount()];
+        RoutingArgument arg = arguments.get(rule.getRuleColumns().get(0).getName());
+        if (arg == null) {
+            Arrays.fill(hits, true);
+        } else if (arg.getType() == RoutingArgument.FIXED_POINT) {
+            for (Value value : arg.getValues()) {
+                int node = index.getNode(value);
+                if (node >= 0) {
+                    hits[node] = true;
                 }
-                String[] tbs = tables.toArray(new String[tables.size()]);
-                matchedShard.setTables(tbs);
-                matchedShards.add(matchedShard);
             }
         } else {
-            // 无库规则,库的范围是TableRule配置的所有库
-            for (String shardName : shardSet) {
-                RoutingResult.MatchedShard matchedShard = new RoutingResult.MatchedShard();
-                matchedShard.setShardName(shardName);
-                Set<String> tableNames = tableRouter.getTopology().getTableInShard(shardName);
-                List<String> tables = New.arrayList();
-                for (String tableName : tableNames) {
-                    tables.add(tableName);
+            int[] nodes = index.getNodes(arg.getStart(), arg.getEnd(), arg.isEndInclusive());
+            if (nodes != null) {
+                Arrays.fill(hits, nodes[0], nodes[1] + 1, true);
+            }
+        }
+        return toResult(index, hits);
+    }
+
+    /**
+     * Group the hit nodes by shard.
+     *
+     * @param nodes the nodes in topology order
+     * @param hits whether each node is hit
+     * @return the routing result
+     */
+    private static RoutingResult toResult(TableNodes nodes, boolean[] hits) {
+        // 节点按拓扑的顺序排列，同一库的表是相邻的
+        List<RoutingResult.MatchedShard> matchedShards = New.arrayList();
+        List<String> tables = New.arrayList();
+        for (int node = 0; node < hits.length; node++) {
+            if (hits[node] && nodes.getTable(node) != null) {
+                tables.add(nodes.getTable(node));
+            }
+            String shardName = nodes.getShard(node);
+            boolean lastOfShard = node == hits.length - 1 || !nodes.getShard(node + 1).equals(shardName);
+            if (lastOfShard) {
+                if (!tables.isEmpty() || (hits[node] && nodes.getTable(node) == null)) {
+                    RoutingResult.MatchedShard matchedShard = new RoutingResult.MatchedShard();
+                    matchedShard.setShardName(shardName);
+                    matchedShard.setTables(tables.toArray(new String[tables.size()]));
+                    matchedShards.add(matchedShard);
                 }
-                String[] tbs = tables.toArray(new String[tables.size()]);
-                matchedShard.setTables(tbs);
-                matchedShards.add(matchedShard);
+                tables.clear();
             }
         }
+        RoutingResult result = new RoutingResult();
+        result.setMatchedShards(matchedShards);
         return result;
     }
 
@@ -117,41 +294,46 @@ public class RoutingCalculatorImpl implements RoutingCalculator {
      * @param ruleToUse
      * @param columnValue
      * @param tableRule
+     * @return whether each shard is hit
      */
-    private Set<String> evaluateGroupRule(TableRouter tr, RuleExpression rule, Map<String, List<Value>> args) {
-        Set<String> resultSet = new HashSet<String>();
-        List<RuleColumn> ruleColumns = rule.getRuleColumns();
-        Map<String, List<Value>> paramCollections = New.hashMap(ruleColumns.size(), 1L);
-        for (RuleColumn ruleColumn : ruleColumns) {
-            String name = ruleColumn.getName();
-            paramCollections.put(name, args.get(name));
-        }
+    private boolean[] evaluateGroupRule(RuleEvaluator evaluator, TableTopology topology, RuleExpression rule,
+            Map<String, List<Value>> args) {
+        int shardCount = topology.getShardCount();
+        boolean[] hits = new boolean[shardCount];
+        int hitCount = 0;
         // 一个规则存在多个RuleColumn，多个RuleColumn对应的取值集合做笛卡尔积后的所有集
-        for (Map<String, Value> parameters : new CrossedCollection(paramCollections)) {
-            String groupName = null;
-            Object evlValue = evaluator.evaluate(rule, parameters);
+        CrossedArguments crossed = new CrossedArguments(rule, args);
+        while (crossed.next()) {
+            int ordinal;
+            Object evlValue = evaluator.evaluate(rule, crossed.getArguments());
             if (evlValue == null) {
                 throw new RuleEvaluateException("The group rule expression " + rule.getExpression()
                         + " evaluate a null value.");
             }
             if (evlValue instanceof String) {
-                if (!tr.getTopology().getShard().contains(evlValue)) {
+                ordinal = topology.getShardOrdinal((String) evlValue);
+                if (ordinal < 0) {
                     throw new RuleEvaluateException("The group rule expression " + rule.getExpression() + " evaluated "
                             + evlValue + " is not in distribution list.");
                 }
-                groupName = evlValue.toString();
-            } else if (evlValue.getClass() == int.class || evlValue.getClass() == Integer.class
-                    || evlValue.getClass() == long.class || evlValue.getClass() == Long.class
-                    || evlValue.getClass() == short.class || evlValue.getClass() == Short.class
-                    || evlValue.getClass() == byte.class || evlValue.getClass() == Byte.class) {
-                groupName = groupIndexToName(tr, evlValue);
+            } else if (isIndex(evlValue)) {
+                ordinal = toIndex(evlValue);
+                if (ordinal < 0 || ordinal >= shardCount) {
+                    throw new RuleEvaluateException("The index must be between 0 and " + (shardCount - 1));
+                }
             } else {
                 throw new RuleEvaluateException("The group rule expression " + rule.getExpression()
                         + " return a value " + evlValue.getClass() + " which type is unsupported.");
             }
-            resultSet.add(groupName);
+            if (!hits[ordinal]) {
+                hits[ordinal] = true;
+                if (++hitCount >= shardCount) {
+                    // 已命中所有库，余下的组合不会改变结果
+                    break;
+                }
+            }
         }
-        return resultSet;
+        return hits;
     }
 
     /**
@@ -159,30 +341,32 @@ public class RoutingCalculatorImpl implements RoutingCalculator {
      * @param columnValue
      * @param tableRule
      */
-    private Set<Object> evaluateTableRule(RuleExpression rule, Map<String, List<Value>> columnValue) {
+    private Set<Object> evaluateTableRule(RuleEvaluator evaluator, TableTopology topology, RuleExpression rule,
+            Map<String, List<Value>> columnValue) {
         Set<Object> resultSet = new HashSet<Object>();
-        List<RuleColumn> ruleColumns = rule.getRuleColumns();
-        Map<String, List<Value>> paramCollections = New.hashMap(ruleColumns.size(), 1L);
-        for (RuleColumn ruleColumn : ruleColumns) {
-            String name = ruleColumn.getName();
-            paramCollections.put(name, columnValue.get(name));
-        }
+        int tableCount = topology.getMaxTableCount();
         // 一个规则存在多个RuleColumn，多个RuleColumn对应的取值集合做笛卡尔积后的所有集
-        for (Map<String, Value> parameters : new CrossedCollection(paramCollections)) {
-            Object evlValue = evaluator.evaluate(rule, parameters);
+        CrossedArguments crossed = new CrossedArguments(rule, columnValue);
+        while (crossed.next()) {
+            Object evlValue = evaluator.evaluate(rule, crossed.getArguments());
             resultSet.add(evlValue);
+            if (resultSet.size() >= tableCount) {
+                // 已命中分库中的所有表，余下的组合不会改变结果
+                break;
+            }
         }
         return resultSet;
     }
 
     /**
-     * @param tableRule
-     * @param evlValue
+     * @param topology
+     * @param ordinal the position of the shard
+     * @param index the position of the table
+     * @return
      */
-    private String groupIndexToName(TableRouter tr, Object evlValue) {
+    private static String tableIndexToName(TableTopology topology, int ordinal, int index) {
         try {
-            int index = Integer.parseInt(evlValue.toString());
-            return tr.getTopology().indexShard(index);
+            return topology.indexTable(ordinal, index);
         } catch (ArrayIndexOutOfBoundsException e) {
             throw new RuleEvaluateException(e.getMessage());
         }
@@ -190,47 +374,144 @@ public class RoutingCalculatorImpl implements RoutingCalculator {
     }
 
     /**
-     * @param tableRule
-     * @param evlValue
-     * @param shardName
-     * @return
+     * @param evlValue the result of a rule
+     * @return true if the result is an integer index
      */
-    private String tableIndexToName(TableRouter tr, Object evlValue, String shardName) {
-        try {
-            int index = Integer.parseInt(evlValue.toString());
-            return tr.getTopology().indexTableInShard(shardName, index);
-        } catch (ArrayIndexOutOfBoundsException e) {
-            throw new RuleEvaluateException(e.getMessage());
-        }
+    private static boolean isIndex(Object evlValue) {
+        Class<?> c = evlValue.getClass();
+        return c == Integer.class || c == Long.class || c == Short.class || c == Byte.class;
+    }
 
+    /**
+     * @param evlValue an integer index
+     * @return the index, or -1 if it's beyond the int range
+     */
+    private static int toIndex(Object evlValue) {
+        long index = ((Number) evlValue).longValue();
+        return index < 0 || index > Integer.MAX_VALUE ? -1 : (int) index;
     }
-    
-    
+
     /**
-     * 对于分库分表存在多个Rule的情况下，choiceRule负责根据表的字段值选取一个符合条件的Rule做为sharding规则，
-     * 先择的规则按优先顺序，优先最大匹配，先匹配所有列，找不到再去除可选列之后匹配
+     * 规则的参数中有范围时，按区间计算规则的所有可能结果
      *
-     * @param rules
-     * @param columnValue
-     * @return
+     * @param ruleEvaluator the evaluator of the rule
+     * @param rule the rule
+     * @param arguments the routing arguments
+     * @return the interval set of the results, or null if the rule has no
+     *         range argument or can't be evaluated over the range
      */
-    private boolean canUseRule(RuleExpression rule, Map<String, List<Value>> columnValue) {
-        if (rule == null) {
-            return false;
+    private long[] evaluateRange(RuleEvaluator ruleEvaluator, RuleExpression rule,
+            Map<String, RoutingArgument> arguments) {
+        boolean hasRange = false;
+        for (RuleColumn ruleColumn : rule.getRuleColumns()) {
+            RoutingArgument arg = arguments.get(ruleColumn.getName());
+            if (arg == null) {
+                return null;
+            } else if (arg.getType() == RoutingArgument.RANGE) {
+                hasRange = true;
+            }
+        }
+        if (!hasRange) {
+            return null;
         }
-        // 完全匹配所有列
+        CompiledRule compiled = getRangeRule(ruleEvaluator, rule);
+        return compiled == null ? null : compiled.evaluateRange(arguments);
+    }
+
+    /**
+     * @param range the interval set
+     * @param hits set to true at the values of the interval set
+     * @return the number of values marked
+     */
+    private static int markIndexes(long[] range, boolean[] hits) {
+        int count = 0;
+        for (int i = 0; i < range.length; i += 2) {
+            long low = Math.max(range[i], 0), high = Math.min(range[i + 1], hits.length - 1);
+            for (long x = low; x <= high; x++) {
+                hits[(int) x] = true;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param range the interval set
+     * @param count the number of indexes
+     * @return the values of the interval set between 0 and count - 1
+     */
+    private static List<Long> indexes(long[] range, int count) {
+        List<Long> result = New.arrayList();
+        for (int i = 0; i < range.length; i += 2) {
+            long low = Math.max(range[i], 0), high = Math.min(range[i + 1], count - 1);
+            for (long x = low; x <= high; x++) {
+                result.add(x);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 取得规则所有列的取值，范围参数只在不超过MAX_ENUM_RANGE个整数时被展开
+     *
+     * @param rule the rule
+     * @param arguments the routing arguments
+     * @return the values by rule column name, or null if the rule can't be used
+     */
+    private static Map<String, List<Value>> getColumnValue(RuleExpression rule,
+            Map<String, RoutingArgument> arguments) {
         List<RuleColumn> ruleColumns = rule.getRuleColumns();
+        Map<String, List<Value>> columnValue = New.hashMap(ruleColumns.size());
         for (RuleColumn ruleColumn : ruleColumns) {
-            List<Value> values = columnValue.get(ruleColumn.getName());
+            RoutingArgument arg = arguments.get(ruleColumn.getName());
+            List<Value> values = null;
+            if (arg == null) {
+                return null;
+            } else if (arg.getType() == RoutingArgument.FIXED_POINT) {
+                values = arg.getValues();
+            } else {
+                values = enumRange(arg);
+            }
             if (values == null || values.isEmpty()) {
-                return false;
+                return null;
+            }
+            columnValue.put(ruleColumn.getName(), values);
+        }
+        return columnValue;
+    }
+
+    private static List<Value> enumRange(RoutingArgument arg) {
+        if (!arg.isBoundedRange()) {
+            return null;
+        }
+        Value start = arg.getStart(), end = arg.getEnd();
+        int type = start.getType();
+        if (type != end.getType()) {
+            return null;
+        }
+        switch (type) {
+        case Value.BYTE:
+        case Value.INT:
+        case Value.LONG:
+        case Value.SHORT:
+            long low = start.getLong(), high = end.getLong();
+            long span = high - low;
+            if (span < 0 || span > MAX_ENUM_RANGE) {
+                // also on overflow
+                return null;
+            }
+            List<Value> enumValues = New.arrayList((int) span + 1);
+            for (long x = low; x <= high; x++) {
+                enumValues.add(ValueLong.get(x).convertTo(type));
             }
+            return enumValues;
+        default:
+            return null;
         }
-        return true;
     }
 
     /**
-     * 将列的值域通过笛卡尔积运算，转化为参数一一对应的值域
+     * 将列的值域通过笛卡尔积运算，按里程表的顺序逐个产生参数一一对应的值域
      * <p/>
      * 
      * <pre>
@@ -242,81 +523,83 @@ public class RoutingCalculatorImpl implements RoutingCalculator {
      * <p/>
      * 
      * <pre>
-     * 输出结果：{
+     * 依次产生：{
      *      {column1=1, column2=a}
      *      {column1=1, column2=b}
      *      {column1=1, column2=c}
+     *      {column1=1, column2=d}
      *      {column1=2, column2=a}
-     *      {column1=2, column2=b}
-     *      {column1=2, column2=c}
+     *      ...
      * }
      * </pre>
+     * 每个组合都写入同一个参数Map，不为组合分配新的对象，调用方不能保留该Map。
      *
      * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
      */
-    private static class CrossedCollection implements Iterable<Map<String, Value>> {
+    private static class CrossedArguments {
 
-        private Map<String, List<Value>> collection;
+        private final String[] columnNames;
 
-        private List<Map<String, Value>> crossedResult;
+        private final List<List<Value>> columnValues;
 
-        /**
-         * @param collection
-         */
-        private CrossedCollection(Map<String, List<Value>> collection) {
-            this.collection = collection;
-        }
+        private final int[] record;
 
-        /* (non-Javadoc)
-         * @see java.lang.Iterable#iterator() */
-        @Override
-        public Iterator<Map<String, Value>> iterator() {
-            crossedResult = cross(this.collection);
-            return crossedResult.iterator();
-        }
+        private final Map<String, Value> arguments;
 
-        private List<Map<String, Value>> cross(Map<String, List<Value>> crossArgs) {
-            // Set是无顺的且不能按顺号迭代，先将Set转为List
-            Map<String, List<Value>> crossSource = New.hashMap(crossArgs.size(), 1L);
-            List<String> columnNames = new ArrayList<String>(crossArgs.keySet());
-            // 计算出笛卡尔积行数
-            int rows = columnNames.size() > 0 ? 1 : 0;
-            for (String column : columnNames) {
-                crossSource.put(column, new ArrayList<Value>(crossArgs.get(column)));
-                rows *= crossArgs.get(column).size();
-            }
-            // 笛卡尔积索引记录
-            int[] record = new int[columnNames.size()];
-            List<Map<String, Value>> results = new ArrayList<Map<String, Value>>();
-            // 产生笛卡尔积
-            for (int i = 0; i < rows; i++) {
-                // List<String> row = new ArrayList<String>();
-                Map<String, Value> row = New.linkedHashMap(record.length, 1L);
-                // 生成笛卡尔积的每组数据
-                for (int index = 0; index < record.length; index++) {
-                    String columnName = columnNames.get(index);
-                    List<Value> columnValues = crossSource.get(columnName);
-                    row.put(columnName, columnValues.get(record[index]));
-                }
-                results.add(row);
-                crossRecord(columnNames, crossSource, record, crossArgs.size() - 1);
+        private boolean started;
+
+        private CrossedArguments(RuleExpression rule, Map<String, List<Value>> args) {
+            Map<String, List<Value>> crossSource = New.linkedHashMap();
+            for (RuleColumn ruleColumn : rule.getRuleColumns()) {
+                String name = ruleColumn.getName();
+                crossSource.put(name, args.get(name));
             }
-            return results;
+            int size = crossSource.size();
+            this.columnNames = crossSource.keySet().toArray(new String[size]);
+            this.columnValues = New.arrayList(crossSource.values());
+            this.record = new int[size];
+            this.arguments = New.hashMap(size, 1L);
         }
 
         /**
-         * 产生笛卡尔积当前行索引记录.
+         * 产生下一个组合
          *
-         * @param sourceArgs 要产生笛卡尔积的源数据
-         * @param record 每行笛卡尔积的索引组合
-         * @param level 索引组合的当前计算层级
+         * @return false if all combinations have been produced
          */
-        private void crossRecord(List<String> columnNames, Map<String, List<Value>> crossSource, int[] record, int level) {
-            record[level] = record[level] + 1;
-            if (record[level] >= crossSource.get(columnNames.get(level)).size() && level > 0) {
+        private boolean next() {
+            if (!started) {
+                started = true;
+                if (columnNames.length == 0) {
+                    return false;
+                }
+                for (int i = 0; i < columnNames.length; i++) {
+                    List<Value> values = columnValues.get(i);
+                    if (values == null || values.isEmpty()) {
+                        return false;
+                    }
+                    arguments.put(columnNames[i], values.get(0));
+                }
+                return true;
+            }
+            for (int level = columnNames.length - 1; level >= 0; level--) {
+                List<Value> values = columnValues.get(level);
+                int index = record[level] + 1;
+                if (index < values.size()) {
+                    record[level] = index;
+                    arguments.put(columnNames[level], values.get(index));
+                    return true;
+                }
                 record[level] = 0;
-                crossRecord(columnNames, crossSource, record, level - 1);
+                arguments.put(columnNames[level], values.get(0));
             }
+            return false;
+        }
+
+        /**
+         * @return the arguments of the current combination
+         */
+        private Map<String, Value> getArguments() {
+            return arguments;
         }
 
     }
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2014 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2026年10月17日
+// $Id$
+
+package com.suning.snfddal.route.rule;
+
+import java.util.List;
+
+import com.suning.snfddal.route.rule.CompiledRule.Argument;
+import com.suning.snfddal.route.rule.CompiledRule.Constant;
+import com.suning.snfddal.route.rule.CompiledRule.DatePart;
+import com.suning.snfddal.route.rule.CompiledRule.Negate;
+import com.suning.snfddal.route.rule.CompiledRule.Node;
+import com.suning.snfddal.route.rule.CompiledRule.Operation;
+import com.suning.snfddal.util.New;
+import com.suning.snfddal.util.StringUtils;
+import com.suning.snfddal.value.Value;
+
+/**
+ * Compiles the arithmetic subset of the rule expression language, such as
+ * <code>(F_STUDENT_ID % 16) / 4</code>: integer literals, rule columns,
+ * parentheses and the operators + - * / %. A date rule column may be used
+ * through <code>getYear()</code>, <code>getMonth()</code> and
+ * <code>getDate()</code>, or the matching properties, for example
+ * <code>F_CREATE_DATE.getMonth() % 4</code>.
+ * <p>
+ * Everything else (method calls, rule algorithms, strings, conditionals) is
+ * left to OGNL, {@link #compile(RuleExpression)} returns null for it.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class RuleExpressionCompiler {
+
+    private static final int END = 0, NUMBER = 1, NAME = 2, SYMBOL = 3;
+
+    private final String expression;
+    private final String[] argumentNames;
+    private final int[] argumentTypes;
+    private int parseIndex;
+    private int currentTokenType;
+    private String currentToken;
+    private boolean currentTokenLong;
+
+    private RuleExpressionCompiler(String expression, String[] argumentNames) {
+        this.expression = expression;
+        this.argumentNames = argumentNames;
+        this.argumentTypes = new int[argumentNames.length];
+    }
+
+    /**
+     * Compile the rule expression.
+     *
+     * @param rule the rule expression
+     * @return the compiled rule, or null if the expression is not supported
+     */
+    public static CompiledRule compile(RuleExpression rule) {
+        String expression = rule.getExpression();
+        List<RuleColumn> ruleColumns = rule.getRuleColumns();
+        if (expression == null || ruleColumns == null) {
+            return null;
+        }
+        String[] argumentNames = new String[ruleColumns.size()];
+        for (int i = 0; i < argumentNames.length; i++) {
+            argumentNames[i] = ruleColumns.get(i).getName();
+        }
+        RuleExpressionCompiler compiler = new RuleExpressionCompiler(expression, argumentNames);
+        try {
+            compiler.read();
+            Node root = compiler.readSum();
+            if (compiler.currentTokenType != END) {
+                return null;
+            }
+            root = optimize(root);
+            return new CompiledRule(expression, argumentNames, compiler.argumentTypes, root);
+        } catch (UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private Node readSum() {
+        Node r = readProduct();
+        while (true) {
+            if (readIf("+")) {
+                r = new Operation(Operation.PLUS, r, readProduct());
+            } else if (readIf("-")) {
+                r = new Operation(Operation.MINUS, r, readProduct());
+            } else {
+                return r;
+            }
+        }
+    }
+
+    private Node readProduct() {
+        Node r = readTerm();
+        while (true) {
+            if (readIf("*")) {
+                r = new Operation(Operation.MULTIPLY, r, readTerm());
+            } else if (readIf("/")) {
+                r = new Operation(Operation.DIVIDE, r, readTerm());
+            } else if (readIf("%")) {
+                r = new Operation(Operation.MODULUS, r, readTerm());
+            } else {
+                return r;
+            }
+        }
+    }
+
+    private Node readTerm() {
+        if (readIf("-")) {
+            return new Negate(readTerm());
+        } else if (readIf("+")) {
+            return readTerm();
+        } else if (readIf("(")) {
+            Node r = readSum();
+            if (!readIf(")")) {
+                throw unsupported();
+            }
+            return r;
+        } else if (currentTokenType == NUMBER) {
+            long value = parseLong(currentToken);
+            if (!currentTokenLong && value > Integer.MAX_VALUE) {
+                // not an int, OGNL fails to parse it
+                throw unsupported();
+            }
+            Node r = new Constant(value, currentTokenLong ? Value.LONG : Value.INT);
+            read();
+            return r;
+        } else if (currentTokenType == NAME) {
+            for (int i = 0; i < argumentNames.length; i++) {
+                if (argumentNames[i].equals(currentToken)) {
+                    String name = currentToken;
+                    read();
+                    if (readIf(".")) {
+                        return readDatePart(i, name);
+                    }
+                    setArgumentType(i, CompiledRule.NUMBER);
+                    return new Argument(i, name);
+                }
+            }
+        }
+        throw unsupported();
+    }
+
+    private Node readDatePart(int slot, String name) {
+        if (currentTokenType != NAME) {
+            throw unsupported();
+        }
+        String method = currentToken;
+        read();
+        if (method.startsWith("get") && method.length() > 3) {
+            if (!readIf("(") || !readIf(")")) {
+                throw unsupported();
+            }
+            method = StringUtils.toLowerEnglish(method.substring(3, 4)) + method.substring(4);
+        }
+        int field;
+        if ("year".equals(method)) {
+            field = DatePart.YEAR;
+        } else if ("month".equals(method)) {
+            field = DatePart.MONTH;
+        } else if ("date".equals(method)) {
+            field = DatePart.DAY;
+        } else {
+            throw unsupported();
+        }
+        setArgumentType(slot, CompiledRule.DATE);
+        return new DatePart(slot, name, field);
+    }
+
+    private void setArgumentType(int slot, int type) {
+        if (argumentTypes[slot] != CompiledRule.UNUSED && argumentTypes[slot] != type) {
+            // used both as a number and as a date
+            throw unsupported();
+        }
+        argumentTypes[slot] = type;
+    }
+
+    /**
+     * Give the tree the shape that OGNL evaluates, and replace the constant
+     * parts with their value. OGNL flattens a sum or product whose operand is
+     * a sum or product, <code>A + (B + C)</code> is evaluated as
+     * <code>(A + B) + C</code>, which matters when an operation wraps around.
+     *
+     * @param node the parsed tree
+     * @return the tree to evaluate
+     */
+    static Node optimize(Node node) {
+        if (node instanceof Operation) {
+            Operation op = (Operation) node;
+            char opType = op.getOpType();
+            if (opType == Operation.PLUS || opType == Operation.MULTIPLY) {
+                List<Node> operands = New.arrayList();
+                addOperands(op, opType, operands);
+                Node r = operands.get(0);
+                for (int i = 1; i < operands.size(); i++) {
+                    r = fold(new Operation(opType, r, operands.get(i)));
+                }
+                return r;
+            }
+            return fold(new Operation(opType, optimize(op.getLeft()), optimize(op.getRight())));
+        } else if (node instanceof Negate) {
+            return fold(new Negate(optimize(((Negate) node).getNode())));
+        }
+        return node;
+    }
+
+    private static void addOperands(Node node, char opType, List<Node> operands) {
+        if (node instanceof Operation && ((Operation) node).getOpType() == opType) {
+            addOperands(((Operation) node).getLeft(), opType, operands);
+            addOperands(((Operation) node).getRight(), opType, operands);
+        } else {
+            operands.add(optimize(node));
+        }
+    }
+
+    private static Node fold(Node node) {
+        return node.isFoldable() ? new Constant(node.evaluate(null, null), node.getType(null)) : node;
+    }
+
+    private boolean readIf(String symbol) {
+        if (currentTokenType == SYMBOL && currentToken.equals(symbol)) {
+            read();
+            return true;
+        }
+        return false;
+    }
+
+    private void read() {
+        int len = expression.length();
+        while (parseIndex < len && Character.isWhitespace(expression.charAt(parseIndex))) {
+            parseIndex++;
+        }
+        if (parseIndex >= len) {
+            currentTokenType = END;
+            currentToken = null;
+            return;
+        }
+        int start = parseIndex;
+        currentTokenLong = false;
+        char c = expression.charAt(parseIndex++);
+        if (c >= '0' && c <= '9') {
+            while (parseIndex < len && Character.isDigit(expression.charAt(parseIndex))) {
+                parseIndex++;
+            }
+            currentToken = expression.substring(start, parseIndex);
+            if (c == '0' && currentToken.length() > 1) {
+                // octal literal
+                throw unsupported();
+            }
+            if (parseIndex < len && (expression.charAt(parseIndex) == 'L' || expression.charAt(parseIndex) == 'l')) {
+                parseIndex++;
+                currentTokenLong = true;
+            }
+            currentTokenType = NUMBER;
+        } else if (Character.isJavaIdentifierStart(c)) {
+            while (parseIndex < len && Character.isJavaIdentifierPart(expression.charAt(parseIndex))) {
+                parseIndex++;
+            }
+            currentToken = expression.substring(start, parseIndex);
+            currentTokenType = NAME;
+        } else if ("+-*/%().".indexOf(c) >= 0) {
+            currentToken = String.valueOf(c);
+            currentTokenType = SYMBOL;
+        } else {
+            throw unsupported();
+        }
+        if (parseIndex < len && currentTokenType == NUMBER) {
+            char next = expression.charAt(parseIndex);
+            if (next == '.' || Character.isJavaIdentifierPart(next)) {
+                // decimals and suffixes other than L
+                throw unsupported();
+            }
+        }
+    }
+
+    private static long parseLong(String s) {
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            throw unsupported();
+        }
+    }
+
+    private static UnsupportedOperationException unsupported() {
+        return new UnsupportedOperationException();
+    }
+
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2014 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2026年10月17日
+// $Id$
+
+package com.suning.snfddal.route.rule;
+
+/**
+ * The tables of a router as a list of nodes in topology order, the tables of
+ * the same shard being adjacent.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+interface TableNodes {
+
+    /**
+     * @return the number of nodes
+     */
+    int getNodeCount();
+
+    /**
+     * @param node the node index
+     * @return the shard of the node
+     */
+    String getShard(int node);
+
+    /**
+     * @param node the node index
+     * @return the table of the node, null if the shard is not split
+     */
+    String getTable(int node);
+
+}
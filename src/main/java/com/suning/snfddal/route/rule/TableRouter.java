@@ -24,6 +24,7 @@ import java.util.Map;
 import java.util.Set;
 
 import com.suning.snfddal.util.New;
+import com.suning.snfddal.value.Value;
 
 /**
  * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
@@ -39,9 +40,21 @@ public class TableRouter implements Serializable{
     private RuleExpression shardRuleExpression;
     
     private RuleExpression tableRuleExpression;
+
+    private RuleExpression hashRuleExpression;
+
+    private int virtualNodes = KetamaRing.DEFAULT_VIRTUAL_NODES;
+
+    private RuleExpression rangeRuleExpression;
+
+    private int rangeType = Value.TIMESTAMP;
+
+    private String[] rangeBounds;
     
     private TableTopology topology;
 
+    private transient RuleEvaluator ruleEvaluator;
+
     /**
      * @return the id
      */
@@ -75,8 +88,18 @@ public class TableRouter implements Serializable{
      */
     public List<RuleColumn> getRuleColumns() {
         Set<RuleColumn> temp = New.linkedHashSet();
-        temp.addAll(shardRuleExpression.getRuleColumns());
-        temp.addAll(tableRuleExpression.getRuleColumns());
+        if (shardRuleExpression != null) {
+            temp.addAll(shardRuleExpression.getRuleColumns());
+        }
+        if (tableRuleExpression != null) {
+            temp.addAll(tableRuleExpression.getRuleColumns());
+        }
+        if (hashRuleExpression != null) {
+            temp.addAll(hashRuleExpression.getRuleColumns());
+        }
+        if (rangeRuleExpression != null) {
+            temp.addAll(rangeRuleExpression.getRuleColumns());
+        }
         List<RuleColumn> result = New.arrayList(temp);
         return result;
     }
@@ -108,6 +131,92 @@ public class TableRouter implements Serializable{
         this.tableRuleExpression = tableRuleExpression;
     }
 
+    /**
+     * @return the hashRuleExpression, the value of which is placed on the
+     *         consistent hash ring of the tables
+     */
+    public RuleExpression getHashRuleExpression() {
+        return hashRuleExpression;
+    }
+
+    /**
+     * @param hashRuleExpression the hashRuleExpression to set
+     */
+    public void setHashRuleExpression(RuleExpression hashRuleExpression) {
+        this.hashRuleExpression = hashRuleExpression;
+    }
+
+    /**
+     * @return the number of virtual nodes of each table on the hash ring
+     */
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    /**
+     * @param virtualNodes the virtualNodes to set
+     */
+    public void setVirtualNodes(int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * @return the rangeRuleExpression, the column of which is partitioned by
+     *         the range bounds
+     */
+    public RuleExpression getRangeRuleExpression() {
+        return rangeRuleExpression;
+    }
+
+    /**
+     * @param rangeRuleExpression the rangeRuleExpression to set
+     */
+    public void setRangeRuleExpression(RuleExpression rangeRuleExpression) {
+        this.rangeRuleExpression = rangeRuleExpression;
+    }
+
+    /**
+     * @return the value type of the range bounds
+     */
+    public int getRangeType() {
+        return rangeType;
+    }
+
+    /**
+     * @param rangeType the rangeType to set
+     */
+    public void setRangeType(int rangeType) {
+        this.rangeType = rangeType;
+    }
+
+    /**
+     * @return the exclusive upper bound of each table in partition order
+     */
+    public String[] getRangeBounds() {
+        return rangeBounds;
+    }
+
+    /**
+     * @param rangeBounds the rangeBounds to set
+     */
+    public void setRangeBounds(String[] rangeBounds) {
+        this.rangeBounds = rangeBounds;
+    }
+
+    /**
+     * @return the rule evaluator of this router, null means the default one
+     */
+    public RuleEvaluator getRuleEvaluator() {
+        return ruleEvaluator;
+    }
+
+    /**
+     * @param ruleEvaluator the ruleEvaluator to set
+     */
+    public void setRuleEvaluator(RuleEvaluator ruleEvaluator) {
+        this.ruleEvaluator = ruleEvaluator;
+    }
+
     /**
      * @return the topology
      */
@@ -120,16 +229,40 @@ public class TableRouter implements Serializable{
      */
     public void initTopology(String tableName) {
         Map<String, Set<String>> structure = New.linkedHashMap();
+        // 哈希环的节点以库名和表后缀命名，同一路由的表的节点位置相同
+        List<String> nodeNames = New.arrayList();
+        List<String> nodeShards = New.arrayList();
+        List<String> nodeTables = New.arrayList();
         for (Map.Entry<String, Set<String>> entry : partition.entrySet()) {
             String shardName = entry.getKey();
             Set<String> suffixs = entry.getValue();
             Set<String> tables = New.linkedHashSet();
             for (String suffix : suffixs) {
                 tables.add(tableName + suffix);
+                nodeNames.add(shardName + suffix);
+                nodeShards.add(shardName);
+                nodeTables.add(tableName + suffix);
+            }
+            if (suffixs.isEmpty()) {
+                nodeNames.add(shardName);
+                nodeShards.add(shardName);
+                nodeTables.add(null);
             }
             structure.put(shardName, tables);
         }
-        topology = new TableTopology(structure);
+        KetamaRing ring = null;
+        if (hashRuleExpression != null) {
+            int size = nodeNames.size();
+            ring = new KetamaRing(nodeNames.toArray(new String[size]), nodeShards.toArray(new String[size]),
+                    nodeTables.toArray(new String[size]), virtualNodes);
+        }
+        RangeIndex rangeIndex = null;
+        if (rangeRuleExpression != null) {
+            int size = nodeShards.size();
+            rangeIndex = new RangeIndex(nodeShards.toArray(new String[size]), nodeTables.toArray(new String[size]),
+                    rangeBounds, rangeType);
+        }
+        topology = new TableTopology(structure, ring, rangeIndex);
         
     }
     
@@ -20,56 +20,199 @@ package com.suning.snfddal.route.rule;
 
 import java.io.Serializable;
 import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import com.suning.snfddal.util.New;
+
 /**
+ * The shards and tables of a router. It's immutable, the shard and table
+ * names are indexed in arrays by their position in the partition, and the
+ * matched shards of the "all tables" case are built once.
+ *
  * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
  */
 public class TableTopology implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
-    private Map<String, Set<String>> topology;
+    private final String[] shards;
+
+    private final String[][] tables;
+
+    private final Map<String, Integer> shardOrdinals;
+
+    private final Set<String> shardSet;
+
+    private final Map<String, Set<String>> tableSets;
+
+    private final int maxTableCount;
+
+    private final RoutingResult.MatchedShard[] matchedShards;
+
+    private final List<RoutingResult.MatchedShard> allShards;
+
+    private final KetamaRing ring;
+
+    private final RangeIndex rangeIndex;
     
     public TableTopology(Map<String, Set<String>> topology) {
-        this.topology = topology;
+        this(topology, null, null);
+    }
+
+    public TableTopology(Map<String, Set<String>> topology, KetamaRing ring) {
+        this(topology, ring, null);
+    }
+
+    public TableTopology(Map<String, Set<String>> topology, KetamaRing ring, RangeIndex rangeIndex) {
+        int shardCount = topology.size();
+        this.shards = new String[shardCount];
+        this.tables = new String[shardCount][];
+        this.shardOrdinals = New.hashMap(shardCount);
+        this.tableSets = New.hashMap(shardCount);
+        this.matchedShards = new RoutingResult.MatchedShard[shardCount];
+        Set<String> shardNames = New.linkedHashSet();
+        int max = 0;
+        int i = 0;
+        for (Map.Entry<String, Set<String>> entry : topology.entrySet()) {
+            String shardName = entry.getKey();
+            Set<String> tableNames = new LinkedHashSet<String>(entry.getValue());
+            shards[i] = shardName;
+            tables[i] = tableNames.toArray(new String[tableNames.size()]);
+            shardOrdinals.put(shardName, i);
+            shardNames.add(shardName);
+            tableSets.put(shardName, Collections.unmodifiableSet(tableNames));
+            RoutingResult.MatchedShard matched = new RoutingResult.MatchedShard();
+            matched.setShardName(shardName);
+            matched.setTables(tables[i].clone());
+            matchedShards[i] = matched;
+            max = Math.max(max, tables[i].length);
+            i++;
+        }
+        this.shardSet = Collections.unmodifiableSet(shardNames);
+        this.maxTableCount = max;
+        List<RoutingResult.MatchedShard> all = New.arrayList(shardCount);
+        Collections.addAll(all, matchedShards);
+        this.allShards = Collections.unmodifiableList(all);
+        this.ring = ring;
+        this.rangeIndex = rangeIndex;
+    }
+
+    /**
+     * @return the consistent hash ring of the tables, null if the router
+     *         does not use a hash rule
+     */
+    public KetamaRing getRing() {
+        return ring;
+    }
+
+    /**
+     * @return the interval index of the tables, null if the router does not
+     *         use a range rule
+     */
+    public RangeIndex getRangeIndex() {
+        return rangeIndex;
     }
 
     public Set<String> getShard() {
-        return Collections.unmodifiableSet(topology.keySet());
+        return shardSet;
     }
     
     public Set<String> getTableInShard(String shardName) {
-        Set<String> tables = topology.get(shardName);
-        if(tables == null) {
+        Set<String> tableNames = tableSets.get(shardName);
+        if(tableNames == null) {
             throw new IllegalArgumentException(shardName + " not existing.");
         }
-        return Collections.unmodifiableSet(tables);
+        return tableNames;
     }
 
     public String indexShard(int index) {
-        Set<String> shards = topology.keySet();
         return index(index, shards);
     }
     
     public String indexTableInShard(String shardName, int index) {
-        Set<String> tables = getTableInShard(shardName);
-        return index(index, tables);
+        return index(index, tables[getOrdinal(shardName)]);
+    }
+
+    /**
+     * @return the number of shards
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @param shardName the shard name
+     * @return the position of the shard in the partition, or -1 if the shard
+     *         is not in it
+     */
+    public int getShardOrdinal(String shardName) {
+        Integer ordinal = shardOrdinals.get(shardName);
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    /**
+     * @param ordinal the position of the shard
+     * @return the number of tables in the shard
+     */
+    public int getTableCount(int ordinal) {
+        return tables[ordinal].length;
+    }
+
+    /**
+     * @param ordinal the position of the shard
+     * @param index the position of the table in the shard
+     * @return the table name
+     */
+    public String indexTable(int ordinal, int index) {
+        return index(index, tables[ordinal]);
+    }
+
+    /**
+     * @return the largest number of tables in a shard
+     */
+    public int getMaxTableCount() {
+        return maxTableCount;
+    }
+
+    /**
+     * @param ordinal the position of the shard
+     * @return the matched shard with all the tables of the shard, which must
+     *         not be modified
+     */
+    public RoutingResult.MatchedShard getMatchedShard(int ordinal) {
+        return matchedShards[ordinal];
+    }
+
+    /**
+     * @return the matched shards with all the tables, which must not be
+     *         modified
+     */
+    public List<RoutingResult.MatchedShard> getAllShards() {
+        return allShards;
+    }
+
+    private int getOrdinal(String shardName) {
+        Integer ordinal = shardOrdinals.get(shardName);
+        if (ordinal == null) {
+            throw new IllegalArgumentException(shardName + " not existing.");
+        }
+        return ordinal;
     }
 
     /**
      * @param index
-     * @param set
+     * @param names
      * @return
      */
-    private String index(int index, Set<String> set) {
-        String[] groups = set.toArray(new String[set.size()]);
-        if (index < 0 || index >= groups.length) {
-            String msg = "The index must be between 0 and " + (groups.length - 1);
+    private static String index(int index, String[] names) {
+        if (index < 0 || index >= names.length) {
+            String msg = "The index must be between 0 and " + (names.length - 1);
             throw new ArrayIndexOutOfBoundsException(msg);
         }
-        return groups[index];
+        return names[index];
     }
 
 }
@@ -6,6 +6,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Properties;
 import java.util.UUID;
 
 import javax.sql.DataSource;
@@ -21,17 +22,29 @@ public abstract class BaseSampleCase {
 
     public BaseSampleCase() {
         try {
-            String configLocation = "/config/ddal-config.xml";
-            DispatcherDataSource dataSource = new DispatcherDataSource();
-            dataSource.setConfigLocation(configLocation);
-            dataSource.init();
-            this.dataSource = dataSource;
+            this.dataSource = createDataSource(new Properties());
         } catch (RuntimeException e) {
             e.printStackTrace();
             throw e;
         }
     }
 
+    /**
+     * Create a data source of the test configuration with other settings. The
+     * caller has to close it.
+     *
+     * @param settings the settings, as EARLY_FILTER
+     * @return the initialized data source
+     */
+    public static DispatcherDataSource createDataSource(Properties settings) {
+        String configLocation = "/config/ddal-config.xml";
+        DispatcherDataSource dataSource = new DispatcherDataSource();
+        dataSource.setConfigLocation(configLocation);
+        dataSource.setSettings(settings);
+        dataSource.init();
+        return dataSource;
+    }
+
     @After
     public void disorty() {
         try {
@@ -0,0 +1,129 @@
+package com.suning.snfddal.test.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import com.suning.snfddal.route.rule.CompiledRuleEvaluator;
+import com.suning.snfddal.route.rule.RoutingArgument;
+import com.suning.snfddal.route.rule.RoutingCalculator;
+import com.suning.snfddal.route.rule.RoutingCalculatorImpl;
+import com.suning.snfddal.route.rule.RoutingResult;
+import com.suning.snfddal.route.rule.RuleColumn;
+import com.suning.snfddal.route.rule.RuleExpression;
+import com.suning.snfddal.route.rule.TableRouter;
+import com.suning.snfddal.value.Value;
+import com.suning.snfddal.value.ValueLong;
+
+/**
+ * Compares the point routing cost of the modulo rules with the consistent
+ * hash rule, and the share of keys that move when a shard is added.
+ * <p>
+ * Run the main method, the arguments are the number of keys and rounds.
+ */
+public class RoutingBenchmark {
+
+    private static final String COLUMN = "F_STUDENT_ID";
+
+    public static void main(String... args) {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        long[] ids = new long[keys];
+        Random random = new Random(1);
+        for (int i = 0; i < keys; i++) {
+            ids[i] = random.nextLong() & Long.MAX_VALUE;
+        }
+
+        TableRouter ognlModulo = newModuloRouter(4);
+        TableRouter compiledModulo = newModuloRouter(4);
+        compiledModulo.setRuleEvaluator(new CompiledRuleEvaluator());
+        TableRouter ketama = newHashRouter(4);
+
+        RoutingCalculator calculator = new RoutingCalculatorImpl();
+        for (int i = 0; i < rounds; i++) {
+            run("modulo (ognl)", calculator, ognlModulo, ids);
+            run("modulo (compiled)", calculator, compiledModulo, ids);
+            run("ketama", calculator, ketama, ids);
+        }
+
+        System.out.println("keys moved when adding a fifth shard:");
+        System.out.printf("  modulo %.1f%%%n", moved(calculator, newModuloRouter(4), newModuloRouter(5), ids));
+        System.out.printf("  ketama %.1f%%%n", moved(calculator, newHashRouter(4), newHashRouter(5), ids));
+    }
+
+    private static void run(String name, RoutingCalculator calculator, TableRouter router, long[] ids) {
+        long start = System.nanoTime();
+        int hash = 0;
+        for (long id : ids) {
+            hash += route(calculator, router, id).hashCode();
+        }
+        long time = System.nanoTime() - start;
+        System.out.printf("%-20s %8d ns/op (%d)%n", name, time / ids.length, hash);
+    }
+
+    private static double moved(RoutingCalculator calculator, TableRouter before, TableRouter after, long[] ids) {
+        int moved = 0;
+        for (long id : ids) {
+            if (!route(calculator, before, id).equals(route(calculator, after, id))) {
+                moved++;
+            }
+        }
+        return moved * 100.0 / ids.length;
+    }
+
+    private static RoutingResult route(RoutingCalculator calculator, TableRouter router, long id) {
+        List<Value> values = new ArrayList<Value>(1);
+        values.add(ValueLong.get(id));
+        Map<String, RoutingArgument> arguments = new HashMap<String, RoutingArgument>();
+        arguments.put(COLUMN, new RoutingArgument(values));
+        return calculator.calculate(router, arguments);
+    }
+
+    private static TableRouter newModuloRouter(int shards) {
+        TableRouter router = newRouter("modulo" + shards, shards);
+        int tables = shards * 4;
+        router.setShardRuleExpression(newRule("(" + COLUMN + " % " + tables + ") / 4"));
+        router.setTableRuleExpression(newRule(COLUMN + " % 4"));
+        router.initTopology("t_student");
+        return router;
+    }
+
+    private static TableRouter newHashRouter(int shards) {
+        TableRouter router = newRouter("ketama" + shards, shards);
+        router.setHashRuleExpression(newRule(COLUMN));
+        router.initTopology("t_student");
+        return router;
+    }
+
+    private static TableRouter newRouter(String id, int shards) {
+        TableRouter router = new TableRouter();
+        router.setId(id);
+        Map<String, Set<String>> partition = new LinkedHashMap<String, Set<String>>();
+        for (int i = 1; i <= shards; i++) {
+            Set<String> suffixes = new LinkedHashSet<String>();
+            for (int j = 1; j <= 4; j++) {
+                suffixes.add("_00" + j);
+            }
+            partition.put("shard" + i, suffixes);
+        }
+        router.setPartition(partition);
+        return router;
+    }
+
+    private static RuleExpression newRule(String expression) {
+        RuleColumn column = new RuleColumn();
+        column.setName(COLUMN);
+        List<RuleColumn> columns = new ArrayList<RuleColumn>();
+        columns.add(column);
+        RuleExpression rule = new RuleExpression();
+        rule.setExpression(expression);
+        rule.setRuleColumns(columns);
+        return rule;
+    }
+
+}
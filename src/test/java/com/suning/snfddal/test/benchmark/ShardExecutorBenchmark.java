@@ -0,0 +1,125 @@
+package com.suning.snfddal.test.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.suning.snfddal.route.MultiNodeExecutor;
+import com.suning.snfddal.route.ShardExecutor;
+
+/**
+ * Compares the throughput of the shard statements run in thread pools with
+ * the statements run on virtual threads. Many sessions run queries at the
+ * same time, each query sends a statement to every shard and waits for all
+ * of them. A statement blocks for the given time while it holds the lock of
+ * its connection, as the statements of many JDBC drivers do while they wait
+ * for the server; a virtual thread that blocks there pins its carrier thread
+ * up to Java 23.
+ * <p>
+ * The limit of the virtual threads of a shard does not depend on the size of
+ * the thread pool, so virtual threads are run with a limit as high as the
+ * thread pool, and with a limit as high as the number of sessions, to see
+ * what the limit costs.
+ * <p>
+ * Run the main method, the arguments are the number of sessions, shards,
+ * queries per session, the maximum number of threads per shard and the time
+ * of a statement in milliseconds. Virtual threads need Java 21 or later.
+ * <p>
+ * There are no numbers for virtual threads yet: the benchmark has only been
+ * run on Java 17, where only the thread pool runs.
+ */
+public class ShardExecutorBenchmark {
+
+    public static void main(String... args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int shards = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int maxThreads = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+        int latency = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+        System.out.printf("%d sessions, %d shards, %d queries per session, %d threads per shard, %d ms%n",
+                sessions, shards, queries, maxThreads, latency);
+
+        run("thread pool", false, sessions, shards, queries, maxThreads, maxThreads, latency);
+        if (ShardExecutor.isVirtualThreadSupported()) {
+            run("virtual threads", true, sessions, shards, queries, maxThreads, maxThreads, latency);
+            run("virtual, no limit", true, sessions, shards, queries, maxThreads, Math.max(maxThreads, sessions),
+                    latency);
+        } else {
+            System.out.println("virtual threads are not supported by this runtime");
+        }
+    }
+
+    private static void run(String name, boolean virtual, int sessions, int shards, final int queries,
+            int maxThreads, int maxVirtualThreads, final int latency) throws Exception {
+        final MultiNodeExecutor executor = new MultiNodeExecutor(virtual, maxVirtualThreads);
+        final List<String> shardNames = new ArrayList<String>(shards);
+        for (int i = 0; i < shards; i++) {
+            String shardName = "shard" + i;
+            executor.addShard(shardName, maxThreads, sessions);
+            shardNames.add(shardName);
+        }
+        final Callable<Integer> statement = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return new BlockingConnection().executeUpdate(latency);
+            }
+        };
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch end = new CountDownLatch(sessions);
+        final AtomicLong statements = new AtomicLong();
+        for (int i = 0; i < sessions; i++) {
+            Thread session = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int q = 0; q < queries; q++) {
+                            List<Callable<Integer>> calls = new ArrayList<Callable<Integer>>(shardNames.size());
+                            for (int s = 0; s < shardNames.size(); s++) {
+                                calls.add(statement);
+                            }
+                            for (Integer count : executor.execute(shardNames, calls)) {
+                                statements.addAndGet(count);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        end.countDown();
+                    }
+                }
+            };
+            session.setDaemon(true);
+            session.start();
+        }
+        long time = System.nanoTime();
+        start.countDown();
+        end.await();
+        time = System.nanoTime() - time;
+        executor.shutdown();
+        long millis = Math.max(1, time / 1000000);
+        System.out.printf("%-18s %8d queries/s %10d statements/s, peak %d platform threads%n", name,
+                (long) sessions * queries * 1000 / millis, statements.get() * 1000 / millis,
+                threads.getPeakThreadCount());
+    }
+
+    /**
+     * A connection of a driver that holds its lock while it waits for the
+     * result of a statement.
+     */
+    private static class BlockingConnection {
+
+        synchronized int executeUpdate(int latency) throws InterruptedException {
+            Thread.sleep(latency);
+            return 1;
+        }
+
+    }
+
+}
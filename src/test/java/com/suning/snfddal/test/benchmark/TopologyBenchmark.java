@@ -0,0 +1,115 @@
+package com.suning.snfddal.test.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.suning.snfddal.route.rule.CompiledRuleEvaluator;
+import com.suning.snfddal.route.rule.RoutingArgument;
+import com.suning.snfddal.route.rule.RoutingCalculator;
+import com.suning.snfddal.route.rule.RoutingCalculatorImpl;
+import com.suning.snfddal.route.rule.RuleColumn;
+import com.suning.snfddal.route.rule.RuleExpression;
+import com.suning.snfddal.route.rule.TableRouter;
+import com.suning.snfddal.value.Value;
+import com.suning.snfddal.value.ValueLong;
+
+/**
+ * Measures RoutingCalculatorImpl.calculate of a modulo router with 16 shards
+ * of 16 tables, for a point, a large IN-list and a full broadcast, in time
+ * and in bytes allocated per call.
+ * <p>
+ * Run the main method, the arguments are the size of the IN-list and the
+ * number of rounds.
+ */
+public class TopologyBenchmark {
+
+    private static final String COLUMN = "F_STUDENT_ID";
+
+    private static final int SHARDS = 16;
+
+    private static final int TABLES = 16;
+
+    public static void main(String... args) {
+        int inSize = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        TableRouter router = newRouter();
+        RoutingCalculator calculator = new RoutingCalculatorImpl();
+
+        Map<String, RoutingArgument> point = newArguments(1);
+        Map<String, RoutingArgument> inList = newArguments(inSize);
+        Map<String, RoutingArgument> broadcast = new HashMap<String, RoutingArgument>();
+        for (int i = 0; i < rounds; i++) {
+            run("point", calculator, router, point, 200000);
+            run("in-list (" + inSize + ")", calculator, router, inList, 200);
+            run("broadcast", calculator, router, broadcast, 200000);
+        }
+    }
+
+    private static void run(String name, RoutingCalculator calculator, TableRouter router,
+            Map<String, RoutingArgument> arguments, int count) {
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        int hash = 0;
+        for (int i = 0; i < count; i++) {
+            hash += calculator.calculate(router, arguments).getMatchedShards().size();
+        }
+        long time = System.nanoTime() - start;
+        bytes = allocatedBytes() - bytes;
+        System.out.printf("%-20s %10d ns/op %10d bytes/op (%d)%n", name, time / count, bytes / count, hash);
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static Map<String, RoutingArgument> newArguments(int size) {
+        List<Value> values = new ArrayList<Value>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(ValueLong.get(i * 7919L));
+        }
+        Map<String, RoutingArgument> arguments = new HashMap<String, RoutingArgument>();
+        arguments.put(COLUMN, new RoutingArgument(values));
+        return arguments;
+    }
+
+    private static TableRouter newRouter() {
+        TableRouter router = new TableRouter();
+        router.setId("modulo" + SHARDS);
+        Map<String, Set<String>> partition = new LinkedHashMap<String, Set<String>>();
+        for (int i = 1; i <= SHARDS; i++) {
+            Set<String> suffixes = new LinkedHashSet<String>();
+            for (int j = 1; j <= TABLES; j++) {
+                suffixes.add(String.format("_%03d", j));
+            }
+            partition.put("shard" + i, suffixes);
+        }
+        router.setPartition(partition);
+        router.setShardRuleExpression(newRule("(" + COLUMN + " % " + SHARDS * TABLES + ") / " + TABLES));
+        router.setTableRuleExpression(newRule(COLUMN + " % " + TABLES));
+        router.setRuleEvaluator(new CompiledRuleEvaluator());
+        router.initTopology("t_student");
+        return router;
+    }
+
+    private static RuleExpression newRule(String expression) {
+        RuleColumn column = new RuleColumn();
+        column.setName(COLUMN);
+        List<RuleColumn> columns = new ArrayList<RuleColumn>();
+        columns.add(column);
+        RuleExpression rule = new RuleExpression();
+        rule.setExpression(expression);
+        rule.setRuleColumns(columns);
+        return rule;
+    }
+
+}
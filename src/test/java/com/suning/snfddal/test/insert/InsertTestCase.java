@@ -23,6 +23,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.Date;
 import java.util.List;
 
@@ -123,6 +124,139 @@ public class InsertTestCase extends BaseSampleCase {
             }
         }
     }
+
+    @Test
+    public void testInsertMultiRow() throws SQLException {
+        int base = 3000000;
+        int rows = 8;
+        Connection conn = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            conn = dataSource.getConnection();
+            statement = conn.prepareStatement("DELETE FROM t_student WHERE f_student_id >= ? AND f_student_id < ?");
+            statement.setInt(1, base);
+            statement.setInt(2, base + rows * 3);
+            statement.executeUpdate();
+            statement.close();
+
+            // the ids are 3 apart, so that the rows go to all shards
+            StringBuilder sql = new StringBuilder("INSERT INTO t_student (f_student_id,f_student_no,f_name) VALUES ");
+            for (int i = 0; i < rows; i++) {
+                sql.append(i == 0 ? "(?,?,?)" : ",(?,?,?)");
+            }
+            statement = conn.prepareStatement(sql.toString());
+            int index = 1;
+            for (int i = 0; i < rows; i++) {
+                int id = base + i * 3;
+                statement.setInt(index++, id);
+                statement.setString(index++, "multi-" + id);
+                statement.setString(index++, "学生-" + id);
+            }
+            Assert.assertEquals(rows, statement.executeUpdate());
+            statement.close();
+
+            statement = conn.prepareStatement("SELECT count(*) FROM t_student WHERE f_student_id >= ? AND f_student_id < ?");
+            statement.setInt(1, base);
+            statement.setInt(2, base + rows * 3);
+            resultSet = statement.executeQuery();
+            Assert.assertTrue(resultSet.next());
+            Assert.assertEquals(rows, resultSet.getInt(1));
+        } finally {
+            close(conn, statement, resultSet);
+        }
+    }
+
+    @Test
+    public void testInsertMultiRowAsBatch() throws SQLException {
+        int base = 3100000;
+        int rows = 8;
+        Connection conn = null;
+        Statement stat = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            conn = dataSource.getConnection();
+            stat = conn.createStatement();
+            // Oracle has no multi-row VALUES, the rows are sent as a batch
+            stat.execute("SET MODE Oracle");
+            statement = conn.prepareStatement("DELETE FROM t_student WHERE f_student_id >= ? AND f_student_id < ?");
+            statement.setInt(1, base);
+            statement.setInt(2, base + rows * 3);
+            statement.executeUpdate();
+            statement.close();
+
+            StringBuilder sql = new StringBuilder("INSERT INTO t_student (f_student_id,f_student_no,f_name) VALUES ");
+            for (int i = 0; i < rows; i++) {
+                sql.append(i == 0 ? "(?,?,?)" : ",(?,?,?)");
+            }
+            statement = conn.prepareStatement(sql.toString());
+            int index = 1;
+            for (int i = 0; i < rows; i++) {
+                int id = base + i * 3;
+                statement.setInt(index++, id);
+                statement.setString(index++, "batch-" + id);
+                statement.setString(index++, "student-" + id);
+            }
+            Assert.assertEquals(rows, statement.executeUpdate());
+            statement.close();
+
+            statement = conn.prepareStatement("SELECT count(*) FROM t_student WHERE f_student_id >= ? AND f_student_id < ?");
+            statement.setInt(1, base);
+            statement.setInt(2, base + rows * 3);
+            resultSet = statement.executeQuery();
+            Assert.assertTrue(resultSet.next());
+            Assert.assertEquals(rows, resultSet.getInt(1));
+        } finally {
+            if (stat != null) {
+                stat.execute("SET MODE MySQL");
+                stat.close();
+            }
+            close(conn, statement, resultSet);
+        }
+    }
+
+    @Test
+    public void testInsertBatch() throws SQLException {
+        int base = 3200000;
+        int rows = 8;
+        Connection conn = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            conn = dataSource.getConnection();
+            statement = conn.prepareStatement("DELETE FROM t_student WHERE f_student_id >= ? AND f_student_id < ?");
+            statement.setInt(1, base);
+            statement.setInt(2, base + rows * 3);
+            statement.executeUpdate();
+            statement.close();
+
+            // the rows of a shard are sent to it as one JDBC batch
+            statement = conn.prepareStatement("INSERT INTO t_student (f_student_id,f_student_no,f_name) VALUES (?,?,?)");
+            for (int i = 0; i < rows; i++) {
+                int id = base + i * 3;
+                statement.setInt(1, id);
+                statement.setString(2, "jdbc-batch-" + id);
+                statement.setString(3, "student-" + id);
+                statement.addBatch();
+            }
+            int[] counts = statement.executeBatch();
+            Assert.assertEquals(rows, counts.length);
+            for (int count : counts) {
+                Assert.assertTrue(count == 1 || count == Statement.SUCCESS_NO_INFO);
+            }
+            statement.close();
+
+            statement = conn.prepareStatement("SELECT count(*) FROM t_student WHERE f_student_id >= ? AND f_student_id < ?");
+            statement.setInt(1, base);
+            statement.setInt(2, base + rows * 3);
+            resultSet = statement.executeQuery();
+            Assert.assertTrue(resultSet.next());
+            Assert.assertEquals(rows, resultSet.getInt(1));
+        } finally {
+            close(conn, statement, resultSet);
+        }
+    }
     
     
     
@@ -0,0 +1,478 @@
+/*
+ * Copyright 2014 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2026年10月17日
+// $Id$
+
+package com.suning.snfddal.test.query;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.suning.snfddal.jdbc.DispatcherDataSource;
+import com.suning.snfddal.test.BaseSampleCase;
+import com.suning.snfddal.util.New;
+
+/**
+ * Checks the results of the queries whose rows of the shards are merged:
+ * the partial aggregates, the groups, the sorted and the limited results and
+ * the IN lists that are split per table. The rows of the test have
+ * consecutive student ids, so that they go to all tables of all shards.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class MergedQueryTestCase extends BaseSampleCase {
+
+    private static final int BASE_ID = 5000000;
+    private static final int ROWS = 48;
+    private static final int COURSES = 3;
+    private static final int SCHOOLS = 4;
+
+    private static BigDecimal score(int i) {
+        return new BigDecimal((i * 7 % 9) + ".25");
+    }
+
+    private static String course(int i) {
+        return "course-" + (i % COURSES);
+    }
+
+    public int executeUpdate(String sql, Object... params) throws SQLException {
+        return executeUpdate(dataSource, sql, params);
+    }
+
+    public int executeUpdate(DataSource dataSource, String sql, Object... params) throws SQLException {
+        Connection conn = null;
+        PreparedStatement statement = null;
+        try {
+            conn = dataSource.getConnection();
+            statement = conn.prepareStatement(sql);
+            int index = 1;
+            for (Object object : params) {
+                statement.setObject(index++, object);
+            }
+            return statement.executeUpdate();
+        } finally {
+            close(conn, statement, null);
+        }
+    }
+
+    public List<Object[]> query(String sql, Object... params) throws SQLException {
+        return query(dataSource, sql, params);
+    }
+
+    public List<Object[]> query(DataSource dataSource, String sql, Object... params) throws SQLException {
+        Connection conn = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            conn = dataSource.getConnection();
+            statement = conn.prepareStatement(sql);
+            int index = 1;
+            for (Object object : params) {
+                statement.setObject(index++, object);
+            }
+            resultSet = statement.executeQuery();
+            int columnCount = resultSet.getMetaData().getColumnCount();
+            List<Object[]> rows = New.arrayList();
+            while (resultSet.next()) {
+                Object[] row = new Object[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    row[i] = resultSet.getObject(i + 1);
+                }
+                rows.add(row);
+            }
+            return rows;
+        } finally {
+            close(conn, statement, resultSet);
+        }
+    }
+
+    @Before
+    public void insertCourses() throws SQLException {
+        executeUpdate("DELETE FROM t_student_course WHERE f_student_id >= ? AND f_student_id < ?", BASE_ID,
+                BASE_ID + ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            int id = BASE_ID + i;
+            executeUpdate("INSERT INTO t_student_course (f_id,f_student_id,t_course_name,f_course_no,t_score) "
+                    + "VALUES (?,?,?,?,?)", id, id, course(i), "no-" + i, score(i));
+        }
+    }
+
+    private void insertStudents() throws SQLException {
+        executeUpdate("DELETE FROM t_student WHERE f_student_id >= ? AND f_student_id < ?", BASE_ID,
+                BASE_ID + ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            int id = BASE_ID + i;
+            executeUpdate("INSERT INTO t_student (f_student_id,f_student_no,f_name,f_school_id) VALUES (?,?,?,?)",
+                    id, "no-" + i, "student-" + i, BASE_ID + i % SCHOOLS);
+        }
+    }
+
+    private void insertSchools() throws SQLException {
+        for (int i = 0; i < SCHOOLS; i++) {
+            int id = BASE_ID + i;
+            executeUpdate("DELETE FROM t_school WHERE f_id = ?", id);
+            executeUpdate("INSERT INTO t_school (f_id,f_name) VALUES (?,?)", id, "school-" + i);
+        }
+    }
+
+    private static void assertDecimal(BigDecimal expected, Object actual) {
+        Assert.assertEquals(expected + " <> " + actual, 0, expected.compareTo(new BigDecimal(actual.toString())));
+    }
+
+    @Test
+    public void testPartialAggregates() throws SQLException {
+        BigDecimal sum = BigDecimal.ZERO, min = null, max = null;
+        for (int i = 0; i < ROWS; i++) {
+            BigDecimal score = score(i);
+            sum = sum.add(score);
+            min = min == null || score.compareTo(min) < 0 ? score : min;
+            max = max == null || score.compareTo(max) > 0 ? score : max;
+        }
+        List<Object[]> rows = query("SELECT count(*), sum(t_score), min(t_score), max(t_score), avg(t_score) "
+                + "FROM t_student_course WHERE f_student_id >= ? AND f_student_id < ?", BASE_ID, BASE_ID + ROWS);
+        Assert.assertEquals(1, rows.size());
+        Object[] row = rows.get(0);
+        Assert.assertEquals(ROWS, ((Number) row[0]).intValue());
+        assertDecimal(sum, row[1]);
+        assertDecimal(min, row[2]);
+        assertDecimal(max, row[3]);
+        Assert.assertEquals(sum.doubleValue() / ROWS, ((Number) row[4]).doubleValue(), 0.001);
+
+        // no row matches
+        rows = query("SELECT count(*), sum(t_score), max(t_score) FROM t_student_course WHERE f_student_id < ?", 0);
+        Assert.assertEquals(0, ((Number) rows.get(0)[0]).intValue());
+        Assert.assertNull(rows.get(0)[1]);
+        Assert.assertNull(rows.get(0)[2]);
+    }
+
+    @Test
+    public void testGroupByMerge() throws SQLException {
+        // the rows of a course are in all tables
+        List<Object[]> rows = query("SELECT t_course_name, count(*), sum(t_score) FROM t_student_course "
+                + "WHERE f_student_id >= ? AND f_student_id < ? GROUP BY t_course_name "
+                + "HAVING count(*) > 1 ORDER BY t_course_name", BASE_ID, BASE_ID + ROWS);
+        Assert.assertEquals(COURSES, rows.size());
+        for (int c = 0; c < COURSES; c++) {
+            BigDecimal sum = BigDecimal.ZERO;
+            for (int i = c; i < ROWS; i += COURSES) {
+                sum = sum.add(score(i));
+            }
+            Object[] row = rows.get(c);
+            Assert.assertEquals(course(c), row[0]);
+            Assert.assertEquals(ROWS / COURSES, ((Number) row[1]).intValue());
+            assertDecimal(sum, row[2]);
+        }
+
+        // the group keys hold the rule column, a group is in one table
+        rows = query("SELECT f_student_id, count(*) FROM t_student_course "
+                + "WHERE f_student_id >= ? AND f_student_id < ? GROUP BY f_student_id", BASE_ID, BASE_ID + ROWS);
+        Assert.assertEquals(ROWS, rows.size());
+        for (Object[] row : rows) {
+            Assert.assertEquals(1, ((Number) row[1]).intValue());
+        }
+    }
+
+    @Test
+    public void testSortedMerge() throws SQLException {
+        List<Integer> expected = New.arrayList();
+        for (int i = 0; i < ROWS; i++) {
+            expected.add(i);
+        }
+        Collections.sort(expected, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int c = score(b).compareTo(score(a));
+                return c != 0 ? c : a.compareTo(b);
+            }
+        });
+        List<Object[]> rows = query("SELECT f_student_id, t_score FROM t_student_course "
+                + "WHERE f_student_id >= ? AND f_student_id < ? ORDER BY t_score DESC, f_student_id", BASE_ID,
+                BASE_ID + ROWS);
+        Assert.assertEquals(ROWS, rows.size());
+        for (int i = 0; i < ROWS; i++) {
+            Assert.assertEquals(BASE_ID + expected.get(i), ((Number) rows.get(i)[0]).intValue());
+        }
+    }
+
+    @Test
+    public void testLimitedMerge() throws SQLException {
+        List<Object[]> rows = query("SELECT f_student_id FROM t_student_course "
+                + "WHERE f_student_id >= ? AND f_student_id < ? ORDER BY f_student_id LIMIT 5 OFFSET 7", BASE_ID,
+                BASE_ID + ROWS);
+        Assert.assertEquals(5, rows.size());
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(BASE_ID + 7 + i, ((Number) rows.get(i)[0]).intValue());
+        }
+        rows = query("SELECT f_student_id FROM t_student_course "
+                + "WHERE f_student_id >= ? AND f_student_id < ? ORDER BY f_student_id DESC LIMIT 3", BASE_ID,
+                BASE_ID + ROWS);
+        Assert.assertEquals(3, rows.size());
+        Assert.assertEquals(BASE_ID + ROWS - 1, ((Number) rows.get(0)[0]).intValue());
+        Assert.assertEquals(BASE_ID + ROWS - 3, ((Number) rows.get(2)[0]).intValue());
+        // unsorted, any 10 of the rows
+        rows = query("SELECT f_student_id FROM t_student_course WHERE f_student_id >= ? AND f_student_id < ? "
+                + "LIMIT 10", BASE_ID, BASE_ID + ROWS);
+        Assert.assertEquals(10, rows.size());
+        // a string column is sorted locally again
+        rows = query("SELECT t_course_name FROM t_student_course WHERE f_student_id >= ? AND f_student_id < ? "
+                + "ORDER BY t_course_name LIMIT 2 OFFSET " + (ROWS - 2), BASE_ID, BASE_ID + ROWS);
+        Assert.assertEquals(2, rows.size());
+        Assert.assertEquals(course(COURSES - 1), rows.get(1)[0]);
+    }
+
+    @Test
+    public void testLimitWithoutEarlyFilter() throws SQLException {
+        Properties settings = new Properties();
+        settings.setProperty("EARLY_FILTER", "false");
+        DispatcherDataSource lateFilter = createDataSource(settings);
+        try {
+            // the shards get no WHERE clause, so they must not get the LIMIT
+            int matching = 0;
+            for (int i = 0; i < ROWS; i++) {
+                matching += score(i).compareTo(new BigDecimal("4")) > 0 ? 1 : 0;
+            }
+            List<Object[]> rows = query(lateFilter, "SELECT f_student_id, t_score FROM t_student_course "
+                    + "WHERE f_student_id >= ? AND f_student_id < ? AND t_score > ? LIMIT 10", BASE_ID,
+                    BASE_ID + ROWS, 4);
+            Assert.assertEquals(Math.min(10, matching), rows.size());
+            for (Object[] row : rows) {
+                int id = ((Number) row[0]).intValue();
+                Assert.assertTrue(id >= BASE_ID && id < BASE_ID + ROWS);
+                assertDecimal(score(id - BASE_ID), row[1]);
+            }
+            rows = query(lateFilter, "SELECT count(*) FROM t_student_course "
+                    + "WHERE f_student_id >= ? AND f_student_id < ? AND t_score > ?", BASE_ID, BASE_ID + ROWS, 4);
+            Assert.assertEquals(matching, ((Number) rows.get(0)[0]).intValue());
+        } finally {
+            lateFilter.close();
+        }
+    }
+
+    @Test
+    public void testCoLocatedJoin() throws SQLException {
+        insertStudents();
+        // the join is on the rule column of both tables, each table joins
+        // the table of the same shard and suffix
+        List<Object[]> rows = query("SELECT s.f_student_id, s.f_name, c.t_course_name FROM t_student s "
+                + "JOIN t_student_course c ON c.f_student_id = s.f_student_id "
+                + "WHERE s.f_student_id >= ? AND s.f_student_id < ? ORDER BY s.f_student_id", BASE_ID,
+                BASE_ID + ROWS);
+        Assert.assertEquals(ROWS, rows.size());
+        for (int i = 0; i < ROWS; i++) {
+            Object[] row = rows.get(i);
+            Assert.assertEquals(BASE_ID + i, ((Number) row[0]).intValue());
+            Assert.assertEquals("student-" + i, row[1]);
+            Assert.assertEquals(course(i), row[2]);
+        }
+        // the groups of the shards are merged
+        rows = query("SELECT c.t_course_name, count(*) FROM t_student s "
+                + "JOIN t_student_course c ON c.f_student_id = s.f_student_id "
+                + "WHERE s.f_student_id >= ? AND s.f_student_id < ? GROUP BY c.t_course_name "
+                + "ORDER BY c.t_course_name", BASE_ID, BASE_ID + ROWS);
+        Assert.assertEquals(COURSES, rows.size());
+        for (int c = 0; c < COURSES; c++) {
+            Assert.assertEquals(course(c), rows.get(c)[0]);
+            Assert.assertEquals(ROWS / COURSES, ((Number) rows.get(c)[1]).intValue());
+        }
+        // a single student is in one table
+        rows = query("SELECT c.t_course_name FROM t_student s "
+                + "JOIN t_student_course c ON c.f_student_id = s.f_student_id WHERE s.f_student_id = ?", BASE_ID + 5);
+        Assert.assertEquals(1, rows.size());
+        Assert.assertEquals(course(5), rows.get(0)[0]);
+    }
+
+    @Test
+    public void testBroadcastJoin() throws SQLException {
+        insertStudents();
+        insertSchools();
+        // each shard joins its tables to its copy of t_school
+        List<Object[]> rows = query("SELECT s.f_student_id, sc.f_name FROM t_student s "
+                + "JOIN t_school sc ON sc.f_id = s.f_school_id "
+                + "WHERE s.f_student_id >= ? AND s.f_student_id < ? ORDER BY s.f_student_id", BASE_ID,
+                BASE_ID + ROWS);
+        Assert.assertEquals(ROWS, rows.size());
+        for (int i = 0; i < ROWS; i++) {
+            Object[] row = rows.get(i);
+            Assert.assertEquals(BASE_ID + i, ((Number) row[0]).intValue());
+            Assert.assertEquals("school-" + (i % SCHOOLS), row[1]);
+        }
+        // together with a co-located join
+        rows = query("SELECT sc.f_name, count(*) FROM t_student s "
+                + "JOIN t_student_course c ON c.f_student_id = s.f_student_id "
+                + "JOIN t_school sc ON sc.f_id = s.f_school_id "
+                + "WHERE s.f_student_id >= ? AND s.f_student_id < ? GROUP BY sc.f_name ORDER BY sc.f_name",
+                BASE_ID, BASE_ID + ROWS);
+        Assert.assertEquals(SCHOOLS, rows.size());
+        for (int i = 0; i < SCHOOLS; i++) {
+            Assert.assertEquals("school-" + i, rows.get(i)[0]);
+            Assert.assertEquals(ROWS / SCHOOLS, ((Number) rows.get(i)[1]).intValue());
+        }
+        // the broadcast table alone is read from one shard
+        rows = query("SELECT count(*) FROM t_school WHERE f_id >= ? AND f_id < ?", BASE_ID, BASE_ID + SCHOOLS);
+        Assert.assertEquals(SCHOOLS, ((Number) rows.get(0)[0]).intValue());
+    }
+
+    @Test
+    public void testBatchedJoin() throws SQLException {
+        insertStudents();
+        // the join is not on the rule column, the rows of t_student are
+        // read for a batch of the rows of t_student_course at once
+        String sql = "SELECT c.f_student_id, s.f_student_id, s.f_name FROM t_student_course c "
+                + "JOIN t_student s ON s.f_student_no = c.f_course_no "
+                + "WHERE c.f_student_id >= ? AND c.f_student_id < ? ORDER BY c.f_student_id";
+        // the default batch, batches of 5 rows, and a query per outer row
+        for (String batchRows : new String[] { null, "5", "0" }) {
+            Properties settings = new Properties();
+            if (batchRows != null) {
+                settings.setProperty("SHARD_JOIN_BATCH_ROWS", batchRows);
+            }
+            DispatcherDataSource batched = createDataSource(settings);
+            try {
+                List<Object[]> rows = query(batched, sql, BASE_ID, BASE_ID + ROWS);
+                Assert.assertEquals(ROWS, rows.size());
+                for (int i = 0; i < ROWS; i++) {
+                    Object[] row = rows.get(i);
+                    Assert.assertEquals(BASE_ID + i, ((Number) row[0]).intValue());
+                    Assert.assertEquals(BASE_ID + i, ((Number) row[1]).intValue());
+                    Assert.assertEquals("student-" + i, row[2]);
+                }
+            } finally {
+                batched.close();
+            }
+        }
+    }
+
+    @Test
+    public void testHashJoin() throws SQLException {
+        insertStudents();
+        Properties settings = new Properties();
+        settings.setProperty("SHARD_HASH_JOIN", "true");
+        // more rows than this are split into partitions
+        settings.setProperty("SHARD_HASH_JOIN_MEMORY_ROWS", "10");
+        DispatcherDataSource hashJoin = createDataSource(settings);
+        try {
+            // the configured t_student has fewer rows than t_student_course,
+            // and the join is not on the rule column
+            String sql = "SELECT c.f_student_id, s.f_student_id, s.f_name FROM t_student_course c "
+                    + "JOIN t_student s ON s.f_student_no = c.f_course_no "
+                    + "WHERE c.f_student_id >= ? AND c.f_student_id < ? "
+                    + "AND s.f_student_id >= ? AND s.f_student_id < ? ORDER BY c.f_student_id";
+            for (int spill = 0; spill < 2; spill++) {
+                if (spill == 1) {
+                    // the partitions are buffered to disk
+                    executeUpdate(hashJoin, "SET MAX_OPERATION_MEMORY 1");
+                }
+                List<Object[]> rows = query(hashJoin, sql, BASE_ID, BASE_ID + ROWS, BASE_ID, BASE_ID + ROWS);
+                Assert.assertEquals(ROWS, rows.size());
+                for (int i = 0; i < ROWS; i++) {
+                    Object[] row = rows.get(i);
+                    Assert.assertEquals(BASE_ID + i, ((Number) row[0]).intValue());
+                    Assert.assertEquals(BASE_ID + i, ((Number) row[1]).intValue());
+                    Assert.assertEquals("student-" + i, row[2]);
+                }
+            }
+        } finally {
+            hashJoin.close();
+        }
+    }
+
+    @Test
+    public void testPrefetchScan() throws SQLException {
+        Properties settings = new Properties();
+        // fewer rows than a table has, so that the shards are read ahead
+        // more than once
+        settings.setProperty("SHARD_PREFETCH_ROWS", "2");
+        DispatcherDataSource prefetch = createDataSource(settings);
+        try {
+            // the rows of all shards, in the order they arrive
+            List<Object[]> rows = query(prefetch, "SELECT f_student_id, t_score FROM t_student_course "
+                    + "WHERE f_student_id >= ? AND f_student_id < ?", BASE_ID, BASE_ID + ROWS);
+            Assert.assertEquals(ROWS, rows.size());
+            HashSet<Integer> ids = new HashSet<Integer>();
+            for (Object[] row : rows) {
+                int id = ((Number) row[0]).intValue();
+                Assert.assertTrue(ids.add(id));
+                assertDecimal(score(id - BASE_ID), row[1]);
+            }
+            // a result set that is closed before its end stops the reads
+            Connection conn = prefetch.getConnection();
+            PreparedStatement statement = null;
+            ResultSet resultSet = null;
+            try {
+                statement = conn.prepareStatement("SELECT f_student_id FROM t_student_course "
+                        + "WHERE f_student_id >= ? AND f_student_id < ?");
+                statement.setInt(1, BASE_ID);
+                statement.setInt(2, BASE_ID + ROWS);
+                resultSet = statement.executeQuery();
+                for (int i = 0; i < 3; i++) {
+                    Assert.assertTrue(resultSet.next());
+                }
+                resultSet.close();
+                // the connection is still usable
+                resultSet = statement.executeQuery();
+                int count = 0;
+                while (resultSet.next()) {
+                    count++;
+                }
+                Assert.assertEquals(ROWS, count);
+            } finally {
+                close(conn, statement, resultSet);
+            }
+        } finally {
+            prefetch.close();
+        }
+    }
+
+    @Test
+    public void testInListSplit() throws SQLException {
+        // 10 ids of all tables, and an id without row
+        Object[] ids = new Object[11];
+        for (int i = 0; i < 10; i++) {
+            ids[i] = BASE_ID + i * 5;
+        }
+        ids[10] = BASE_ID + ROWS + 1;
+        StringBuilder sql = new StringBuilder("SELECT f_student_id FROM t_student_course WHERE f_student_id IN (");
+        for (int i = 0; i < ids.length; i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        sql.append(") ORDER BY f_student_id");
+        List<Object[]> rows = query(sql.toString(), ids);
+        Assert.assertEquals(10, rows.size());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(ids[i], ((Number) rows.get(i)[0]).intValue());
+        }
+        // together with a range, only the values in the range are left
+        rows = query("SELECT count(*) FROM t_student_course WHERE f_student_id IN (?,?,?,?) AND f_student_id > ?",
+                BASE_ID, BASE_ID + 1, BASE_ID + 6, BASE_ID + 11, BASE_ID + 1);
+        Assert.assertEquals(2, ((Number) rows.get(0)[0]).intValue());
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2026年10月17日
+// $Id$
+
+package com.suning.snfddal.test.result;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.suning.snfddal.dbobject.User;
+import com.suning.snfddal.engine.Database;
+import com.suning.snfddal.engine.Session;
+import com.suning.snfddal.result.Row;
+import com.suning.snfddal.result.RowList;
+import com.suning.snfddal.value.Value;
+import com.suning.snfddal.value.ValueDecimal;
+import com.suning.snfddal.value.ValueInt;
+import com.suning.snfddal.value.ValueLong;
+import com.suning.snfddal.value.ValueNull;
+import com.suning.snfddal.value.ValueString;
+import com.suning.snfddal.value.ValueTimestamp;
+
+/**
+ * Tests of the row lists, that are buffered to disk when they grow too
+ * large, as the partitions of a hash join. They need no shard.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class RowListTestCase {
+
+    private static final int ROWS = 200;
+
+    private Database database;
+    private Session session;
+
+    @Before
+    public void createSession() {
+        database = new Database();
+        User user = new User(database, database.allocateObjectId(), "MASTER");
+        user.setAdmin(true);
+        user.setUserPasswordHash(new byte[0]);
+        database.addDatabaseObject(user);
+        session = database.createSession(user);
+    }
+
+    @After
+    public void close() {
+        database.close();
+    }
+
+    private static Row row(int i) {
+        Value[] values = {
+                ValueLong.get(i),
+                ValueString.get("row-" + i),
+                ValueDecimal.get(new BigDecimal(i + ".25")),
+                ValueTimestamp.get(new Timestamp(1400000000000L + i * 1000L)),
+                i % 3 == 0 ? ValueNull.INSTANCE : ValueInt.get(-i),
+                // a column that is not read
+                null };
+        Row row = new Row(values, Row.MEMORY_CALCULATE);
+        row.setKey(i);
+        return row;
+    }
+
+    private static void assertRows(RowList list) {
+        Assert.assertEquals(ROWS, list.size());
+        list.reset();
+        for (int i = 0; i < ROWS; i++) {
+            Assert.assertTrue(list.hasNext());
+            Row expected = row(i);
+            Row actual = list.next();
+            Assert.assertEquals(expected.getKey(), actual.getKey());
+            Assert.assertEquals(expected.getColumnCount(), actual.getColumnCount());
+            for (int c = 0; c < expected.getColumnCount(); c++) {
+                Assert.assertEquals(expected.getValue(c), actual.getValue(c));
+            }
+        }
+        Assert.assertFalse(list.hasNext());
+    }
+
+    @Test
+    public void testInMemory() {
+        RowList list = new RowList(session);
+        for (int i = 0; i < ROWS; i++) {
+            list.add(row(i));
+        }
+        assertRows(list);
+        list.close();
+    }
+
+    @Test
+    public void testBufferedToDisk() {
+        // each row is more than the memory of an operation
+        database.setMaxOperationMemory(1);
+        RowList list = new RowList(session);
+        for (int i = 0; i < ROWS; i++) {
+            list.add(row(i));
+        }
+        assertRows(list);
+        // the rows can be read more than once
+        assertRows(list);
+        list.close();
+    }
+
+}
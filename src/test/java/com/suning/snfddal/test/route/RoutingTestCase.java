@@ -0,0 +1,289 @@
+/*
+ * Copyright 2014 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2026年10月17日
+// $Id$
+
+package com.suning.snfddal.test.route;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.suning.snfddal.route.rule.CachedRoutingCalculator;
+import com.suning.snfddal.route.rule.CompiledRule;
+import com.suning.snfddal.route.rule.CompiledRuleEvaluator;
+import com.suning.snfddal.route.rule.OgnlRuleEvaluator;
+import com.suning.snfddal.route.rule.RoutingArgument;
+import com.suning.snfddal.route.rule.RoutingCalculatorImpl;
+import com.suning.snfddal.route.rule.RoutingResult;
+import com.suning.snfddal.route.rule.RuleColumn;
+import com.suning.snfddal.route.rule.RuleEvaluator;
+import com.suning.snfddal.route.rule.RuleExpression;
+import com.suning.snfddal.route.rule.RuleExpressionCompiler;
+import com.suning.snfddal.route.rule.TableRouter;
+import com.suning.snfddal.util.New;
+import com.suning.snfddal.value.Value;
+import com.suning.snfddal.value.ValueInt;
+import com.suning.snfddal.value.ValueLong;
+import com.suning.snfddal.value.ValueTimestamp;
+
+/**
+ * Tests of the routing rules and the routing calculators, they need no
+ * database.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class RoutingTestCase {
+
+    private static final String ID = "F_STUDENT_ID";
+
+    private static RuleExpression rule(String expression, String... columns) {
+        List<RuleColumn> ruleColumns = New.arrayList();
+        for (String column : columns) {
+            RuleColumn ruleColumn = new RuleColumn();
+            ruleColumn.setName(column);
+            ruleColumns.add(ruleColumn);
+        }
+        RuleExpression rule = new RuleExpression();
+        rule.setExpression(expression);
+        rule.setRuleColumns(ruleColumns);
+        return rule;
+    }
+
+    private static Map<String, Set<String>> partition(String[] shards, String... suffixes) {
+        Map<String, Set<String>> partition = New.linkedHashMap();
+        for (String shard : shards) {
+            Set<String> tables = New.linkedHashSet();
+            tables.addAll(Arrays.asList(suffixes));
+            partition.put(shard, tables);
+        }
+        return partition;
+    }
+
+    /**
+     * The router partition4_with_id_mod of the sample rules.
+     */
+    private static TableRouter modRouter() {
+        TableRouter tableRouter = new TableRouter();
+        tableRouter.setId("partition4_with_id_mod");
+        tableRouter.setPartition(partition(new String[] { "shard1", "shard2", "shard3", "shard4" }, "_001",
+                "_002", "_003", "_004"));
+        tableRouter.setShardRuleExpression(rule("(F_STUDENT_ID % 16 ) / 4", ID));
+        tableRouter.setTableRuleExpression(rule("F_STUDENT_ID % 4", ID));
+        tableRouter.initTopology("t_student");
+        return tableRouter;
+    }
+
+    /**
+     * A router with a table per month, the first half of the year on shard1
+     * and the second half on shard2.
+     */
+    private static TableRouter monthRouter() {
+        Map<String, Set<String>> partition = New.linkedHashMap();
+        partition.put("shard1", New.<String> linkedHashSet());
+        partition.put("shard2", New.<String> linkedHashSet());
+        for (int month = 1; month <= 12; month++) {
+            partition.get(month <= 6 ? "shard1" : "shard2").add(String.format("_2026%02d", month));
+        }
+        TableRouter tableRouter = new TableRouter();
+        tableRouter.setId("partition2_with_time_range");
+        tableRouter.setPartition(partition);
+        tableRouter.setRangeRuleExpression(rule("F_CREATE_TIME", "F_CREATE_TIME"));
+        tableRouter.setRangeType(Value.TIMESTAMP);
+        tableRouter.setRangeBounds(new String[] { "2026-02-01", "2026-03-01", "2026-04-01", "2026-05-01",
+                "2026-06-01", "2026-07-01", "2026-08-01", "2026-09-01", "2026-10-01", "2026-11-01", "2026-12-01",
+                "MAXVALUE" });
+        tableRouter.initTopology("t_order");
+        return tableRouter;
+    }
+
+    private static Map<String, RoutingArgument> points(String column, long... values) {
+        List<Value> list = New.arrayList();
+        for (long value : values) {
+            list.add(ValueInt.get((int) value));
+        }
+        Map<String, RoutingArgument> arguments = New.hashMap();
+        arguments.put(column, new RoutingArgument(list));
+        return arguments;
+    }
+
+    private static Map<String, RoutingArgument> range(String column, Value start, Value end) {
+        Map<String, RoutingArgument> arguments = New.hashMap();
+        arguments.put(column, new RoutingArgument(start, end));
+        return arguments;
+    }
+
+    private static Map<String, RoutingArgument> range(long start, long end) {
+        return range(ID, ValueInt.get((int) start), ValueInt.get((int) end));
+    }
+
+    private static Value time(String s) {
+        return ValueTimestamp.parse(s);
+    }
+
+    /**
+     * @return the tables of the result as shard.table, sorted
+     */
+    private static Set<String> tables(RoutingResult result) {
+        Set<String> tables = new TreeSet<String>();
+        for (RoutingResult.MatchedShard matchedShard : result.getMatchedShards()) {
+            for (String table : matchedShard.getTables()) {
+                tables.add(matchedShard.getShardName() + "." + table);
+            }
+        }
+        return tables;
+    }
+
+    @Test
+    public void testEvaluateRange() {
+        CompiledRule shardRule = RuleExpressionCompiler.compile(rule("(F_STUDENT_ID % 16 ) / 4", ID));
+        Assert.assertNotNull(shardRule);
+        Assert.assertEquals("[1, 2]", Arrays.toString(shardRule.evaluateRange(range(5, 9))));
+        Assert.assertEquals("[0, 3]", Arrays.toString(shardRule.evaluateRange(range(0, 100))));
+        Assert.assertEquals("[0, 1]", Arrays.toString(shardRule.evaluateRange(points(ID, 3, 20))));
+        // an unbounded range has no interval set
+        Assert.assertNull(shardRule.evaluateRange(range(ID, ValueInt.get(5), null)));
+        Assert.assertNull(shardRule.evaluateRange(New.<String, RoutingArgument> hashMap()));
+
+        CompiledRule tableRule = RuleExpressionCompiler.compile(rule("F_STUDENT_ID % 4", ID));
+        Assert.assertEquals("[0, 1, 3, 3]", Arrays.toString(tableRule.evaluateRange(range(3, 5))));
+        Assert.assertEquals("[0, 3]", Arrays.toString(tableRule.evaluateRange(range(2, 6))));
+    }
+
+    @Test
+    public void testEvaluateLikeOgnl() {
+        String[] expressions = { "(F_STUDENT_ID % 16 ) / 4", "F_STUDENT_ID % 4", "-F_STUDENT_ID % 5",
+                "F_STUDENT_ID / 3 - 2 * F_STUDENT_ID", "F_STUDENT_ID * 65536 * 65536 % 7",
+                "(F_STUDENT_ID + 2147483647) % 10", "F_STUDENT_ID * 1000L % 7" };
+        Value[] values = { ValueInt.get(0), ValueInt.get(1), ValueInt.get(-7), ValueInt.get(123456789),
+                ValueInt.get(Integer.MAX_VALUE), ValueInt.get(Integer.MIN_VALUE), ValueLong.get(5000000000L),
+                ValueLong.get(-3) };
+        OgnlRuleEvaluator ognl = new OgnlRuleEvaluator();
+        CompiledRuleEvaluator compiled = new CompiledRuleEvaluator();
+        for (String expression : expressions) {
+            RuleExpression rule = rule(expression, ID);
+            Assert.assertNotNull(expression, compiled.getCompiledRule(rule));
+            for (Value value : values) {
+                Map<String, Value> parameters = Collections.singletonMap(ID, value);
+                Object expected = ognl.evaluate(rule, parameters);
+                Object actual = compiled.evaluate(rule, parameters);
+                Assert.assertEquals(expression + " with " + value, ((Number) expected).longValue(),
+                        ((Number) actual).longValue());
+            }
+        }
+    }
+
+    @Test
+    public void testCalculateRange() {
+        TableRouter tableRouter = modRouter();
+        RoutingCalculatorImpl calculator = new RoutingCalculatorImpl();
+        // an evaluator that can't be compiled, the ranges are enumerated
+        final OgnlRuleEvaluator ognl = new OgnlRuleEvaluator();
+        RoutingCalculatorImpl enumerating = new RoutingCalculatorImpl();
+        enumerating.setEvaluator(new RuleEvaluator() {
+            @Override
+            public Object evaluate(RuleExpression expression, Map<String, Value> parameters) {
+                return ognl.evaluate(expression, parameters);
+            }
+        });
+        long[][] ranges = { { 0, 0 }, { 5, 9 }, { 14, 17 }, { 30, 35 }, { 100, 103 }, { 250, 450 } };
+        for (long[] range : ranges) {
+            Set<String> actual = tables(calculator.calculate(tableRouter, range(range[0], range[1])));
+            Assert.assertEquals(Arrays.toString(range),
+                    tables(enumerating.calculate(tableRouter, range(range[0], range[1]))), actual);
+            for (long x = range[0]; x <= range[1]; x++) {
+                Assert.assertTrue(actual.containsAll(tables(calculator.calculate(tableRouter, points(ID, x)))));
+            }
+        }
+        Assert.assertEquals("[shard2.t_student_002, shard2.t_student_003]",
+                tables(calculator.calculate(tableRouter, range(5, 6))).toString());
+        // the shard and the table rule are evaluated on their own
+        Assert.assertEquals(8, tables(calculator.calculate(tableRouter, range(5, 9))).size());
+        // too wide to be enumerated, and without argument, all tables
+        Assert.assertEquals(16, tables(calculator.calculate(tableRouter, range(1000, 1300))).size());
+        Assert.assertEquals(16, tables(calculator.calculate(tableRouter, New.<String, RoutingArgument> hashMap()))
+                .size());
+    }
+
+    @Test
+    public void testCalculateRangeRule() {
+        TableRouter tableRouter = monthRouter();
+        RoutingCalculatorImpl calculator = new RoutingCalculatorImpl();
+        String column = "F_CREATE_TIME";
+        Map<String, RoutingArgument> arguments = New.hashMap();
+        arguments.put(column, new RoutingArgument(Arrays.asList(time("2026-03-15 10:00:00"))));
+        Assert.assertEquals("[shard1.t_order_202603]", tables(calculator.calculate(tableRouter, arguments))
+                .toString());
+        // the first table holds all smaller values, the last one all larger
+        arguments.put(column, new RoutingArgument(Arrays.asList(time("2025-12-31 00:00:00"),
+                time("2027-01-01 00:00:00"))));
+        Assert.assertEquals("[shard1.t_order_202601, shard2.t_order_202612]",
+                tables(calculator.calculate(tableRouter, arguments)).toString());
+        Assert.assertEquals("[shard1.t_order_202605, shard1.t_order_202606, shard2.t_order_202607, "
+                + "shard2.t_order_202608]", tables(calculator.calculate(tableRouter,
+                range(column, time("2026-05-10 00:00:00"), time("2026-08-10 00:00:00")))).toString());
+        // an excluded upper bound on a bound of the partition
+        arguments.put(column, new RoutingArgument(time("2026-02-10 00:00:00"), time("2026-04-01 00:00:00"), false));
+        Assert.assertEquals("[shard1.t_order_202602, shard1.t_order_202603]",
+                tables(calculator.calculate(tableRouter, arguments)).toString());
+        Assert.assertEquals(6, tables(calculator.calculate(tableRouter,
+                range(column, time("2026-07-01 00:00:00"), null))).size());
+    }
+
+    @Test
+    public void testRoutingCache() {
+        TableRouter tableRouter = modRouter();
+        RoutingCalculatorImpl calculator = new RoutingCalculatorImpl();
+        CachedRoutingCalculator cache = new CachedRoutingCalculator(calculator, 100);
+
+        RoutingResult result = cache.calculate(tableRouter, points(ID, 5));
+        Assert.assertEquals(calculator.calculate(tableRouter, points(ID, 5)), result);
+        Assert.assertEquals(0, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertSame(result, cache.calculate(tableRouter, points(ID, 5)));
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getSize());
+        try {
+            result.getMatchedShards().clear();
+            Assert.fail("the cached result can be modified");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        // only a single value per rule column is cached
+        Assert.assertEquals(calculator.calculate(tableRouter, points(ID, 5, 6)),
+                cache.calculate(tableRouter, points(ID, 5, 6)));
+        Assert.assertEquals(calculator.calculate(tableRouter, range(5, 6)), cache.calculate(tableRouter,
+                range(5, 6)));
+        Assert.assertEquals(calculator.calculate(tableRouter, points(ID)), cache.calculate(tableRouter, points(ID)));
+        Assert.assertEquals(1, cache.getSize());
+        Assert.assertEquals(1, cache.getMissCount());
+
+        // a new topology does not see the results of the old one
+        tableRouter.initTopology("t_student");
+        cache.calculate(tableRouter, points(ID, 5));
+        Assert.assertEquals(2, cache.getMissCount());
+        Assert.assertEquals(1, cache.getHitCount());
+    }
+
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2014 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2026年10月17日
+// $Id$
+
+package com.suning.snfddal.test.route;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.suning.snfddal.route.ShardExecutor;
+import com.suning.snfddal.util.New;
+
+/**
+ * Tests of the threads of a shard: the turns of the queries, the queue
+ * limit and the shutdown. They need no database.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class ShardExecutorTestCase {
+
+    private static final long TIMEOUT = 10;
+
+    private ShardExecutor executor;
+
+    @After
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * A task that holds its thread until it is released.
+     */
+    private static class Blocker implements Runnable {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void run() {
+            started.countDown();
+            try {
+                release.await(TIMEOUT, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void awaitStarted() throws InterruptedException {
+            Assert.assertTrue(started.await(TIMEOUT, TimeUnit.SECONDS));
+        }
+    }
+
+    private static Runnable record(final List<String> done, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                synchronized (done) {
+                    done.add(name);
+                }
+            }
+        };
+    }
+
+    private static void await(Future<?> future) throws Exception {
+        future.get(TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    private static void awaitState(Thread thread, Thread.State state) throws InterruptedException {
+        long end = System.currentTimeMillis() + TIMEOUT * 1000;
+        while (thread.getState() != state) {
+            Assert.assertTrue("thread state " + thread.getState(), System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testTurnOrder() throws Exception {
+        executor = new ShardExecutor("shard1", 1, 100);
+        Blocker blocker = new Blocker();
+        executor.submit("A", blocker);
+        blocker.awaitStarted();
+        List<String> done = New.arrayList();
+        executor.submit("A", record(done, "A1"));
+        executor.submit("A", record(done, "A2"));
+        Future<?> last = executor.submit("A", record(done, "A3"));
+        executor.submit("B", record(done, "B1"));
+        executor.submit("B", record(done, "B2"));
+        Assert.assertEquals(5, executor.getQueueDepth());
+        Assert.assertEquals(2, executor.getWaitingQueries());
+        Assert.assertEquals(1, executor.getActiveCount());
+        blocker.release.countDown();
+        await(last);
+        // the queries take turns, a task after the other
+        synchronized (done) {
+            Assert.assertEquals(Arrays.asList("A1", "B1", "A2", "B2", "A3"), done);
+        }
+    }
+
+    @Test
+    public void testBlockWhenFull() throws Exception {
+        executor = new ShardExecutor("shard1", 1, 1);
+        Blocker blocker = new Blocker();
+        executor.submit("A", blocker);
+        blocker.awaitStarted();
+        final List<String> done = New.arrayList();
+        executor.submit("A", record(done, "A1"));
+        Assert.assertEquals(1, executor.getQueueDepth());
+        final AtomicReference<Future<?>> second = new AtomicReference<Future<?>>();
+        Thread submitter = new Thread() {
+            @Override
+            public void run() {
+                second.set(executor.submit("A", record(done, "A2")));
+            }
+        };
+        submitter.start();
+        // the queue is full and the query has a waiting task
+        awaitState(submitter, Thread.State.WAITING);
+        Assert.assertNull(second.get());
+        Assert.assertEquals(1, executor.getQueueDepth());
+        blocker.release.countDown();
+        submitter.join(TIMEOUT * 1000);
+        Assert.assertFalse(submitter.isAlive());
+        await(second.get());
+        synchronized (done) {
+            Assert.assertEquals(Arrays.asList("A1", "A2"), done);
+        }
+    }
+
+    @Test
+    public void testAdmitNewQuery() throws Exception {
+        executor = new ShardExecutor("shard1", 1, 1);
+        Blocker blocker = new Blocker();
+        executor.submit("A", blocker);
+        blocker.awaitStarted();
+        List<String> done = New.arrayList();
+        executor.submit("A", record(done, "A1"));
+        // the queue is full, but no task of B waits yet
+        Future<?> b = executor.submit("B", record(done, "B1"));
+        Assert.assertEquals(2, executor.getQueueDepth());
+        Assert.assertEquals(2, executor.getWaitingQueries());
+        blocker.release.countDown();
+        await(b);
+        synchronized (done) {
+            Assert.assertEquals(Arrays.asList("A1", "B1"), done);
+        }
+        Assert.assertEquals(0, executor.getQueueDepth());
+    }
+
+    @Test
+    public void testShardThreadRunsTask() throws Exception {
+        executor = new ShardExecutor("shard1", 1, 1);
+        final CountDownLatch full = new CountDownLatch(1);
+        final AtomicReference<Thread> nestedThread = new AtomicReference<Thread>();
+        final AtomicReference<Boolean> nestedDone = new AtomicReference<Boolean>();
+        final Thread[] outerThread = new Thread[1];
+        Future<?> outer = executor.submit("A", new Runnable() {
+            @Override
+            public void run() {
+                outerThread[0] = Thread.currentThread();
+                try {
+                    Assert.assertTrue(full.await(TIMEOUT, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                // waiting for room would wait for this thread
+                Future<?> nested = executor.submit("A", new Runnable() {
+                    @Override
+                    public void run() {
+                        nestedThread.set(Thread.currentThread());
+                    }
+                });
+                nestedDone.set(nested.isDone());
+            }
+        });
+        List<String> done = New.arrayList();
+        Future<?> queued = executor.submit("A", record(done, "A1"));
+        full.countDown();
+        await(outer);
+        await(queued);
+        Assert.assertEquals(Boolean.TRUE, nestedDone.get());
+        Assert.assertSame(outerThread[0], nestedThread.get());
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        executor = new ShardExecutor("shard1", 1, 1);
+        Blocker blocker = new Blocker();
+        executor.submit("A", blocker);
+        blocker.awaitStarted();
+        final List<String> done = New.arrayList();
+        Future<?> queued = executor.submit("A", record(done, "A1"));
+        final AtomicReference<Exception> rejected = new AtomicReference<Exception>();
+        Thread submitter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    executor.submit("A", record(done, "A2"));
+                } catch (RejectedExecutionException e) {
+                    rejected.set(e);
+                }
+            }
+        };
+        submitter.start();
+        awaitState(submitter, Thread.State.WAITING);
+        executor.shutdown();
+        // the thread that waits for room is rejected
+        submitter.join(TIMEOUT * 1000);
+        Assert.assertFalse(submitter.isAlive());
+        Assert.assertNotNull(rejected.get());
+        try {
+            executor.submit("B", record(done, "B1"));
+            Assert.fail();
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        // the submitted tasks are still done
+        blocker.release.countDown();
+        await(queued);
+        synchronized (done) {
+            Assert.assertEquals(Arrays.asList("A1"), done);
+        }
+    }
+
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// $Id$
+
+package com.suning.snfddal.test.update;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.suning.snfddal.test.BaseSampleCase;
+
+/**
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ *
+ */
+public class UpdateTestCase extends BaseSampleCase {
+
+    private static final int BASE_ID = 4000000;
+    private static final int ROWS = 8;
+
+    public int executeUpdate(String sql, Object... params) throws SQLException {
+        Connection conn = null;
+        PreparedStatement statement = null;
+        try {
+            conn = dataSource.getConnection();
+            statement = conn.prepareStatement(sql);
+            int index = 1;
+            for (Object object : params) {
+                statement.setObject(index++, object);
+            }
+            return statement.executeUpdate();
+        } finally {
+            close(conn, statement, null);
+        }
+    }
+
+    public int queryCount(String sql, Object... params) throws SQLException {
+        Connection conn = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            conn = dataSource.getConnection();
+            statement = conn.prepareStatement(sql);
+            int index = 1;
+            for (Object object : params) {
+                statement.setObject(index++, object);
+            }
+            resultSet = statement.executeQuery();
+            Assert.assertTrue(resultSet.next());
+            return resultSet.getInt(1);
+        } finally {
+            close(conn, statement, resultSet);
+        }
+    }
+
+    /**
+     * Begin a transaction that holds the lock of a student row, so that
+     * the statements of other connections on the row wait for it.
+     */
+    private Connection lockStudent(int id) throws SQLException {
+        Connection conn = dataSource.getConnection();
+        PreparedStatement statement = null;
+        try {
+            conn.setAutoCommit(false);
+            statement = conn.prepareStatement("UPDATE t_student SET f_address = ? WHERE f_student_id = ?");
+            statement.setObject(1, "locked");
+            statement.setObject(2, id);
+            Assert.assertEquals(1, statement.executeUpdate());
+        } catch (SQLException e) {
+            close(conn, statement, null);
+            throw e;
+        }
+        close(null, statement, null);
+        return conn;
+    }
+
+    private void rollback(Connection conn) throws SQLException {
+        try {
+            conn.rollback();
+        } finally {
+            close(conn, null, null);
+        }
+    }
+
+    /**
+     * Insert the rows of the test, the ids are 3 apart, so that the rows go
+     * to all shards.
+     */
+    private void insertStudents() throws SQLException {
+        executeUpdate("DELETE FROM t_student WHERE f_student_id >= ? AND f_student_id < ?", BASE_ID,
+                BASE_ID + ROWS * 3);
+        for (int i = 0; i < ROWS; i++) {
+            int id = BASE_ID + i * 3;
+            executeUpdate("INSERT INTO t_student (f_student_id,f_student_no,f_name) VALUES (?,?,?)", id,
+                    "update-" + id, "学生-" + id);
+        }
+    }
+
+    @Test
+    public void testUpdateWithRouting() throws SQLException {
+        insertStudents();
+        int count = executeUpdate("UPDATE t_student SET f_address = ? WHERE f_student_id >= ? AND f_student_id < ?",
+                "南京", BASE_ID, BASE_ID + ROWS * 3);
+        Assert.assertEquals(ROWS, count);
+        count = executeUpdate("UPDATE t_student SET f_address = ? WHERE f_student_id = ?", "上海", BASE_ID + 3);
+        Assert.assertEquals(1, count);
+        count = queryCount("SELECT count(*) FROM t_student WHERE f_student_id >= ? AND f_student_id < ? AND f_address = ?",
+                BASE_ID, BASE_ID + ROWS * 3, "南京");
+        Assert.assertEquals(ROWS - 1, count);
+    }
+
+    @Test
+    public void testUpdateWithInList() throws SQLException {
+        insertStudents();
+        int count = executeUpdate("UPDATE t_student SET f_address = ? WHERE f_student_id IN (?,?,?)", "北京",
+                BASE_ID, BASE_ID + 3, BASE_ID + 9);
+        Assert.assertEquals(3, count);
+    }
+
+    @Test
+    public void testUpdateWithExpression() throws SQLException {
+        insertStudents();
+        int count = executeUpdate("UPDATE t_student SET f_sex = ? WHERE f_student_id >= ? AND f_student_id < ?", 2,
+                BASE_ID, BASE_ID + ROWS * 3);
+        Assert.assertEquals(ROWS, count);
+        // the shards compute the new values of their rows
+        count = executeUpdate("UPDATE t_student SET f_sex = f_sex * 3 + 1 WHERE f_student_id >= ? AND f_student_id < ?",
+                BASE_ID, BASE_ID + ROWS * 3);
+        Assert.assertEquals(ROWS, count);
+        count = queryCount("SELECT sum(f_sex) FROM t_student WHERE f_student_id >= ? AND f_student_id < ?", BASE_ID,
+                BASE_ID + ROWS * 3);
+        Assert.assertEquals(ROWS * 7, count);
+    }
+
+    @Test
+    public void testDeleteWithInList() throws SQLException {
+        insertStudents();
+        int count = executeUpdate("DELETE FROM t_student WHERE f_student_id IN (?,?,?,?)", BASE_ID, BASE_ID + 3,
+                BASE_ID + 9, BASE_ID + 1);
+        Assert.assertEquals(3, count);
+        count = queryCount("SELECT count(*) FROM t_student WHERE f_student_id >= ? AND f_student_id < ?", BASE_ID,
+                BASE_ID + ROWS * 3);
+        Assert.assertEquals(ROWS - 3, count);
+    }
+
+    @Test
+    public void testDeleteWithRouting() throws SQLException {
+        insertStudents();
+        int count = executeUpdate("DELETE FROM t_student WHERE f_student_id = ?", BASE_ID);
+        Assert.assertEquals(1, count);
+        count = executeUpdate("DELETE FROM t_student WHERE f_student_id >= ? AND f_student_id < ?", BASE_ID,
+                BASE_ID + ROWS * 3);
+        Assert.assertEquals(ROWS - 1, count);
+        count = queryCount("SELECT count(*) FROM t_student WHERE f_student_id >= ? AND f_student_id < ?", BASE_ID,
+                BASE_ID + ROWS * 3);
+        Assert.assertEquals(0, count);
+    }
+
+    @Test
+    public void testUpdateTimeout() throws SQLException {
+        insertStudents();
+        Connection lock = lockStudent(BASE_ID);
+        Connection conn = null;
+        PreparedStatement statement = null;
+        long start = System.currentTimeMillis();
+        try {
+            conn = dataSource.getConnection();
+            statement = conn.prepareStatement("UPDATE t_student SET f_address = ? WHERE f_student_id = ?");
+            statement.setQueryTimeout(1);
+            statement.setObject(1, "南京");
+            statement.setObject(2, BASE_ID);
+            try {
+                statement.executeUpdate();
+                Assert.fail();
+            } catch (SQLException e) {
+                // expected
+            }
+            // the statement of the shard timed out, not the lock wait of the shard
+            Assert.assertTrue(System.currentTimeMillis() - start < 10000);
+        } finally {
+            close(conn, statement, null);
+            rollback(lock);
+        }
+        int count = queryCount("SELECT count(*) FROM t_student WHERE f_student_id = ? AND f_address = ?", BASE_ID,
+                "南京");
+        Assert.assertEquals(0, count);
+    }
+
+    @Test
+    public void testUpdateCancel() throws Exception {
+        insertStudents();
+        Connection lock = lockStudent(BASE_ID);
+        Connection conn = null;
+        PreparedStatement statement = null;
+        try {
+            conn = dataSource.getConnection();
+            statement = conn.prepareStatement("UPDATE t_student SET f_address = ? WHERE f_student_id = ?");
+            statement.setObject(1, "南京");
+            statement.setObject(2, BASE_ID);
+            final PreparedStatement waiting = statement;
+            final AtomicReference<Exception> error = new AtomicReference<Exception>();
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        waiting.executeUpdate();
+                    } catch (Exception e) {
+                        error.set(e);
+                    }
+                }
+            };
+            thread.start();
+            // let the statement of the shard wait for the lock
+            Thread.sleep(1000);
+            long start = System.currentTimeMillis();
+            statement.cancel();
+            thread.join(10000);
+            // the statement of the shard was cancelled, not the lock wait of the shard
+            Assert.assertFalse(thread.isAlive());
+            Assert.assertTrue(System.currentTimeMillis() - start < 10000);
+            Assert.assertTrue(error.get() instanceof SQLException);
+        } finally {
+            close(conn, statement, null);
+            rollback(lock);
+        }
+        int count = queryCount("SELECT count(*) FROM t_student WHERE f_student_id = ? AND f_address = ?", BASE_ID,
+                "南京");
+        Assert.assertEquals(0, count);
+    }
+
+    @Test
+    public void testDeleteBroadcast() throws SQLException {
+        int id = BASE_ID;
+        executeUpdate("DELETE FROM t_school WHERE f_id = ?", id);
+        executeUpdate("INSERT INTO t_school (f_id,f_name) VALUES (?,?)", id, "学校-" + id);
+        // with a LIMIT the rows are deleted one by one, from all copies
+        int count = executeUpdate("DELETE FROM t_school WHERE f_id = ? LIMIT 1", id);
+        Assert.assertEquals(1, count);
+        count = queryCount("SELECT count(*) FROM t_school WHERE f_id = ?", id);
+        Assert.assertEquals(0, count);
+    }
+
+}